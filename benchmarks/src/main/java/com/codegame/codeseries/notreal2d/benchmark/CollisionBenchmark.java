@@ -0,0 +1,85 @@
+package com.codegame.codeseries.notreal2d.benchmark;
+
+import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.Defaults;
+import com.codegame.codeseries.notreal2d.World;
+import com.codegame.codeseries.notreal2d.form.CircularForm;
+import com.codegame.codeseries.notreal2d.listener.CollisionListenerAdapter;
+import org.openjdk.jmh.annotations.*;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resolving a single collision (impact, surface friction and pushing bodies apart). Measures a step of a world
+ * with a single iteration and two bodies, which are placed into contact before each step. The {@link #separated()}
+ * benchmark measures the same step without a contact and should be subtracted from the {@link #colliding()} one.
+ * <p>
+ * The {@code vector3D} variant resolves the contact with {@link Vector3DCollisionResolver}, the {@code Vector3D} based
+ * resolution the engine used before, and serves as a baseline. The {@code scalar} variant registers a pass-through
+ * listener, so both variants pay for the same listener dispatch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+    @Param({"scalar", "vector3D"})
+    public String impulseResolution;
+
+    private World world;
+    private Body bodyA;
+    private Body bodyB;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        world = new World(1, Defaults.STEP_COUNT_PER_TIME_UNIT);
+
+        if ("vector3D".equals(impulseResolution)) {
+            world.registerCollisionListener(new Vector3DCollisionResolver(world.getEpsilon()), "resolver");
+        } else {
+            world.registerCollisionListener(new CollisionListenerAdapter(), "resolver");
+        }
+
+        bodyA = newBody(1.0D);
+        world.addBody(bodyA);
+
+        bodyB = newBody(2.0D);
+        world.addBody(bodyB);
+    }
+
+    @Benchmark
+    public World colliding() {
+        resetBodies(1.9D);
+        world.proceed();
+        return world;
+    }
+
+    @Benchmark
+    public World separated() {
+        resetBodies(10.0D);
+        world.proceed();
+        return world;
+    }
+
+    private void resetBodies(double distance) {
+        bodyA.setPosition(0.0D, 0.0D);
+        bodyA.setVelocity(10.0D, 1.0D);
+        bodyA.setAngularVelocity(0.5D);
+
+        bodyB.setPosition(distance, 0.1D);
+        bodyB.setVelocity(-10.0D, 0.0D);
+        bodyB.setAngularVelocity(-0.5D);
+    }
+
+    @Nonnull
+    private static Body newBody(double mass) {
+        Body body = new Body();
+        body.setForm(new CircularForm(1.0D));
+        body.setMass(mass);
+        body.setSurfaceFrictionFactor(0.5D);
+        return body;
+    }
+}
@@ -0,0 +1,221 @@
+package com.codegame.codeseries.notreal2d.benchmark;
+
+import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.World;
+import com.codegame.codeseries.notreal2d.form.ArcForm;
+import com.codegame.codeseries.notreal2d.form.CircularForm;
+import com.codegame.codeseries.notreal2d.form.Form;
+import com.codegame.codeseries.notreal2d.form.LinearForm;
+import com.codegame.codeseries.notreal2d.form.RectangularForm;
+import com.codegame.codeseries.notreal2d.provider.BidirectionalMovementFrictionProvider;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+import static com.codeforces.commons.math.Math.*;
+
+/**
+ * Deterministic scenes resembling CodeSeries games. Bodies are placed on a jittered grid, so the density of a scene does
+ * not depend on the count of bodies.
+ */
+public enum Scene {
+    /**
+     * Circles of different size moving in random directions.
+     */
+    CIRCLE_CROWD {
+        @Override
+        void populate(@Nonnull World world, int bodyCount, @Nonnull Random random) {
+            int columnCount = getColumnCount(bodyCount);
+
+            for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+                Body body = newCircle(0.5D + 0.5D * random.nextDouble());
+                body.setMovementFrictionFactor(0.1D);
+                world.addBody(body);
+
+                placeOnGrid(body, bodyIndex, columnCount, 2.5D, random);
+                setRandomVelocity(body, 5.0D, random);
+            }
+        }
+    },
+
+    /**
+     * Rectangles with car-like friction driving along their direction.
+     */
+    RECTANGLE_CARS {
+        @Override
+        void populate(@Nonnull World world, int bodyCount, @Nonnull Random random) {
+            int columnCount = getColumnCount(bodyCount);
+
+            for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+                Body body = new Body();
+                body.setForm(new RectangularForm(2.0D, 1.0D));
+                body.setMass(1.0D + random.nextDouble());
+                body.setMovementFrictionProvider(new BidirectionalMovementFrictionProvider(0.1D, 2.0D));
+                body.setRotationFrictionFactor(0.1D);
+                world.addBody(body);
+
+                placeOnGrid(body, bodyIndex, columnCount, 4.0D, random);
+                body.setAngle(DOUBLE_PI * random.nextDouble());
+
+                double speed = 10.0D * random.nextDouble();
+                body.setVelocity(speed * cos(body.getAngle()), speed * sin(body.getAngle()));
+                body.setAngularVelocity(random.nextDouble() - 0.5D);
+            }
+        }
+    },
+
+    /**
+     * Rectangle cars racing in a few lanes of a long horizontal track, so bodies mostly move along the X axis.
+     */
+    RACING_TRACK {
+        private static final int LANE_COUNT = 8;
+
+        @Override
+        void populate(@Nonnull World world, int bodyCount, @Nonnull Random random) {
+            int columnCount = max((bodyCount + LANE_COUNT - 1) / LANE_COUNT, 1);
+
+            for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+                Body body = new Body();
+                body.setForm(new RectangularForm(2.0D, 1.0D));
+                body.setMass(1.0D + random.nextDouble());
+                body.setMovementFrictionProvider(new BidirectionalMovementFrictionProvider(0.1D, 2.0D));
+                body.setRotationFrictionFactor(0.1D);
+                world.addBody(body);
+
+                placeOnGrid(body, bodyIndex, columnCount, 4.0D, random);
+                body.setAngle(0.2D * (random.nextDouble() - 0.5D));
+
+                double speed = 5.0D + 10.0D * random.nextDouble();
+                body.setVelocity(speed * cos(body.getAngle()), speed * sin(body.getAngle()));
+            }
+        }
+    },
+
+    /**
+     * Circles bouncing inside a square arena of static lines with rounded corners.
+     */
+    ARENA {
+        private static final int WALL_COUNT = 8;
+
+        @Override
+        void populate(@Nonnull World world, int bodyCount, @Nonnull Random random) {
+            int circleCount = max(bodyCount - WALL_COUNT, 0);
+            int columnCount = getColumnCount(circleCount);
+            double spacing = 2.5D;
+
+            double cornerRadius = 2.0D * spacing;
+            double size = (columnCount + 1) * spacing + 2.0D * cornerRadius;
+            double left = -cornerRadius - spacing;
+            double right = left + size;
+            double center = 0.5D * (left + right);
+            double wallLength = size - 2.0D * cornerRadius;
+
+            addWall(world, new LinearForm(wallLength), center, left, 0.0D);
+            addWall(world, new LinearForm(wallLength), center, right, 0.0D);
+            addWall(world, new LinearForm(wallLength), left, center, HALF_PI);
+            addWall(world, new LinearForm(wallLength), right, center, HALF_PI);
+
+            double cornerMin = left + cornerRadius;
+            double cornerMax = right - cornerRadius;
+
+            addWall(world, new ArcForm(cornerRadius, 0.0D, HALF_PI), cornerMax, cornerMax, 0.0D);
+            addWall(world, new ArcForm(cornerRadius, HALF_PI, HALF_PI), cornerMin, cornerMax, 0.0D);
+            addWall(world, new ArcForm(cornerRadius, PI, HALF_PI), cornerMin, cornerMin, 0.0D);
+            addWall(world, new ArcForm(cornerRadius, -HALF_PI, HALF_PI), cornerMax, cornerMin, 0.0D);
+
+            for (int bodyIndex = 0; bodyIndex < circleCount; ++bodyIndex) {
+                Body body = newCircle(0.5D + 0.25D * random.nextDouble());
+                world.addBody(body);
+
+                placeOnGrid(body, bodyIndex, columnCount, spacing, random);
+                setRandomVelocity(body, 20.0D, random);
+            }
+        }
+    },
+
+    /**
+     * Overlapping circles and rectangles at rest on a static floor. Most of the time is spent pushing bodies apart.
+     */
+    DENSE_PILE {
+        @Override
+        void populate(@Nonnull World world, int bodyCount, @Nonnull Random random) {
+            int pileBodyCount = max(bodyCount - 1, 0);
+            int columnCount = getColumnCount(pileBodyCount);
+            double spacing = 1.5D;
+
+            double floorLength = (columnCount + 2) * spacing;
+            addWall(world, new LinearForm(floorLength), 0.5D * (columnCount - 1) * spacing, -spacing, 0.0D);
+
+            for (int bodyIndex = 0; bodyIndex < pileBodyCount; ++bodyIndex) {
+                Body body;
+
+                if (random.nextBoolean()) {
+                    body = newCircle(0.9D + 0.1D * random.nextDouble());
+                } else {
+                    body = new Body();
+                    body.setForm(new RectangularForm(1.8D, 1.2D));
+                    body.setMass(1.0D + random.nextDouble());
+                }
+
+                body.setMovementFrictionFactor(1.0D);
+                world.addBody(body);
+
+                placeOnGrid(body, bodyIndex, columnCount, spacing, random);
+                body.setAngle(HALF_PI * random.nextDouble());
+            }
+        }
+    };
+
+    /**
+     * Adds {@code bodyCount} bodies of this scene to the empty {@code world}. The same {@code seed} produces the same
+     * scene.
+     */
+    public void populate(@Nonnull World world, int bodyCount, long seed) {
+        if (bodyCount < 0) {
+            throw new IllegalArgumentException("Argument 'bodyCount' is negative.");
+        }
+
+        populate(world, bodyCount, new Random(seed));
+    }
+
+    abstract void populate(@Nonnull World world, int bodyCount, @Nonnull Random random);
+
+    private static int getColumnCount(int bodyCount) {
+        return max((int) ceil(sqrt(bodyCount)), 1);
+    }
+
+    @Nonnull
+    private static Body newCircle(double radius) {
+        Body body = new Body();
+        body.setForm(new CircularForm(radius));
+        body.setMass(radius * radius);
+        return body;
+    }
+
+    private static void addWall(@Nonnull World world, @Nonnull Form form, double x, double y, double angle) {
+        Body wall = new Body();
+        wall.setForm(form);
+        wall.setMass(Double.POSITIVE_INFINITY);
+        world.addBody(wall);
+
+        wall.setPosition(x, y);
+        wall.setAngle(angle);
+    }
+
+    private static void placeOnGrid(
+            @Nonnull Body body, int bodyIndex, int columnCount, double spacing, @Nonnull Random random) {
+        double jitter = 0.1D * spacing;
+
+        body.setPosition(
+                bodyIndex % columnCount * spacing + jitter * (random.nextDouble() - 0.5D),
+                bodyIndex / columnCount * spacing + jitter * (random.nextDouble() - 0.5D)
+        );
+    }
+
+    private static void setRandomVelocity(@Nonnull Body body, double maxSpeed, @Nonnull Random random) {
+        double angle = DOUBLE_PI * random.nextDouble();
+        double speed = maxSpeed * random.nextDouble();
+
+        body.setVelocity(speed * cos(angle), speed * sin(angle));
+    }
+}
@@ -0,0 +1,190 @@
+package com.codegame.codeseries.notreal2d.benchmark;
+
+import com.codeforces.commons.geometry.Point2D;
+import com.codeforces.commons.geometry.Vector2D;
+import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.collision.CollisionInfo;
+import com.codegame.codeseries.notreal2d.listener.CollisionListenerAdapter;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import javax.annotation.Nonnull;
+
+import static com.codeforces.commons.math.Math.*;
+
+/**
+ * Baseline of {@link CollisionBenchmark}: resolves collisions the way the engine did before the impulse resolution was
+ * rewritten with scalar 2D math, building {@link Vector3D} temporaries and computing the angular parts with 3D cross
+ * products. Resolves impact, surface friction and pushes bodies apart itself, then cancels the resolution of the engine.
+ */
+public class Vector3DCollisionResolver extends CollisionListenerAdapter {
+    private final double epsilon;
+    private final double squaredEpsilon;
+
+    public Vector3DCollisionResolver(double epsilon) {
+        this.epsilon = epsilon;
+        this.squaredEpsilon = epsilon * epsilon;
+    }
+
+    @Override
+    public boolean beforeResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+        Body bodyA = collisionInfo.getBodyA();
+        Body bodyB = collisionInfo.getBodyB();
+
+        Vector3D collisionNormalB = toVector3D(collisionInfo.getNormalB());
+
+        Vector3D vectorAC = toVector3D(bodyA.getCenterOfMass(), collisionInfo.getPoint());
+        Vector3D vectorBC = toVector3D(bodyB.getCenterOfMass(), collisionInfo.getPoint());
+
+        Vector3D angularVelocityPartAC = toVector3DZ(bodyA.getAngularVelocity()).crossProduct(vectorAC);
+        Vector3D angularVelocityPartBC = toVector3DZ(bodyB.getAngularVelocity()).crossProduct(vectorBC);
+
+        Vector3D velocityAC = toVector3D(bodyA.getVelocity()).add(angularVelocityPartAC);
+        Vector3D velocityBC = toVector3D(bodyB.getVelocity()).add(angularVelocityPartBC);
+
+        Vector3D relativeVelocityC = velocityAC.subtract(velocityBC);
+        double normalRelativeVelocityLengthC = -relativeVelocityC.dotProduct(collisionNormalB);
+
+        if (normalRelativeVelocityLengthC > -epsilon) {
+            resolveImpact(bodyA, bodyB, collisionNormalB, vectorAC, vectorBC, relativeVelocityC);
+            resolveSurfaceFriction(bodyA, bodyB, collisionNormalB, vectorAC, vectorBC, relativeVelocityC);
+        }
+
+        if (collisionInfo.getDepth() >= epsilon) {
+            pushBackBodies(bodyA, bodyB, collisionInfo);
+        }
+
+        bodyA.normalizeAngle();
+        bodyB.normalizeAngle();
+
+        return false;
+    }
+
+    @SuppressWarnings("Duplicates")
+    private void resolveImpact(
+            @Nonnull Body bodyA, @Nonnull Body bodyB, @Nonnull Vector3D collisionNormalB,
+            @Nonnull Vector3D vectorAC, @Nonnull Vector3D vectorBC, @Nonnull Vector3D relativeVelocityC) {
+        double momentumTransferFactor = bodyA.getMomentumTransferFactor() * bodyB.getMomentumTransferFactor();
+
+        Vector3D denominatorPartA = vectorAC.crossProduct(collisionNormalB)
+                .scalarMultiply(bodyA.getInvertedAngularMass()).crossProduct(vectorAC);
+        Vector3D denominatorPartB = vectorBC.crossProduct(collisionNormalB)
+                .scalarMultiply(bodyB.getInvertedAngularMass()).crossProduct(vectorBC);
+
+        double denominator = bodyA.getInvertedMass() + bodyB.getInvertedMass()
+                + collisionNormalB.dotProduct(denominatorPartA.add(denominatorPartB));
+
+        double impulseChange = -1.0D * (1.0D + momentumTransferFactor) * relativeVelocityC.dotProduct(collisionNormalB)
+                / denominator;
+
+        if (abs(impulseChange) < epsilon) {
+            return;
+        }
+
+        if (!bodyA.isStatic()) {
+            Vector3D velocityChangeA = collisionNormalB.scalarMultiply(impulseChange * bodyA.getInvertedMass());
+            Vector3D newVelocityA = toVector3D(bodyA.getVelocity()).add(velocityChangeA);
+            bodyA.setVelocity(newVelocityA.getX(), newVelocityA.getY());
+
+            Vector3D angularVelocityChangeA = vectorAC.crossProduct(collisionNormalB.scalarMultiply(impulseChange))
+                    .scalarMultiply(bodyA.getInvertedAngularMass());
+            Vector3D newAngularVelocityA = toVector3DZ(bodyA.getAngularVelocity()).add(angularVelocityChangeA);
+            bodyA.setAngularVelocity(newAngularVelocityA.getZ());
+        }
+
+        if (!bodyB.isStatic()) {
+            Vector3D velocityChangeB = collisionNormalB.scalarMultiply(impulseChange * bodyB.getInvertedMass());
+            Vector3D newVelocityB = toVector3D(bodyB.getVelocity()).subtract(velocityChangeB);
+            bodyB.setVelocity(newVelocityB.getX(), newVelocityB.getY());
+
+            Vector3D angularVelocityChangeB = vectorBC.crossProduct(collisionNormalB.scalarMultiply(impulseChange))
+                    .scalarMultiply(bodyB.getInvertedAngularMass());
+            Vector3D newAngularVelocityB = toVector3DZ(bodyB.getAngularVelocity()).subtract(angularVelocityChangeB);
+            bodyB.setAngularVelocity(newAngularVelocityB.getZ());
+        }
+    }
+
+    @SuppressWarnings("Duplicates")
+    private void resolveSurfaceFriction(
+            @Nonnull Body bodyA, @Nonnull Body bodyB, @Nonnull Vector3D collisionNormalB,
+            @Nonnull Vector3D vectorAC, @Nonnull Vector3D vectorBC, @Nonnull Vector3D relativeVelocityC) {
+        Vector3D tangent = relativeVelocityC
+                .subtract(collisionNormalB.scalarMultiply(relativeVelocityC.dotProduct(collisionNormalB)));
+
+        if (tangent.getNormSq() < squaredEpsilon) {
+            return;
+        }
+
+        tangent = tangent.normalize();
+
+        double surfaceFriction = sqrt(bodyA.getSurfaceFrictionFactor() * bodyB.getSurfaceFrictionFactor())
+                * SQRT_2 * abs(relativeVelocityC.dotProduct(collisionNormalB)) / relativeVelocityC.getNorm();
+
+        if (surfaceFriction < epsilon) {
+            return;
+        }
+
+        Vector3D denominatorPartA = vectorAC.crossProduct(tangent)
+                .scalarMultiply(bodyA.getInvertedAngularMass()).crossProduct(vectorAC);
+        Vector3D denominatorPartB = vectorBC.crossProduct(tangent)
+                .scalarMultiply(bodyB.getInvertedAngularMass()).crossProduct(vectorBC);
+
+        double denominator = bodyA.getInvertedMass() + bodyB.getInvertedMass()
+                + tangent.dotProduct(denominatorPartA.add(denominatorPartB));
+
+        double impulseChange = -1.0D * surfaceFriction * relativeVelocityC.dotProduct(tangent)
+                / denominator;
+
+        if (abs(impulseChange) < epsilon) {
+            return;
+        }
+
+        if (!bodyA.isStatic()) {
+            Vector3D velocityChangeA = tangent.scalarMultiply(impulseChange * bodyA.getInvertedMass());
+            Vector3D newVelocityA = toVector3D(bodyA.getVelocity()).add(velocityChangeA);
+            bodyA.setVelocity(newVelocityA.getX(), newVelocityA.getY());
+
+            Vector3D angularVelocityChangeA = vectorAC.crossProduct(tangent.scalarMultiply(impulseChange))
+                    .scalarMultiply(bodyA.getInvertedAngularMass());
+            Vector3D newAngularVelocityA = toVector3DZ(bodyA.getAngularVelocity()).add(angularVelocityChangeA);
+            bodyA.setAngularVelocity(newAngularVelocityA.getZ());
+        }
+
+        if (!bodyB.isStatic()) {
+            Vector3D velocityChangeB = tangent.scalarMultiply(impulseChange * bodyB.getInvertedMass());
+            Vector3D newVelocityB = toVector3D(bodyB.getVelocity()).subtract(velocityChangeB);
+            bodyB.setVelocity(newVelocityB.getX(), newVelocityB.getY());
+
+            Vector3D angularVelocityChangeB = vectorBC.crossProduct(tangent.scalarMultiply(impulseChange))
+                    .scalarMultiply(bodyB.getInvertedAngularMass());
+            Vector3D newAngularVelocityB = toVector3DZ(bodyB.getAngularVelocity()).subtract(angularVelocityChangeB);
+            bodyB.setAngularVelocity(newAngularVelocityB.getZ());
+        }
+    }
+
+    private void pushBackBodies(@Nonnull Body bodyA, @Nonnull Body bodyB, @Nonnull CollisionInfo collisionInfo) {
+        if (bodyA.isStatic()) {
+            bodyB.getPosition().subtract(collisionInfo.getNormalB().multiply(collisionInfo.getDepth() + epsilon));
+        } else if (bodyB.isStatic()) {
+            bodyA.getPosition().add(collisionInfo.getNormalB().multiply(collisionInfo.getDepth() + epsilon));
+        } else {
+            Vector2D normalOffset = collisionInfo.getNormalB().multiply(0.5D * (collisionInfo.getDepth() + epsilon));
+            bodyA.getPosition().add(normalOffset);
+            bodyB.getPosition().subtract(normalOffset);
+        }
+    }
+
+    @Nonnull
+    private static Vector3D toVector3DZ(double z) {
+        return new Vector3D(0.0D, 0.0D, z);
+    }
+
+    @Nonnull
+    private static Vector3D toVector3D(@Nonnull Vector2D vector) {
+        return new Vector3D(vector.getX(), vector.getY(), 0.0D);
+    }
+
+    @Nonnull
+    private static Vector3D toVector3D(@Nonnull Point2D point1, @Nonnull Point2D point2) {
+        return toVector3D(new Vector2D(point1, point2));
+    }
+}
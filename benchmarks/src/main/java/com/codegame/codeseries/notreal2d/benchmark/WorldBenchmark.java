@@ -0,0 +1,110 @@
+package com.codegame.codeseries.notreal2d.benchmark;
+
+import com.codegame.codeseries.notreal2d.Defaults;
+import com.codegame.codeseries.notreal2d.World;
+import com.codegame.codeseries.notreal2d.bodylist.AabbTreeBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.BodyList;
+import com.codegame.codeseries.notreal2d.bodylist.CellSpaceBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.HierarchicalGridBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.SimpleBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.SweepAndPruneBodyList;
+import org.openjdk.jmh.annotations.*;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link World#proceed()} for generated scenes. The world is rebuilt before each measurement iteration,
+ * so each iteration starts from the same state.
+ * <p>
+ * The full parameter space is large and {@link SimpleBodyList} checks all pairs of bodies, so narrow it for a quick
+ * run, e.g. {@code java -jar target/benchmarks.jar WorldBenchmark -p bodyList=CELL_SPACE -p bodyCount=10000}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WorldBenchmark {
+    public static final long SEED = 20150602L;
+
+    @Param({"SIMPLE", "CELL_SPACE", "AABB_TREE", "SWEEP_AND_PRUNE", "HIERARCHICAL_GRID"})
+    public BodyListType bodyList;
+
+    @Param({"false", "true"})
+    public boolean multithreaded;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int bodyCount;
+
+    @Param({"CIRCLE_CROWD", "RECTANGLE_CARS", "RACING_TRACK", "ARENA", "DENSE_PILE"})
+    public Scene scene;
+
+    private World world;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        world = new World(
+                Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT, Defaults.EPSILON,
+                bodyList.newBodyList(), null, multithreaded
+        );
+
+        scene.populate(world, bodyCount, SEED);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        world.close();
+    }
+
+    @Benchmark
+    public void proceed() {
+        world.proceed();
+    }
+
+    public enum BodyListType {
+        SIMPLE {
+            @Nonnull
+            @Override
+            BodyList newBodyList() {
+                return new SimpleBodyList();
+            }
+        },
+
+        CELL_SPACE {
+            @Nonnull
+            @Override
+            BodyList newBodyList() {
+                return new CellSpaceBodyList(2.5D, 10.0D);
+            }
+        },
+
+        AABB_TREE {
+            @Nonnull
+            @Override
+            BodyList newBodyList() {
+                return new AabbTreeBodyList();
+            }
+        },
+
+        SWEEP_AND_PRUNE {
+            @Nonnull
+            @Override
+            BodyList newBodyList() {
+                return new SweepAndPruneBodyList();
+            }
+        },
+
+        HIERARCHICAL_GRID {
+            @Nonnull
+            @Override
+            BodyList newBodyList() {
+                return new HierarchicalGridBodyList();
+            }
+        };
+
+        @Nonnull
+        abstract BodyList newBodyList();
+    }
+}
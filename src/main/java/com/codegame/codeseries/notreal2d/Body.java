@@ -27,7 +27,18 @@ public class Body {
     /**
      * Unique ID.
      */
-    private final long id = idGenerator.incrementAndGet();
+    private final long id;
+
+    /**
+     * The allocator of the ID or {@code null} if the ID is taken from the global generator.
+     */
+    @Nullable
+    private final BodyIdAllocator idAllocator;
+
+    /**
+     * The generation of the ID in the {@link #idAllocator} or {@code 0} if there is no allocator.
+     */
+    private final int idGeneration;
 
     /**
      * The name of this body.
@@ -87,6 +98,47 @@ public class Body {
      */
     private double surfaceFrictionFactor;
 
+    /**
+     * The movement of a bullet is checked for collisions along the whole path during each iteration, so a fast bullet
+     * stops at the first body on its way instead of passing through it. This check is more expensive than the regular
+     * collision detection and should be enabled for small fast bodies only.
+     */
+    private boolean bullet;
+
+    /**
+     * The collision categories this body belongs to, one category per bit.
+     */
+    private int categoryBits = 0x0001;
+
+    /**
+     * The collision categories this body collides with. Two bodies may collide only if the category bits of each body
+     * intersect the mask bits of the other one.
+     */
+    private int maskBits = 0xFFFFFFFF;
+
+    /**
+     * Bodies with the same non-zero group index always collide (positive index) or never collide (negative index)
+     * regardless of their category and mask bits.
+     */
+    private int groupIndex;
+
+    /**
+     * Sleeping bodies are not integrated by the world and do not search for collisions by themselves. A body is woken
+     * up by a contact with an awake body or by a change of its position, velocity, force or torque.
+     */
+    private boolean sleeping;
+
+    /**
+     * The count of consecutive steps this body has been moving slower than the world sleep thresholds.
+     */
+    private int restingStepCount;
+
+    /**
+     * The index of this body in the array of bodies of the current step of its world. The world checks that the index
+     * still points to this body before using it.
+     */
+    private int stepBodyIndex = -1;
+
     private final DynamicState currentState = new DynamicState();
     private DynamicState beforeStepState;
     private DynamicState beforeIterationState;
@@ -101,12 +153,117 @@ public class Body {
 
     private Map<String, Object> attributeByName;
 
-    private final int hashCode = Long.hashCode(id);
+    /**
+     * The accessor of a body list, which has assigned the {@link #bodyListSlot} to this body.
+     */
+    private BodyListSlotAccessor bodyListSlotOwner;
+    private int bodyListSlot = -1;
+
+    private final int hashCode;
+
+    /**
+     * Creates a body with an ID unique within the process.
+     */
+    public Body() {
+        this.id = idGenerator.incrementAndGet();
+        this.idAllocator = null;
+        this.idGeneration = 0;
+        this.hashCode = Long.hashCode(id);
+    }
+
+    /**
+     * Creates a body with an ID taken from the {@code idAllocator}. Such a body can be added only to a world using the
+     * same allocator.
+     */
+    public Body(@Nonnull BodyIdAllocator idAllocator) {
+        this.id = idAllocator.allocateId();
+        this.idAllocator = idAllocator;
+        this.idGeneration = idAllocator.getGeneration(id);
+        this.hashCode = Long.hashCode(id);
+    }
+
+    /**
+     * Creates a copy of the {@code body} with the same ID. The form and the movement friction provider are shared,
+     * position listeners are not copied. Subclasses overriding {@link #copy(BodyIdAllocator)} should call it to copy
+     * the state of the base class.
+     *
+     * @param idAllocator the ID allocator of the copy
+     */
+    protected Body(@Nonnull Body body, @Nullable BodyIdAllocator idAllocator) {
+        this.id = body.id;
+        this.idAllocator = idAllocator;
+        this.idGeneration = body.idGeneration;
+        this.hashCode = body.hashCode;
+
+        this.name = body.name;
+        this.form = body.form;
+        this.mass = body.mass;
+        this.invertedMass = body.invertedMass;
+        this.movementAirFrictionFactor = body.movementAirFrictionFactor;
+        this.rotationAirFrictionFactor = body.rotationAirFrictionFactor;
+        this.movementFrictionProvider = body.movementFrictionProvider;
+        this.rotationFrictionFactor = body.rotationFrictionFactor;
+        this.momentumTransferFactor = body.momentumTransferFactor;
+        this.surfaceFrictionFactor = body.surfaceFrictionFactor;
+        this.bullet = body.bullet;
+        this.categoryBits = body.categoryBits;
+        this.maskBits = body.maskBits;
+        this.groupIndex = body.groupIndex;
+        this.sleeping = body.sleeping;
+        this.restingStepCount = body.restingStepCount;
+
+        copyState(body.currentState, currentState);
+        this.beforeStepState = body.beforeStepState == null ? null : new DynamicState(body.beforeStepState);
+        this.beforeIterationState = body.beforeIterationState == null
+                ? null
+                : new DynamicState(body.beforeIterationState);
+
+        this.lastMovementAirFrictionFactor = body.lastMovementAirFrictionFactor;
+        this.lastMovementUpdateFactor = body.lastMovementUpdateFactor;
+        this.lastMovementTransferFactor = body.lastMovementTransferFactor;
+        this.lastRotationAirFrictionFactor = body.lastRotationAirFrictionFactor;
+        this.lastRotationUpdateFactor = body.lastRotationUpdateFactor;
+        this.lastRotationTransferFactor = body.lastRotationTransferFactor;
+
+        this.attributeByName = body.attributeByName == null ? null : new HashMap<>(body.attributeByName);
+    }
+
+    /**
+     * Creates a copy of this body with the same ID to be added to a {@link World#fork() forked world}. Subclasses
+     * should override this method to return a copy of their own class, otherwise the copy is a plain {@code Body}.
+     *
+     * @param idAllocator the ID allocator of the forked world
+     */
+    @Nonnull
+    protected Body copy(@Nullable BodyIdAllocator idAllocator) {
+        return new Body(this, idAllocator);
+    }
+
+    private static void copyState(@Nonnull DynamicState source, @Nonnull DynamicState target) {
+        target.getPosition().setX(source.getPosition().getX());
+        target.getPosition().setY(source.getPosition().getY());
+        target.setVelocity(source.getVelocity());
+        target.setForce(source.getForce());
+        target.setMedianVelocity(source.getMedianVelocity() == null ? null : source.getMedianVelocity().copy());
+        target.setAngle(source.getAngle());
+        target.setAngularVelocity(source.getAngularVelocity());
+        target.setMedianAngularVelocity(source.getMedianAngularVelocity());
+        target.setTorque(source.getTorque());
+    }
 
     public long getId() {
         return id;
     }
 
+    @Nullable
+    public BodyIdAllocator getIdAllocator() {
+        return idAllocator;
+    }
+
+    int getIdGeneration() {
+        return idGeneration;
+    }
+
     public String getName() {
         return name;
     }
@@ -271,6 +428,126 @@ public class Body {
         this.surfaceFrictionFactor = surfaceFrictionFactor;
     }
 
+    public boolean isBullet() {
+        return bullet;
+    }
+
+    public void setBullet(boolean bullet) {
+        this.bullet = bullet;
+    }
+
+    public int getCategoryBits() {
+        return categoryBits;
+    }
+
+    public void setCategoryBits(int categoryBits) {
+        this.categoryBits = categoryBits;
+    }
+
+    public int getMaskBits() {
+        return maskBits;
+    }
+
+    public void setMaskBits(int maskBits) {
+        this.maskBits = maskBits;
+    }
+
+    public int getGroupIndex() {
+        return groupIndex;
+    }
+
+    public void setGroupIndex(int groupIndex) {
+        this.groupIndex = groupIndex;
+    }
+
+    /**
+     * Checks collision filters of this body and the {@code otherBody}. Body lists skip the pairs of bodies, which
+     * should not collide, while searching for potential intersections.
+     *
+     * @return {@code true} if the bodies have the same positive group index or if they have different or zero group
+     * indexes and the category bits of each body intersect the mask bits of the other one
+     */
+    public boolean shouldCollide(@Nonnull Body otherBody) {
+        if (groupIndex != 0 && groupIndex == otherBody.groupIndex) {
+            return groupIndex > 0;
+        }
+
+        return (categoryBits & otherBody.maskBits) != 0 && (otherBody.categoryBits & maskBits) != 0;
+    }
+
+    public boolean isSleeping() {
+        return sleeping;
+    }
+
+    /**
+     * Puts this body to sleep and stops it.
+     */
+    public void sleep() {
+        sleeping = true;
+        restingStepCount = 0;
+
+        Vector2D velocity = currentState.getVelocity();
+        if (velocity != null) {
+            velocity.setX(0.0D);
+            velocity.setY(0.0D);
+        }
+
+        Vector2D medianVelocity = currentState.getMedianVelocity();
+        if (medianVelocity != null) {
+            medianVelocity.setX(0.0D);
+            medianVelocity.setY(0.0D);
+        }
+
+        currentState.setAngularVelocity(0.0D);
+        currentState.setMedianAngularVelocity(0.0D);
+    }
+
+    public void wakeUp() {
+        if (sleeping) {
+            sleeping = false;
+            restingStepCount = 0;
+        }
+    }
+
+    /**
+     * Changes the sleeping flag without stopping or waking up this body. Used to restore the state of a body.
+     */
+    void setSleeping(boolean sleeping) {
+        this.sleeping = sleeping;
+    }
+
+    int getRestingStepCount() {
+        return restingStepCount;
+    }
+
+    void setRestingStepCount(int restingStepCount) {
+        this.restingStepCount = restingStepCount;
+    }
+
+    int getStepBodyIndex() {
+        return stepBodyIndex;
+    }
+
+    void setStepBodyIndex(int stepBodyIndex) {
+        this.stepBodyIndex = stepBodyIndex;
+    }
+
+    int getBodyListSlot(@Nonnull BodyListSlotAccessor accessor) {
+        return bodyListSlotOwner == accessor ? bodyListSlot : -1;
+    }
+
+    void setBodyListSlot(@Nonnull BodyListSlotAccessor accessor, int slot) {
+        this.bodyListSlotOwner = accessor;
+        this.bodyListSlot = slot;
+    }
+
+    void resetBodyListSlot(@Nonnull BodyListSlotAccessor accessor) {
+        if (bodyListSlotOwner == accessor) {
+            bodyListSlotOwner = null;
+            bodyListSlot = -1;
+        }
+    }
+
     public DynamicState getCurrentState() {
         return currentState;
     }
@@ -296,10 +573,12 @@ public class Body {
     }
 
     public void setPosition(Point2D position) {
+        wakeUp();
         currentState.setPosition(position);
     }
 
     public void setPosition(double x, double y) {
+        wakeUp();
         Point2D position = currentState.getPosition();
         if (position == null) {
             currentState.setPosition(new Point2D(x, y));
@@ -315,6 +594,7 @@ public class Body {
     }
 
     public void setX(double x) {
+        wakeUp();
         Point2D position = currentState.getPosition();
         if (position == null) {
             currentState.setPosition(new Point2D(x, 0.0D));
@@ -329,6 +609,7 @@ public class Body {
     }
 
     public void setY(double y) {
+        wakeUp();
         Point2D position = currentState.getPosition();
         if (position == null) {
             currentState.setPosition(new Point2D(0.0D, y));
@@ -342,10 +623,12 @@ public class Body {
     }
 
     public void setVelocity(Vector2D velocity) {
+        wakeUp();
         currentState.setVelocity(velocity);
     }
 
     public void setVelocity(double x, double y) {
+        wakeUp();
         Vector2D velocity = currentState.getVelocity();
         if (velocity == null) {
             currentState.setVelocity(new Vector2D(x, y));
@@ -361,6 +644,7 @@ public class Body {
     }
 
     public void setVelocityX(double x) {
+        wakeUp();
         Vector2D velocity = currentState.getVelocity();
         if (velocity == null) {
             currentState.setVelocity(new Vector2D(x, 0.0D));
@@ -375,6 +659,7 @@ public class Body {
     }
 
     public void setVelocityY(double y) {
+        wakeUp();
         Vector2D velocity = currentState.getVelocity();
         if (velocity == null) {
             currentState.setVelocity(new Vector2D(0.0D, y));
@@ -434,10 +719,12 @@ public class Body {
     }
 
     public void setForce(Vector2D force) {
+        wakeUp();
         currentState.setForce(force);
     }
 
     public void setForce(double x, double y) {
+        wakeUp();
         Vector2D force = currentState.getForce();
         if (force == null) {
             currentState.setForce(new Vector2D(x, y));
@@ -453,6 +740,7 @@ public class Body {
     }
 
     public void setForceX(double x) {
+        wakeUp();
         Vector2D force = currentState.getForce();
         if (force == null) {
             currentState.setForce(new Vector2D(x, 0.0D));
@@ -467,6 +755,7 @@ public class Body {
     }
 
     public void setForceY(double y) {
+        wakeUp();
         Vector2D force = currentState.getForce();
         if (force == null) {
             currentState.setForce(new Vector2D(0.0D, y));
@@ -480,6 +769,7 @@ public class Body {
     }
 
     public void setAngle(double angle) {
+        wakeUp();
         currentState.setAngle(angle);
     }
 
@@ -488,6 +778,7 @@ public class Body {
     }
 
     public void setAngularVelocity(double angularVelocity) {
+        wakeUp();
         currentState.setAngularVelocity(angularVelocity);
     }
 
@@ -504,6 +795,7 @@ public class Body {
     }
 
     public void setTorque(double torque) {
+        wakeUp();
         currentState.setTorque(torque);
     }
 
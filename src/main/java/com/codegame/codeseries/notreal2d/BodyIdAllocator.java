@@ -0,0 +1,106 @@
+package com.codegame.codeseries.notreal2d;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Allocates compact IDs of bodies starting from {@code 1}. Released IDs are reused before new ones, so IDs do not
+ * exceed the maximum count of bodies existing at the same time and arrays indexed by ID stay small and dense.
+ * <p>
+ * Unlike the global ID generator used by {@link Body#Body()}, allocators do not share any state, so worlds populated by
+ * different threads do not contend with each other.
+ * <p>
+ * Each ID has a generation, which is changed when the ID is released and when it is allocated again, so a body keeping
+ * a released ID can be told apart from the body that got the same ID later.
+ *
+ * @see World#setBodyIdAllocator(BodyIdAllocator)
+ */
+@ThreadSafe
+public final class BodyIdAllocator {
+    private long nextId = 1L;
+
+    private long[] releasedIds = new long[16];
+    private int releasedIdCount;
+
+    /**
+     * Generations by IDs. The generation is even while the ID is allocated and odd while it is released.
+     */
+    private int[] generations = new int[16];
+
+    public synchronized long allocateId() {
+        if (releasedIdCount > 0) {
+            long id = releasedIds[--releasedIdCount];
+            ++generations[(int) id];
+            return id;
+        }
+
+        if (nextId == generations.length) {
+            generations = Arrays.copyOf(generations, generations.length << 1);
+        }
+
+        return nextId++;
+    }
+
+    /**
+     * Makes the {@code id} available to following allocations. The ID should not be used by any body anymore.
+     */
+    public synchronized void releaseId(long id) {
+        if (!isAllocated(id)) {
+            throw new IllegalArgumentException("ID " + id + " is not allocated.");
+        }
+
+        if (releasedIdCount == releasedIds.length) {
+            releasedIds = Arrays.copyOf(releasedIds, releasedIdCount << 1);
+        }
+
+        releasedIds[releasedIdCount++] = id;
+        ++generations[(int) id];
+    }
+
+    /**
+     * @return {@code true} if the {@code id} is allocated and is not released since then
+     */
+    public synchronized boolean isAllocated(long id) {
+        return id >= 1L && id < nextId && (generations[(int) id] & 1) == 0;
+    }
+
+    /**
+     * @return the generation of the allocated {@code id}
+     */
+    synchronized int getGeneration(long id) {
+        if (!isAllocated(id)) {
+            throw new IllegalArgumentException("ID " + id + " is not allocated.");
+        }
+
+        return generations[(int) id];
+    }
+
+    /**
+     * @return {@code true} if the {@code id} is still allocated with the same {@code generation}, i.e. it has not been
+     * released and allocated again since then
+     */
+    synchronized boolean isAllocated(long id, int generation) {
+        return isAllocated(id) && generations[(int) id] == generation;
+    }
+
+    /**
+     * @return the exclusive upper bound of IDs allocated so far
+     */
+    public synchronized long getIdBound() {
+        return nextId;
+    }
+
+    /**
+     * Creates an independent allocator with the same allocated and released IDs.
+     */
+    @Nonnull
+    synchronized BodyIdAllocator copy() {
+        BodyIdAllocator copy = new BodyIdAllocator();
+        copy.nextId = nextId;
+        copy.releasedIds = Arrays.copyOf(releasedIds, releasedIds.length);
+        copy.releasedIdCount = releasedIdCount;
+        copy.generations = Arrays.copyOf(generations, generations.length);
+        return copy;
+    }
+}
@@ -0,0 +1,35 @@
+package com.codegame.codeseries.notreal2d;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Gives a body list access to the slots of its bodies. Body lists use slots to find their data of a body by an array
+ * index instead of hashing the ID.
+ * <p>
+ * Each accessor owns the slots it has assigned, so a list should keep its accessor private: slots assigned through it
+ * can't be read or changed by anyone else. A body keeps the slot of one accessor only, so other lists containing the
+ * same body should fall back to their own lookup.
+ */
+public final class BodyListSlotAccessor {
+    /**
+     * @return the slot or {@code -1} if this accessor has not assigned a slot to the {@code body}
+     */
+    public int getSlot(@Nonnull Body body) {
+        return body.getBodyListSlot(this);
+    }
+
+    public void setSlot(@Nonnull Body body, int slot) {
+        if (slot < 0) {
+            throw new IllegalArgumentException("Argument 'slot' is negative.");
+        }
+
+        body.setBodyListSlot(this, slot);
+    }
+
+    /**
+     * Drops the slot of the {@code body} if it is assigned by this accessor.
+     */
+    public void resetSlot(@Nonnull Body body) {
+        body.resetBodyListSlot(this);
+    }
+}
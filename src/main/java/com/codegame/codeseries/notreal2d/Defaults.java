@@ -10,6 +10,12 @@ public final class Defaults {
     public static final int ITERATION_COUNT_PER_STEP = 10;
     public static final int STEP_COUNT_PER_TIME_UNIT = 60;
 
+    public static final double SLEEP_VELOCITY_THRESHOLD = 1.0E-2D;
+    public static final double SLEEP_ANGULAR_VELOCITY_THRESHOLD = 1.0E-2D;
+    public static final int SLEEP_STEP_COUNT = STEP_COUNT_PER_TIME_UNIT / 2;
+
+    public static final int SNAPSHOT_CAPACITY = STEP_COUNT_PER_TIME_UNIT;
+
     private Defaults() {
         throw new UnsupportedOperationException();
     }
@@ -0,0 +1,357 @@
+package com.codegame.codeseries.notreal2d;
+
+import com.codeforces.commons.geometry.Point2D;
+import com.codegame.codeseries.notreal2d.form.*;
+import com.codegame.codeseries.notreal2d.util.GeometryUtil;
+
+import javax.annotation.Nonnull;
+
+import static com.codeforces.commons.math.Math.*;
+
+/**
+ * Calculates the distance between the outlines of two bodies and the closest points of these outlines. Circles are
+ * handled as discs, rectangles, lines and arcs as sets of segments and arcs. So the distance is zero only if the
+ * outlines touch or cross each other, and a body lying entirely inside a rectangle is not reported as touching it.
+ * <p>
+ * Not thread safe. The instance keeps the result of the last calculation and reuses its buffers between calculations.
+ */
+final class FormDistance {
+    /**
+     * The maximal length of segments of a form: 4 segments of a rectangle of {@code x1, y1, x2, y2} quadruples.
+     */
+    private static final int MAX_SEGMENT_LENGTH = 16;
+
+    private final double epsilon;
+
+    private final double[] segmentsA = new double[MAX_SEGMENT_LENGTH];
+    private final double[] segmentsB = new double[MAX_SEGMENT_LENGTH];
+
+    private double distance;
+    private boolean arcMatched;
+
+    private double pointAX;
+    private double pointAY;
+    private double pointBX;
+    private double pointBY;
+
+    FormDistance(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * @return the distance found by the last {@link #update(Body, Body) update}
+     */
+    double getDistance() {
+        return distance;
+    }
+
+    /**
+     * Both outlines are convex unless one of them is an arc. Then the line through the closest points separates
+     * the bodies, and they can't touch until they approach each other along the {@link #getNormalX() normal}.
+     *
+     * @return {@code true} if the last {@link #update(Body, Body) update} has found a positive distance between convex
+     * outlines
+     */
+    boolean hasNormal() {
+        return !arcMatched && distance > 0.0D;
+    }
+
+    /**
+     * @return X-component of the unit vector from the closest point of the body A to the closest point of the body B
+     */
+    double getNormalX() {
+        return (pointBX - pointAX) / hypot(pointBX - pointAX, pointBY - pointAY);
+    }
+
+    /**
+     * @return Y-component of the unit vector from the closest point of the body A to the closest point of the body B
+     */
+    double getNormalY() {
+        return (pointBY - pointAY) / hypot(pointBX - pointAX, pointBY - pointAY);
+    }
+
+    void update(@Nonnull Body bodyA, @Nonnull Body bodyB) {
+        distance = Double.POSITIVE_INFINITY;
+
+        Form formA = bodyA.getForm();
+        Form formB = bodyB.getForm();
+
+        arcMatched = formA.getShape() == Shape.ARC || formB.getShape() == Shape.ARC;
+
+        if (formA.getShape() == Shape.CIRCLE) {
+            updateWithPoint(bodyB, bodyA.getX(), bodyA.getY(), true);
+        } else if (formB.getShape() == Shape.CIRCLE) {
+            updateWithPoint(bodyA, bodyB.getX(), bodyB.getY(), false);
+        } else if (formA.getShape() == Shape.ARC) {
+            if (formB.getShape() == Shape.ARC) {
+                throw new IllegalArgumentException(String.format(
+                        "Unsupported %s of %s and %s of %s.",
+                        Form.toString(formA), bodyA, Form.toString(formB), bodyB
+                ));
+            }
+
+            updateWithSegmentsAndArc(segmentsB, getSegments(bodyB, segmentsB), bodyA, false);
+        } else if (formB.getShape() == Shape.ARC) {
+            updateWithSegmentsAndArc(segmentsA, getSegments(bodyA, segmentsA), bodyB, true);
+        } else {
+            updateWithSegments(segmentsA, getSegments(bodyA, segmentsA), segmentsB, getSegments(bodyB, segmentsB));
+        }
+
+        double radiusA = formA instanceof CircularForm ? ((CircularForm) formA).getRadius() : 0.0D;
+        double radiusB = formB instanceof CircularForm ? ((CircularForm) formB).getRadius() : 0.0D;
+
+        distance = max(distance - radiusA - radiusB, 0.0D);
+    }
+
+    private void updateWithPoint(@Nonnull Body body, double pointX, double pointY, boolean pointOfA) {
+        switch (body.getForm().getShape()) {
+            case CIRCLE:
+                offer(body.getX(), body.getY(), pointX, pointY, !pointOfA);
+                break;
+            case RECTANGLE:
+            case LINE:
+                double[] segments = pointOfA ? segmentsB : segmentsA;
+
+                for (int offset = 0, length = getSegments(body, segments); offset < length; offset += 4) {
+                    updateWithPointAndSegment(
+                            pointX, pointY, segments[offset], segments[offset + 1],
+                            segments[offset + 2], segments[offset + 3], pointOfA
+                    );
+                }
+                break;
+            case ARC:
+                updateWithPointAndArc(pointX, pointY, body, pointOfA);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported " + Form.toString(body.getForm()) + '.');
+        }
+    }
+
+    private void updateWithSegments(
+            @Nonnull double[] segmentsA, int lengthA, @Nonnull double[] segmentsB, int lengthB) {
+        for (int offsetA = 0; offsetA < lengthA; offsetA += 4) {
+            for (int offsetB = 0; offsetB < lengthB; offsetB += 4) {
+                updateWithSegmentAndSegment(
+                        segmentsA[offsetA], segmentsA[offsetA + 1], segmentsA[offsetA + 2], segmentsA[offsetA + 3],
+                        segmentsB[offsetB], segmentsB[offsetB + 1], segmentsB[offsetB + 2], segmentsB[offsetB + 3]
+                );
+            }
+        }
+    }
+
+    private void updateWithSegmentsAndArc(
+            @Nonnull double[] segments, int length, @Nonnull Body arcBody, boolean segmentsOfA) {
+        for (int offset = 0; offset < length; offset += 4) {
+            updateWithSegmentAndArc(
+                    segments[offset], segments[offset + 1], segments[offset + 2], segments[offset + 3],
+                    arcBody, segmentsOfA
+            );
+        }
+    }
+
+    private void updateWithPointAndSegment(
+            double pointX, double pointY, double x1, double y1, double x2, double y2, boolean pointOfA) {
+        double segmentX = x2 - x1;
+        double segmentY = y2 - y1;
+        double squaredLength = sumSqr(segmentX, segmentY);
+
+        double factor = squaredLength == 0.0D
+                ? 0.0D
+                : max(0.0D, min(1.0D, ((pointX - x1) * segmentX + (pointY - y1) * segmentY) / squaredLength));
+
+        offer(pointX, pointY, x1 + segmentX * factor, y1 + segmentY * factor, pointOfA);
+    }
+
+    private void updateWithSegmentAndSegment(
+            double x1A, double y1A, double x2A, double y2A, double x1B, double y1B, double x2B, double y2B) {
+        double crossProduct1A = getCrossProduct(x1B, y1B, x2B, y2B, x1A, y1A);
+        double crossProduct2A = getCrossProduct(x1B, y1B, x2B, y2B, x2A, y2A);
+        double crossProduct1B = getCrossProduct(x1A, y1A, x2A, y2A, x1B, y1B);
+        double crossProduct2B = getCrossProduct(x1A, y1A, x2A, y2A, x2B, y2B);
+
+        if (crossProduct1A * crossProduct2A < 0.0D && crossProduct1B * crossProduct2B < 0.0D) {
+            double factor = crossProduct1A / (crossProduct1A - crossProduct2A);
+            double x = x1A + (x2A - x1A) * factor;
+            double y = y1A + (y2A - y1A) * factor;
+            offer(x, y, x, y, true);
+            return;
+        }
+
+        updateWithPointAndSegment(x1A, y1A, x1B, y1B, x2B, y2B, true);
+        updateWithPointAndSegment(x2A, y2A, x1B, y1B, x2B, y2B, true);
+        updateWithPointAndSegment(x1B, y1B, x1A, y1A, x2A, y2A, false);
+        updateWithPointAndSegment(x2B, y2B, x1A, y1A, x2A, y2A, false);
+    }
+
+    private void updateWithPointAndArc(double pointX, double pointY, @Nonnull Body arcBody, boolean pointOfA) {
+        ArcForm arcForm = (ArcForm) arcBody.getForm();
+
+        double radius = arcForm.getRadius();
+        double startAngle = arcBody.getAngle() + arcForm.getAngle();
+        double finishAngle = startAngle + arcForm.getSector();
+
+        double offsetX = pointX - arcBody.getX();
+        double offsetY = pointY - arcBody.getY();
+        double offsetLength = hypot(offsetX, offsetY);
+
+        if (offsetLength >= epsilon
+                && GeometryUtil.isAngleBetween(atan2(offsetY, offsetX), startAngle, finishAngle)) {
+            offer(
+                    pointX, pointY, arcBody.getX() + offsetX * radius / offsetLength,
+                    arcBody.getY() + offsetY * radius / offsetLength, pointOfA
+            );
+        }
+
+        offer(
+                pointX, pointY, arcBody.getX() + radius * cos(startAngle), arcBody.getY() + radius * sin(startAngle),
+                pointOfA
+        );
+        offer(
+                pointX, pointY, arcBody.getX() + radius * cos(finishAngle), arcBody.getY() + radius * sin(finishAngle),
+                pointOfA
+        );
+    }
+
+    /**
+     * The closest points of a segment and an arc are either their common point, or an endpoint of any of them, or
+     * the projection of the arc center to the segment and the arc point on the same ray from the center.
+     */
+    @SuppressWarnings("OverlyLongMethod")
+    private void updateWithSegmentAndArc(
+            double x1, double y1, double x2, double y2, @Nonnull Body arcBody, boolean segmentOfA) {
+        ArcForm arcForm = (ArcForm) arcBody.getForm();
+
+        double radius = arcForm.getRadius();
+        double startAngle = arcBody.getAngle() + arcForm.getAngle();
+        double finishAngle = startAngle + arcForm.getSector();
+
+        double centerX = arcBody.getX();
+        double centerY = arcBody.getY();
+
+        double segmentX = x2 - x1;
+        double segmentY = y2 - y1;
+        double squaredLength = sumSqr(segmentX, segmentY);
+
+        if (squaredLength > 0.0D) {
+            double projectionFactor = ((centerX - x1) * segmentX + (centerY - y1) * segmentY) / squaredLength;
+            double projectionX = x1 + segmentX * projectionFactor;
+            double projectionY = y1 + segmentY * projectionFactor;
+            double projectionDistance = hypot(projectionX - centerX, projectionY - centerY);
+
+            if (projectionDistance <= radius) {
+                double halfChordFactor = sqrt((sqr(radius) - sqr(projectionDistance)) / squaredLength);
+
+                for (int sign = -1; sign <= 1; sign += 2) {
+                    double factor = projectionFactor + sign * halfChordFactor;
+                    double x = x1 + segmentX * factor;
+                    double y = y1 + segmentY * factor;
+
+                    if (factor >= 0.0D && factor <= 1.0D
+                            && GeometryUtil.isAngleBetween(atan2(y - centerY, x - centerX), startAngle, finishAngle)) {
+                        offer(x, y, x, y, segmentOfA);
+                        return;
+                    }
+                }
+            }
+
+            if (projectionFactor > 0.0D && projectionFactor < 1.0D && projectionDistance >= epsilon) {
+                double directionX = (projectionX - centerX) / projectionDistance;
+                double directionY = (projectionY - centerY) / projectionDistance;
+
+                if (GeometryUtil.isAngleBetween(atan2(directionY, directionX), startAngle, finishAngle)) {
+                    offer(
+                            projectionX, projectionY, centerX + directionX * radius, centerY + directionY * radius,
+                            segmentOfA
+                    );
+                }
+
+                if (GeometryUtil.isAngleBetween(atan2(-directionY, -directionX), startAngle, finishAngle)) {
+                    offer(
+                            projectionX, projectionY, centerX - directionX * radius, centerY - directionY * radius,
+                            segmentOfA
+                    );
+                }
+            }
+        }
+
+        updateWithPointAndArc(x1, y1, arcBody, segmentOfA);
+        updateWithPointAndArc(x2, y2, arcBody, segmentOfA);
+
+        updateWithPointAndSegment(
+                centerX + radius * cos(startAngle), centerY + radius * sin(startAngle), x1, y1, x2, y2, !segmentOfA
+        );
+        updateWithPointAndSegment(
+                centerX + radius * cos(finishAngle), centerY + radius * sin(finishAngle), x1, y1, x2, y2, !segmentOfA
+        );
+    }
+
+    /**
+     * Remembers the points if they are closer than the closest points found so far.
+     *
+     * @param firstOfA {@code true} if the first point belongs to the body A
+     */
+    private void offer(double firstX, double firstY, double secondX, double secondY, boolean firstOfA) {
+        double pointDistance = hypot(secondX - firstX, secondY - firstY);
+
+        if (pointDistance >= distance) {
+            return;
+        }
+
+        distance = pointDistance;
+
+        if (firstOfA) {
+            pointAX = firstX;
+            pointAY = firstY;
+            pointBX = secondX;
+            pointBY = secondY;
+        } else {
+            pointAX = secondX;
+            pointAY = secondY;
+            pointBX = firstX;
+            pointBY = firstY;
+        }
+    }
+
+    /**
+     * Writes segments of a rectangle or a line to the {@code segments} as {@code x1, y1, x2, y2} quadruples.
+     *
+     * @return the count of written values
+     */
+    private int getSegments(@Nonnull Body body, @Nonnull double[] segments) {
+        Form form = body.getForm();
+
+        if (form instanceof LinearForm) {
+            LinearForm linearForm = (LinearForm) form;
+            Point2D point1 = linearForm.getPoint1(body.getPosition(), body.getAngle(), epsilon);
+            Point2D point2 = linearForm.getPoint2(body.getPosition(), body.getAngle(), epsilon);
+
+            segments[0] = point1.getX();
+            segments[1] = point1.getY();
+            segments[2] = point2.getX();
+            segments[3] = point2.getY();
+            return 4;
+        }
+
+        if (form instanceof RectangularForm) {
+            Point2D[] points = ((RectangularForm) form).getPoints(body.getPosition(), body.getAngle(), epsilon);
+
+            for (int pointIndex = 0, pointCount = points.length; pointIndex < pointCount; ++pointIndex) {
+                Point2D point1 = points[pointIndex];
+                Point2D point2 = points[pointIndex == pointCount - 1 ? 0 : pointIndex + 1];
+
+                segments[4 * pointIndex] = point1.getX();
+                segments[4 * pointIndex + 1] = point1.getY();
+                segments[4 * pointIndex + 2] = point2.getX();
+                segments[4 * pointIndex + 3] = point2.getY();
+            }
+
+            return 4 * points.length;
+        }
+
+        throw new IllegalArgumentException("Unsupported " + Form.toString(form) + " of " + body + '.');
+    }
+
+    private static double getCrossProduct(double x1, double y1, double x2, double y2, double x, double y) {
+        return (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+    }
+}
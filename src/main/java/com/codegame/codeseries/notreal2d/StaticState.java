@@ -61,6 +61,25 @@ public class StaticState {
         }
     }
 
+    /**
+     * Changes position without notifying position listeners.
+     */
+    void setPositionQuietly(double x, double y) {
+        position.setQuietly(x, y);
+    }
+
+    /**
+     * Changes position in place. Unlike {@link #setPosition(Point2D)} does not allocate points unless there are
+     * position listeners to notify.
+     */
+    void updatePosition(double x, double y) {
+        if (positionListenerEntries == null || positionListenerEntries.isEmpty()) {
+            position.setQuietly(x, y);
+        } else {
+            position.onChange(position.copy(), new Point2D(x, y));
+        }
+    }
+
     public double getAngle() {
         return angle;
     }
@@ -199,6 +218,11 @@ public class StaticState {
             onChange(oldPosition, newPosition);
         }
 
+        private void setQuietly(double x, double y) {
+            super.setFirst(x);
+            super.setSecond(y);
+        }
+
         @Nonnull
         private Point2D onChange(@Nonnull Point2D oldPosition, @Nonnull Point2D newPosition) {
             if (positionListenerEntries != null) {
@@ -3,14 +3,17 @@ package com.codegame.codeseries.notreal2d;
 import com.codeforces.commons.geometry.Point2D;
 import com.codeforces.commons.geometry.Vector2D;
 import com.codeforces.commons.math.NumberUtil;
-import com.codeforces.commons.pair.LongPair;
-import com.codeforces.commons.process.ThreadUtil;
 import com.codegame.codeseries.notreal2d.bodylist.BodyList;
+import com.codegame.codeseries.notreal2d.bodylist.BodyPairBuffer;
 import com.codegame.codeseries.notreal2d.bodylist.SimpleBodyList;
 import com.codegame.codeseries.notreal2d.collision.*;
+import com.codegame.codeseries.notreal2d.form.Shape;
 import com.codegame.codeseries.notreal2d.listener.CollisionListener;
+import com.codegame.codeseries.notreal2d.metrics.WorldMetrics;
 import com.codegame.codeseries.notreal2d.provider.MomentumTransferFactorProvider;
-import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import com.codegame.codeseries.notreal2d.trace.TraceRecorder;
+import com.codegame.codeseries.notreal2d.util.GeometryUtil;
+import com.codegame.codeseries.notreal2d.util.LongPairMap;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -18,6 +21,9 @@ import javax.annotation.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.codeforces.commons.math.Math.*;
 
@@ -26,16 +32,52 @@ import static com.codeforces.commons.math.Math.*;
  * Date: 02.06.2015
  */
 @SuppressWarnings("WeakerAccess")
-public class World {
+public class World implements AutoCloseable {
     private static final Logger logger = Logger.getLogger(World.class);
 
     @SuppressWarnings("ConstantConditions")
     private static final CollisionInfo NULL_COLLISION_INFO = new CollisionInfo(null, null, null, null, 0.0D, 0.0D);
 
     /**
-     * The only supported value is 2.
+     * Thread count used by worlds created with {@code multithreaded} flag.
      */
-    private static final int PARALLEL_THREAD_COUNT = 2;
+    private static final int DEFAULT_PARALLEL_THREAD_COUNT = 2;
+
+    /**
+     * Worlds with fewer bodies are always processed by the calling thread.
+     */
+    private static final int MIN_PARALLEL_BODY_COUNT = 1000;
+
+    /**
+     * Contact islands are resolved by a single task until their total contact count exceeds this value.
+     */
+    private static final int MAX_ISLAND_TASK_CONTACT_COUNT = 64;
+
+    /**
+     * Adaptive iteration count keeps the movement of any body during an iteration within this part of its
+     * circumcircle radius.
+     */
+    private static final double MAX_ADAPTIVE_ITERATION_RELATIVE_MOVEMENT = 0.25D;
+
+    /**
+     * Adaptive iteration count is increased proportionally if the penetration depth of a collision relative to the
+     * circumcircle radius of the smaller dynamic body has exceeded this value during the previous step.
+     */
+    private static final double MAX_ADAPTIVE_ITERATION_RELATIVE_DEPTH = 0.1D;
+
+    /**
+     * The maximal count of conservative advancement steps used to find the time of impact of a bullet. If the count is
+     * exceeded, the last safe position is taken as the position of the impact.
+     */
+    private static final int MAX_BULLET_ADVANCEMENT_STEP_COUNT = 64;
+
+    /**
+     * The count of bisection steps used to find the position of the first collision of a bullet.
+     */
+    private static final int BULLET_BISECTION_STEP_COUNT = 16;
+
+    private static final Comparator<Body> bodyIdComparator
+            = (bodyA, bodyB) -> Long.compare(bodyA.getId(), bodyB.getId());
 
     private final int iterationCountPerStep;
     private final int stepCountPerTimeUnit;
@@ -47,14 +89,157 @@ public class World {
     private final BodyList bodyList;
     private final MomentumTransferFactorProvider momentumTransferFactorProvider;
 
+    private final int parallelThreadCount;
+    private final boolean parallelNarrowphase;
+
+    @Nullable
+    private final Executor parallelTaskExecutor;
+
+    /**
+     * The executor created by this world, which should be shut down on {@link #close() closing}.
+     */
+    @Nullable
+    private final ExecutorService ownParallelTaskExecutor;
+
+    private volatile boolean closed;
+
+    private final Set<Body> changedBodies = new HashSet<>();
+
+    /**
+     * Collisions processed in the current iteration by the IDs of bodies. Reused by all iterations.
+     */
+    private final LongPairMap<CollisionInfo> collisionInfoByBodyIdsPair = new LongPairMap<>();
+
+    /**
+     * Potential intersections of the current iteration and their collision information gathered in parallel. Reused
+     * by all iterations.
+     */
+    private final BodyPairBuffer potentialIntersectionPairs = new BodyPairBuffer();
+    private CollisionInfo[] pairCollisionInfos = new CollisionInfo[0];
+
+    /**
+     * Bodies moved by the resolution of collisions in the current iteration and their flags by step body indexes.
+     * Reused by all iterations.
+     */
+    private Body[] movedBodies = new Body[16];
+    private int movedBodyCount;
+    private boolean[] movedBodyFlags = new boolean[0];
+
+    /**
+     * Buffers of the bullet sweep. Bullets are swept one by one by the calling thread, so the buffers are reused by all
+     * bullets of all iterations.
+     */
+    private final BulletPath bulletPath = new BulletPath();
+    private FormDistance bulletFormDistance;
+    private Body[] bulletPotentialIntersections = new Body[16];
+    private double[] bulletImpactFractions = new double[16];
+
+    private volatile boolean contactIslandSolving;
+
+    /*
+     * Buffers of the contact island solving reused by all iterations. Bodies are indexed by their step body index.
+     * Islands don't share non-static bodies, so the flags of changed bodies are written by the task of their island
+     * only.
+     */
+    private CollisionInfo[] islandSolvingContacts = new CollisionInfo[0];
+    private CollisionInfo[] islandContacts = new CollisionInfo[0];
+    private int[] contactBodyIndexes = new int[0];
+    private int[] contactIslandIndexes = new int[0];
+    private int[] islandContactCounts = new int[0];
+    private int[] islandOffsets = new int[1];
+    private int[] islandContactIndexes = new int[0];
+    private int[] islandTaskIndexes = new int[0];
+    private long[] islandOrder = new long[0];
+    private int[] parentBodyIndexes = new int[0];
+    private int[] islandIndexByRootBodyIndex = new int[0];
+    private boolean[] changedBodyFlags = new boolean[0];
+
+    /**
+     * Set while contact islands are being resolved concurrently.
+     */
+    private volatile boolean concurrentResolution;
+
+    private final Lock listenerLock = new ReentrantLock();
+
+    /**
+     * Bodies removed by collision listeners while contact islands are resolved concurrently. They are removed from the
+     * body list after all islands are resolved, so the list is not changed while other islands read it. Guarded by the
+     * {@link #listenerLock}.
+     */
+    private final Set<Body> deferredRemovedBodies = new LinkedHashSet<>();
+
+    private volatile boolean bodySleeping;
+    private volatile double sleepVelocityThreshold = Defaults.SLEEP_VELOCITY_THRESHOLD;
+    private volatile double sleepAngularVelocityThreshold = Defaults.SLEEP_ANGULAR_VELOCITY_THRESHOLD;
+    private volatile int sleepStepCount = Defaults.SLEEP_STEP_COUNT;
+
+    private final AtomicInteger awakeBodyCount = new AtomicInteger();
+    private final AtomicInteger sleepingBodyCount = new AtomicInteger();
+    private volatile int lastStepAwakeBodyCount;
+    private volatile int lastStepSleepingBodyCount;
+
+    private long stepIndex;
+
+    @Nullable
+    private BodyIdAllocator bodyIdAllocator;
+
+    /**
+     * IDs of bodies removed before the end of the current step and of the previous one. The ID of a removed body is
+     * not given to a new body until the end of the step following the removal.
+     */
+    private long[] removedBodyIds = new long[16];
+    private int removedBodyIdCount;
+    private long[] releasingBodyIds = new long[16];
+    private int releasingBodyIdCount;
+
+    private volatile boolean adaptiveIterationCount;
+    private volatile int minIterationCountPerStep = 1;
+    private volatile int maxIterationCountPerStep;
+
+    private final DoubleAccumulator maxRelativeSpeed = new DoubleAccumulator(Double::max, 0.0D);
+    private final DoubleAccumulator maxRelativeDepth = new DoubleAccumulator(Double::max, 0.0D);
+    private volatile int lastStepIterationCount;
+    private double lastStepMaxRelativeDepth;
+
+    /**
+     * Ring buffer of snapshots. Slots are created on the first use and reused after the buffer is full.
+     */
+    private WorldSnapshot[] snapshots = new WorldSnapshot[Defaults.SNAPSHOT_CAPACITY];
+    private int nextSnapshotIndex;
+
+    @Nullable
+    private volatile TraceRecorder traceRecorder;
+
+    @Nullable
+    private volatile WorldMetrics metrics;
+
+    /**
+     * Metrics updated during the current step or {@code null} if metrics are disabled.
+     */
     @Nullable
-    private final ExecutorService parallelTaskExecutor;
+    private WorldMetrics stepMetrics;
+
+    /**
+     * The count of iterations of the current step.
+     */
+    private int stepIterationCount;
 
-    private final Map<String, ColliderEntry> colliderEntryByName = new HashMap<>();
-    private final SortedSet<ColliderEntry> colliderEntries = new TreeSet<>(ColliderEntry.comparator);
+    /**
+     * The time of a single iteration of the current step.
+     */
+    private double iterationUpdateFactor;
+
+    private Map<String, ColliderEntry> colliderEntryByName = new HashMap<>();
+    private SortedSet<ColliderEntry> colliderEntries = new TreeSet<>(ColliderEntry.comparator);
+
+    private Map<String, CollisionListenerEntry> collisionListenerEntryByName = new HashMap<>();
+    private SortedSet<CollisionListenerEntry> collisionListenerEntries = new TreeSet<>(CollisionListenerEntry.comparator);
 
-    private final Map<String, CollisionListenerEntry> collisionListenerEntryByName = new HashMap<>();
-    private final SortedSet<CollisionListenerEntry> collisionListenerEntries = new TreeSet<>(CollisionListenerEntry.comparator);
+    /**
+     * Set if registrations are shared with a forked or a parent world and should be copied before changing.
+     */
+    private boolean colliderEntriesShared;
+    private boolean collisionListenerEntriesShared;
 
     public World() {
         this(Defaults.ITERATION_COUNT_PER_STEP);
@@ -85,6 +270,55 @@ public class World {
     public World(int iterationCountPerStep, int stepCountPerTimeUnit, @Nonnegative double epsilon,
                  @Nonnull BodyList bodyList, @Nullable MomentumTransferFactorProvider momentumTransferFactorProvider,
                  boolean multithreaded) {
+        this(
+                iterationCountPerStep, stepCountPerTimeUnit, epsilon, bodyList, momentumTransferFactorProvider,
+                multithreaded ? DEFAULT_PARALLEL_THREAD_COUNT : 1, false
+        );
+    }
+
+    /**
+     * @param parallelThreadCount            count of threads (including the calling one) used to process a step,
+     *                                       {@code 1} disables multithreading
+     * @param parallelNarrowphase            {@code true} to gather potential intersections and to collide bodies of
+     *                                       each iteration in parallel before resolving any collision;
+     *                                       collisions are then resolved by the calling thread in the order of body
+     *                                       IDs, so the result does not depend on {@code parallelThreadCount} and on
+     *                                       the type of {@code bodyList}
+     */
+    public World(int iterationCountPerStep, int stepCountPerTimeUnit, @Nonnegative double epsilon,
+                 @Nonnull BodyList bodyList, @Nullable MomentumTransferFactorProvider momentumTransferFactorProvider,
+                 int parallelThreadCount, boolean parallelNarrowphase) {
+        this(
+                iterationCountPerStep, stepCountPerTimeUnit, epsilon, bodyList, momentumTransferFactorProvider,
+                parallelThreadCount > 1 ? newParallelTaskExecutor(parallelThreadCount) : null, true,
+                parallelThreadCount, parallelNarrowphase
+        );
+    }
+
+    /**
+     * Creates a world, which processes steps using the external {@code parallelTaskExecutor}. The executor may be
+     * shared by many worlds and is not shut down by {@link #close()}. Any executor is supported, including one
+     * starting a new (virtual) thread per task, but a bounded pool should not be used if its own threads call
+     * {@link #proceed()}: the calling thread waits for the tasks submitted to the pool.
+     *
+     * @param parallelThreadCount count of parts (including the one processed by the calling thread) the work of a step
+     *                            is split into, {@code 1} disables multithreading
+     * @param parallelNarrowphase see {@link #World(int, int, double, BodyList, MomentumTransferFactorProvider, int,
+     *                            boolean)}
+     */
+    public World(int iterationCountPerStep, int stepCountPerTimeUnit, @Nonnegative double epsilon,
+                 @Nonnull BodyList bodyList, @Nullable MomentumTransferFactorProvider momentumTransferFactorProvider,
+                 @Nonnull Executor parallelTaskExecutor, int parallelThreadCount, boolean parallelNarrowphase) {
+        this(
+                iterationCountPerStep, stepCountPerTimeUnit, epsilon, bodyList, momentumTransferFactorProvider,
+                validateParallelTaskExecutor(parallelTaskExecutor), false, parallelThreadCount, parallelNarrowphase
+        );
+    }
+
+    private World(int iterationCountPerStep, int stepCountPerTimeUnit, @Nonnegative double epsilon,
+                  @Nonnull BodyList bodyList, @Nullable MomentumTransferFactorProvider momentumTransferFactorProvider,
+                  @Nullable Executor parallelTaskExecutor, boolean ownParallelTaskExecutor, int parallelThreadCount,
+                  boolean parallelNarrowphase) {
         if (iterationCountPerStep < 1) {
             throw new IllegalArgumentException("Argument 'iterationCountPerStep' is zero or negative.");
         }
@@ -101,29 +335,24 @@ public class World {
             throw new IllegalArgumentException("Argument 'bodyList' is null.");
         }
 
+        if (parallelThreadCount < 1) {
+            throw new IllegalArgumentException("Argument 'parallelThreadCount' is zero or negative.");
+        }
+
         this.stepCountPerTimeUnit = stepCountPerTimeUnit;
         this.iterationCountPerStep = iterationCountPerStep;
         this.updateFactor = 1.0D / (stepCountPerTimeUnit * iterationCountPerStep);
+        this.maxIterationCountPerStep = iterationCountPerStep;
+        this.lastStepIterationCount = iterationCountPerStep;
         this.epsilon = epsilon;
         this.squaredEpsilon = epsilon * epsilon;
         this.bodyList = bodyList;
         this.momentumTransferFactorProvider = momentumTransferFactorProvider;
+        this.parallelThreadCount = parallelThreadCount;
+        this.parallelNarrowphase = parallelNarrowphase;
 
-        this.parallelTaskExecutor = multithreaded ? new ThreadPoolExecutor(
-                0, PARALLEL_THREAD_COUNT - 1, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
-                new ThreadFactory() {
-                    private final AtomicInteger threadIndex = new AtomicInteger();
-
-                    @Override
-                    public Thread newThread(@Nonnull Runnable runnable) {
-                        return ThreadUtil.newThread(
-                                "notreal2d.World#ParallelExecutionThread-" + threadIndex.incrementAndGet(), runnable,
-                                (t, e) -> logger.error("Can't complete parallel task in thread '" + t + "'.", e),
-                                true
-                        );
-                    }
-                }
-        ) : null;
+        this.parallelTaskExecutor = parallelThreadCount > 1 ? parallelTaskExecutor : null;
+        this.ownParallelTaskExecutor = ownParallelTaskExecutor ? (ExecutorService) parallelTaskExecutor : null;
 
         registerCollider(new ArcAndArcCollider(epsilon));
         registerCollider(new ArcAndCircleCollider(epsilon));
@@ -137,6 +366,106 @@ public class World {
         registerCollider(new RectangleAndRectangleCollider(epsilon));
     }
 
+    /**
+     * Creates a fork of the {@code parent} world with copies of its bodies in the {@code bodyList}.
+     */
+    private World(@Nonnull World parent, @Nonnull BodyList bodyList) {
+        this.stepCountPerTimeUnit = parent.stepCountPerTimeUnit;
+        this.iterationCountPerStep = parent.iterationCountPerStep;
+        this.updateFactor = parent.updateFactor;
+        this.epsilon = parent.epsilon;
+        this.squaredEpsilon = parent.squaredEpsilon;
+        this.bodyList = bodyList;
+        this.momentumTransferFactorProvider = parent.momentumTransferFactorProvider;
+        this.parallelThreadCount = 1;
+        this.parallelNarrowphase = parent.parallelNarrowphase;
+        this.parallelTaskExecutor = null;
+        this.ownParallelTaskExecutor = null;
+
+        this.contactIslandSolving = parent.contactIslandSolving;
+        this.bodySleeping = parent.bodySleeping;
+        this.sleepVelocityThreshold = parent.sleepVelocityThreshold;
+        this.sleepAngularVelocityThreshold = parent.sleepAngularVelocityThreshold;
+        this.sleepStepCount = parent.sleepStepCount;
+        this.lastStepAwakeBodyCount = parent.lastStepAwakeBodyCount;
+        this.lastStepSleepingBodyCount = parent.lastStepSleepingBodyCount;
+        this.stepIndex = parent.stepIndex;
+        this.bodyIdAllocator = parent.bodyIdAllocator == null ? null : parent.bodyIdAllocator.copy();
+        this.removedBodyIds = Arrays.copyOf(parent.removedBodyIds, parent.removedBodyIds.length);
+        this.removedBodyIdCount = parent.removedBodyIdCount;
+        this.releasingBodyIds = Arrays.copyOf(parent.releasingBodyIds, parent.releasingBodyIds.length);
+        this.releasingBodyIdCount = parent.releasingBodyIdCount;
+        this.adaptiveIterationCount = parent.adaptiveIterationCount;
+        this.minIterationCountPerStep = parent.minIterationCountPerStep;
+        this.maxIterationCountPerStep = parent.maxIterationCountPerStep;
+        this.lastStepIterationCount = parent.lastStepIterationCount;
+        this.lastStepMaxRelativeDepth = parent.lastStepMaxRelativeDepth;
+        this.snapshots = new WorldSnapshot[parent.snapshots.length];
+
+        this.colliderEntryByName = parent.colliderEntryByName;
+        this.colliderEntries = parent.colliderEntries;
+        this.colliderEntriesShared = true;
+        parent.colliderEntriesShared = true;
+
+        this.collisionListenerEntryByName = parent.collisionListenerEntryByName;
+        this.collisionListenerEntries = parent.collisionListenerEntries;
+        this.collisionListenerEntriesShared = true;
+        parent.collisionListenerEntriesShared = true;
+
+        for (Body body : parent.getBodies()) {
+            bodyList.addBody(body.copy(bodyIdAllocator));
+        }
+    }
+
+    /**
+     * Creates an independent copy of this world to simulate it forward without changing this world, for example, to
+     * evaluate candidate moves. Bodies of the fork are copies with the same IDs, use {@link #getBody(long)} to find
+     * them. The fork does not use additional threads and several forks can be simulated on different threads at the
+     * same time.
+     * <p>
+     * Immutable data is shared with this world: forms and movement friction providers of bodies, the momentum
+     * transfer factor provider, colliders and collision listeners. Registrations of colliders and listeners are copied
+     * by the first world that changes them. Shared colliders and listeners should be thread-safe if forks are simulated
+     * concurrently.
+     * <p>
+     * All bodies including static ones are copied by {@link Body#copy(BodyIdAllocator)}, since body lists keep their
+     * own listeners and indexes in bodies and a body can't belong to two worlds. Static bodies are cheap to copy, as
+     * their forms are shared. Copying a body costs less than adding it to the body list of the fork, so sharing bodies
+     * until the first write would not make forks noticeably cheaper. Subclasses of {@link Body} should override the
+     * copy method to keep their class and state in forks.
+     * <p>
+     * Should not be called concurrently with {@link #proceed()}.
+     *
+     * @return fork using {@link BodyList#newEmptyList() an empty copy} of the body list of this world
+     * @throws UnsupportedOperationException if the body list of this world can't create an empty copy of itself
+     */
+    @Nonnull
+    public World fork() {
+        return fork(bodyList.newEmptyList());
+    }
+
+    /**
+     * Creates an independent copy of this world using the empty {@code bodyList} to store the copies of bodies.
+     *
+     * @see #fork()
+     */
+    @Nonnull
+    public World fork(@Nonnull BodyList bodyList) {
+        if (bodyList == null) {
+            throw new IllegalArgumentException("Argument 'bodyList' is null.");
+        }
+
+        if (bodyList == this.bodyList) {
+            throw new IllegalArgumentException("Argument 'bodyList' is used by this world.");
+        }
+
+        if (!bodyList.getBodies().isEmpty()) {
+            throw new IllegalArgumentException("Argument 'bodyList' is not empty.");
+        }
+
+        return new World(this, bodyList);
+    }
+
     public int getIterationCountPerStep() {
         return iterationCountPerStep;
     }
@@ -149,224 +478,1654 @@ public class World {
         return epsilon;
     }
 
-    public void addBody(@Nonnull Body body) {
-        if (body.getForm() == null || body.getMass() == 0.0D) {
-            throw new IllegalArgumentException("Specify form and mass of 'body' before adding to the world.");
+    public int getParallelThreadCount() {
+        return parallelThreadCount;
+    }
+
+    public boolean isParallelNarrowphase() {
+        return parallelNarrowphase;
+    }
+
+    public boolean isContactIslandSolving() {
+        return contactIslandSolving;
+    }
+
+    /**
+     * Enables or disables contact island solving. If enabled, each iteration collides all potential intersections
+     * first (see {@code parallelNarrowphase}), then splits found collisions into islands (connected groups of
+     * dynamic bodies in contact) and resolves independent islands concurrently. Collisions within an island are
+     * resolved in the order of body IDs, so the result does not depend on the count of threads.
+     * <p>
+     * Collision listeners may be invoked by different threads, but never concurrently. The order of invocations for
+     * bodies of different islands is not defined. Bodies removed by listeners are treated as removed at once, but are
+     * removed from the body list after all islands are resolved.
+     *
+     * @param contactIslandSolving {@code true} to enable contact island solving
+     */
+    public void setContactIslandSolving(boolean contactIslandSolving) {
+        this.contactIslandSolving = contactIslandSolving;
+    }
+
+    public boolean isBodySleeping() {
+        return bodySleeping;
+    }
+
+    /**
+     * Enables or disables body sleeping. If enabled, a dynamic body which has been moving slower than both sleep
+     * thresholds for {@link #getSleepStepCount() sleepStepCount} consecutive steps is put to sleep. Sleeping bodies are
+     * not integrated and do not search for collisions by themselves, so collision listeners are not invoked for pairs
+     * of sleeping bodies.
+     * <p>
+     * A sleeping body is woken up by a collision with an awake body, by a setter of its position, angle, velocity,
+     * angular velocity, force or torque, or if its force, torque or velocity are found non-zero at the start of a
+     * step. Disabling body sleeping wakes all bodies up at the start of the next step.
+     *
+     * @param bodySleeping {@code true} to enable body sleeping
+     */
+    public void setBodySleeping(boolean bodySleeping) {
+        this.bodySleeping = bodySleeping;
+    }
+
+    public double getSleepVelocityThreshold() {
+        return sleepVelocityThreshold;
+    }
+
+    public void setSleepVelocityThreshold(double sleepVelocityThreshold) {
+        if (Double.isNaN(sleepVelocityThreshold) || sleepVelocityThreshold < 0.0D) {
+            throw new IllegalArgumentException("Argument 'sleepVelocityThreshold' should be non-negative number.");
         }
 
-        bodyList.addBody(body);
+        this.sleepVelocityThreshold = sleepVelocityThreshold;
     }
 
-    public void removeBody(@Nonnull Body body) {
-        bodyList.removeBody(body);
+    public double getSleepAngularVelocityThreshold() {
+        return sleepAngularVelocityThreshold;
     }
 
-    public void removeBody(long id) {
-        bodyList.removeBody(id);
+    public void setSleepAngularVelocityThreshold(double sleepAngularVelocityThreshold) {
+        if (Double.isNaN(sleepAngularVelocityThreshold) || sleepAngularVelocityThreshold < 0.0D) {
+            throw new IllegalArgumentException(
+                    "Argument 'sleepAngularVelocityThreshold' should be non-negative number."
+            );
+        }
+
+        this.sleepAngularVelocityThreshold = sleepAngularVelocityThreshold;
     }
 
-    public void removeBodyQuietly(@Nullable Body body) {
-        bodyList.removeBodyQuietly(body);
+    public int getSleepStepCount() {
+        return sleepStepCount;
     }
 
-    public void removeBodyQuietly(long id) {
-        bodyList.removeBodyQuietly(id);
+    public void setSleepStepCount(int sleepStepCount) {
+        if (sleepStepCount < 1) {
+            throw new IllegalArgumentException("Argument 'sleepStepCount' should be positive.");
+        }
+
+        this.sleepStepCount = sleepStepCount;
     }
 
-    public boolean hasBody(@Nonnull Body body) {
-        return bodyList.hasBody(body);
+    /**
+     * @return the count of dynamic bodies which have been awake at the end of the last step
+     */
+    public int getLastStepAwakeBodyCount() {
+        return lastStepAwakeBodyCount;
     }
 
-    public boolean hasBody(long id) {
-        return bodyList.hasBody(id);
+    /**
+     * @return the count of bodies which have been sleeping at the end of the last step
+     */
+    public int getLastStepSleepingBodyCount() {
+        return lastStepSleepingBodyCount;
     }
 
-    public Body getBody(long id) {
-        return bodyList.getBody(id);
+    public boolean isAdaptiveIterationCount() {
+        return adaptiveIterationCount;
     }
 
-    public boolean isColliding(@Nonnull Body body) {
-        return getCollisionInfo(body) != null;
+    /**
+     * Enables or disables adaptive iteration count. If enabled, the count of iterations is chosen at the start of each
+     * step in range [{@link #getMinIterationCountPerStep() min}, {@link #getMaxIterationCountPerStep() max}], so that
+     * no awake body moves farther than a quarter of its circumcircle radius during an iteration. The count is also
+     * increased if collisions of the previous step had a penetration depth over a tenth of the radius of the smaller
+     * body. Otherwise the world always performs {@link #getIterationCountPerStep() iterationCountPerStep} iterations.
+     *
+     * @param adaptiveIterationCount {@code true} to enable adaptive iteration count
+     */
+    public void setAdaptiveIterationCount(boolean adaptiveIterationCount) {
+        this.adaptiveIterationCount = adaptiveIterationCount;
     }
 
-    public List<Body> getBodies() {
-        return bodyList.getBodies();
+    public int getMinIterationCountPerStep() {
+        return minIterationCountPerStep;
+    }
+
+    public int getMaxIterationCountPerStep() {
+        return maxIterationCountPerStep;
+    }
+
+    /**
+     * Sets the range of adaptive iteration count. By default it is [1, {@code iterationCountPerStep}].
+     */
+    public void setIterationCountPerStepRange(int minIterationCountPerStep, int maxIterationCountPerStep) {
+        if (minIterationCountPerStep < 1) {
+            throw new IllegalArgumentException("Argument 'minIterationCountPerStep' is zero or negative.");
+        }
+
+        if (maxIterationCountPerStep < minIterationCountPerStep) {
+            throw new IllegalArgumentException(
+                    "Argument 'maxIterationCountPerStep' is less than 'minIterationCountPerStep'."
+            );
+        }
+
+        this.minIterationCountPerStep = minIterationCountPerStep;
+        this.maxIterationCountPerStep = maxIterationCountPerStep;
+    }
+
+    /**
+     * @return the count of iterations performed by the last step
+     */
+    public int getLastStepIterationCount() {
+        return lastStepIterationCount;
     }
 
     @Nullable
-    public CollisionInfo getCollisionInfo(@Nonnull Body body) {
-        if (!bodyList.hasBody(body)) {
-            return null;
+    public BodyIdAllocator getBodyIdAllocator() {
+        return bodyIdAllocator;
+    }
+
+    /**
+     * Sets the allocator of IDs for bodies created by {@link #newBody()} or {@code null} to use IDs unique within the
+     * process. Bodies added to this world should be created by the same allocator. The same allocator may be shared by
+     * several worlds.
+     * <p>
+     * The ID of a removed body is released to the allocator at the end of the step following the removal. After that
+     * the body can't be added again and snapshots taken before the removal can't be restored, since the ID may belong
+     * to another body.
+     *
+     * @throws IllegalStateException if this world contains bodies
+     */
+    public void setBodyIdAllocator(@Nullable BodyIdAllocator bodyIdAllocator) {
+        if (!bodyList.getBodies().isEmpty()) {
+            throw new IllegalStateException("Can't change body ID allocator of the world containing bodies.");
         }
 
-        List<Body> potentialIntersections = bodyList.getPotentialIntersections(body);
-        int intersectionCount = potentialIntersections.size();
+        this.bodyIdAllocator = bodyIdAllocator;
+        this.removedBodyIdCount = 0;
+        this.releasingBodyIdCount = 0;
+    }
 
-        for (int intersectionIndex = 0; intersectionIndex < intersectionCount; ++intersectionIndex) {
-            Body otherBody = potentialIntersections.get(intersectionIndex);
-            if (body.isStatic() && otherBody.isStatic()) {
-                throw new IllegalArgumentException("Static body pairs are unexpected at this time.");
+    /**
+     * Creates a body with an ID taken from the {@link #getBodyIdAllocator() body ID allocator} of this world. The body
+     * is not added to this world.
+     */
+    @Nonnull
+    public Body newBody() {
+        BodyIdAllocator bodyIdAllocator = this.bodyIdAllocator;
+        return bodyIdAllocator == null ? new Body() : new Body(bodyIdAllocator);
+    }
+
+    /**
+     * @return index of the step, which will be executed by the next call to {@link #proceed()}
+     */
+    public long getStepIndex() {
+        return stepIndex;
+    }
+
+    public int getSnapshotCapacity() {
+        return snapshots.length;
+    }
+
+    /**
+     * Sets the count of snapshots kept by this world. Drops all existing snapshots.
+     */
+    public void setSnapshotCapacity(int snapshotCapacity) {
+        if (snapshotCapacity < 1) {
+            throw new IllegalArgumentException("Argument 'snapshotCapacity' is zero or negative.");
+        }
+
+        this.snapshots = new WorldSnapshot[snapshotCapacity];
+        this.nextSnapshotIndex = 0;
+    }
+
+    /**
+     * Captures the dynamic state of all bodies into the next slot of the snapshot ring buffer. The oldest snapshot is
+     * overwritten if the buffer is full. Does not allocate memory unless the count of bodies or contacts exceeds the
+     * count captured to the same slot before.
+     * <p>
+     * Should not be called concurrently with {@link #proceed()}.
+     *
+     * @return snapshot of the state before the step with {@link #getStepIndex() current index}
+     */
+    @Nonnull
+    public WorldSnapshot snapshot() {
+        WorldSnapshot snapshot = nextSnapshot();
+        List<Body> bodies = getBodies();
+        snapshot.startCapture(stepIndex, lastStepIterationCount, lastStepMaxRelativeDepth, bodies.size());
+
+        for (Body body : bodies) {
+            snapshot.captureBody(body);
+        }
+
+        return snapshot;
+    }
+
+    @Nonnull
+    private WorldSnapshot nextSnapshot() {
+        WorldSnapshot snapshot = snapshots[nextSnapshotIndex];
+        if (snapshot == null) {
+            snapshot = new WorldSnapshot(this);
+            snapshots[nextSnapshotIndex] = snapshot;
+        }
+
+        nextSnapshotIndex = (nextSnapshotIndex + 1) % snapshots.length;
+        return snapshot;
+    }
+
+    /**
+     * @return the latest snapshot taken before the step with the {@code stepIndex} or {@code null} if there is no such
+     * snapshot in the ring buffer
+     */
+    @Nullable
+    public WorldSnapshot getSnapshot(long stepIndex) {
+        for (int i = 1, snapshotCount = snapshots.length; i <= snapshotCount; ++i) {
+            WorldSnapshot snapshot = snapshots[(nextSnapshotIndex - i + snapshotCount) % snapshotCount];
+
+            if (snapshot != null && snapshot.getStepIndex() == stepIndex) {
+                return snapshot;
             }
+        }
 
-            for (ColliderEntry colliderEntry : colliderEntries) {
-                if (colliderEntry.collider.matches(body, otherBody)) {
-                    return colliderEntry.collider.collide(body, otherBody);
+        return null;
+    }
+
+    /**
+     * Restores the dynamic state of bodies captured by the {@code snapshot}. Bodies removed from this world after the
+     * snapshot have been taken are skipped, bodies added after that are not changed. Position listeners are not
+     * notified, indexes of the body list are rebuilt once for all bodies instead.
+     * <p>
+     * Snapshots taken after the restored one are dropped, so the ring buffer can be filled again while re-simulating.
+     * Should not be called concurrently with {@link #proceed()}.
+     *
+     * @throws IllegalStateException if the ID of any captured body is released to the
+     *                               {@link #getBodyIdAllocator() body ID allocator} since the snapshot has been taken
+     */
+    public void restore(@Nonnull WorldSnapshot snapshot) {
+        if (snapshot.getWorld() != this) {
+            throw new IllegalArgumentException("Argument 'snapshot' is taken from another world.");
+        }
+
+        long snapshotStepIndex = snapshot.getStepIndex();
+        if (snapshotStepIndex < 0L) {
+            throw new IllegalArgumentException("Argument 'snapshot' is not valid anymore.");
+        }
+
+        BodyIdAllocator bodyIdAllocator = this.bodyIdAllocator;
+        if (bodyIdAllocator != null) {
+            for (int bodyIndex = 0, bodyCount = snapshot.getBodyCount(); bodyIndex < bodyCount; ++bodyIndex) {
+                long id = snapshot.getBodyId(bodyIndex);
+
+                if (!bodyIdAllocator.isAllocated(id, snapshot.getBodyIdGeneration(bodyIndex))) {
+                    throw new IllegalStateException(
+                            "Can't restore " + snapshot + ", ID " + id + " is released to the allocator."
+                    );
                 }
             }
         }
 
-        return null;
-    }
+        for (int bodyIndex = 0, bodyCount = snapshot.getBodyCount(); bodyIndex < bodyCount; ++bodyIndex) {
+            Body body = bodyList.getBody(snapshot.getBodyId(bodyIndex));
+
+            if (body != null) {
+                snapshot.restoreBody(bodyIndex, body);
+            }
+        }
+
+        bodyList.rebuildIndexes();
+
+        setStepState(
+                snapshotStepIndex, snapshot.getLastStepIterationCount(), snapshot.getLastStepMaxRelativeDepth()
+        );
+
+        for (int snapshotIndex = 0, snapshotCount = snapshots.length; snapshotIndex < snapshotCount; ++snapshotIndex) {
+            WorldSnapshot otherSnapshot = snapshots[snapshotIndex];
+
+            if (otherSnapshot == snapshot) {
+                nextSnapshotIndex = (snapshotIndex + 1) % snapshotCount;
+            } else if (otherSnapshot != null && otherSnapshot.getStepIndex() > snapshotStepIndex) {
+                otherSnapshot.invalidate();
+            }
+        }
+    }
+
+    double getLastStepMaxRelativeDepth() {
+        return lastStepMaxRelativeDepth;
+    }
+
+    /**
+     * Sets the state, which is carried from the previous step to the next one. Used to restore a checkpoint.
+     */
+    void setStepState(long stepIndex, int lastStepIterationCount, double lastStepMaxRelativeDepth) {
+        this.stepIndex = stepIndex;
+        this.lastStepIterationCount = lastStepIterationCount;
+        this.lastStepMaxRelativeDepth = lastStepMaxRelativeDepth;
+    }
+
+    @Nullable
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * Sets the recorder of the state of bodies after each step or {@code null} to stop recording. The recorder is not
+     * closed by this world.
+     */
+    public void setTraceRecorder(@Nullable TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    @Nullable
+    public WorldMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics updated by each following step or {@code null} to stop measuring. The same metrics may be shared
+     * by several worlds.
+     */
+    public void setMetrics(@Nullable WorldMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void addBody(@Nonnull Body body) {
+        if (body.getForm() == null || body.getMass() == 0.0D) {
+            throw new IllegalArgumentException("Specify form and mass of 'body' before adding to the world.");
+        }
+
+        if (body.getIdAllocator() != bodyIdAllocator) {
+            throw new IllegalArgumentException("Create 'body' using the body ID allocator of the world.");
+        }
+
+        if (bodyIdAllocator != null && !bodyIdAllocator.isAllocated(body.getId(), body.getIdGeneration())) {
+            throw new IllegalStateException("Can't add " + body + ", its ID is released to the allocator.");
+        }
+
+        bodyList.addBody(body);
+
+        if (removedBodyIdCount > 0 || releasingBodyIdCount > 0) {
+            removedBodyIdCount = removeBodyId(removedBodyIds, removedBodyIdCount, body.getId());
+            releasingBodyIdCount = removeBodyId(releasingBodyIds, releasingBodyIdCount, body.getId());
+        }
+    }
+
+    public void removeBody(@Nonnull Body body) {
+        if (concurrentResolution) {
+            if (!deferBodyRemoval(body)) {
+                throw new IllegalStateException("Can't find " + body + '.');
+            }
+            return;
+        }
+
+        bodyList.removeBody(body);
+        onBodyRemoved(body.getId());
+    }
+
+    public void removeBody(long id) {
+        if (concurrentResolution) {
+            if (!deferBodyRemoval(bodyList.getBody(id))) {
+                throw new IllegalStateException("Can't find Body {id=" + id + "}.");
+            }
+            return;
+        }
+
+        bodyList.removeBody(id);
+        onBodyRemoved(id);
+    }
+
+    public void removeBodyQuietly(@Nullable Body body) {
+        if (concurrentResolution) {
+            deferBodyRemoval(body);
+        } else if (bodyIdAllocator != null && body != null && bodyList.hasBody(body)) {
+            removeBody(body);
+        } else {
+            bodyList.removeBodyQuietly(body);
+        }
+    }
+
+    public void removeBodyQuietly(long id) {
+        if (concurrentResolution) {
+            deferBodyRemoval(bodyList.getBody(id));
+        } else if (bodyIdAllocator != null && bodyList.hasBody(id)) {
+            removeBody(id);
+        } else {
+            bodyList.removeBodyQuietly(id);
+        }
+    }
+
+    /**
+     * @return {@code false} if the body is not in this world or is already removed
+     */
+    private boolean deferBodyRemoval(@Nullable Body body) {
+        listenerLock.lock();
+        try {
+            return body != null && bodyList.hasBody(body) && deferredRemovedBodies.add(body);
+        } finally {
+            listenerLock.unlock();
+        }
+    }
+
+    private void removeDeferredBodies() {
+        for (Body body : deferredRemovedBodies) {
+            removeBodyQuietly(body);
+        }
+
+        deferredRemovedBodies.clear();
+    }
+
+    private void onBodyRemoved(long id) {
+        if (bodyIdAllocator == null) {
+            return;
+        }
+
+        if (removedBodyIdCount == removedBodyIds.length) {
+            removedBodyIds = Arrays.copyOf(removedBodyIds, removedBodyIdCount << 1);
+        }
+
+        removedBodyIds[removedBodyIdCount++] = id;
+    }
+
+    /**
+     * Removes the {@code id} of a body added back to this world from the {@code ids}.
+     *
+     * @return the new count of IDs
+     */
+    private static int removeBodyId(@Nonnull long[] ids, int idCount, long id) {
+        for (int i = 0; i < idCount; ++i) {
+            if (ids[i] == id) {
+                ids[i] = ids[--idCount];
+                return idCount;
+            }
+        }
+
+        return idCount;
+    }
+
+    /**
+     * Releases IDs of bodies removed before the previous step.
+     */
+    private void releaseRemovedBodyIds() {
+        BodyIdAllocator bodyIdAllocator = this.bodyIdAllocator;
+        if (bodyIdAllocator == null) {
+            return;
+        }
+
+        for (int i = 0; i < releasingBodyIdCount; ++i) {
+            bodyIdAllocator.releaseId(releasingBodyIds[i]);
+        }
+
+        long[] releasedBodyIds = releasingBodyIds;
+        releasingBodyIds = removedBodyIds;
+        releasingBodyIdCount = removedBodyIdCount;
+        removedBodyIds = releasedBodyIds;
+        removedBodyIdCount = 0;
+    }
+
+    public boolean hasBody(@Nonnull Body body) {
+        return bodyList.hasBody(body) && !isRemovalDeferred(body);
+    }
+
+    public boolean hasBody(long id) {
+        if (concurrentResolution) {
+            Body body = bodyList.getBody(id);
+            return body != null && !isRemovalDeferred(body);
+        }
+
+        return bodyList.hasBody(id);
+    }
+
+    public Body getBody(long id) {
+        Body body = bodyList.getBody(id);
+        return body == null || isRemovalDeferred(body) ? null : body;
+    }
+
+    private boolean isRemovalDeferred(@Nonnull Body body) {
+        if (!concurrentResolution) {
+            return false;
+        }
+
+        listenerLock.lock();
+        try {
+            return deferredRemovedBodies.contains(body);
+        } finally {
+            listenerLock.unlock();
+        }
+    }
+
+    public boolean isColliding(@Nonnull Body body) {
+        return getCollisionInfo(body) != null;
+    }
+
+    public List<Body> getBodies() {
+        return bodyList.getBodies();
+    }
+
+    @Nullable
+    public CollisionInfo getCollisionInfo(@Nonnull Body body) {
+        if (!bodyList.hasBody(body)) {
+            return null;
+        }
+
+        List<Body> potentialIntersections = bodyList.getPotentialIntersections(body);
+        int intersectionCount = potentialIntersections.size();
+
+        for (int intersectionIndex = 0; intersectionIndex < intersectionCount; ++intersectionIndex) {
+            Body otherBody = potentialIntersections.get(intersectionIndex);
+            if (body.isStatic() && otherBody.isStatic()) {
+                throw new IllegalArgumentException("Static body pairs are unexpected at this time.");
+            }
+
+            for (ColliderEntry colliderEntry : colliderEntries) {
+                if (colliderEntry.collider.matches(body, otherBody)) {
+                    return colliderEntry.collider.collide(body, otherBody);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Nonnull
+    public List<CollisionInfo> getCollisionInfos(@Nonnull Body body) {
+        if (!bodyList.hasBody(body)) {
+            return Collections.emptyList();
+        }
+
+        List<Body> potentialIntersections = bodyList.getPotentialIntersections(body);
+        int intersectionCount = potentialIntersections.size();
+
+        if (intersectionCount == 0) {
+            return Collections.emptyList();
+        }
+
+        List<CollisionInfo> collisionInfos = new ArrayList<>();
+
+        for (int intersectionIndex = 0; intersectionIndex < intersectionCount; ++intersectionIndex) {
+            Body otherBody = potentialIntersections.get(intersectionIndex);
+            if (body.isStatic() && otherBody.isStatic()) {
+                throw new IllegalArgumentException("Static body pairs are unexpected at this time.");
+            }
+
+            for (ColliderEntry colliderEntry : colliderEntries) {
+                if (colliderEntry.collider.matches(body, otherBody)) {
+                    CollisionInfo collisionInfo = colliderEntry.collider.collide(body, otherBody);
+                    if (collisionInfo != null) {
+                        collisionInfos.add(collisionInfo);
+                    }
+                    break;
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(collisionInfos);
+    }
+
+    @SuppressWarnings("ForLoopWithMissingComponent")
+    public void proceed() {
+        if (closed) {
+            throw new IllegalStateException("World is closed.");
+        }
+
+        Collection<Body> bodyCollection = getBodies();
+        int bodyCount = bodyCollection.size();
+        Body[] bodies = bodyCollection.toArray(new Body[bodyCount]);
+
+        if (parallelNarrowphase || contactIslandSolving) {
+            Arrays.sort(bodies, bodyIdComparator);
+        }
+
+        for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+            bodies[bodyIndex].setStepBodyIndex(bodyIndex);
+        }
+
+        awakeBodyCount.set(0);
+        sleepingBodyCount.set(0);
+
+        boolean adaptive = adaptiveIterationCount;
+        maxRelativeSpeed.reset();
+        maxRelativeDepth.reset();
+
+        WorldMetrics metrics = this.metrics;
+        stepMetrics = metrics;
+
+        boolean parallel = bodyCount >= MIN_PARALLEL_BODY_COUNT && parallelTaskExecutor != null;
+        long beforeIterationNanos = 0L;
+        long processIterationNanos = 0L;
+        long time = metrics == null ? 0L : System.nanoTime();
+
+        if (parallel) {
+            executeInParallel(
+                    bodyCount, (leftIndex, rightIndex) -> beforeStep(bodies, leftIndex, rightIndex, adaptive)
+            );
+        } else {
+            beforeStep(bodies, 0, bodyCount, adaptive);
+        }
+
+        startIterations(adaptive);
+
+        long beforeStepNanos = metrics == null ? 0L : System.nanoTime() - time;
+
+        for (int i = stepIterationCount; --i >= 0; ) {
+            if (metrics != null) {
+                time = System.nanoTime();
+            }
+
+            if (parallel) {
+                executeInParallel(bodyCount, (leftIndex, rightIndex) -> beforeIteration(bodies, leftIndex, rightIndex));
+            } else {
+                beforeIteration(bodies, 0, bodyCount);
+            }
+
+            if (metrics != null) {
+                long iterationTime = System.nanoTime();
+                beforeIterationNanos += iterationTime - time;
+                time = iterationTime;
+            }
+
+            processIteration(bodies);
+
+            if (metrics != null) {
+                processIterationNanos += System.nanoTime() - time;
+            }
+        }
+
+        if (metrics != null) {
+            time = System.nanoTime();
+        }
+
+        if (parallel) {
+            executeInParallel(bodyCount, (leftIndex, rightIndex) -> afterStep(bodies, leftIndex, rightIndex));
+        } else {
+            afterStep(bodies, 0, bodyCount);
+        }
+
+        if (metrics != null) {
+            metrics.recordStep(
+                    beforeStepNanos, beforeIterationNanos, processIterationNanos, System.nanoTime() - time
+            );
+        }
+
+        stepMetrics = null;
+
+        lastStepAwakeBodyCount = awakeBodyCount.get();
+        lastStepSleepingBodyCount = sleepingBodyCount.get();
+        lastStepIterationCount = stepIterationCount;
+        lastStepMaxRelativeDepth = maxRelativeDepth.get();
+
+        TraceRecorder traceRecorder = this.traceRecorder;
+        if (traceRecorder != null) {
+            traceRecorder.recordStep(stepIndex, getBodies());
+        }
+
+        releaseRemovedBodyIds();
+        ++stepIndex;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Shuts down the thread pool created by this world. An external executor passed to the constructor is left
+     * running. The world can't {@link #proceed()} after closing, but its bodies may still be read.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (ownParallelTaskExecutor != null) {
+            ownParallelTaskExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Splits range [0, {@code count}) into {@link #parallelThreadCount} nearly equal parts and executes {@code task}
+     * for each of them. The last part is processed by the calling thread.
+     */
+    private void executeInParallel(int count, @Nonnull RangeTask task) {
+        if (parallelTaskExecutor == null || count < parallelThreadCount) {
+            task.execute(0, count);
+            return;
+        }
+
+        Future<?>[] parallelTasks = new Future<?>[parallelThreadCount - 1];
+
+        for (int taskIndex = 0; taskIndex < parallelThreadCount - 1; ++taskIndex) {
+            int leftIndex = getRangeBound(count, taskIndex);
+            int rightIndex = getRangeBound(count, taskIndex + 1);
+            parallelTasks[taskIndex] = CompletableFuture.runAsync(
+                    () -> task.execute(leftIndex, rightIndex), parallelTaskExecutor
+            );
+        }
+
+        try {
+            task.execute(getRangeBound(count, parallelThreadCount - 1), count);
+        } finally {
+            for (Future<?> parallelTask : parallelTasks) {
+                awaitParallelTask(parallelTask);
+            }
+        }
+    }
+
+    private int getRangeBound(int count, int partIndex) {
+        return (int) ((long) count * partIndex / parallelThreadCount);
+    }
+
+    @Nonnull
+    private static Executor validateParallelTaskExecutor(@Nullable Executor parallelTaskExecutor) {
+        if (parallelTaskExecutor == null) {
+            throw new IllegalArgumentException("Argument 'parallelTaskExecutor' is null.");
+        }
+
+        return parallelTaskExecutor;
+    }
+
+    @Nonnull
+    private static ExecutorService newParallelTaskExecutor(int threadCount) {
+        AtomicInteger threadIndex = new AtomicInteger();
+
+        return new ForkJoinPool(threadCount, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("notreal2d.World#ParallelExecutionThread-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (t, e) -> logger.error("Can't complete parallel task in thread '" + t + "'.", e), false);
+    }
+
+    private static void awaitParallelTask(@Nonnull Future<?> parallelTask) {
+        try {
+            parallelTask.get(5L, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            parallelTask.cancel(true);
+            logger.error("Thread has been interrupted while executing parallel task.", e);
+            throw new RuntimeException("Thread has been interrupted while executing parallel task.", e);
+        } catch (ExecutionException e) {
+            parallelTask.cancel(true);
+            logger.error("Thread has failed while executing parallel task.", e);
+            throw new RuntimeException("Thread has failed while executing parallel task.", e);
+        } catch (TimeoutException e) {
+            parallelTask.cancel(true);
+            logger.error("Thread has timed out while executing parallel task.", e);
+            throw new RuntimeException("Thread has timed out while executing parallel task.", e);
+        }
+    }
+
+    private void beforeStep(@Nonnull Body[] bodies, int leftIndex, int rightIndex, boolean adaptive) {
+        double maxRelativeSpeed = 0.0D;
+
+        for (int bodyIndex = leftIndex; bodyIndex < rightIndex; ++bodyIndex) {
+            Body body = bodies[bodyIndex];
+            if (!hasBody(body)) {
+                continue;
+            }
+
+            if (body.isSleeping() && shouldSleep(body)) {
+                continue;
+            }
+
+            body.normalizeAngle();
+            body.saveBeforeStepState();
+
+            if (adaptive && !body.isStatic()) {
+                double speed = sqrt(sqr(body.getVelocityX()) + sqr(body.getVelocityY()));
+                maxRelativeSpeed = max(maxRelativeSpeed, speed / body.getForm().getCircumcircleRadius());
+            }
+        }
+
+        if (maxRelativeSpeed > 0.0D) {
+            this.maxRelativeSpeed.accumulate(maxRelativeSpeed);
+        }
+    }
+
+    /**
+     * Chooses the count of iterations of the current step.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    private void startIterations(boolean adaptive) {
+        int iterationCount = iterationCountPerStep;
+
+        if (adaptive) {
+            double relativeStepMovement = maxRelativeSpeed.get() / stepCountPerTimeUnit;
+            double movementIterationCount = relativeStepMovement / MAX_ADAPTIVE_ITERATION_RELATIVE_MOVEMENT;
+            double depthIterationCount = lastStepIterationCount
+                    * lastStepMaxRelativeDepth / MAX_ADAPTIVE_ITERATION_RELATIVE_DEPTH;
+
+            double adaptiveIterationCount = ceil(max(movementIterationCount, depthIterationCount));
+
+            iterationCount = adaptiveIterationCount >= maxIterationCountPerStep
+                    ? maxIterationCountPerStep
+                    : max(minIterationCountPerStep, (int) adaptiveIterationCount);
+        }
+
+        stepIterationCount = iterationCount;
+        iterationUpdateFactor = iterationCount == iterationCountPerStep
+                ? updateFactor
+                : 1.0D / (stepCountPerTimeUnit * iterationCount);
+    }
+
+    /**
+     * Wakes up a sleeping body if sleeping has been disabled or the body has been pushed by the user code.
+     *
+     * @return {@code true} if the body remains sleeping
+     */
+    private boolean shouldSleep(@Nonnull Body body) {
+        if (bodySleeping && body.getForceX() == 0.0D && body.getForceY() == 0.0D && body.getTorque() == 0.0D
+                && isResting(body)) {
+            return true;
+        }
+
+        body.wakeUp();
+        return false;
+    }
+
+    private boolean isResting(@Nonnull Body body) {
+        double velocityThreshold = sleepVelocityThreshold;
+
+        return sqr(body.getVelocityX()) + sqr(body.getVelocityY()) <= sqr(velocityThreshold)
+                && abs(body.getAngularVelocity()) <= sleepAngularVelocityThreshold;
+    }
+
+    private void beforeIteration(@Nonnull Body[] bodies, int leftIndex, int rightIndex) {
+        for (int bodyIndex = leftIndex; bodyIndex < rightIndex; ++bodyIndex) {
+            Body body = bodies[bodyIndex];
+            if (!hasBody(body) || body.isSleeping()) {
+                continue;
+            }
+
+            body.saveBeforeIterationState();
+            updateState(body);
+            body.normalizeAngle();
+        }
+    }
+
+    private void processIteration(@Nonnull Body[] bodies) {
+        resolveBulletMovements(bodies);
+
+        if (parallelNarrowphase || contactIslandSolving) {
+            processIterationWithPrecalculatedCollisions(bodies);
+            return;
+        }
+
+        collisionInfoByBodyIdsPair.clear();
+
+        if (movedBodyFlags.length < bodies.length) {
+            movedBodyFlags = new boolean[max(bodies.length, movedBodyFlags.length << 1)];
+        }
+
+        BodyPairBuffer pairs = findPotentialIntersectionPairs();
+        pairs.sort();
+
+        try {
+            for (int pairIndex = 0, pairCount = pairs.size(); pairIndex < pairCount; ++pairIndex) {
+                Body bodyA = pairs.getBodyA(pairIndex);
+                Body bodyB = pairs.getBodyB(pairIndex);
+
+                if ((isAwake(bodyA) || isAwake(bodyB)) && hasBody(bodyA) && hasBody(bodyB)) {
+                    collideAndTrackMovement(bodies, bodyA, bodyB);
+                }
+            }
+        } finally {
+            pairs.clear();
+        }
+
+        collideMovedBodies(bodies);
+    }
+
+    /**
+     * Collides the bodies and remembers the ones, which have been pushed back or woken up by the collision, since they
+     * may now intersect bodies missing from the potential intersections found at the start of the iteration.
+     */
+    private void collideAndTrackMovement(@Nonnull Body[] bodies, @Nonnull Body bodyA, @Nonnull Body bodyB) {
+        boolean sleepingA = bodyA.isSleeping();
+        boolean sleepingB = bodyB.isSleeping();
+
+        CollisionInfo collisionInfo = collide(bodyA, bodyB, null);
+        if (collisionInfo == null) {
+            return;
+        }
+
+        boolean pushedBack = collisionInfo.getDepth() >= epsilon;
+
+        if (pushedBack || sleepingA && !bodyA.isSleeping()) {
+            addMovedBody(bodies, bodyA);
+        }
+
+        if (pushedBack || sleepingB && !bodyB.isSleeping()) {
+            addMovedBody(bodies, bodyB);
+        }
+    }
+
+    private void addMovedBody(@Nonnull Body[] bodies, @Nonnull Body body) {
+        if (body.isStatic()) {
+            return;
+        }
+
+        int bodyIndex = findStepBodyIndex(bodies, body);
+
+        if (bodyIndex >= 0) {
+            if (movedBodyFlags[bodyIndex]) {
+                return;
+            }
+
+            movedBodyFlags[bodyIndex] = true;
+        }
+
+        if (movedBodyCount == movedBodies.length) {
+            movedBodies = Arrays.copyOf(movedBodies, movedBodyCount << 1);
+        }
+
+        movedBodies[movedBodyCount++] = body;
+    }
+
+    /**
+     * Queries the current potential intersections of each moved body, so a body pushed into another one is collided
+     * with it in the same iteration, as if each body had been queried after the resolution of the previous ones. Pairs
+     * already processed in this iteration are skipped. Bodies moved by these collisions are queried too.
+     */
+    private void collideMovedBodies(@Nonnull Body[] bodies) {
+        try {
+            for (int movedBodyIndex = 0; movedBodyIndex < movedBodyCount; ++movedBodyIndex) {
+                Body body = movedBodies[movedBodyIndex];
+                if (!hasBody(body)) {
+                    continue;
+                }
+
+                List<Body> potentialIntersections = bodyList.getPotentialIntersections(body);
+
+                if (stepMetrics != null) {
+                    stepMetrics.addBroadphaseCandidates(potentialIntersections.size());
+                }
+
+                for (int otherBodyIndex = 0, otherBodyCount = potentialIntersections.size();
+                     otherBodyIndex < otherBodyCount; ++otherBodyIndex) {
+                    if (!hasBody(body)) {
+                        break;
+                    }
+
+                    Body otherBody = potentialIntersections.get(otherBodyIndex);
+
+                    if ((isAwake(body) || isAwake(otherBody)) && hasBody(otherBody)) {
+                        collideAndTrackMovement(bodies, body, otherBody);
+                    }
+                }
+            }
+        } finally {
+            for (int movedBodyIndex = 0; movedBodyIndex < movedBodyCount; ++movedBodyIndex) {
+                int bodyIndex = findStepBodyIndex(bodies, movedBodies[movedBodyIndex]);
+
+                if (bodyIndex >= 0) {
+                    movedBodyFlags[bodyIndex] = false;
+                }
+
+                movedBodies[movedBodyIndex] = null;
+            }
+
+            movedBodyCount = 0;
+        }
+    }
+
+    /**
+     * Enumerates each potential intersection of the current iteration once. The returned buffer is reused by all
+     * iterations.
+     */
+    @Nonnull
+    private BodyPairBuffer findPotentialIntersectionPairs() {
+        BodyPairBuffer pairs = potentialIntersectionPairs;
+        bodyList.getPotentialIntersectionPairs(pairs);
+
+        if (stepMetrics != null) {
+            stepMetrics.addBroadphaseCandidates(pairs.size());
+        }
+
+        return pairs;
+    }
+
+    /**
+     * @return {@code true} if the body is neither static nor sleeping, so it should be checked for collisions
+     */
+    private static boolean isAwake(@Nonnull Body body) {
+        return !body.isStatic() && !body.isSleeping();
+    }
+
+    private void resolveBulletMovements(@Nonnull Body[] bodies) {
+        for (int bodyIndex = 0, bodyCount = bodies.length; bodyIndex < bodyCount; ++bodyIndex) {
+            Body body = bodies[bodyIndex];
+
+            if (body.isBullet() && !body.isStatic() && !body.isSleeping() && hasBody(body)) {
+                resolveBulletMovement(body);
+            }
+        }
+    }
+
+    /**
+     * Moves the bullet back to the first contact on the path of the current iteration. The bodies the bullet can meet
+     * are gathered by the broad phase at positions spaced by the circumcircle radius of the bullet. The time of impact
+     * with each of them is found by conservative advancement: the bullet is moved forward by the distance between the
+     * outlines divided by the highest approach speed, which can't skip a contact, however thin the bodies are. Then
+     * the bullet is moved slightly further until the registered colliders report a collision, so it is resolved as
+     * usual.
+     * <p>
+     * Collision listeners are not notified during the sweep. They are notified by the regular collision detection
+     * only. If a listener rejects the collision, the bullet loses the rest of its path in this iteration, and passes
+     * through the other body in the next one, since the bodies intersecting at the start of an iteration are left to
+     * the regular collision detection.
+     */
+    private void resolveBulletMovement(@Nonnull Body body) {
+        DynamicState beforeIterationState = body.getBeforeIterationState();
+        if (beforeIterationState == null) {
+            return;
+        }
+
+        BulletPath path = bulletPath;
+        path.update(body, beforeIterationState, iterationUpdateFactor);
+
+        if (path.maxMovement < epsilon) {
+            return;
+        }
+
+        int otherBodyCount = findBulletPotentialIntersections(body, path);
+        Body[] otherBodies = bulletPotentialIntersections;
+
+        if (bulletFormDistance == null) {
+            bulletFormDistance = new FormDistance(epsilon);
+        }
+
+        if (bulletImpactFractions.length < otherBodyCount) {
+            bulletImpactFractions = new double[max(otherBodyCount, bulletImpactFractions.length << 1)];
+        }
+
+        double[] impactFractions = bulletImpactFractions;
+
+        for (int otherBodyIndex = 0; otherBodyIndex < otherBodyCount; ++otherBodyIndex) {
+            impactFractions[otherBodyIndex] = findBulletImpactFraction(
+                    body, otherBodies[otherBodyIndex], path, bulletFormDistance
+            );
+        }
+
+        while (true) {
+            int firstOtherBodyIndex = -1;
+
+            for (int otherBodyIndex = 0; otherBodyIndex < otherBodyCount; ++otherBodyIndex) {
+                if (impactFractions[otherBodyIndex] <= 1.0D && (firstOtherBodyIndex == -1
+                        || impactFractions[otherBodyIndex] < impactFractions[firstOtherBodyIndex])) {
+                    firstOtherBodyIndex = otherBodyIndex;
+                }
+            }
+
+            if (firstOtherBodyIndex == -1) {
+                break;
+            }
+
+            if (moveBulletIntoContact(body, otherBodies[firstOtherBodyIndex], path,
+                    impactFractions[firstOtherBodyIndex])) {
+                Arrays.fill(otherBodies, 0, otherBodyCount, null);
+                return;
+            }
+
+            // The bullet has only touched the other body in passing.
+            impactFractions[firstOtherBodyIndex] = Double.POSITIVE_INFINITY;
+        }
+
+        Arrays.fill(otherBodies, 0, otherBodyCount, null);
+        body.setPosition(path.finishX, path.finishY);
+        body.setAngle(path.finishAngle);
+    }
+
+    /**
+     * Stores bodies the bullet can meet on its path, except ones it already intersects at the start of the iteration,
+     * to the {@link #bulletPotentialIntersections} in the order of IDs.
+     *
+     * @return the count of stored bodies
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    private int findBulletPotentialIntersections(@Nonnull Body body, @Nonnull BulletPath path) {
+        double radius = body.getForm().getCircumcircleRadius();
+        int sampleCount = max(1, (int) ceil(path.distance / radius));
+
+        Body[] potentialIntersections = bulletPotentialIntersections;
+        int potentialIntersectionCount = 0;
+
+        for (int sampleIndex = sampleCount; sampleIndex >= 0; --sampleIndex) {
+            path.moveBullet(body, (double) sampleIndex / sampleCount);
+            List<Body> samplePotentialIntersections = bodyList.getPotentialIntersections(body);
+            int samplePotentialIntersectionCount = samplePotentialIntersections.size();
+
+            if (stepMetrics != null) {
+                stepMetrics.addBroadphaseCandidates(samplePotentialIntersectionCount);
+            }
+
+            int requiredLength = potentialIntersectionCount + samplePotentialIntersectionCount;
+
+            if (potentialIntersections.length < requiredLength) {
+                potentialIntersections = Arrays.copyOf(
+                        potentialIntersections, max(requiredLength, potentialIntersections.length << 1)
+                );
+                bulletPotentialIntersections = potentialIntersections;
+            }
+
+            for (int bodyIndex = 0; bodyIndex < samplePotentialIntersectionCount; ++bodyIndex) {
+                potentialIntersections[potentialIntersectionCount++] = samplePotentialIntersections.get(bodyIndex);
+            }
+        }
+
+        Arrays.sort(potentialIntersections, 0, potentialIntersectionCount, bodyIdComparator);
+
+        // Neighbouring samples overlap, so the same body is usually found several times.
+        int otherBodyCount = 0;
+        Body previousBody = null;
+
+        for (int bodyIndex = 0; bodyIndex < potentialIntersectionCount; ++bodyIndex) {
+            Body otherBody = potentialIntersections[bodyIndex];
+            if (otherBody == previousBody) {
+                continue;
+            }
+
+            previousBody = otherBody;
+
+            if (hasBody(otherBody) && findCollisionInfo(body, otherBody) == null) {
+                potentialIntersections[otherBodyCount++] = otherBody;
+            }
+        }
+
+        Arrays.fill(potentialIntersections, otherBodyCount, potentialIntersectionCount, null);
+        return otherBodyCount;
+    }
+
+    /**
+     * Finds the time of impact by conservative advancement. If the outlines are convex, the line through their
+     * closest points separates the bodies, so only the movement along the normal of this line brings them closer.
+     *
+     * @return the fraction of the path passed by the bullet when it touches the other body, or
+     * {@link Double#POSITIVE_INFINITY} if it does not touch the other body during the iteration
+     */
+    private double findBulletImpactFraction(
+            @Nonnull Body body, @Nonnull Body otherBody, @Nonnull BulletPath path,
+            @Nonnull FormDistance formDistance) {
+        double fraction = 0.0D;
+
+        for (int stepIndex = 0; stepIndex < MAX_BULLET_ADVANCEMENT_STEP_COUNT; ++stepIndex) {
+            path.moveBullet(body, fraction);
+            formDistance.update(body, otherBody);
+
+            double distance = formDistance.getDistance();
+            if (distance <= epsilon) {
+                return fraction;
+            }
+
+            double approachSpeed = formDistance.hasNormal()
+                    ? path.deltaX * formDistance.getNormalX() + path.deltaY * formDistance.getNormalY()
+                    : path.distance;
+            approachSpeed += path.rotationMovement;
+
+            if (approachSpeed <= 0.0D) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            fraction += distance / approachSpeed;
+
+            if (fraction > 1.0D) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+
+        return fraction;
+    }
+
+    /**
+     * Moves the bullet from the contact position by exponentially increasing steps until the colliders report a
+     * collision with the other body, then refines the position of the collision by bisection. The collision should be
+     * deep enough to {@link #pushBackBodies push back} the bodies, otherwise they would still intersect at the start
+     * of the next iteration.
+     *
+     * @return {@code false} if the bullet has reached the end of its path without colliding the other body
+     */
+    private boolean moveBulletIntoContact(
+            @Nonnull Body body, @Nonnull Body otherBody, @Nonnull BulletPath path, double impactFraction) {
+        double freeFraction = impactFraction;
+        double contactFraction;
+
+        for (double step = epsilon / path.maxMovement; ; step *= 2.0D) {
+            contactFraction = min(impactFraction + step, 1.0D);
+
+            if (isBulletColliding(body, otherBody, path, contactFraction)) {
+                break;
+            }
+
+            if (contactFraction >= 1.0D) {
+                return false;
+            }
+
+            freeFraction = contactFraction;
+        }
+
+        for (int stepIndex = 0; stepIndex < BULLET_BISECTION_STEP_COUNT; ++stepIndex) {
+            double middleFraction = 0.5D * (freeFraction + contactFraction);
+
+            if (isBulletColliding(body, otherBody, path, middleFraction)) {
+                contactFraction = middleFraction;
+            } else {
+                freeFraction = middleFraction;
+            }
+        }
+
+        path.moveBullet(body, contactFraction);
+        return true;
+    }
+
+    private boolean isBulletColliding(
+            @Nonnull Body body, @Nonnull Body otherBody, @Nonnull BulletPath path, double fraction) {
+        path.moveBullet(body, fraction);
+        CollisionInfo collisionInfo = findCollisionInfo(body, otherBody);
+        return collisionInfo != null && collisionInfo.getDepth() >= epsilon;
+    }
+
+    /**
+     * Gathers potential intersections and collides each pair of bodies in parallel using the state of bodies at the
+     * start of the iteration. Then resolves found collisions one by one in the order of body IDs. A pair is collided
+     * again if any of its bodies has been changed by the resolution of a previous pair.
+     * <p>
+     * Collision listeners are always called by the calling thread.
+     */
+    private void processIterationWithPrecalculatedCollisions(@Nonnull Body[] bodies) {
+        BodyPairBuffer pairs = findPotentialIntersectionPairs();
+        pairs.sort();
+
+        int pairCount = pairs.size();
+
+        if (pairCollisionInfos.length < pairCount) {
+            pairCollisionInfos = new CollisionInfo[max(pairCount, pairCollisionInfos.length << 1)];
+        }
+
+        CollisionInfo[] collisionInfos = pairCollisionInfos;
+
+        // Skipped pairs are left null, pairs of bodies not in contact are marked by NULL_COLLISION_INFO.
+        RangeTask narrowphaseTask = (leftIndex, rightIndex) -> {
+            for (int pairIndex = leftIndex; pairIndex < rightIndex; ++pairIndex) {
+                Body bodyA = pairs.getBodyA(pairIndex);
+                Body bodyB = pairs.getBodyB(pairIndex);
+
+                if (!isAwake(bodyA) && !isAwake(bodyB) || !hasBody(bodyA) || !hasBody(bodyB)) {
+                    continue;
+                }
+
+                CollisionInfo collisionInfo = findCollisionInfo(bodyA, bodyB);
+                collisionInfos[pairIndex] = collisionInfo == null ? NULL_COLLISION_INFO : collisionInfo;
+            }
+        };
+
+        if (bodies.length < MIN_PARALLEL_BODY_COUNT || !parallelNarrowphase && !contactIslandSolving) {
+            narrowphaseTask.execute(0, pairCount);
+        } else {
+            executeInParallel(pairCount, narrowphaseTask);
+        }
+
+        collisionInfoByBodyIdsPair.clear();
+
+        if (contactIslandSolving) {
+            resolveContactIslands(bodies, pairs, collisionInfos);
+        } else {
+            changedBodies.clear();
+
+            for (int pairIndex = 0; pairIndex < pairCount; ++pairIndex) {
+                CollisionInfo collisionInfo = collisionInfos[pairIndex];
+                if (collisionInfo == null) {
+                    continue;
+                }
+
+                Body bodyA = pairs.getBodyA(pairIndex);
+                Body bodyB = pairs.getBodyB(pairIndex);
+
+                if (hasBody(bodyA) && hasBody(bodyB)) {
+                    collide(bodyA, bodyB, collisionInfo);
+                }
+            }
+
+            changedBodies.clear();
+        }
+
+        Arrays.fill(collisionInfos, 0, pairCount, null);
+        pairs.clear();
+    }
+
+    private void afterStep(@Nonnull Body[] bodies, int leftIndex, int rightIndex) {
+        int awakeBodyCount = 0;
+        int sleepingBodyCount = 0;
+
+        for (int bodyIndex = leftIndex; bodyIndex < rightIndex; ++bodyIndex) {
+            Body body = bodies[bodyIndex];
+            if (!hasBody(body)) {
+                continue;
+            }
+
+            if (body.isSleeping()) {
+                ++sleepingBodyCount;
+                continue;
+            }
+
+            body.setForce(0.0D, 0.0D);
+            body.setTorque(0.0D);
+
+            if (body.isStatic()) {
+                continue;
+            }
+
+            if (bodySleeping && isResting(body)) {
+                int restingStepCount = body.getRestingStepCount() + 1;
+
+                if (restingStepCount >= sleepStepCount) {
+                    body.sleep();
+                    ++sleepingBodyCount;
+                    continue;
+                }
+
+                body.setRestingStepCount(restingStepCount);
+            } else {
+                body.setRestingStepCount(0);
+            }
+
+            ++awakeBodyCount;
+        }
+
+        this.awakeBodyCount.addAndGet(awakeBodyCount);
+        this.sleepingBodyCount.addAndGet(sleepingBodyCount);
+    }
+
+    /**
+     * Collects collisions found by the narrowphase in the order of body IDs, groups them into contact islands and
+     * resolves islands independently of each other.
+     *
+     * @param collisionInfos collision information of the {@code pairs} calculated at the start of the iteration
+     *                       ({@link #NULL_COLLISION_INFO} if bodies did not collide or {@code null} if the pair
+     *                       should be skipped)
+     */
+    @SuppressWarnings("OverlyLongMethod")
+    private void resolveContactIslands(
+            @Nonnull Body[] bodies, @Nonnull BodyPairBuffer pairs, @Nonnull CollisionInfo[] collisionInfos) {
+        int bodyCount = bodies.length;
+        int pairCount = pairs.size();
+
+        if (islandSolvingContacts.length < pairCount) {
+            int capacity = max(pairCount, islandSolvingContacts.length << 1);
+            islandSolvingContacts = new CollisionInfo[capacity];
+            islandContacts = new CollisionInfo[capacity];
+            contactBodyIndexes = new int[capacity];
+            contactIslandIndexes = new int[capacity];
+            islandContactCounts = new int[capacity];
+            islandOffsets = new int[capacity + 1];
+            islandContactIndexes = new int[capacity];
+            islandTaskIndexes = new int[capacity];
+            islandOrder = new long[capacity];
+        }
+
+        if (parentBodyIndexes.length < bodyCount) {
+            int capacity = max(bodyCount, parentBodyIndexes.length << 1);
+            parentBodyIndexes = new int[capacity];
+            islandIndexByRootBodyIndex = new int[capacity];
+            changedBodyFlags = new boolean[capacity];
+        }
+
+        CollisionInfo[] contacts = islandSolvingContacts;
+        int contactCount = 0;
+
+        for (int pairIndex = 0; pairIndex < pairCount; ++pairIndex) {
+            CollisionInfo collisionInfo = collisionInfos[pairIndex];
+            if (collisionInfo == null) {
+                continue;
+            }
+
+            Body bodyA = pairs.getBodyA(pairIndex);
+            Body bodyB = pairs.getBodyB(pairIndex);
+
+            if (!hasBody(bodyA) || !hasBody(bodyB) || !startCollision(bodyA, bodyB)) {
+                continue;
+            }
+
+            collisionInfoByBodyIdsPair.put(bodyA.getId(), bodyB.getId(), collisionInfo);
+
+            if (collisionInfo != NULL_COLLISION_INFO) {
+                contacts[contactCount++] = collisionInfo;
+            }
+        }
+
+        if (contactCount == 0) {
+            return;
+        }
+
+        try {
+            resolveContactIslands(bodies, contactCount);
+        } finally {
+            Arrays.fill(contacts, 0, contactCount, null);
+            Arrays.fill(islandContacts, 0, contactCount, null);
+        }
+    }
+
+    /**
+     * Groups the first {@code contactCount} contacts of the {@link #islandSolvingContacts} into islands and resolves
+     * them.
+     */
+    @SuppressWarnings("OverlyLongMethod")
+    private void resolveContactIslands(@Nonnull Body[] bodies, int contactCount) {
+        CollisionInfo[] contacts = islandSolvingContacts;
+
+        int bodyCount = bodies.length;
+        int[] parentBodyIndexes = this.parentBodyIndexes;
+        for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+            parentBodyIndexes[bodyIndex] = bodyIndex;
+        }
+
+        int[] contactBodyIndexes = this.contactBodyIndexes;
+
+        for (int contactIndex = 0; contactIndex < contactCount; ++contactIndex) {
+            CollisionInfo contact = contacts[contactIndex];
+            int bodyIndexA = findStepBodyIndex(bodies, contact.getBodyA());
+            int bodyIndexB = findStepBodyIndex(bodies, contact.getBodyB());
+
+            if (bodyIndexA >= 0 && bodyIndexB >= 0) {
+                parentBodyIndexes[findRootBodyIndex(parentBodyIndexes, bodyIndexA)]
+                        = findRootBodyIndex(parentBodyIndexes, bodyIndexB);
+            }
 
-    @Nonnull
-    public List<CollisionInfo> getCollisionInfos(@Nonnull Body body) {
-        if (!bodyList.hasBody(body)) {
-            return Collections.emptyList();
+            contactBodyIndexes[contactIndex] = bodyIndexA >= 0 ? bodyIndexA : bodyIndexB;
         }
 
-        List<Body> potentialIntersections = bodyList.getPotentialIntersections(body);
-        int intersectionCount = potentialIntersections.size();
+        int[] islandIndexByRootBodyIndex = this.islandIndexByRootBodyIndex;
+        Arrays.fill(islandIndexByRootBodyIndex, 0, bodyCount, -1);
 
-        if (intersectionCount == 0) {
-            return Collections.emptyList();
-        }
+        int[] contactIslandIndexes = this.contactIslandIndexes;
+        int[] islandContactCounts = this.islandContactCounts;
+        Arrays.fill(islandContactCounts, 0, contactCount, 0);
+        int islandCount = 0;
 
-        List<CollisionInfo> collisionInfos = new ArrayList<>();
+        for (int contactIndex = 0; contactIndex < contactCount; ++contactIndex) {
+            int islandIndex;
 
-        for (int intersectionIndex = 0; intersectionIndex < intersectionCount; ++intersectionIndex) {
-            Body otherBody = potentialIntersections.get(intersectionIndex);
-            if (body.isStatic() && otherBody.isStatic()) {
-                throw new IllegalArgumentException("Static body pairs are unexpected at this time.");
-            }
+            if (contactBodyIndexes[contactIndex] == -1) {
+                // Both bodies have been added during the step, so the contact is not linked to any island.
+                islandIndex = islandCount++;
+            } else {
+                int rootBodyIndex = findRootBodyIndex(parentBodyIndexes, contactBodyIndexes[contactIndex]);
+                islandIndex = islandIndexByRootBodyIndex[rootBodyIndex];
 
-            for (ColliderEntry colliderEntry : colliderEntries) {
-                if (colliderEntry.collider.matches(body, otherBody)) {
-                    CollisionInfo collisionInfo = colliderEntry.collider.collide(body, otherBody);
-                    if (collisionInfo != null) {
-                        collisionInfos.add(collisionInfo);
-                    }
-                    break;
+                if (islandIndex == -1) {
+                    islandIndex = islandCount++;
+                    islandIndexByRootBodyIndex[rootBodyIndex] = islandIndex;
                 }
             }
+
+            contactIslandIndexes[contactIndex] = islandIndex;
+            ++islandContactCounts[islandIndex];
         }
 
-        return Collections.unmodifiableList(collisionInfos);
-    }
+        int[] islandOffsets = this.islandOffsets;
+        int[] islandContactIndexes = this.islandContactIndexes;
+        islandOffsets[0] = 0;
 
-    @SuppressWarnings("ForLoopWithMissingComponent")
-    public void proceed() {
-        Collection<Body> bodyCollection = getBodies();
-        int bodyCount = bodyCollection.size();
-        Body[] bodies = bodyCollection.toArray(new Body[bodyCount]);
+        for (int islandIndex = 0; islandIndex < islandCount; ++islandIndex) {
+            islandOffsets[islandIndex + 1] = islandOffsets[islandIndex] + islandContactCounts[islandIndex];
+            islandContactIndexes[islandIndex] = islandOffsets[islandIndex];
+        }
 
-        if (bodyCount < 1000 || parallelTaskExecutor == null) {
-            beforeStep(bodies, 0, bodyCount);
+        CollisionInfo[] islandContacts = this.islandContacts;
 
-            for (int i = iterationCountPerStep; --i >= 0; ) {
-                beforeIteration(bodies, 0, bodyCount);
-                processIteration(bodies);
+        for (int contactIndex = 0; contactIndex < contactCount; ++contactIndex) {
+            islandContacts[islandContactIndexes[contactIslandIndexes[contactIndex]]++] = contacts[contactIndex];
+        }
+
+        if (parallelTaskExecutor == null || islandCount == 1 || contactCount <= MAX_ISLAND_TASK_CONTACT_COUNT) {
+            for (int islandIndex = 0; islandIndex < islandCount; ++islandIndex) {
+                resolveContactIsland(
+                        bodies, islandContacts, islandOffsets[islandIndex], islandOffsets[islandIndex + 1]
+                );
             }
+            return;
+        }
 
-            afterStep(bodies, 0, bodyCount);
-        } else {
-            int middleIndex = bodyCount / PARALLEL_THREAD_COUNT;
+        // Islands are ordered by descending contact count, then by ascending index.
+        long[] islandOrder = this.islandOrder;
+        for (int islandIndex = 0; islandIndex < islandCount; ++islandIndex) {
+            islandOrder[islandIndex] = (long) islandContactCounts[islandIndex] << 32 | ~islandIndex & 0xFFFFFFFFL;
+        }
 
-            Future<?> parallelTask = parallelTaskExecutor.submit(() -> beforeStep(bodies, 0, middleIndex));
-            beforeStep(bodies, middleIndex, bodyCount);
-            awaitParallelTask(parallelTask);
+        Arrays.sort(islandOrder, 0, islandCount);
 
-            for (int i = iterationCountPerStep; --i >= 0; ) {
-                parallelTask = parallelTaskExecutor.submit(() -> beforeIteration(bodies, 0, middleIndex));
-                beforeIteration(bodies, middleIndex, bodyCount);
-                awaitParallelTask(parallelTask);
+        // Islands are assigned to tasks starting from the largest one, each to the task with the fewest contacts.
+        int taskCount = parallelThreadCount;
+        int[] taskContactCounts = new int[taskCount];
+        int[] islandTaskIndexes = this.islandTaskIndexes;
+
+        for (int orderIndex = islandCount - 1; orderIndex >= 0; --orderIndex) {
+            int islandIndex = ~(int) islandOrder[orderIndex];
+            int taskIndex = 0;
 
-                processIteration(bodies);
+            for (int otherTaskIndex = 1; otherTaskIndex < taskCount; ++otherTaskIndex) {
+                if (taskContactCounts[otherTaskIndex] < taskContactCounts[taskIndex]) {
+                    taskIndex = otherTaskIndex;
+                }
             }
 
-            parallelTask = parallelTaskExecutor.submit(() -> afterStep(bodies, 0, middleIndex));
-            afterStep(bodies, middleIndex, bodyCount);
-            awaitParallelTask(parallelTask);
+            islandTaskIndexes[islandIndex] = taskIndex;
+            taskContactCounts[taskIndex] += islandContactCounts[islandIndex];
         }
-    }
 
-    private static void awaitParallelTask(@Nonnull Future<?> parallelTask) {
+        int finalIslandCount = islandCount;
+
+        concurrentResolution = true;
         try {
-            parallelTask.get(5L, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            parallelTask.cancel(true);
-            logger.error("Thread has been interrupted while executing parallel task.", e);
-            throw new RuntimeException("Thread has been interrupted while executing parallel task.", e);
-        } catch (ExecutionException e) {
-            parallelTask.cancel(true);
-            logger.error("Thread has failed while executing parallel task.", e);
-            throw new RuntimeException("Thread has failed while executing parallel task.", e);
-        } catch (TimeoutException e) {
-            parallelTask.cancel(true);
-            logger.error("Thread has timed out while executing parallel task.", e);
-            throw new RuntimeException("Thread has timed out while executing parallel task.", e);
+            executeInParallel(taskCount, (leftTaskIndex, rightTaskIndex) -> {
+                for (int islandIndex = 0; islandIndex < finalIslandCount; ++islandIndex) {
+                    int taskIndex = islandTaskIndexes[islandIndex];
+
+                    if (taskIndex >= leftTaskIndex && taskIndex < rightTaskIndex) {
+                        resolveContactIsland(
+                                bodies, islandContacts, islandOffsets[islandIndex], islandOffsets[islandIndex + 1]
+                        );
+                    }
+                }
+            });
+        } finally {
+            concurrentResolution = false;
+            removeDeferredBodies();
         }
     }
 
-    private void beforeStep(@Nonnull Body[] bodies, int leftIndex, int rightIndex) {
-        for (int bodyIndex = leftIndex; bodyIndex < rightIndex; ++bodyIndex) {
-            Body body = bodies[bodyIndex];
-            if (!hasBody(body)) {
-                continue;
-            }
-
-            body.normalizeAngle();
-            body.saveBeforeStepState();
+    /**
+     * @return the index of the non-static {@code body} in the {@code bodies} of the current step or {@code -1} if the
+     * body is static or has been added to the world during the step
+     */
+    private static int findStepBodyIndex(@Nonnull Body[] bodies, @Nonnull Body body) {
+        if (body.isStatic()) {
+            return -1;
         }
+
+        int bodyIndex = body.getStepBodyIndex();
+        return bodyIndex >= 0 && bodyIndex < bodies.length && bodies[bodyIndex] == body ? bodyIndex : -1;
     }
 
-    private void beforeIteration(@Nonnull Body[] bodies, int leftIndex, int rightIndex) {
-        for (int bodyIndex = leftIndex; bodyIndex < rightIndex; ++bodyIndex) {
-            Body body = bodies[bodyIndex];
-            if (!hasBody(body)) {
-                continue;
+    /**
+     * Resolves contacts of a single island in the given order. A contact is collided again if any of its bodies has
+     * been changed by the resolution of a previous contact. A body, which has been added to the world during the
+     * step, has no flag, so its contacts are always collided again.
+     */
+    private void resolveContactIsland(
+            @Nonnull Body[] bodies, @Nonnull CollisionInfo[] islandContacts, int leftContactIndex,
+            int rightContactIndex) {
+        boolean[] changedBodyFlags = this.changedBodyFlags;
+
+        for (int contactIndex = leftContactIndex; contactIndex < rightContactIndex; ++contactIndex) {
+            CollisionInfo collisionInfo = islandContacts[contactIndex];
+            int bodyIndexA = findStepBodyIndex(bodies, collisionInfo.getBodyA());
+            int bodyIndexB = findStepBodyIndex(bodies, collisionInfo.getBodyB());
+
+            if (bodyIndexA >= 0) {
+                changedBodyFlags[bodyIndexA] = false;
             }
 
-            body.saveBeforeIterationState();
-            updateState(body);
-            body.normalizeAngle();
+            if (bodyIndexB >= 0) {
+                changedBodyFlags[bodyIndexB] = false;
+            }
         }
-    }
 
-    private void processIteration(@Nonnull Body[] bodies) {
-        Map<LongPair, CollisionInfo> collisionInfoByBodyIdsPair = new HashMap<>();
+        for (int contactIndex = leftContactIndex; contactIndex < rightContactIndex; ++contactIndex) {
+            CollisionInfo collisionInfo = islandContacts[contactIndex];
+            Body bodyA = collisionInfo.getBodyA();
+            Body bodyB = collisionInfo.getBodyB();
 
-        for (int bodyIndex = 0, bodyCount = bodies.length; bodyIndex < bodyCount; ++bodyIndex) {
-            Body body = bodies[bodyIndex];
-            if (body.isStatic() || !hasBody(body)) {
-                continue;
-            }
+            int bodyIndexA = findStepBodyIndex(bodies, bodyA);
+            int bodyIndexB = findStepBodyIndex(bodies, bodyB);
 
-            for (Body otherBody : bodyList.getPotentialIntersections(body)) {
-                if (!hasBody(body)) {
-                    break;
+            if (isChanged(bodyA, bodyIndexA, changedBodyFlags) || isChanged(bodyB, bodyIndexB, changedBodyFlags)) {
+                collisionInfo = findCollisionInfo(bodyA, bodyB);
+                if (collisionInfo == null) {
+                    continue;
                 }
+            }
 
-                if (hasBody(otherBody)) {
-                    collide(body, otherBody, collisionInfoByBodyIdsPair);
-                }
+            resolveCollision(collisionInfo);
+
+            if (bodyIndexA >= 0) {
+                changedBodyFlags[bodyIndexA] = true;
+            }
+
+            if (bodyIndexB >= 0) {
+                changedBodyFlags[bodyIndexB] = true;
             }
         }
     }
 
-    private void afterStep(@Nonnull Body[] bodies, int leftIndex, int rightIndex) {
-        for (int bodyIndex = leftIndex; bodyIndex < rightIndex; ++bodyIndex) {
-            Body body = bodies[bodyIndex];
-            if (!hasBody(body)) {
-                continue;
-            }
+    private static boolean isChanged(@Nonnull Body body, int bodyIndex, @Nonnull boolean[] changedBodyFlags) {
+        return bodyIndex >= 0 ? changedBodyFlags[bodyIndex] : !body.isStatic();
+    }
 
-            body.setForce(0.0D, 0.0D);
-            body.setTorque(0.0D);
+    private static int findRootBodyIndex(@Nonnull int[] parentBodyIndexes, int bodyIndex) {
+        while (parentBodyIndexes[bodyIndex] != bodyIndex) {
+            int parentBodyIndex = parentBodyIndexes[bodyIndex];
+            parentBodyIndexes[bodyIndex] = parentBodyIndexes[parentBodyIndex];
+            bodyIndex = parentBodyIndex;
         }
+
+        return bodyIndex;
     }
 
-    private void collide(@Nonnull Body body, @Nonnull Body otherBody,
-                         @Nonnull Map<LongPair, CollisionInfo> collisionInfoByBodyIdsPair) {
+    /**
+     * @param precalculatedCollisionInfo collision information calculated at the start of the iteration
+     *                                   ({@link #NULL_COLLISION_INFO} if bodies did not collide) or {@code null}
+     * @return the resolved collision or {@code null} if the bodies have not collided
+     */
+    @Nullable
+    private CollisionInfo collide(@Nonnull Body body, @Nonnull Body otherBody,
+                                  @Nullable CollisionInfo precalculatedCollisionInfo) {
         Body bodyA;
         Body bodyB;
 
@@ -378,37 +2137,79 @@ public class World {
             bodyB = otherBody;
         }
 
-        LongPair bodyIdsPair = new LongPair(bodyA.getId(), bodyB.getId());
+        if (!startCollision(bodyA, bodyB)) {
+            return null;
+        }
+
+        CollisionInfo collisionInfo = null;
 
-        CollisionInfo collisionInfo = collisionInfoByBodyIdsPair.get(bodyIdsPair);
-        if (collisionInfo != null) {
-            return;
+        if (precalculatedCollisionInfo == null
+                || changedBodies.contains(bodyA) || changedBodies.contains(bodyB)) {
+            collisionInfo = findCollisionInfo(bodyA, bodyB);
+        } else if (precalculatedCollisionInfo != NULL_COLLISION_INFO) {
+            collisionInfo = precalculatedCollisionInfo;
+        }
+
+        if (collisionInfo == null) {
+            collisionInfoByBodyIdsPair.put(bodyA.getId(), bodyB.getId(), NULL_COLLISION_INFO);
+        } else {
+            collisionInfoByBodyIdsPair.put(bodyA.getId(), bodyB.getId(), collisionInfo);
+            resolveCollision(collisionInfo);
+
+            if (precalculatedCollisionInfo != null) {
+                if (!bodyA.isStatic()) {
+                    changedBodies.add(bodyA);
+                }
+
+                if (!bodyB.isStatic()) {
+                    changedBodies.add(bodyB);
+                }
+            }
+        }
+
+        return collisionInfo;
+    }
+
+    /**
+     * Notifies collision listeners that bodies are about to collide.
+     *
+     * @return {@code false} if the pair has been already processed in this iteration, or the collision has been
+     * rejected by a listener, or any of the bodies has been removed from the world
+     */
+    private boolean startCollision(@Nonnull Body bodyA, @Nonnull Body bodyB) {
+        if (collisionInfoByBodyIdsPair.containsKey(bodyA.getId(), bodyB.getId())) {
+            return false;
         }
 
         for (CollisionListenerEntry collisionListenerEntry : collisionListenerEntries) {
             if (!collisionListenerEntry.listener.beforeStartingCollision(bodyA, bodyB)) {
-                collisionInfoByBodyIdsPair.put(bodyIdsPair, NULL_COLLISION_INFO);
-                return;
+                collisionInfoByBodyIdsPair.put(bodyA.getId(), bodyB.getId(), NULL_COLLISION_INFO);
+                return false;
             }
 
             if (!hasBody(bodyA) || !hasBody(bodyB)) {
-                return;
+                return false;
             }
         }
 
+        return true;
+    }
+
+    @Nullable
+    private CollisionInfo findCollisionInfo(@Nonnull Body bodyA, @Nonnull Body bodyB) {
         for (ColliderEntry colliderEntry : colliderEntries) {
             if (colliderEntry.collider.matches(bodyA, bodyB)) {
-                collisionInfo = colliderEntry.collider.collide(bodyA, bodyB);
-                break;
+                CollisionInfo collisionInfo = colliderEntry.collider.collide(bodyA, bodyB);
+
+                if (stepMetrics != null) {
+                    stepMetrics.addNarrowphaseTest(collisionInfo != null);
+                }
+
+                return collisionInfo;
             }
         }
 
-        if (collisionInfo == null) {
-            collisionInfoByBodyIdsPair.put(bodyIdsPair, NULL_COLLISION_INFO);
-        } else {
-            collisionInfoByBodyIdsPair.put(bodyIdsPair, collisionInfo);
-            resolveCollision(collisionInfo);
-        }
+        return null;
     }
 
     private void resolveCollision(@Nonnull CollisionInfo collisionInfo) {
@@ -419,153 +2220,255 @@ public class World {
             throw new IllegalArgumentException("Both " + bodyA + " and " + bodyB + " are static.");
         }
 
-        for (CollisionListenerEntry collisionListenerEntry : collisionListenerEntries) {
-            if (!collisionListenerEntry.listener.beforeResolvingCollision(collisionInfo)) {
-                return;
-            }
-
-            if (!hasBody(bodyA) || !hasBody(bodyB)) {
-                return;
-            }
+        if (!beforeResolvingCollision(collisionInfo)) {
+            return;
         }
 
+        wakeUpOnContact(bodyA, bodyB);
+        wakeUpOnContact(bodyB, bodyA);
+
         logCollision(collisionInfo);
 
-        Vector3D collisionNormalB = toVector3D(collisionInfo.getNormalB());
+        double normalBX = collisionInfo.getNormalBX();
+        double normalBY = collisionInfo.getNormalBY();
 
-        Vector3D vectorAC = toVector3D(bodyA.getCenterOfMass(), collisionInfo.getPoint());
-        Vector3D vectorBC = toVector3D(bodyB.getCenterOfMass(), collisionInfo.getPoint());
+        Point2D centerOfMassA = bodyA.getCenterOfMass();
+        Point2D centerOfMassB = bodyB.getCenterOfMass();
 
-        Vector3D angularVelocityPartAC = toVector3DZ(bodyA.getAngularVelocity()).crossProduct(vectorAC);
-        Vector3D angularVelocityPartBC = toVector3DZ(bodyB.getAngularVelocity()).crossProduct(vectorBC);
+        double vectorACX = collisionInfo.getPointX() - centerOfMassA.getX();
+        double vectorACY = collisionInfo.getPointY() - centerOfMassA.getY();
+        double vectorBCX = collisionInfo.getPointX() - centerOfMassB.getX();
+        double vectorBCY = collisionInfo.getPointY() - centerOfMassB.getY();
 
-        Vector3D velocityAC = toVector3D(bodyA.getVelocity()).add(angularVelocityPartAC);
-        Vector3D velocityBC = toVector3D(bodyB.getVelocity()).add(angularVelocityPartBC);
+        // The cross product of the angular velocity (0, 0, w) and the vector (x, y, 0) is (-w * y, w * x, 0).
+        double velocityACX = bodyA.getVelocityX() - bodyA.getAngularVelocity() * vectorACY;
+        double velocityACY = bodyA.getVelocityY() + bodyA.getAngularVelocity() * vectorACX;
+        double velocityBCX = bodyB.getVelocityX() - bodyB.getAngularVelocity() * vectorBCY;
+        double velocityBCY = bodyB.getVelocityY() + bodyB.getAngularVelocity() * vectorBCX;
 
-        Vector3D relativeVelocityC = velocityAC.subtract(velocityBC);
-        double normalRelativeVelocityLengthC = -relativeVelocityC.dotProduct(collisionNormalB);
+        double relativeVelocityCX = velocityACX - velocityBCX;
+        double relativeVelocityCY = velocityACY - velocityBCY;
+        double normalRelativeVelocityLengthC = -(relativeVelocityCX * normalBX + relativeVelocityCY * normalBY);
 
         if (normalRelativeVelocityLengthC > -epsilon) {
-            resolveImpact(bodyA, bodyB, collisionNormalB, vectorAC, vectorBC, relativeVelocityC);
-            resolveSurfaceFriction(bodyA, bodyB, collisionNormalB, vectorAC, vectorBC, relativeVelocityC);
+            resolveImpact(
+                    bodyA, bodyB, normalBX, normalBY, vectorACX, vectorACY, vectorBCX, vectorBCY,
+                    relativeVelocityCX, relativeVelocityCY
+            );
+            resolveSurfaceFriction(
+                    bodyA, bodyB, normalBX, normalBY, vectorACX, vectorACY, vectorBCX, vectorBCY,
+                    relativeVelocityCX, relativeVelocityCY
+            );
         }
 
-        if (collisionInfo.getDepth() >= epsilon) {
+        boolean pushedBack = collisionInfo.getDepth() >= epsilon;
+
+        if (pushedBack) {
+            if (adaptiveIterationCount) {
+                maxRelativeDepth.accumulate(collisionInfo.getDepth() / getMinCircumcircleRadius(bodyA, bodyB));
+            }
+
             pushBackBodies(bodyA, bodyB, collisionInfo);
         }
 
-        bodyA.normalizeAngle();
-        bodyB.normalizeAngle();
+        if (stepMetrics != null) {
+            stepMetrics.addResolvedCollision(pushedBack);
+        }
 
-        for (CollisionListenerEntry collisionListenerEntry : collisionListenerEntries) {
-            collisionListenerEntry.listener.afterResolvingCollision(collisionInfo);
+        // Static bodies may be shared by contact islands resolved concurrently, so they are never changed here.
+        if (!bodyA.isStatic()) {
+            bodyA.normalizeAngle();
+        }
+
+        if (!bodyB.isStatic()) {
+            bodyB.normalizeAngle();
         }
+
+        afterResolvingCollision(collisionInfo);
     }
 
-    @SuppressWarnings("Duplicates")
-    private void resolveImpact(
-            @Nonnull Body bodyA, @Nonnull Body bodyB, @Nonnull Vector3D collisionNormalB,
-            @Nonnull Vector3D vectorAC, @Nonnull Vector3D vectorBC, @Nonnull Vector3D relativeVelocityC) {
-        Double momentumTransferFactor;
+    private static double getMinCircumcircleRadius(@Nonnull Body bodyA, @Nonnull Body bodyB) {
+        if (bodyA.isStatic()) {
+            return bodyB.getForm().getCircumcircleRadius();
+        }
 
-        if (momentumTransferFactorProvider == null
-                || (momentumTransferFactor = momentumTransferFactorProvider.getFactor(bodyA, bodyB)) == null) {
-            momentumTransferFactor = bodyA.getMomentumTransferFactor() * bodyB.getMomentumTransferFactor();
+        if (bodyB.isStatic()) {
+            return bodyA.getForm().getCircumcircleRadius();
+        }
+
+        return min(bodyA.getForm().getCircumcircleRadius(), bodyB.getForm().getCircumcircleRadius());
+    }
+
+    /**
+     * Wakes up a sleeping body hit by a moving one. A sleeping body touched by a resting body is not woken up by this
+     * rule, so stacks of bodies can fall asleep gradually while they are only pushed out of each other. Note that any
+     * impulse applied to the body while resolving the contact changes its velocity and so wakes it up anyway.
+     */
+    private void wakeUpOnContact(@Nonnull Body body, @Nonnull Body otherBody) {
+        if (!body.isStatic() && body.isSleeping() && !otherBody.isSleeping() && !(bodySleeping && isResting(otherBody))) {
+            body.wakeUp();
+        }
+    }
+
+    /**
+     * Collision listeners are invoked under the {@link #listenerLock} while contact islands are resolved concurrently.
+     */
+    private boolean beforeResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+        if (collisionListenerEntries.isEmpty()) {
+            return true;
         }
 
-        Vector3D denominatorPartA = vectorAC.crossProduct(collisionNormalB)
-                .scalarMultiply(bodyA.getInvertedAngularMass()).crossProduct(vectorAC);
-        Vector3D denominatorPartB = vectorBC.crossProduct(collisionNormalB)
-                .scalarMultiply(bodyB.getInvertedAngularMass()).crossProduct(vectorBC);
+        boolean concurrent = concurrentResolution;
+        if (concurrent) {
+            listenerLock.lock();
+        }
 
-        double denominator = bodyA.getInvertedMass() + bodyB.getInvertedMass()
-                + collisionNormalB.dotProduct(denominatorPartA.add(denominatorPartB));
+        try {
+            for (CollisionListenerEntry collisionListenerEntry : collisionListenerEntries) {
+                if (!collisionListenerEntry.listener.beforeResolvingCollision(collisionInfo)) {
+                    return false;
+                }
 
-        double impulseChange = -1.0D * (1.0D + momentumTransferFactor) * relativeVelocityC.dotProduct(collisionNormalB)
-                / denominator;
+                if (!hasBody(collisionInfo.getBodyA()) || !hasBody(collisionInfo.getBodyB())) {
+                    return false;
+                }
+            }
 
-        if (abs(impulseChange) < epsilon) {
+            return true;
+        } finally {
+            if (concurrent) {
+                listenerLock.unlock();
+            }
+        }
+    }
+
+    private void afterResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+        if (collisionListenerEntries.isEmpty()) {
             return;
         }
 
-        if (!bodyA.isStatic()) {
-            Vector3D velocityChangeA = collisionNormalB.scalarMultiply(impulseChange * bodyA.getInvertedMass());
-            Vector3D newVelocityA = toVector3D(bodyA.getVelocity()).add(velocityChangeA);
-            bodyA.setVelocity(newVelocityA.getX(), newVelocityA.getY());
+        boolean concurrent = concurrentResolution;
+        if (concurrent) {
+            listenerLock.lock();
+        }
 
-            Vector3D angularVelocityChangeA = vectorAC.crossProduct(collisionNormalB.scalarMultiply(impulseChange))
-                    .scalarMultiply(bodyA.getInvertedAngularMass());
-            Vector3D newAngularVelocityA = toVector3DZ(bodyA.getAngularVelocity()).add(angularVelocityChangeA);
-            bodyA.setAngularVelocity(newAngularVelocityA.getZ());
+        try {
+            for (CollisionListenerEntry collisionListenerEntry : collisionListenerEntries) {
+                collisionListenerEntry.listener.afterResolvingCollision(collisionInfo);
+            }
+        } finally {
+            if (concurrent) {
+                listenerLock.unlock();
+            }
         }
+    }
 
-        if (!bodyB.isStatic()) {
-            Vector3D velocityChangeB = collisionNormalB.scalarMultiply(impulseChange * bodyB.getInvertedMass());
-            Vector3D newVelocityB = toVector3D(bodyB.getVelocity()).subtract(velocityChangeB);
-            bodyB.setVelocity(newVelocityB.getX(), newVelocityB.getY());
+    private void resolveImpact(
+            @Nonnull Body bodyA, @Nonnull Body bodyB, double normalBX, double normalBY,
+            double vectorACX, double vectorACY, double vectorBCX, double vectorBCY,
+            double relativeVelocityCX, double relativeVelocityCY) {
+        Double momentumTransferFactor;
+
+        if (momentumTransferFactorProvider == null
+                || (momentumTransferFactor = momentumTransferFactorProvider.getFactor(bodyA, bodyB)) == null) {
+            momentumTransferFactor = bodyA.getMomentumTransferFactor() * bodyB.getMomentumTransferFactor();
+        }
+
+        double denominator = getImpulseDenominator(
+                bodyA, bodyB, normalBX, normalBY, vectorACX, vectorACY, vectorBCX, vectorBCY
+        );
+
+        double impulseChange = -1.0D * (1.0D + momentumTransferFactor)
+                * (relativeVelocityCX * normalBX + relativeVelocityCY * normalBY) / denominator;
 
-            Vector3D angularVelocityChangeB = vectorBC.crossProduct(collisionNormalB.scalarMultiply(impulseChange))
-                    .scalarMultiply(bodyB.getInvertedAngularMass());
-            Vector3D newAngularVelocityB = toVector3DZ(bodyB.getAngularVelocity()).subtract(angularVelocityChangeB);
-            bodyB.setAngularVelocity(newAngularVelocityB.getZ());
+        if (abs(impulseChange) < epsilon) {
+            return;
         }
+
+        applyImpulse(bodyA, bodyB, normalBX, normalBY, vectorACX, vectorACY, vectorBCX, vectorBCY, impulseChange);
     }
 
-    @SuppressWarnings("Duplicates")
     private void resolveSurfaceFriction(
-            @Nonnull Body bodyA, @Nonnull Body bodyB, @Nonnull Vector3D collisionNormalB,
-            @Nonnull Vector3D vectorAC, @Nonnull Vector3D vectorBC, @Nonnull Vector3D relativeVelocityC) {
-        Vector3D tangent = relativeVelocityC
-                .subtract(collisionNormalB.scalarMultiply(relativeVelocityC.dotProduct(collisionNormalB)));
+            @Nonnull Body bodyA, @Nonnull Body bodyB, double normalBX, double normalBY,
+            double vectorACX, double vectorACY, double vectorBCX, double vectorBCY,
+            double relativeVelocityCX, double relativeVelocityCY) {
+        double normalRelativeVelocityC = relativeVelocityCX * normalBX + relativeVelocityCY * normalBY;
+
+        double tangentX = relativeVelocityCX - normalBX * normalRelativeVelocityC;
+        double tangentY = relativeVelocityCY - normalBY * normalRelativeVelocityC;
+        double tangentSquaredLength = tangentX * tangentX + tangentY * tangentY;
 
-        if (tangent.getNormSq() < squaredEpsilon) {
+        if (tangentSquaredLength < squaredEpsilon) {
             return;
         }
 
-        tangent = tangent.normalize();
+        double tangentLength = sqrt(tangentSquaredLength);
+        tangentX /= tangentLength;
+        tangentY /= tangentLength;
 
         double surfaceFriction = sqrt(bodyA.getSurfaceFrictionFactor() * bodyB.getSurfaceFrictionFactor())
-                * SQRT_2 * abs(relativeVelocityC.dotProduct(collisionNormalB)) / relativeVelocityC.getNorm();
+                * SQRT_2 * abs(normalRelativeVelocityC)
+                / sqrt(relativeVelocityCX * relativeVelocityCX + relativeVelocityCY * relativeVelocityCY);
 
         if (surfaceFriction < epsilon) {
             return;
         }
 
-        Vector3D denominatorPartA = vectorAC.crossProduct(tangent)
-                .scalarMultiply(bodyA.getInvertedAngularMass()).crossProduct(vectorAC);
-        Vector3D denominatorPartB = vectorBC.crossProduct(tangent)
-                .scalarMultiply(bodyB.getInvertedAngularMass()).crossProduct(vectorBC);
-
-        double denominator = bodyA.getInvertedMass() + bodyB.getInvertedMass()
-                + tangent.dotProduct(denominatorPartA.add(denominatorPartB));
+        double denominator = getImpulseDenominator(
+                bodyA, bodyB, tangentX, tangentY, vectorACX, vectorACY, vectorBCX, vectorBCY
+        );
 
-        double impulseChange = -1.0D * surfaceFriction * relativeVelocityC.dotProduct(tangent)
-                / denominator;
+        double impulseChange = -1.0D * surfaceFriction
+                * (relativeVelocityCX * tangentX + relativeVelocityCY * tangentY) / denominator;
 
         if (abs(impulseChange) < epsilon) {
             return;
         }
 
-        if (!bodyA.isStatic()) {
-            Vector3D velocityChangeA = tangent.scalarMultiply(impulseChange * bodyA.getInvertedMass());
-            Vector3D newVelocityA = toVector3D(bodyA.getVelocity()).add(velocityChangeA);
-            bodyA.setVelocity(newVelocityA.getX(), newVelocityA.getY());
+        applyImpulse(bodyA, bodyB, tangentX, tangentY, vectorACX, vectorACY, vectorBCX, vectorBCY, impulseChange);
+    }
+
+    /**
+     * Calculates {@code 1/mA + 1/mB + n * ((rA x n) / IA x rA + (rB x n) / IB x rB)}. In 2D the cross product of two
+     * vectors is a scalar (the Z coordinate), and the whole angular part is reduced to {@code (r x n)^2 / I}.
+     */
+    private static double getImpulseDenominator(
+            @Nonnull Body bodyA, @Nonnull Body bodyB, double directionX, double directionY,
+            double vectorACX, double vectorACY, double vectorBCX, double vectorBCY) {
+        double crossProductA = vectorACX * directionY - vectorACY * directionX;
+        double crossProductB = vectorBCX * directionY - vectorBCY * directionX;
+
+        return bodyA.getInvertedMass() + bodyB.getInvertedMass()
+                + crossProductA * crossProductA * bodyA.getInvertedAngularMass()
+                + crossProductB * crossProductB * bodyB.getInvertedAngularMass();
+    }
 
-            Vector3D angularVelocityChangeA = vectorAC.crossProduct(tangent.scalarMultiply(impulseChange))
-                    .scalarMultiply(bodyA.getInvertedAngularMass());
-            Vector3D newAngularVelocityA = toVector3DZ(bodyA.getAngularVelocity()).add(angularVelocityChangeA);
-            bodyA.setAngularVelocity(newAngularVelocityA.getZ());
+    /**
+     * Applies impulse {@code impulseChange * direction} to the body A and the opposite impulse to the body B at the
+     * collision point.
+     */
+    private static void applyImpulse(
+            @Nonnull Body bodyA, @Nonnull Body bodyB, double directionX, double directionY,
+            double vectorACX, double vectorACY, double vectorBCX, double vectorBCY, double impulseChange) {
+        double impulseX = directionX * impulseChange;
+        double impulseY = directionY * impulseChange;
+
+        if (!bodyA.isStatic()) {
+            bodyA.setVelocity(
+                    bodyA.getVelocityX() + impulseX * bodyA.getInvertedMass(),
+                    bodyA.getVelocityY() + impulseY * bodyA.getInvertedMass()
+            );
+            bodyA.setAngularVelocity(bodyA.getAngularVelocity()
+                    + (vectorACX * impulseY - vectorACY * impulseX) * bodyA.getInvertedAngularMass());
         }
 
         if (!bodyB.isStatic()) {
-            Vector3D velocityChangeB = tangent.scalarMultiply(impulseChange * bodyB.getInvertedMass());
-            Vector3D newVelocityB = toVector3D(bodyB.getVelocity()).subtract(velocityChangeB);
-            bodyB.setVelocity(newVelocityB.getX(), newVelocityB.getY());
-
-            Vector3D angularVelocityChangeB = vectorBC.crossProduct(tangent.scalarMultiply(impulseChange))
-                    .scalarMultiply(bodyB.getInvertedAngularMass());
-            Vector3D newAngularVelocityB = toVector3DZ(bodyB.getAngularVelocity()).subtract(angularVelocityChangeB);
-            bodyB.setAngularVelocity(newAngularVelocityB.getZ());
+            bodyB.setVelocity(
+                    bodyB.getVelocityX() - impulseX * bodyB.getInvertedMass(),
+                    bodyB.getVelocityY() - impulseY * bodyB.getInvertedMass()
+            );
+            bodyB.setAngularVelocity(bodyB.getAngularVelocity()
+                    - (vectorBCX * impulseY - vectorBCY * impulseX) * bodyB.getInvertedAngularMass());
         }
     }
 
@@ -574,19 +2477,38 @@ public class World {
         updateAngle(body);
     }
 
+    /**
+     * Integrates the linear movement in place, so no vectors are allocated unless position listeners are notified,
+     * then applies air friction and surface friction.
+     * <p>
+     * The state is not moved to primitive columns of the world. Bodies expose their position and velocity as mutable
+     * objects, exist outside of worlds and may have their moves vetoed by position listeners, so columns would only be
+     * a copy of the state, and copying it costs more than the integration itself.
+     */
     private void updatePosition(@Nonnull Body body) {
-        if (body.getVelocity().getSquaredLength() > 0.0D) {
-            body.getPosition().add(body.getVelocity().copy().multiply(updateFactor));
+        double velocityX = body.getVelocityX();
+        double velocityY = body.getVelocityY();
+
+        if (velocityX * velocityX + velocityY * velocityY > 0.0D) {
+            body.getCurrentState().updatePosition(
+                    body.getX() + velocityX * iterationUpdateFactor, body.getY() + velocityY * iterationUpdateFactor
+            );
         }
 
-        if (body.getForce().getSquaredLength() > 0.0D) {
-            body.getVelocity().add(body.getForce().copy().multiply(body.getInvertedMass()).multiply(updateFactor));
+        double forceX = body.getForceX();
+        double forceY = body.getForceY();
+
+        if (forceX * forceX + forceY * forceY > 0.0D) {
+            double invertedMass = body.getInvertedMass();
+            Vector2D velocity = body.getVelocity();
+            velocity.setX(velocityX + forceX * invertedMass * iterationUpdateFactor);
+            velocity.setY(velocityY + forceY * invertedMass * iterationUpdateFactor);
         }
 
         if (body.getMovementAirFrictionFactor() >= 1.0D) {
             body.setVelocity(body.getMedianVelocity().copy());
         } else if (body.getMovementAirFrictionFactor() > 0.0D) {
-            body.applyMovementAirFriction(updateFactor);
+            body.applyMovementAirFriction(iterationUpdateFactor);
 
             if (body.getVelocity().nearlyEquals(body.getMedianVelocity(), epsilon)) {
                 body.setVelocity(body.getMedianVelocity().copy());
@@ -594,20 +2516,20 @@ public class World {
         }
 
         body.getVelocity().subtract(body.getMedianVelocity());
-        body.applyFriction(updateFactor);
+        body.applyFriction(iterationUpdateFactor);
         body.getVelocity().add(body.getMedianVelocity());
     }
 
     private void updateAngle(@Nonnull Body body) {
-        body.setAngle(body.getAngle() + body.getAngularVelocity() * updateFactor);
+        body.setAngle(body.getAngle() + body.getAngularVelocity() * iterationUpdateFactor);
         body.setAngularVelocity(
-                body.getAngularVelocity() + body.getTorque() * body.getInvertedAngularMass() * updateFactor
+                body.getAngularVelocity() + body.getTorque() * body.getInvertedAngularMass() * iterationUpdateFactor
         );
 
         if (body.getRotationAirFrictionFactor() >= 1.0D) {
             body.setAngularVelocity(body.getMedianAngularVelocity());
         } else if (body.getRotationAirFrictionFactor() > 0.0D) {
-            body.applyRotationAirFriction(updateFactor);
+            body.applyRotationAirFriction(iterationUpdateFactor);
 
             if (NumberUtil.nearlyEquals(body.getAngularVelocity(), body.getMedianAngularVelocity(), epsilon)) {
                 body.setAngularVelocity(body.getMedianAngularVelocity());
@@ -617,7 +2539,7 @@ public class World {
         double angularVelocity = body.getAngularVelocity() - body.getMedianAngularVelocity();
 
         if (abs(angularVelocity) > 0.0D) {
-            double rotationFrictionFactor = body.getRotationFrictionFactor() * updateFactor;
+            double rotationFrictionFactor = body.getRotationFrictionFactor() * iterationUpdateFactor;
 
             if (rotationFrictionFactor >= abs(angularVelocity)) {
                 body.setAngularVelocity(body.getMedianAngularVelocity());
@@ -650,6 +2572,8 @@ public class World {
             throw new IllegalArgumentException("Collider '" + name + "' is already registered.");
         }
 
+        unshareColliderEntries();
+
         ColliderEntry colliderEntry = new ColliderEntry(name, priority, collider);
         colliderEntryByName.put(name, colliderEntry);
         colliderEntries.add(colliderEntry);
@@ -665,6 +2589,7 @@ public class World {
 
     public void unregisterCollider(@Nonnull String name) {
         NamedEntry.validateName(name);
+        unshareColliderEntries();
 
         ColliderEntry colliderEntry = colliderEntryByName.remove(name);
         if (colliderEntry == null) {
@@ -679,6 +2604,21 @@ public class World {
         return colliderEntryByName.containsKey(name);
     }
 
+    @Nonnull
+    Set<String> getColliderNames() {
+        return Collections.unmodifiableSet(colliderEntryByName.keySet());
+    }
+
+    private void unshareColliderEntries() {
+        if (colliderEntriesShared) {
+            colliderEntryByName = new HashMap<>(colliderEntryByName);
+            SortedSet<ColliderEntry> colliderEntries = new TreeSet<>(ColliderEntry.comparator);
+            colliderEntries.addAll(this.colliderEntries);
+            this.colliderEntries = colliderEntries;
+            colliderEntriesShared = false;
+        }
+    }
+
     public void registerCollisionListener(@Nonnull CollisionListener listener, @Nonnull String name, double priority) {
         NamedEntry.validateName(name);
 
@@ -686,6 +2626,8 @@ public class World {
             throw new IllegalArgumentException("Listener '" + name + "' is already registered.");
         }
 
+        unshareCollisionListenerEntries();
+
         CollisionListenerEntry collisionListenerEntry = new CollisionListenerEntry(name, priority, listener);
         collisionListenerEntryByName.put(name, collisionListenerEntry);
         collisionListenerEntries.add(collisionListenerEntry);
@@ -701,6 +2643,7 @@ public class World {
 
     public void unregisterCollisionListener(@Nonnull String name) {
         NamedEntry.validateName(name);
+        unshareCollisionListenerEntries();
 
         CollisionListenerEntry collisionListenerEntry = collisionListenerEntryByName.remove(name);
         if (collisionListenerEntry == null) {
@@ -715,6 +2658,22 @@ public class World {
         return collisionListenerEntryByName.containsKey(name);
     }
 
+    @Nonnull
+    Set<String> getCollisionListenerNames() {
+        return Collections.unmodifiableSet(collisionListenerEntryByName.keySet());
+    }
+
+    private void unshareCollisionListenerEntries() {
+        if (collisionListenerEntriesShared) {
+            collisionListenerEntryByName = new HashMap<>(collisionListenerEntryByName);
+            SortedSet<CollisionListenerEntry> collisionListenerEntries
+                    = new TreeSet<>(CollisionListenerEntry.comparator);
+            collisionListenerEntries.addAll(this.collisionListenerEntries);
+            this.collisionListenerEntries = collisionListenerEntries;
+            collisionListenerEntriesShared = false;
+        }
+    }
+
     private static void logCollision(CollisionInfo collisionInfo) {
         if (collisionInfo.getDepth() >= collisionInfo.getBodyA().getForm().getCircumcircleRadius() * 0.25D
                 || collisionInfo.getDepth() >= collisionInfo.getBodyB().getForm().getCircumcircleRadius() * 0.25D) {
@@ -728,19 +2687,69 @@ public class World {
         }
     }
 
-    @Nonnull
-    private static Vector3D toVector3DZ(double z) {
-        return new Vector3D(0.0D, 0.0D, z);
+    @FunctionalInterface
+    private interface RangeTask {
+        void execute(int leftIndex, int rightIndex);
     }
 
-    @Nonnull
-    private static Vector3D toVector3D(@Nonnull Vector2D vector) {
-        return new Vector3D(vector.getX(), vector.getY(), 0.0D);
-    }
+    /**
+     * The movement of a bullet during the current iteration. Reused by all bullets.
+     */
+    private static final class BulletPath {
+        private double startX;
+        private double startY;
+        private double startAngle;
+
+        private double finishX;
+        private double finishY;
+        private double finishAngle;
+
+        private double deltaX;
+        private double deltaY;
+        private double deltaAngle;
+
+        private double distance;
+
+        /**
+         * The maximal distance passed by any point of the bullet outline due to the rotation. Rotation does not move
+         * the outline of a circle.
+         */
+        private double rotationMovement;
+
+        private double maxMovement;
+
+        /**
+         * The angle of the body is normalized after each iteration, so the count of full turns is restored from the
+         * angular velocity.
+         */
+        private void update(
+                @Nonnull Body body, @Nonnull DynamicState beforeIterationState, double iterationUpdateFactor) {
+            this.startX = beforeIterationState.getPosition().getX();
+            this.startY = beforeIterationState.getPosition().getY();
+            this.startAngle = beforeIterationState.getAngle();
+
+            this.finishX = body.getX();
+            this.finishY = body.getY();
+            this.finishAngle = body.getAngle();
+
+            this.deltaX = finishX - startX;
+            this.deltaY = finishY - startY;
+
+            double rotation = beforeIterationState.getAngularVelocity() * iterationUpdateFactor;
+            this.deltaAngle = rotation + GeometryUtil.normalizeAngle(finishAngle - startAngle - rotation);
+
+            this.distance = hypot(deltaX, deltaY);
+            this.rotationMovement = body.getForm().getShape() == Shape.CIRCLE
+                    ? 0.0D
+                    : abs(deltaAngle) * body.getForm().getCircumcircleRadius();
+            this.maxMovement = distance + rotationMovement;
+        }
 
-    @Nonnull
-    private static Vector3D toVector3D(@Nonnull Point2D point1, @Nonnull Point2D point2) {
-        return toVector3D(new Vector2D(point1, point2));
+        private void moveBullet(@Nonnull Body body, double fraction) {
+            body.setPosition(startX + deltaX * fraction, startY + deltaY * fraction);
+            body.setAngle(startAngle + deltaAngle * fraction);
+            body.normalizeAngle();
+        }
     }
 
     @SuppressWarnings("PublicField")
@@ -0,0 +1,533 @@
+package com.codegame.codeseries.notreal2d;
+
+import com.codegame.codeseries.notreal2d.form.*;
+import com.codegame.codeseries.notreal2d.provider.BidirectionalMovementFrictionProvider;
+import com.codegame.codeseries.notreal2d.provider.ConstantMovementFrictionProvider;
+import com.codegame.codeseries.notreal2d.provider.MovementFrictionProvider;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compact binary checkpoint of a {@link World}: settings of the world, bodies with their forms, friction providers and
+ * state and names of registered colliders and collision listeners.
+ * <p>
+ * The file starts with a header of the fixed size, followed by records of bodies of the fixed size and by the section
+ * of variable length with names. All values are big-endian. The checkpoint is read from a
+ * memory-mapped file: values of a body are read by their offsets when the body is restored, there is no parsing step.
+ * <p>
+ * Colliders and collision listeners are not serializable, so only their names are saved. They should be registered in
+ * the world before {@link #restore(World) restoring} the checkpoint. Attributes of bodies are not saved. Only
+ * {@link ConstantMovementFrictionProvider} and {@link BidirectionalMovementFrictionProvider} are supported.
+ */
+public final class WorldCheckpoint {
+    public static final long MAGIC = 0x4E52324443484B50L;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 84;
+    private static final int BODY_RECORD_SIZE = 224;
+
+    private static final int WORLD_BODY_SLEEPING_FLAG = 1;
+    private static final int WORLD_ADAPTIVE_ITERATION_COUNT_FLAG = 2;
+    private static final int WORLD_CONTACT_ISLAND_SOLVING_FLAG = 4;
+
+    private static final int BODY_ENDPOINT_COLLISION_ENABLED_FLAG = 1;
+    private static final int BODY_BULLET_FLAG = 2;
+    private static final int BODY_SLEEPING_FLAG = 4;
+
+    private static final int CONSTANT_MOVEMENT_FRICTION_PROVIDER = 0;
+    private static final int BIDIRECTIONAL_MOVEMENT_FRICTION_PROVIDER = 1;
+
+    private static final Comparator<Body> bodyIdComparator
+            = (bodyA, bodyB) -> Long.compare(bodyA.getId(), bodyB.getId());
+
+    private final ByteBuffer buffer;
+
+    private final int bodyCount;
+
+    private final String[] bodyNames;
+    private final List<String> colliderNames;
+    private final List<String> collisionListenerNames;
+
+    private WorldCheckpoint(@Nonnull ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+            throw new IllegalArgumentException("Argument 'buffer' is not a world checkpoint.");
+        }
+
+        if (buffer.getInt(8) != VERSION) {
+            throw new IllegalArgumentException("Unsupported world checkpoint version: " + buffer.getInt(8) + '.');
+        }
+
+        this.buffer = buffer;
+        this.bodyCount = buffer.getInt(80);
+
+        ByteBuffer names = buffer.duplicate();
+        names.position(getBodyOffset(bodyCount));
+
+        bodyNames = new String[bodyCount];
+        for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+            bodyNames[bodyIndex] = readString(names);
+        }
+
+        colliderNames = readStrings(names);
+        collisionListenerNames = readStrings(names);
+    }
+
+    /**
+     * Maps the checkpoint file into memory.
+     */
+    @Nonnull
+    public static WorldCheckpoint map(@Nonnull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new WorldCheckpoint(channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size()));
+        }
+    }
+
+    /**
+     * Copies the state of the {@code world} in the calling thread and writes it to the {@code file} in the background
+     * thread of checkpoints. The file is replaced atomically after the checkpoint is completely written.
+     * <p>
+     * Should not be called concurrently with {@link World#proceed()}.
+     */
+    @Nonnull
+    public static CompletableFuture<Path> write(@Nonnull World world, @Nonnull Path file) {
+        return write(world, file, DefaultExecutorHolder.executor);
+    }
+
+    /**
+     * Copies the state of the {@code world} in the calling thread and writes it to the {@code file} using the
+     * {@code executor}. The file is replaced atomically after the checkpoint is completely written.
+     * <p>
+     * Should not be called concurrently with {@link World#proceed()}.
+     */
+    @Nonnull
+    public static CompletableFuture<Path> write(@Nonnull World world, @Nonnull Path file, @Nonnull Executor executor) {
+        ByteBuffer image = encode(world);
+
+        return CompletableFuture.supplyAsync(() -> {
+            Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+            try {
+                try (FileChannel channel = FileChannel.open(
+                        temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE
+                )) {
+                    while (image.hasRemaining()) {
+                        channel.write(image);
+                    }
+
+                    channel.force(true);
+                }
+
+                return Files.move(
+                        temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING
+                );
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't write world checkpoint to '" + file + "'.", e);
+            }
+        }, executor);
+    }
+
+    public int getIterationCountPerStep() {
+        return buffer.getInt(12);
+    }
+
+    public int getStepCountPerTimeUnit() {
+        return buffer.getInt(16);
+    }
+
+    public double getEpsilon() {
+        return buffer.getDouble(24);
+    }
+
+    public long getStepIndex() {
+        return buffer.getLong(32);
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    /**
+     * @return ID of the body in the checkpointed world
+     */
+    public long getBodyId(int bodyIndex) {
+        return buffer.getLong(getBodyOffset(bodyIndex));
+    }
+
+    @Nonnull
+    public List<String> getColliderNames() {
+        return colliderNames;
+    }
+
+    @Nonnull
+    public List<String> getCollisionListenerNames() {
+        return collisionListenerNames;
+    }
+
+    /**
+     * Adds bodies of this checkpoint to the empty {@code world} and restores settings and state of the world. New
+     * bodies get new IDs from the {@link World#newBody() world}, use {@link #getBodyId(int)} to find out their IDs in
+     * the checkpointed world.
+     *
+     * @return restored bodies in the order of their indexes in this checkpoint
+     * @throws IllegalArgumentException if the {@code world} is not empty or has different iteration count, step count
+     *                                  or epsilon
+     * @throws IllegalStateException    if any collider or collision listener of the checkpointed world is not
+     *                                  registered in the {@code world}
+     */
+    @Nonnull
+    public List<Body> restore(@Nonnull World world) {
+        validateWorld(world);
+
+        int flags = buffer.getInt(20);
+        world.setBodySleeping((flags & WORLD_BODY_SLEEPING_FLAG) != 0);
+        world.setAdaptiveIterationCount((flags & WORLD_ADAPTIVE_ITERATION_COUNT_FLAG) != 0);
+        world.setContactIslandSolving((flags & WORLD_CONTACT_ISLAND_SOLVING_FLAG) != 0);
+        world.setSleepStepCount(buffer.getInt(44));
+        world.setSleepVelocityThreshold(buffer.getDouble(56));
+        world.setSleepAngularVelocityThreshold(buffer.getDouble(64));
+        world.setIterationCountPerStepRange(buffer.getInt(72), buffer.getInt(76));
+        world.setStepState(getStepIndex(), buffer.getInt(40), buffer.getDouble(48));
+
+        List<Body> bodies = new ArrayList<>(bodyCount);
+
+        for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+            Body body = readBody(world, bodyIndex);
+            world.addBody(body);
+            bodies.add(body);
+        }
+
+        return bodies;
+    }
+
+    private void validateWorld(@Nonnull World world) {
+        if (!world.getBodies().isEmpty()) {
+            throw new IllegalArgumentException("Argument 'world' is not empty.");
+        }
+
+        if (world.getIterationCountPerStep() != getIterationCountPerStep()
+                || world.getStepCountPerTimeUnit() != getStepCountPerTimeUnit()
+                || Double.compare(world.getEpsilon(), getEpsilon()) != 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Argument 'world' should have iteration count per step %d, step count per time unit %d "
+                            + "and epsilon %s.", getIterationCountPerStep(), getStepCountPerTimeUnit(), getEpsilon()
+            ));
+        }
+
+        for (String colliderName : colliderNames) {
+            if (!world.hasCollider(colliderName)) {
+                throw new IllegalStateException("Collider '" + colliderName + "' is not registered.");
+            }
+        }
+
+        for (String collisionListenerName : collisionListenerNames) {
+            if (!world.hasCollisionListener(collisionListenerName)) {
+                throw new IllegalStateException("Listener '" + collisionListenerName + "' is not registered.");
+            }
+        }
+    }
+
+    @Nonnull
+    private Body readBody(@Nonnull World world, int bodyIndex) {
+        int offset = getBodyOffset(bodyIndex);
+        int flags = buffer.getInt(offset + 12);
+
+        Body body = world.newBody();
+        body.setName(bodyNames[bodyIndex]);
+        body.setForm(readForm(
+                buffer.getInt(offset + 8), (flags & BODY_ENDPOINT_COLLISION_ENABLED_FLAG) != 0,
+                buffer.getDouble(offset + 16), buffer.getDouble(offset + 24), buffer.getDouble(offset + 32)
+        ));
+        body.setMovementFrictionProvider(readMovementFrictionProvider(
+                buffer.getInt(offset + 40), buffer.getDouble(offset + 48), buffer.getDouble(offset + 56)
+        ));
+        body.setMass(buffer.getDouble(offset + 64));
+        body.setMovementAirFrictionFactor(buffer.getDouble(offset + 72));
+        body.setRotationAirFrictionFactor(buffer.getDouble(offset + 80));
+        body.setRotationFrictionFactor(buffer.getDouble(offset + 88));
+        body.setMomentumTransferFactor(buffer.getDouble(offset + 96));
+        body.setSurfaceFrictionFactor(buffer.getDouble(offset + 104));
+        body.setBullet((flags & BODY_BULLET_FLAG) != 0);
+        body.setCategoryBits(buffer.getInt(offset + 208));
+        body.setMaskBits(buffer.getInt(offset + 212));
+        body.setGroupIndex(buffer.getInt(offset + 216));
+
+        body.setPosition(buffer.getDouble(offset + 112), buffer.getDouble(offset + 120));
+        body.setVelocity(buffer.getDouble(offset + 128), buffer.getDouble(offset + 136));
+        body.setMedianVelocity(buffer.getDouble(offset + 144), buffer.getDouble(offset + 152));
+        body.setForce(buffer.getDouble(offset + 160), buffer.getDouble(offset + 168));
+        body.setAngle(buffer.getDouble(offset + 176));
+        body.setAngularVelocity(buffer.getDouble(offset + 184));
+        body.setMedianAngularVelocity(buffer.getDouble(offset + 192));
+        body.setTorque(buffer.getDouble(offset + 200));
+
+        body.setSleeping((flags & BODY_SLEEPING_FLAG) != 0);
+        body.setRestingStepCount(buffer.getInt(offset + 44));
+
+        return body;
+    }
+
+    private static int getBodyOffset(int bodyIndex) {
+        return HEADER_SIZE + bodyIndex * BODY_RECORD_SIZE;
+    }
+
+    @Nonnull
+    private static ByteBuffer encode(@Nonnull World world) {
+        Body[] bodies = world.getBodies().toArray(new Body[0]);
+        Arrays.sort(bodies, bodyIdComparator);
+
+        byte[][] bodyNames = new byte[bodies.length][];
+        List<byte[]> colliderNames = encodeStrings(world.getColliderNames());
+        List<byte[]> collisionListenerNames = encodeStrings(world.getCollisionListenerNames());
+
+        long size = HEADER_SIZE + (long) BODY_RECORD_SIZE * bodies.length
+                + getStringsSize(colliderNames) + getStringsSize(collisionListenerNames);
+
+        for (int bodyIndex = 0; bodyIndex < bodies.length; ++bodyIndex) {
+            String name = bodies[bodyIndex].getName();
+            bodyNames[bodyIndex] = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+            size += getStringSize(bodyNames[bodyIndex]);
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Argument 'world' is too large to checkpoint.");
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision") ByteBuffer image = ByteBuffer.allocate((int) size);
+
+        image.putLong(MAGIC);
+        image.putInt(VERSION);
+        image.putInt(world.getIterationCountPerStep());
+        image.putInt(world.getStepCountPerTimeUnit());
+        image.putInt((world.isBodySleeping() ? WORLD_BODY_SLEEPING_FLAG : 0)
+                | (world.isAdaptiveIterationCount() ? WORLD_ADAPTIVE_ITERATION_COUNT_FLAG : 0)
+                | (world.isContactIslandSolving() ? WORLD_CONTACT_ISLAND_SOLVING_FLAG : 0));
+        image.putDouble(world.getEpsilon());
+        image.putLong(world.getStepIndex());
+        image.putInt(world.getLastStepIterationCount());
+        image.putInt(world.getSleepStepCount());
+        image.putDouble(world.getLastStepMaxRelativeDepth());
+        image.putDouble(world.getSleepVelocityThreshold());
+        image.putDouble(world.getSleepAngularVelocityThreshold());
+        image.putInt(world.getMinIterationCountPerStep());
+        image.putInt(world.getMaxIterationCountPerStep());
+        image.putInt(bodies.length);
+
+        for (Body body : bodies) {
+            encodeBody(body, image);
+        }
+
+        for (byte[] bodyName : bodyNames) {
+            putString(bodyName, image);
+        }
+
+        putStrings(colliderNames, image);
+        putStrings(collisionListenerNames, image);
+
+        image.flip();
+        return image;
+    }
+
+    private static void encodeBody(@Nonnull Body body, @Nonnull ByteBuffer image) {
+        Form form = body.getForm();
+        MovementFrictionProvider movementFrictionProvider = body.getMovementFrictionProvider();
+
+        int flags = (body.isBullet() ? BODY_BULLET_FLAG : 0) | (body.isSleeping() ? BODY_SLEEPING_FLAG : 0);
+        if (form instanceof ThinForm && ((ThinForm) form).isEndpointCollisionEnabled()) {
+            flags |= BODY_ENDPOINT_COLLISION_ENABLED_FLAG;
+        }
+
+        image.putLong(body.getId());
+        image.putInt(form.getShape().ordinal());
+        image.putInt(flags);
+        encodeForm(form, image);
+
+        if (movementFrictionProvider instanceof ConstantMovementFrictionProvider) {
+            image.putInt(CONSTANT_MOVEMENT_FRICTION_PROVIDER);
+            image.putInt(body.getRestingStepCount());
+            image.putDouble(((ConstantMovementFrictionProvider) movementFrictionProvider).getMovementFrictionFactor());
+            image.putDouble(0.0D);
+        } else if (movementFrictionProvider instanceof BidirectionalMovementFrictionProvider) {
+            BidirectionalMovementFrictionProvider bidirectionalProvider
+                    = (BidirectionalMovementFrictionProvider) movementFrictionProvider;
+            image.putInt(BIDIRECTIONAL_MOVEMENT_FRICTION_PROVIDER);
+            image.putInt(body.getRestingStepCount());
+            image.putDouble(bidirectionalProvider.getLengthwiseMovementFrictionFactor());
+            image.putDouble(bidirectionalProvider.getCrosswiseMovementFrictionFactor());
+        } else {
+            throw new IllegalArgumentException("Can't checkpoint " + body + " with " + movementFrictionProvider + '.');
+        }
+
+        image.putDouble(body.getMass());
+        image.putDouble(body.getMovementAirFrictionFactor());
+        image.putDouble(body.getRotationAirFrictionFactor());
+        image.putDouble(body.getRotationFrictionFactor());
+        image.putDouble(body.getMomentumTransferFactor());
+        image.putDouble(body.getSurfaceFrictionFactor());
+
+        image.putDouble(body.getX());
+        image.putDouble(body.getY());
+        image.putDouble(body.getVelocityX());
+        image.putDouble(body.getVelocityY());
+        image.putDouble(body.getMedianVelocityX());
+        image.putDouble(body.getMedianVelocityY());
+        image.putDouble(body.getForceX());
+        image.putDouble(body.getForceY());
+        image.putDouble(body.getAngle());
+        image.putDouble(body.getAngularVelocity());
+        image.putDouble(body.getMedianAngularVelocity());
+        image.putDouble(body.getTorque());
+
+        image.putInt(body.getCategoryBits());
+        image.putInt(body.getMaskBits());
+        image.putInt(body.getGroupIndex());
+        image.putInt(0);
+    }
+
+    private static void encodeForm(@Nonnull Form form, @Nonnull ByteBuffer image) {
+        if (form instanceof CircularForm) {
+            image.putDouble(((CircularForm) form).getRadius());
+            image.putDouble(0.0D);
+            image.putDouble(0.0D);
+        } else if (form instanceof RectangularForm) {
+            image.putDouble(((RectangularForm) form).getWidth());
+            image.putDouble(((RectangularForm) form).getHeight());
+            image.putDouble(0.0D);
+        } else if (form instanceof LinearForm) {
+            image.putDouble(((LinearForm) form).getLength());
+            image.putDouble(0.0D);
+            image.putDouble(0.0D);
+        } else if (form instanceof ArcForm) {
+            image.putDouble(((ArcForm) form).getRadius());
+            image.putDouble(((ArcForm) form).getAngle());
+            image.putDouble(((ArcForm) form).getSector());
+        } else {
+            throw new IllegalArgumentException("Can't checkpoint " + form + '.');
+        }
+    }
+
+    @Nonnull
+    private static Form readForm(
+            int shapeOrdinal, boolean endpointCollisionEnabled, double parameterA, double parameterB,
+            double parameterC) {
+        Shape[] shapes = Shape.values();
+        if (shapeOrdinal < 0 || shapeOrdinal >= shapes.length) {
+            throw new IllegalStateException("Unsupported shape ordinal: " + shapeOrdinal + '.');
+        }
+
+        switch (shapes[shapeOrdinal]) {
+            case CIRCLE:
+                return new CircularForm(parameterA);
+            case RECTANGLE:
+                return new RectangularForm(parameterA, parameterB);
+            case LINE:
+                return new LinearForm(parameterA, endpointCollisionEnabled);
+            case ARC:
+                return new ArcForm(parameterA, parameterB, parameterC, endpointCollisionEnabled);
+            default:
+                throw new IllegalStateException("Unsupported shape: " + shapes[shapeOrdinal] + '.');
+        }
+    }
+
+    @Nonnull
+    private static MovementFrictionProvider readMovementFrictionProvider(
+            int type, double parameterA, double parameterB) {
+        switch (type) {
+            case CONSTANT_MOVEMENT_FRICTION_PROVIDER:
+                return new ConstantMovementFrictionProvider(parameterA);
+            case BIDIRECTIONAL_MOVEMENT_FRICTION_PROVIDER:
+                return new BidirectionalMovementFrictionProvider(parameterA, parameterB);
+            default:
+                throw new IllegalStateException("Unsupported movement friction provider type: " + type + '.');
+        }
+    }
+
+    @Nonnull
+    private static List<byte[]> encodeStrings(@Nonnull Collection<String> strings) {
+        List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+
+        for (String string : strings) {
+            encodedStrings.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return encodedStrings;
+    }
+
+    private static long getStringsSize(@Nonnull List<byte[]> strings) {
+        long size = Integer.BYTES;
+
+        for (byte[] string : strings) {
+            size += getStringSize(string);
+        }
+
+        return size;
+    }
+
+    private static int getStringSize(@Nullable byte[] string) {
+        return Integer.BYTES + (string == null ? 0 : string.length);
+    }
+
+    private static void putStrings(@Nonnull List<byte[]> strings, @Nonnull ByteBuffer image) {
+        image.putInt(strings.size());
+
+        for (byte[] string : strings) {
+            putString(string, image);
+        }
+    }
+
+    private static void putString(@Nullable byte[] string, @Nonnull ByteBuffer image) {
+        if (string == null) {
+            image.putInt(-1);
+        } else {
+            image.putInt(string.length);
+            image.put(string);
+        }
+    }
+
+    @Nonnull
+    private static List<String> readStrings(@Nonnull ByteBuffer names) {
+        int count = names.getInt();
+        List<String> strings = new ArrayList<>(count);
+
+        for (int i = 0; i < count; ++i) {
+            strings.add(readString(names));
+        }
+
+        return Collections.unmodifiableList(strings);
+    }
+
+    @Nullable
+    private static String readString(@Nonnull ByteBuffer names) {
+        int length = names.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        names.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class DefaultExecutorHolder {
+        private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notreal2d.WorldCheckpoint#WriteThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,556 @@
+package com.codegame.codeseries.notreal2d;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.codeforces.commons.math.Math.*;
+
+/**
+ * Steps many independent worlds using a shared work-stealing pool. Each {@link #tick() tick} proceeds every registered
+ * world once and waits for all of them. Worlds are started in the order of their descending estimated step cost, so
+ * a heavy world is not left to the end of a tick, and cheap worlds are grouped into tasks of similar cost to reduce
+ * the scheduling overhead. The step cost of a world is measured during each step.
+ * <p>
+ * After {@link #start(long, TimeUnit) start} each world is stepped on its own cadence instead: the next step of a
+ * world is due a tick period after the previous one was due, and is submitted to the pool as soon as it is due and
+ * the previous step of this world is completed. So a world, which is late, delays its own following steps only, and
+ * the other worlds keep their rate while the pool has free threads.
+ * <p>
+ * The latency of a world is the time from the moment its step was due (the start of the tick) to the end of the step.
+ * Percentiles of the latency over the last {@link #LATENCY_SAMPLE_COUNT} steps are available through
+ * {@link #getStatistics(World)}.
+ * <p>
+ * A world should not be proceeded by other threads while it is registered. A world, which has thrown an exception or
+ * has been closed, is unregistered.
+ */
+@ThreadSafe
+public class WorldScheduler implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(WorldScheduler.class);
+
+    /**
+     * Count of the latest ticks used to calculate latency percentiles of a world.
+     */
+    public static final int LATENCY_SAMPLE_COUNT = 1024;
+
+    /**
+     * Weight of the latest step in the estimated step cost of a world.
+     */
+    private static final double STEP_COST_SMOOTHING_FACTOR = 0.25D;
+
+    /**
+     * Worlds of a tick are grouped into about this count of tasks per thread.
+     */
+    private static final int TASK_COUNT_PER_THREAD = 4;
+
+    private static final AtomicInteger schedulerIndex = new AtomicInteger();
+
+    private final int index = schedulerIndex.incrementAndGet();
+    private final int threadCount;
+    private final ForkJoinPool pool;
+
+    private final Map<World, WorldEntry> entryByWorld = new ConcurrentHashMap<>();
+
+    private final Lock tickLock = new ReentrantLock();
+
+    /**
+     * Written by the thread holding the {@link #tickLock} only.
+     */
+    private volatile long tickCount;
+
+    /*
+     * Buffers of the tick reused by all ticks. Guarded by the {@link #tickLock}.
+     */
+    private WorldEntry[] tickEntries = new WorldEntry[0];
+    private double[] tickStepCosts = new double[0];
+    private int[] tickEntryIndexes = new int[0];
+
+    /**
+     * Submits due steps of worlds to the pool while this scheduler is started. Guarded by the scheduler monitor.
+     */
+    @Nullable
+    private ScheduledExecutorService ticker;
+    private long tickPeriodNanos;
+
+    private volatile boolean closed;
+
+    public WorldScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public WorldScheduler(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Argument 'threadCount' is zero or negative.");
+        }
+
+        this.threadCount = threadCount;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+
+        this.pool = new ForkJoinPool(threadCount, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("notreal2d.WorldScheduler#WorkerThread-" + index + '-' + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (t, e) -> logger.error("Can't complete tick task in thread '" + t + "'.", e), false);
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getWorldCount() {
+        return entryByWorld.size();
+    }
+
+    /**
+     * @return count of completed {@link #tick() ticks}, the steps made after {@link #start(long, TimeUnit) start} are
+     * counted by {@link Statistics#getStepCount() statistics} of each world only
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Adds the {@code world} to the following ticks. If this scheduler is started, the world is stepped immediately and
+     * then on its own cadence.
+     *
+     * @throws IllegalStateException if this scheduler is closed or the {@code world} is already registered
+     */
+    public void register(@Nonnull World world) {
+        if (closed) {
+            throw new IllegalStateException("Scheduler is closed.");
+        }
+
+        WorldEntry entry = new WorldEntry(world);
+
+        if (entryByWorld.putIfAbsent(world, entry) != null) {
+            throw new IllegalStateException(world + " is already registered.");
+        }
+
+        synchronized (this) {
+            if (ticker != null) {
+                entry.startSteps(ticker, tickPeriodNanos, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Removes the {@code world} from the following ticks. Does not wait for the current tick.
+     *
+     * @return {@code true} if the {@code world} has been registered
+     */
+    public boolean unregister(@Nonnull World world) {
+        return entryByWorld.remove(world) != null;
+    }
+
+    public boolean isRegistered(@Nonnull World world) {
+        return entryByWorld.containsKey(world);
+    }
+
+    /**
+     * @return statistics of the registered {@code world} or {@code null} if the {@code world} is not registered
+     */
+    @Nullable
+    public Statistics getStatistics(@Nonnull World world) {
+        WorldEntry entry = entryByWorld.get(world);
+        return entry == null ? null : entry.getStatistics();
+    }
+
+    /**
+     * Proceeds each registered world once and waits for all of them. If this scheduler is started, a world being
+     * stepped on its own cadence is waited for before it is stepped by the tick.
+     */
+    @SuppressWarnings("OverlyLongMethod")
+    public void tick() {
+        tickLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Scheduler is closed.");
+            }
+
+            long tickStartNanos = System.nanoTime();
+
+            int entryCount = entryByWorld.size();
+            if (tickEntries.length < entryCount) {
+                int capacity = max(entryCount, tickEntries.length << 1);
+                tickEntries = new WorldEntry[capacity];
+                tickStepCosts = new double[capacity];
+                tickEntryIndexes = new int[capacity];
+            }
+
+            // The count of worlds may change concurrently, so the array returned by the map is used.
+            WorldEntry[] entries = entryByWorld.values().toArray(tickEntries);
+            entryCount = 0;
+            while (entryCount < entries.length && entries[entryCount] != null) {
+                ++entryCount;
+            }
+
+            double[] stepCosts = entries == tickEntries ? tickStepCosts : new double[entryCount];
+            int[] entryIndexes = entries == tickEntries ? tickEntryIndexes : new int[entryCount];
+            double totalStepCost = 0.0D;
+
+            for (int entryIndex = 0; entryIndex < entryCount; ++entryIndex) {
+                double stepCost = entries[entryIndex].getEstimatedStepNanos();
+
+                // Worlds with unknown cost (-1) go first, as if they were the heaviest ones.
+                stepCosts[entryIndex] = stepCost < 0.0D ? Double.POSITIVE_INFINITY : stepCost;
+                entryIndexes[entryIndex] = entryIndex;
+
+                if (stepCost >= 0.0D) {
+                    totalStepCost += stepCost;
+                }
+            }
+
+            sortByDescendingStepCost(entryIndexes, stepCosts, entryCount);
+
+            double taskStepCost = totalStepCost / (threadCount * TASK_COUNT_PER_THREAD);
+            List<StepTask> tasks = new ArrayList<>();
+            List<WorldEntry> taskEntries = new ArrayList<>();
+            double currentTaskStepCost = 0.0D;
+
+            for (int sortedIndex = 0; sortedIndex < entryCount; ++sortedIndex) {
+                int entryIndex = entryIndexes[sortedIndex];
+                taskEntries.add(entries[entryIndex]);
+                currentTaskStepCost += stepCosts[entryIndex];
+
+                if (currentTaskStepCost >= taskStepCost) {
+                    tasks.add(new StepTask(taskEntries.toArray(new WorldEntry[taskEntries.size()]), tickStartNanos));
+                    taskEntries.clear();
+                    currentTaskStepCost = 0.0D;
+                }
+            }
+
+            if (!taskEntries.isEmpty()) {
+                tasks.add(new StepTask(taskEntries.toArray(new WorldEntry[taskEntries.size()]), tickStartNanos));
+            }
+
+            try {
+                pool.invoke(new RecursiveAction() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            } finally {
+                if (entries == tickEntries) {
+                    Arrays.fill(entries, 0, entryCount, null);
+                }
+            }
+
+            ++tickCount;
+        } finally {
+            tickLock.unlock();
+        }
+    }
+
+    /**
+     * Sorts the first {@code count} indexes by descending step costs in place by heapsort.
+     */
+    private static void sortByDescendingStepCost(@Nonnull int[] entryIndexes, @Nonnull double[] stepCosts, int count) {
+        for (int rootIndex = count / 2 - 1; rootIndex >= 0; --rootIndex) {
+            siftDown(entryIndexes, stepCosts, rootIndex, count);
+        }
+
+        for (int heapSize = count - 1; heapSize > 0; --heapSize) {
+            int entryIndex = entryIndexes[0];
+            entryIndexes[0] = entryIndexes[heapSize];
+            entryIndexes[heapSize] = entryIndex;
+            siftDown(entryIndexes, stepCosts, 0, heapSize);
+        }
+    }
+
+    /**
+     * Restores the min-heap of indexes by step costs, so the cheapest world is moved to the end of the sorted indexes
+     * first.
+     */
+    private static void siftDown(@Nonnull int[] entryIndexes, @Nonnull double[] stepCosts, int index, int heapSize) {
+        while (true) {
+            int childIndex = 2 * index + 1;
+            if (childIndex >= heapSize) {
+                return;
+            }
+
+            if (childIndex + 1 < heapSize
+                    && stepCosts[entryIndexes[childIndex + 1]] < stepCosts[entryIndexes[childIndex]]) {
+                ++childIndex;
+            }
+
+            if (stepCosts[entryIndexes[index]] <= stepCosts[entryIndexes[childIndex]]) {
+                return;
+            }
+
+            int entryIndex = entryIndexes[index];
+            entryIndexes[index] = entryIndexes[childIndex];
+            entryIndexes[childIndex] = entryIndex;
+            index = childIndex;
+        }
+    }
+
+    /**
+     * Starts stepping each registered world in the pool on its own cadence. A step, which has taken longer than the
+     * {@code tickPeriod}, delays the following steps of the same world only. Steps are not made up: a late world is
+     * stepped again as soon as its previous step is completed, and then every {@code tickPeriod}.
+     *
+     * @throws IllegalStateException if this scheduler is closed or already started
+     */
+    public synchronized void start(long tickPeriod, @Nonnull TimeUnit unit) {
+        if (tickPeriod <= 0L) {
+            throw new IllegalArgumentException("Argument 'tickPeriod' is zero or negative.");
+        }
+
+        if (closed) {
+            throw new IllegalStateException("Scheduler is closed.");
+        }
+
+        if (ticker != null) {
+            throw new IllegalStateException("Scheduler is already started.");
+        }
+
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notreal2d.WorldScheduler#TickThread-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+        tickPeriodNanos = unit.toNanos(tickPeriod);
+
+        long startNanos = System.nanoTime();
+
+        for (WorldEntry entry : entryByWorld.values()) {
+            entry.startSteps(ticker, tickPeriodNanos, startNanos);
+        }
+    }
+
+    /**
+     * Stops stepping worlds on their own cadence. Does not wait for the current steps.
+     */
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * Stops ticking and shuts down the pool. Registered worlds are not closed.
+     */
+    @Override
+    public void close() {
+        stop();
+
+        tickLock.lock();
+        try {
+            closed = true;
+            pool.shutdown();
+        } finally {
+            tickLock.unlock();
+        }
+    }
+
+    /**
+     * Statistics of a registered world.
+     */
+    public static final class Statistics {
+        private final long stepCount;
+        private final double estimatedStepNanos;
+        private final long[] sortedLatencyNanos;
+
+        private Statistics(long stepCount, double estimatedStepNanos, @Nonnull long[] sortedLatencyNanos) {
+            this.stepCount = stepCount;
+            this.estimatedStepNanos = estimatedStepNanos;
+            this.sortedLatencyNanos = sortedLatencyNanos;
+        }
+
+        /**
+         * @return count of steps made by the scheduler
+         */
+        public long getStepCount() {
+            return stepCount;
+        }
+
+        /**
+         * @return smoothed duration of a step in nanoseconds or {@code -1.0} if the world has not been stepped yet
+         */
+        public double getEstimatedStepNanos() {
+            return estimatedStepNanos;
+        }
+
+        /**
+         * @param percentile value between 0.0 and 100.0 inclusive
+         * @return tick latency in nanoseconds, which is not exceeded by the {@code percentile} of the latest ticks, or
+         * {@code 0} if the world has not been stepped yet
+         */
+        public long getLatencyNanos(double percentile) {
+            if (Double.isNaN(percentile) || percentile < 0.0D || percentile > 100.0D) {
+                throw new IllegalArgumentException("Argument 'percentile' should be between 0.0 and 100.0.");
+            }
+
+            int sampleCount = sortedLatencyNanos.length;
+            if (sampleCount == 0) {
+                return 0L;
+            }
+
+            int sampleIndex = (int) ceil(percentile / 100.0D * sampleCount) - 1;
+            return sortedLatencyNanos[min(max(sampleIndex, 0), sampleCount - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics {stepCount=" + stepCount
+                    + ", estimatedStepNanos=" + estimatedStepNanos
+                    + ", p50LatencyNanos=" + getLatencyNanos(50.0D)
+                    + ", p99LatencyNanos=" + getLatencyNanos(99.0D) + '}';
+        }
+    }
+
+    private final class WorldEntry {
+        private final World world;
+
+        /**
+         * Prevents a tick from stepping the world while it is stepped on its own cadence.
+         */
+        private final Lock stepLock = new ReentrantLock();
+
+        private volatile double estimatedStepNanos = -1.0D;
+
+        /**
+         * The ticker stepping this world on its own cadence. Guarded by the scheduler monitor.
+         */
+        @Nullable
+        private ScheduledExecutorService stepTicker;
+
+        private long stepCount;
+        private final long[] latencyNanos = new long[LATENCY_SAMPLE_COUNT];
+        private int latencySampleCount;
+        private int nextLatencySampleIndex;
+
+        private WorldEntry(@Nonnull World world) {
+            this.world = world;
+        }
+
+        private double getEstimatedStepNanos() {
+            return estimatedStepNanos;
+        }
+
+        /**
+         * Starts stepping the world on its own cadence unless it is already stepped by the {@code ticker}.
+         */
+        private void startSteps(@Nonnull ScheduledExecutorService ticker, long periodNanos, long dueNanos) {
+            if (stepTicker == ticker) {
+                return;
+            }
+
+            stepTicker = ticker;
+            scheduleStep(ticker, periodNanos, dueNanos);
+        }
+
+        private void scheduleStep(@Nonnull ScheduledExecutorService ticker, long periodNanos, long dueNanos) {
+            try {
+                ticker.schedule(() -> {
+                    try {
+                        pool.execute(() -> stepOnCadence(ticker, periodNanos, dueNanos));
+                    } catch (RejectedExecutionException ignored) {
+                        // The scheduler is closed.
+                    }
+                }, dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // The scheduler is stopped.
+            }
+        }
+
+        private void stepOnCadence(@Nonnull ScheduledExecutorService ticker, long periodNanos, long dueNanos) {
+            if (ticker.isShutdown() || !step(dueNanos)) {
+                return;
+            }
+
+            scheduleStep(ticker, periodNanos, max(dueNanos + periodNanos, System.nanoTime()));
+        }
+
+        /**
+         * @param dueNanos the moment the step was due, the latency is measured from it
+         * @return {@code false} if the world has been unregistered
+         */
+        private boolean step(long dueNanos) {
+            long startNanos;
+
+            stepLock.lock();
+            try {
+                if (entryByWorld.get(world) != this) {
+                    return false;
+                }
+
+                if (world.isClosed()) {
+                    entryByWorld.remove(world, this);
+                    return false;
+                }
+
+                startNanos = System.nanoTime();
+
+                try {
+                    world.proceed();
+                } catch (RuntimeException e) {
+                    logger.error("Can't proceed " + world + ", unregistering it.", e);
+                    entryByWorld.remove(world, this);
+                    return false;
+                }
+            } finally {
+                stepLock.unlock();
+            }
+
+            long endNanos = System.nanoTime();
+            long stepNanos = endNanos - startNanos;
+
+            double estimatedStepNanos = this.estimatedStepNanos;
+            this.estimatedStepNanos = estimatedStepNanos < 0.0D
+                    ? stepNanos
+                    : estimatedStepNanos + STEP_COST_SMOOTHING_FACTOR * (stepNanos - estimatedStepNanos);
+
+            synchronized (this) {
+                ++stepCount;
+                latencyNanos[nextLatencySampleIndex] = endNanos - dueNanos;
+                nextLatencySampleIndex = (nextLatencySampleIndex + 1) % LATENCY_SAMPLE_COUNT;
+                latencySampleCount = min(latencySampleCount + 1, LATENCY_SAMPLE_COUNT);
+            }
+
+            return true;
+        }
+
+        @Nonnull
+        private synchronized Statistics getStatistics() {
+            long[] sortedLatencyNanos = Arrays.copyOf(latencyNanos, latencySampleCount);
+            Arrays.sort(sortedLatencyNanos);
+            return new Statistics(stepCount, estimatedStepNanos, sortedLatencyNanos);
+        }
+    }
+
+    private static final class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final WorldEntry[] entries;
+        private final long tickStartNanos;
+
+        private StepTask(@Nonnull WorldEntry[] entries, long tickStartNanos) {
+            this.entries = entries;
+            this.tickStartNanos = tickStartNanos;
+        }
+
+        @Override
+        protected void compute() {
+            for (WorldEntry entry : entries) {
+                entry.step(tickStartNanos);
+            }
+        }
+    }
+}
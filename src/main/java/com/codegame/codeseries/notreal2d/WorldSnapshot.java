@@ -0,0 +1,206 @@
+package com.codegame.codeseries.notreal2d;
+
+import com.codeforces.commons.geometry.Point2D;
+import com.codeforces.commons.geometry.Vector2D;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+import static com.codeforces.commons.math.Math.max;
+
+/**
+ * Dynamic state of all bodies of a {@link World} between steps. Snapshots are kept in a ring buffer of the world and
+ * are reused after the buffer is full, so a snapshot should not be stored for a long time. Use
+ * {@link World#getSnapshot(long)} to find a snapshot, which is still available.
+ * <p>
+ * Only the state changed by the physics engine is captured: position, velocity, median velocity, force, angle, angular
+ * velocity, median angular velocity, torque and sleeping state of bodies.
+ * Properties of bodies (form, mass, friction factors and so on) and the set of bodies in the world are not captured.
+ */
+@NotThreadSafe
+public final class WorldSnapshot {
+    private static final int MIN_CAPACITY = 16;
+
+    private final World world;
+
+    private long stepIndex = -1L;
+    private int lastStepIterationCount;
+    private double lastStepMaxRelativeDepth;
+
+    private int bodyCount;
+    private long[] ids;
+    private int[] idGenerations;
+    private double[] x;
+    private double[] y;
+    private double[] velocityX;
+    private double[] velocityY;
+    private double[] medianVelocityX;
+    private double[] medianVelocityY;
+    private double[] forceX;
+    private double[] forceY;
+    private double[] angle;
+    private double[] angularVelocity;
+    private double[] medianAngularVelocity;
+    private double[] torque;
+    private boolean[] sleeping;
+    private int[] restingStepCount;
+
+    WorldSnapshot(@Nonnull World world) {
+        this.world = world;
+        allocateBodies(MIN_CAPACITY);
+    }
+
+    @Nonnull
+    World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return index of the step, which will be executed next after restoring this snapshot, or {@code -1} if this
+     * snapshot is not valid anymore
+     */
+    public long getStepIndex() {
+        return stepIndex;
+    }
+
+    void invalidate() {
+        stepIndex = -1L;
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    void startCapture(long stepIndex, int lastStepIterationCount, double lastStepMaxRelativeDepth, int bodyCount) {
+        this.stepIndex = stepIndex;
+        this.lastStepIterationCount = lastStepIterationCount;
+        this.lastStepMaxRelativeDepth = lastStepMaxRelativeDepth;
+        this.bodyCount = 0;
+
+        if (bodyCount > ids.length) {
+            allocateBodies(max(bodyCount, ids.length << 1));
+        }
+    }
+
+    void captureBody(@Nonnull Body body) {
+        if (bodyCount == ids.length) {
+            growBodies();
+        }
+
+        int index = bodyCount++;
+        Point2D position = body.getPosition();
+        Vector2D velocity = body.getVelocity();
+        Vector2D force = body.getForce();
+
+        ids[index] = body.getId();
+        idGenerations[index] = body.getIdGeneration();
+        x[index] = position.getX();
+        y[index] = position.getY();
+        velocityX[index] = velocity.getX();
+        velocityY[index] = velocity.getY();
+        medianVelocityX[index] = body.getMedianVelocityX();
+        medianVelocityY[index] = body.getMedianVelocityY();
+        forceX[index] = force.getX();
+        forceY[index] = force.getY();
+        angle[index] = body.getAngle();
+        angularVelocity[index] = body.getAngularVelocity();
+        medianAngularVelocity[index] = body.getMedianAngularVelocity();
+        torque[index] = body.getTorque();
+        sleeping[index] = body.isSleeping();
+        restingStepCount[index] = body.getRestingStepCount();
+    }
+
+    int getLastStepIterationCount() {
+        return lastStepIterationCount;
+    }
+
+    double getLastStepMaxRelativeDepth() {
+        return lastStepMaxRelativeDepth;
+    }
+
+    long getBodyId(int index) {
+        return ids[index];
+    }
+
+    int getBodyIdGeneration(int index) {
+        return idGenerations[index];
+    }
+
+    /**
+     * Writes the captured state to the {@code body} without notifying position listeners.
+     */
+    void restoreBody(int index, @Nonnull Body body) {
+        DynamicState state = body.getCurrentState();
+        Point2D position = state.getPosition();
+
+        if (position.getX() != x[index] || position.getY() != y[index]) {
+            state.setPositionQuietly(x[index], y[index]);
+        }
+
+        Vector2D velocity = state.getVelocity();
+        velocity.setX(velocityX[index]);
+        velocity.setY(velocityY[index]);
+
+        if (medianVelocityX[index] != 0.0D || medianVelocityY[index] != 0.0D || state.getMedianVelocity() != null) {
+            body.setMedianVelocity(medianVelocityX[index], medianVelocityY[index]);
+        }
+
+        Vector2D force = state.getForce();
+        force.setX(forceX[index]);
+        force.setY(forceY[index]);
+
+        state.setAngle(angle[index]);
+        state.setAngularVelocity(angularVelocity[index]);
+        state.setMedianAngularVelocity(medianAngularVelocity[index]);
+        state.setTorque(torque[index]);
+
+        body.setSleeping(sleeping[index]);
+        body.setRestingStepCount(restingStepCount[index]);
+    }
+
+    private void growBodies() {
+        int capacity = ids.length << 1;
+
+        ids = Arrays.copyOf(ids, capacity);
+        idGenerations = Arrays.copyOf(idGenerations, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        velocityX = Arrays.copyOf(velocityX, capacity);
+        velocityY = Arrays.copyOf(velocityY, capacity);
+        medianVelocityX = Arrays.copyOf(medianVelocityX, capacity);
+        medianVelocityY = Arrays.copyOf(medianVelocityY, capacity);
+        forceX = Arrays.copyOf(forceX, capacity);
+        forceY = Arrays.copyOf(forceY, capacity);
+        angle = Arrays.copyOf(angle, capacity);
+        angularVelocity = Arrays.copyOf(angularVelocity, capacity);
+        medianAngularVelocity = Arrays.copyOf(medianAngularVelocity, capacity);
+        torque = Arrays.copyOf(torque, capacity);
+        sleeping = Arrays.copyOf(sleeping, capacity);
+        restingStepCount = Arrays.copyOf(restingStepCount, capacity);
+    }
+
+    private void allocateBodies(int capacity) {
+        ids = new long[capacity];
+        idGenerations = new int[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        velocityX = new double[capacity];
+        velocityY = new double[capacity];
+        medianVelocityX = new double[capacity];
+        medianVelocityY = new double[capacity];
+        forceX = new double[capacity];
+        forceY = new double[capacity];
+        angle = new double[capacity];
+        angularVelocity = new double[capacity];
+        medianAngularVelocity = new double[capacity];
+        torque = new double[capacity];
+        sleeping = new boolean[capacity];
+        restingStepCount = new int[capacity];
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " {stepIndex=" + stepIndex + ", bodyCount=" + bodyCount + '}';
+    }
+}
@@ -0,0 +1,695 @@
+package com.codegame.codeseries.notreal2d.bodylist;
+
+import com.codeforces.commons.collection.CollectionUtil;
+import com.codeforces.commons.geometry.Point2D;
+import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.listener.PositionListenerAdapter;
+import gnu.trove.map.TLongObjectMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.codeforces.commons.math.Math.*;
+
+/**
+ * Keeps bodies in a dynamic bounding volume tree. Each leaf of the tree holds a fattened axis-aligned box of a body,
+ * so a body may move a fraction of its circumcircle radius before its leaf is reinserted. Inner nodes are kept
+ * balanced by rotations.
+ * <p>
+ * Unlike {@link CellSpaceBodyList}, the cost of a query does not depend on the size difference of bodies: a huge wall
+ * is a single leaf and tiny bullets far from it never visit it. Boxes of bodies are built around their circumcircles,
+ * because position listeners are not notified about rotation.
+ */
+@NotThreadSafe
+public class AabbTreeBodyList extends BodyListBase {
+    public static final double DEFAULT_FAT_MARGIN_FACTOR = 0.5D;
+
+    private static final int NULL_NODE = -1;
+    private static final int INITIAL_NODE_CAPACITY = 16;
+
+    private final TLongObjectMap<Proxy> proxyById = CollectionUtil.newTLongObjectMap();
+    private final List<Body> bodies = new ArrayList<>();
+
+    private double[] minXs = new double[INITIAL_NODE_CAPACITY];
+    private double[] minYs = new double[INITIAL_NODE_CAPACITY];
+    private double[] maxXs = new double[INITIAL_NODE_CAPACITY];
+    private double[] maxYs = new double[INITIAL_NODE_CAPACITY];
+
+    /**
+     * Parent node indexes of used nodes and next node indexes of free nodes.
+     */
+    private int[] parents = new int[INITIAL_NODE_CAPACITY];
+    private int[] firstChildren = new int[INITIAL_NODE_CAPACITY];
+    private int[] secondChildren = new int[INITIAL_NODE_CAPACITY];
+
+    /**
+     * Heights of subtrees: {@code 0} for leaves and {@code -1} for free nodes.
+     */
+    private int[] heights = new int[INITIAL_NODE_CAPACITY];
+    private Body[] nodeBodies = new Body[INITIAL_NODE_CAPACITY];
+
+    private int root = NULL_NODE;
+    private int freeNode = NULL_NODE;
+    private int nodeCapacity;
+
+    /**
+     * Stack of node pairs visited by {@link #getPotentialIntersectionPairs(BodyPairBuffer)}. Reused by all calls.
+     */
+    private int[] pairNodeStack = new int[4 * INITIAL_NODE_CAPACITY];
+
+    /**
+     * Guards the tree while positions of different bodies are changed concurrently.
+     */
+    private final Lock indexLock = new ReentrantLock();
+
+    private final double fatMarginFactor;
+
+    public AabbTreeBodyList() {
+        this(DEFAULT_FAT_MARGIN_FACTOR);
+    }
+
+    /**
+     * @param fatMarginFactor margin of a leaf box relative to the circumcircle radius of a body; greater values cause
+     *                        less tree updates, but more nodes visited by queries
+     */
+    public AabbTreeBodyList(double fatMarginFactor) {
+        if (Double.isNaN(fatMarginFactor) || Double.isInfinite(fatMarginFactor) || fatMarginFactor < 0.0D) {
+            throw new IllegalArgumentException("Argument 'fatMarginFactor' should be a finite non-negative number.");
+        }
+
+        this.fatMarginFactor = fatMarginFactor;
+        linkFreeNodes(0);
+    }
+
+    @Override
+    public void addBody(@Nonnull Body body) {
+        validateBody(body);
+        long id = body.getId();
+
+        if (proxyById.containsKey(id)) {
+            throw new IllegalStateException(body + " is already added.");
+        }
+
+        Proxy proxy = new Proxy(body, bodies.size());
+        body.getCurrentState().registerPositionListener(proxy, getClass().getSimpleName() + "Listener");
+
+        proxyById.put(id, proxy);
+        bodies.add(body);
+
+        indexLock.lock();
+        try {
+            proxy.node = allocateNode();
+            nodeBodies[proxy.node] = body;
+            updateFatBox(proxy);
+            insertLeaf(proxy.node);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeBody(@Nonnull Body body) {
+        validateBody(body);
+        long id = body.getId();
+
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(id)) == null) {
+            throw new IllegalStateException("Can't find " + body + '.');
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public void removeBody(long id) {
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(id)) == null) {
+            throw new IllegalStateException("Can't find Body {id=" + id + "}.");
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public void removeBodyQuietly(@Nullable Body body) {
+        if (body == null) {
+            return;
+        }
+
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(body.getId())) == null) {
+            return;
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public void removeBodyQuietly(long id) {
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(id)) == null) {
+            return;
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public boolean hasBody(@Nonnull Body body) {
+        validateBody(body);
+
+        return proxyById.containsKey(body.getId());
+    }
+
+    @Override
+    public boolean hasBody(long id) {
+        return proxyById.containsKey(id);
+    }
+
+    @Nullable
+    @Override
+    public Body getBody(long id) {
+        Proxy proxy = proxyById.get(id);
+        return proxy == null ? null : proxy.body;
+    }
+
+    @Override
+    public List<Body> getBodies() {
+        return Collections.unmodifiableList(bodies);
+    }
+
+    @Nonnull
+    @Override
+    public BodyList newEmptyList() {
+        return new AabbTreeBodyList(fatMarginFactor);
+    }
+
+    /**
+     * Visits only the branches of the tree, which overlap the box around the circumcircle of the {@code body}.
+     * Doesn't modify the tree, so may be called concurrently while positions of bodies are not changed.
+     */
+    @Override
+    public List<Body> getPotentialIntersections(@Nonnull Body body) {
+        validateBody(body);
+
+        if (!proxyById.containsKey(body.getId())) {
+            throw new IllegalStateException("Can't find " + body + '.');
+        }
+
+        List<Body> potentialIntersections = new ArrayList<>();
+
+        if (root == NULL_NODE) {
+            return Collections.unmodifiableList(potentialIntersections);
+        }
+
+        double radius = body.getForm().getCircumcircleRadius();
+        double x = body.getX();
+        double y = body.getY();
+
+        double minX = x - radius;
+        double minY = y - radius;
+        double maxX = x + radius;
+        double maxY = y + radius;
+
+        boolean isStatic = body.isStatic();
+
+        int[] nodeStack = new int[heights[root] + 2];
+        int nodeStackSize = 0;
+        nodeStack[nodeStackSize++] = root;
+
+        while (nodeStackSize > 0) {
+            int node = nodeStack[--nodeStackSize];
+
+            if (minXs[node] > maxX || maxXs[node] < minX || minYs[node] > maxY || maxYs[node] < minY) {
+                continue;
+            }
+
+            Body otherBody = nodeBodies[node];
+
+            if (otherBody == null) {
+                nodeStack[nodeStackSize++] = firstChildren[node];
+                nodeStack[nodeStackSize++] = secondChildren[node];
+                continue;
+            }
+
+            if (otherBody.equals(body) || isStatic && otherBody.isStatic() || !body.shouldCollide(otherBody)) {
+                continue;
+            }
+
+            double otherRadius = otherBody.getForm().getCircumcircleRadius();
+            double radiusSum = radius + otherRadius;
+            double deltaX = otherBody.getX() - x;
+            double deltaY = otherBody.getY() - y;
+
+            if (abs(deltaX) > radiusSum || abs(deltaY) > radiusSum) {
+                continue;
+            }
+
+            if (sqr(radiusSum) < sumSqr(deltaX, deltaY)) {
+                continue;
+            }
+
+            potentialIntersections.add(otherBody);
+        }
+
+        return Collections.unmodifiableList(potentialIntersections);
+    }
+
+    /**
+     * Descends the tree against itself, so a pair of branches is visited only if their boxes overlap, and each pair of
+     * leaves is visited once. Doesn't modify the tree, so may be called concurrently with queries while positions of
+     * bodies are not changed.
+     */
+    @Override
+    public void getPotentialIntersectionPairs(@Nonnull BodyPairBuffer pairs) {
+        pairs.clear();
+
+        if (root == NULL_NODE) {
+            return;
+        }
+
+        int[] nodeStack = pairNodeStack;
+        int nodeStackSize = 0;
+
+        nodeStack[nodeStackSize++] = root;
+        nodeStack[nodeStackSize++] = root;
+
+        while (nodeStackSize > 0) {
+            int secondNode = nodeStack[--nodeStackSize];
+            int firstNode = nodeStack[--nodeStackSize];
+
+            if (nodeStackSize + 6 > nodeStack.length) {
+                nodeStack = Arrays.copyOf(nodeStack, nodeStack.length << 1);
+                pairNodeStack = nodeStack;
+            }
+
+            Body firstBody = nodeBodies[firstNode];
+
+            // The pair of a node with itself stands for all pairs of leaves in its subtree.
+            if (firstNode == secondNode) {
+                if (firstBody == null) {
+                    int firstChild = firstChildren[firstNode];
+                    int secondChild = secondChildren[firstNode];
+
+                    nodeStack[nodeStackSize++] = firstChild;
+                    nodeStack[nodeStackSize++] = firstChild;
+                    nodeStack[nodeStackSize++] = secondChild;
+                    nodeStack[nodeStackSize++] = secondChild;
+                    nodeStack[nodeStackSize++] = firstChild;
+                    nodeStack[nodeStackSize++] = secondChild;
+                }
+                continue;
+            }
+
+            if (minXs[firstNode] > maxXs[secondNode] || maxXs[firstNode] < minXs[secondNode]
+                    || minYs[firstNode] > maxYs[secondNode] || maxYs[firstNode] < minYs[secondNode]) {
+                continue;
+            }
+
+            Body secondBody = nodeBodies[secondNode];
+
+            if (firstBody != null && secondBody != null) {
+                addPotentialIntersectionPair(firstBody, secondBody, pairs);
+                continue;
+            }
+
+            // The higher branch is split, so both branches descend evenly.
+            if (firstBody != null || secondBody == null && heights[secondNode] > heights[firstNode]) {
+                nodeStack[nodeStackSize++] = firstNode;
+                nodeStack[nodeStackSize++] = firstChildren[secondNode];
+                nodeStack[nodeStackSize++] = firstNode;
+                nodeStack[nodeStackSize++] = secondChildren[secondNode];
+            } else {
+                nodeStack[nodeStackSize++] = firstChildren[firstNode];
+                nodeStack[nodeStackSize++] = secondNode;
+                nodeStack[nodeStackSize++] = secondChildren[firstNode];
+                nodeStack[nodeStackSize++] = secondNode;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the tree from current positions of bodies. Takes the time proportional to {@code n * log(n)}, where
+     * {@code n} is the count of bodies.
+     */
+    @Override
+    public void rebuildIndexes() {
+        indexLock.lock();
+        try {
+            root = NULL_NODE;
+            Arrays.fill(nodeBodies, null);
+            linkFreeNodes(0);
+
+            for (Body body : bodies) {
+                Proxy proxy = proxyById.get(body.getId());
+                proxy.node = allocateNode();
+                nodeBodies[proxy.node] = body;
+                updateFatBox(proxy);
+                insertLeaf(proxy.node);
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void removeProxy(@Nonnull Proxy proxy) {
+        proxy.body.getCurrentState().unregisterPositionListener(getClass().getSimpleName() + "Listener");
+
+        int lastBodyIndex = bodies.size() - 1;
+        Body lastBody = bodies.remove(lastBodyIndex);
+
+        if (proxy.bodyIndex != lastBodyIndex) {
+            bodies.set(proxy.bodyIndex, lastBody);
+            proxyById.get(lastBody.getId()).bodyIndex = proxy.bodyIndex;
+        }
+
+        indexLock.lock();
+        try {
+            removeLeaf(proxy.node);
+            releaseNode(proxy.node);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void onPositionChange(@Nonnull Proxy proxy) {
+        Body body = proxy.body;
+        double radius = body.getForm().getCircumcircleRadius();
+        double x = body.getX();
+        double y = body.getY();
+
+        if (x - radius >= proxy.minX && y - radius >= proxy.minY
+                && x + radius <= proxy.maxX && y + radius <= proxy.maxY) {
+            return;
+        }
+
+        indexLock.lock();
+        try {
+            removeLeaf(proxy.node);
+            updateFatBox(proxy);
+            insertLeaf(proxy.node);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void updateFatBox(@Nonnull Proxy proxy) {
+        Body body = proxy.body;
+        double radius = body.getForm().getCircumcircleRadius();
+        double fatRadius = radius + fatMarginFactor * radius;
+        double x = body.getX();
+        double y = body.getY();
+
+        proxy.minX = x - fatRadius;
+        proxy.minY = y - fatRadius;
+        proxy.maxX = x + fatRadius;
+        proxy.maxY = y + fatRadius;
+
+        int node = proxy.node;
+        minXs[node] = proxy.minX;
+        minYs[node] = proxy.minY;
+        maxXs[node] = proxy.maxX;
+        maxYs[node] = proxy.maxY;
+    }
+
+    private int allocateNode() {
+        if (freeNode == NULL_NODE) {
+            int oldCapacity = nodeCapacity;
+            int newCapacity = oldCapacity << 1;
+
+            minXs = Arrays.copyOf(minXs, newCapacity);
+            minYs = Arrays.copyOf(minYs, newCapacity);
+            maxXs = Arrays.copyOf(maxXs, newCapacity);
+            maxYs = Arrays.copyOf(maxYs, newCapacity);
+            parents = Arrays.copyOf(parents, newCapacity);
+            firstChildren = Arrays.copyOf(firstChildren, newCapacity);
+            secondChildren = Arrays.copyOf(secondChildren, newCapacity);
+            heights = Arrays.copyOf(heights, newCapacity);
+            nodeBodies = Arrays.copyOf(nodeBodies, newCapacity);
+
+            linkFreeNodes(oldCapacity);
+        }
+
+        int node = freeNode;
+        freeNode = parents[node];
+
+        parents[node] = NULL_NODE;
+        firstChildren[node] = NULL_NODE;
+        secondChildren[node] = NULL_NODE;
+        heights[node] = 0;
+
+        return node;
+    }
+
+    private void releaseNode(int node) {
+        parents[node] = freeNode;
+        heights[node] = -1;
+        nodeBodies[node] = null;
+        freeNode = node;
+    }
+
+    /**
+     * Links all nodes starting from the {@code firstNode} to the end of arrays into the list of free nodes.
+     */
+    private void linkFreeNodes(int firstNode) {
+        nodeCapacity = nodeBodies.length;
+
+        for (int node = firstNode; node < nodeCapacity - 1; ++node) {
+            parents[node] = node + 1;
+            heights[node] = -1;
+        }
+
+        parents[nodeCapacity - 1] = NULL_NODE;
+        heights[nodeCapacity - 1] = -1;
+        freeNode = firstNode;
+    }
+
+    /**
+     * Finds the sibling of the {@code leaf} by the perimeter heuristic and fixes boxes and heights of its ancestors.
+     */
+    private void insertLeaf(int leaf) {
+        if (root == NULL_NODE) {
+            root = leaf;
+            parents[leaf] = NULL_NODE;
+            return;
+        }
+
+        double leafMinX = minXs[leaf];
+        double leafMinY = minYs[leaf];
+        double leafMaxX = maxXs[leaf];
+        double leafMaxY = maxYs[leaf];
+
+        int sibling = root;
+
+        while (nodeBodies[sibling] == null) {
+            int firstChild = firstChildren[sibling];
+            int secondChild = secondChildren[sibling];
+
+            double perimeter = getPerimeter(sibling);
+            double combinedPerimeter = getCombinedPerimeter(sibling, leafMinX, leafMinY, leafMaxX, leafMaxY);
+
+            double cost = 2.0D * combinedPerimeter;
+            double inheritanceCost = 2.0D * (combinedPerimeter - perimeter);
+
+            double firstCost = getDescentCost(firstChild, leafMinX, leafMinY, leafMaxX, leafMaxY) + inheritanceCost;
+            double secondCost = getDescentCost(secondChild, leafMinX, leafMinY, leafMaxX, leafMaxY) + inheritanceCost;
+
+            if (cost < firstCost && cost < secondCost) {
+                break;
+            }
+
+            sibling = firstCost < secondCost ? firstChild : secondChild;
+        }
+
+        int oldParent = parents[sibling];
+        int newParent = allocateNode();
+
+        parents[newParent] = oldParent;
+        nodeBodies[newParent] = null;
+        minXs[newParent] = min(leafMinX, minXs[sibling]);
+        minYs[newParent] = min(leafMinY, minYs[sibling]);
+        maxXs[newParent] = max(leafMaxX, maxXs[sibling]);
+        maxYs[newParent] = max(leafMaxY, maxYs[sibling]);
+        heights[newParent] = heights[sibling] + 1;
+
+        if (oldParent == NULL_NODE) {
+            root = newParent;
+        } else if (firstChildren[oldParent] == sibling) {
+            firstChildren[oldParent] = newParent;
+        } else {
+            secondChildren[oldParent] = newParent;
+        }
+
+        firstChildren[newParent] = sibling;
+        secondChildren[newParent] = leaf;
+        parents[sibling] = newParent;
+        parents[leaf] = newParent;
+
+        refitAncestors(parents[leaf]);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL_NODE;
+            return;
+        }
+
+        int parent = parents[leaf];
+        int grandParent = parents[parent];
+        int sibling = firstChildren[parent] == leaf ? secondChildren[parent] : firstChildren[parent];
+
+        if (grandParent == NULL_NODE) {
+            root = sibling;
+            parents[sibling] = NULL_NODE;
+            releaseNode(parent);
+        } else {
+            if (firstChildren[grandParent] == parent) {
+                firstChildren[grandParent] = sibling;
+            } else {
+                secondChildren[grandParent] = sibling;
+            }
+
+            parents[sibling] = grandParent;
+            releaseNode(parent);
+            refitAncestors(grandParent);
+        }
+    }
+
+    private void refitAncestors(int node) {
+        while (node != NULL_NODE) {
+            node = balance(node);
+            updateInnerNode(node);
+            node = parents[node];
+        }
+    }
+
+    private void updateInnerNode(int node) {
+        int firstChild = firstChildren[node];
+        int secondChild = secondChildren[node];
+
+        minXs[node] = min(minXs[firstChild], minXs[secondChild]);
+        minYs[node] = min(minYs[firstChild], minYs[secondChild]);
+        maxXs[node] = max(maxXs[firstChild], maxXs[secondChild]);
+        maxYs[node] = max(maxYs[firstChild], maxYs[secondChild]);
+        heights[node] = 1 + max(heights[firstChild], heights[secondChild]);
+    }
+
+    /**
+     * Rotates the higher child of the {@code node} up if the heights of its children differ by more than one.
+     *
+     * @return index of the node, which has taken the place of the {@code node}
+     */
+    private int balance(int node) {
+        if (nodeBodies[node] != null || heights[node] < 2) {
+            return node;
+        }
+
+        int firstChild = firstChildren[node];
+        int secondChild = secondChildren[node];
+        int heightDifference = heights[secondChild] - heights[firstChild];
+
+        if (heightDifference > 1) {
+            rotateUp(node, secondChild, firstChild);
+            return secondChild;
+        }
+
+        if (heightDifference < -1) {
+            rotateUp(node, firstChild, secondChild);
+            return firstChild;
+        }
+
+        return node;
+    }
+
+    /**
+     * Replaces the {@code node} with its {@code child} and makes the {@code node} a child of the {@code child}. The
+     * higher grandchild stays with the {@code child} and the lower one moves to the {@code node}.
+     */
+    private void rotateUp(int node, int child, int otherChild) {
+        int firstGrandChild = firstChildren[child];
+        int secondGrandChild = secondChildren[child];
+
+        int parent = parents[node];
+        parents[child] = parent;
+        parents[node] = child;
+
+        if (parent == NULL_NODE) {
+            root = child;
+        } else if (firstChildren[parent] == node) {
+            firstChildren[parent] = child;
+        } else {
+            secondChildren[parent] = child;
+        }
+
+        int keptGrandChild;
+        int movedGrandChild;
+
+        if (heights[firstGrandChild] > heights[secondGrandChild]) {
+            keptGrandChild = firstGrandChild;
+            movedGrandChild = secondGrandChild;
+        } else {
+            keptGrandChild = secondGrandChild;
+            movedGrandChild = firstGrandChild;
+        }
+
+        firstChildren[child] = node;
+        secondChildren[child] = keptGrandChild;
+
+        firstChildren[node] = otherChild;
+        secondChildren[node] = movedGrandChild;
+        parents[movedGrandChild] = node;
+
+        updateInnerNode(node);
+        updateInnerNode(child);
+    }
+
+    private double getPerimeter(int node) {
+        return 2.0D * (maxXs[node] - minXs[node] + maxYs[node] - minYs[node]);
+    }
+
+    private double getCombinedPerimeter(int node, double minX, double minY, double maxX, double maxY) {
+        return 2.0D * (max(maxXs[node], maxX) - min(minXs[node], minX)
+                + max(maxYs[node], maxY) - min(minYs[node], minY));
+    }
+
+    private double getDescentCost(int node, double minX, double minY, double maxX, double maxY) {
+        double combinedPerimeter = getCombinedPerimeter(node, minX, minY, maxX, maxY);
+        return nodeBodies[node] == null ? combinedPerimeter - getPerimeter(node) : combinedPerimeter;
+    }
+
+    /**
+     * Fattened box of a body, which is stored both in the tree and here, so the box can be checked without locking the
+     * tree.
+     */
+    private final class Proxy extends PositionListenerAdapter {
+        private final Body body;
+        private int bodyIndex;
+        private int node = NULL_NODE;
+
+        private double minX;
+        private double minY;
+        private double maxX;
+        private double maxY;
+
+        private Proxy(@Nonnull Body body, int bodyIndex) {
+            this.body = body;
+            this.bodyIndex = bodyIndex;
+        }
+
+        @Override
+        public void afterChangePosition(@Nonnull Point2D oldPosition, @Nonnull Point2D newPosition) {
+            onPositionChange(this);
+        }
+    }
+}
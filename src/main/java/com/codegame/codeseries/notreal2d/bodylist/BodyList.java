@@ -24,5 +24,52 @@ public interface BodyList {
     Body getBody(long id);
     List<Body> getBodies();
 
+    /**
+     * @return bodies, which may intersect the {@code body}, except static bodies for a static {@code body} and bodies
+     * filtered out by {@link Body#shouldCollide(Body)}
+     */
     List<Body> getPotentialIntersections(@Nonnull Body body);
+
+    /**
+     * Clears the {@code pairs} and adds each pair of bodies, which may intersect, exactly once. Pairs of bodies, which
+     * are both static or sleeping, and pairs filtered out by {@link Body#shouldCollide(Body)} are skipped. The default
+     * implementation queries {@link #getPotentialIntersections(Body) potential intersections} of each awake body.
+     */
+    default void getPotentialIntersectionPairs(@Nonnull BodyPairBuffer pairs) {
+        pairs.clear();
+
+        for (Body body : getBodies()) {
+            if (body.isStatic() || body.isSleeping()) {
+                continue;
+            }
+
+            long id = body.getId();
+
+            // The pair with a static or sleeping body is added by the awake body only.
+            for (Body otherBody : getPotentialIntersections(body)) {
+                if (otherBody.getId() > id || otherBody.isStatic() || otherBody.isSleeping()) {
+                    pairs.add(body, otherBody);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates indexes after positions of bodies have been changed without notifying position listeners, for example,
+     * when the world is restored from a snapshot. Does nothing by default, because a list without position indexes
+     * does not need to be updated.
+     */
+    default void rebuildIndexes() {
+        // No operations.
+    }
+
+    /**
+     * Creates an empty list of the same type and configuration. Used to fork a world.
+     *
+     * @throws UnsupportedOperationException if this list can't create an empty copy of itself
+     */
+    @Nonnull
+    default BodyList newEmptyList() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't create an empty copy of itself.");
+    }
 }
@@ -3,6 +3,10 @@ package com.codegame.codeseries.notreal2d.bodylist;
 import com.codegame.codeseries.notreal2d.Body;
 import org.jetbrains.annotations.Contract;
 
+import javax.annotation.Nonnull;
+
+import static com.codeforces.commons.math.Math.sqr;
+
 /**
  * @author Maxim Shipko (sladethe@gmail.com)
  *         Date: 26.08.2015
@@ -14,4 +18,29 @@ public abstract class BodyListBase implements BodyList {
             throw new IllegalArgumentException("Argument 'body' is null.");
         }
     }
+
+    /**
+     * Adds the pair of bodies to the {@code pairs} if any of them is {@link #isAwake(Body) awake}, they should collide
+     * and their circumcircles intersect.
+     */
+    protected static void addPotentialIntersectionPair(
+            @Nonnull Body body, @Nonnull Body otherBody, @Nonnull BodyPairBuffer pairs) {
+        if (!isAwake(body) && !isAwake(otherBody) || !body.shouldCollide(otherBody)) {
+            return;
+        }
+
+        if (sqr(otherBody.getForm().getCircumcircleRadius() + body.getForm().getCircumcircleRadius())
+                < otherBody.getSquaredDistanceTo(body)) {
+            return;
+        }
+
+        pairs.add(body, otherBody);
+    }
+
+    /**
+     * @return {@code true} if the body is neither static nor sleeping, so its pairs should be checked for collisions
+     */
+    protected static boolean isAwake(@Nonnull Body body) {
+        return !body.isStatic() && !body.isSleeping();
+    }
 }
@@ -0,0 +1,139 @@
+package com.codegame.codeseries.notreal2d.bodylist;
+
+import com.codegame.codeseries.notreal2d.Body;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Reusable list of body pairs. Does not allocate any objects while its size does not exceed the size reached before.
+ * The first body of a pair always has the lesser ID.
+ */
+@NotThreadSafe
+public class BodyPairBuffer {
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int MAX_INSERTION_SORT_SIZE = 16;
+
+    private Body[] bodiesA = new Body[DEFAULT_CAPACITY];
+    private Body[] bodiesB = new Body[DEFAULT_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Nonnull
+    public Body getBodyA(int index) {
+        checkIndex(index);
+        return bodiesA[index];
+    }
+
+    @Nonnull
+    public Body getBodyB(int index) {
+        checkIndex(index);
+        return bodiesB[index];
+    }
+
+    /**
+     * Adds the pair, swapping bodies if needed, so the first body has the lesser ID.
+     */
+    public void add(@Nonnull Body body, @Nonnull Body otherBody) {
+        if (size == bodiesA.length) {
+            bodiesA = Arrays.copyOf(bodiesA, size << 1);
+            bodiesB = Arrays.copyOf(bodiesB, size << 1);
+        }
+
+        if (body.getId() > otherBody.getId()) {
+            bodiesA[size] = otherBody;
+            bodiesB[size] = body;
+        } else {
+            bodiesA[size] = body;
+            bodiesB[size] = otherBody;
+        }
+
+        ++size;
+    }
+
+    /**
+     * Removes all pairs. Takes the time proportional to the count of pairs.
+     */
+    public void clear() {
+        Arrays.fill(bodiesA, 0, size, null);
+        Arrays.fill(bodiesB, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Sorts pairs by IDs of the first bodies, then by IDs of the second bodies, so the order of pairs does not depend on
+     * the implementation of a body list.
+     */
+    public void sort() {
+        sort(0, size - 1);
+    }
+
+    private void sort(int left, int right) {
+        while (right - left >= MAX_INSERTION_SORT_SIZE) {
+            int middle = (left + right) >>> 1;
+            long pivotIdA = bodiesA[middle].getId();
+            long pivotIdB = bodiesB[middle].getId();
+
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (compare(i, pivotIdA, pivotIdB) < 0) {
+                    ++i;
+                }
+
+                while (compare(j, pivotIdA, pivotIdB) > 0) {
+                    --j;
+                }
+
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+
+            // Recursion is used for the smaller part only, so its depth is logarithmic.
+            if (j - left < right - i) {
+                sort(left, j);
+                left = i;
+            } else {
+                sort(i, right);
+                right = j;
+            }
+        }
+
+        for (int i = left + 1; i <= right; ++i) {
+            for (int j = i; j > left && compare(j - 1, bodiesA[j].getId(), bodiesB[j].getId()) > 0; --j) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private int compare(int index, long idA, long idB) {
+        int comparison = Long.compare(bodiesA[index].getId(), idA);
+        return comparison == 0 ? Long.compare(bodiesB[index].getId(), idB) : comparison;
+    }
+
+    private void swap(int indexA, int indexB) {
+        Body bodyA = bodiesA[indexA];
+        bodiesA[indexA] = bodiesA[indexB];
+        bodiesA[indexB] = bodyA;
+
+        Body bodyB = bodiesB[indexA];
+        bodiesB[indexA] = bodiesB[indexB];
+        bodiesB[indexB] = bodyB;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Illegal index: " + index + ", size: " + size + '.');
+        }
+    }
+}
@@ -5,11 +5,10 @@ import com.codeforces.commons.collection.CollectionUtil;
 import com.codeforces.commons.geometry.Point2D;
 import com.codeforces.commons.math.NumberUtil;
 import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.BodyListSlotAccessor;
 import com.codegame.codeseries.notreal2d.listener.PositionListenerAdapter;
-import com.google.common.collect.UnmodifiableIterator;
 import gnu.trove.map.TLongObjectMap;
 import org.apache.commons.lang3.ArrayUtils;
-import org.jetbrains.annotations.Contract;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -26,28 +25,54 @@ import static com.codeforces.commons.math.Math.*;
  */
 @NotThreadSafe
 public class CellSpaceBodyList extends BodyListBase {
-    private static final int MIN_FAST_X = -1000;
-    private static final int MAX_FAST_X = 1000;
-    private static final int MIN_FAST_Y = -1000;
-    private static final int MAX_FAST_Y = 1000;
+    private static final int TILE_SIZE_SHIFT = 6;
+    private static final int TILE_SIZE = 1 << TILE_SIZE_SHIFT;
+    private static final int TILE_CELL_MASK = TILE_SIZE - 1;
+    private static final int TILE_CELL_COUNT = TILE_SIZE * TILE_SIZE;
 
-    private static final int FAST_COLUMN_COUNT = MAX_FAST_X - MIN_FAST_X + 1;
-    private static final int FAST_ROW_COUNT = MAX_FAST_Y - MIN_FAST_Y + 1;
+    /**
+     * The maximum count of empty tiles kept for reuse. Other released tiles are left to the garbage collector, so a
+     * crowd passing through a large world does not pin memory for all visited tiles.
+     */
+    static final int MAX_FREE_TILE_COUNT = 16;
 
-    private static final int MAX_FAST_BODY_ID = 9999;
+    private static final int INITIAL_SLOT_CAPACITY = 16;
 
-    private final TLongObjectMap<Body> bodyById = CollectionUtil.newTLongObjectMap();
+    private final TLongObjectMap<Entry> entryById = CollectionUtil.newTLongObjectMap();
+    private final List<Body> bodies = new ArrayList<>();
+
+    /*
+     * Entries and cells of bodies by their slots. Slots are assigned on addition and reused after removal, so the
+     * arrays stay as long as the maximum count of bodies in this list regardless of body IDs. The slot is also stored
+     * in the body through the private accessor, so the entry of a body is found without hashing.
+     */
+    private final BodyListSlotAccessor slotAccessor = new BodyListSlotAccessor();
+    private Entry[] entryBySlot = new Entry[INITIAL_SLOT_CAPACITY];
+    private int[] cellXBySlot = new int[INITIAL_SLOT_CAPACITY];
+    private int[] cellYBySlot = new int[INITIAL_SLOT_CAPACITY];
+    private double[] cellLeftBySlot = new double[INITIAL_SLOT_CAPACITY];
+    private double[] cellTopBySlot = new double[INITIAL_SLOT_CAPACITY];
+    private double[] cellRightBySlot = new double[INITIAL_SLOT_CAPACITY];
+    private double[] cellBottomBySlot = new double[INITIAL_SLOT_CAPACITY];
+
+    private int slotCount;
+    private int[] freeSlots = new int[INITIAL_SLOT_CAPACITY];
+    private int freeSlotCount;
 
-    private final Body[] fastBodies = new Body[MAX_FAST_BODY_ID + 1];
-    private final int[] fastCellXByBodyId = new int[MAX_FAST_BODY_ID + 1];
-    private final int[] fastCellYByBodyId = new int[MAX_FAST_BODY_ID + 1];
-    private final Point2D[] fastCellLeftTopByBodyId = new Point2D[MAX_FAST_BODY_ID + 1];
-    private final Point2D[] fastCellRightBottomByBodyId = new Point2D[MAX_FAST_BODY_ID + 1];
+    /**
+     * Square tiles of {@code TILE_SIZE * TILE_SIZE} cells by packed tile coordinates. Only tiles containing bodies are
+     * stored, so memory usage and rebuilding time depend on the occupied area instead of the world size.
+     */
+    private final TLongObjectMap<Tile> tileByXY = CollectionUtil.newTLongObjectMap();
+    private final Deque<Tile> freeTiles = new ArrayDeque<>();
 
-    private final Body[][] bodiesByCellXY = new Body[FAST_COLUMN_COUNT * FAST_ROW_COUNT][];
-    private final TLongObjectMap<Body[]> bodiesByCell = CollectionUtil.newTLongObjectMap();
     private final Set<Body> cellExceedingBodies = new HashSet<>();
 
+    /**
+     * Guards cell indexes while positions of different bodies are changed concurrently.
+     */
+    private final Lock indexLock = new ReentrantLock();
+
     private double cellSize;
     private final double maxCellSize;
 
@@ -61,7 +86,7 @@ public class CellSpaceBodyList extends BodyListBase {
         validateBody(body);
         long id = body.getId();
 
-        if (hasBody(id)) {
+        if (entryById.containsKey(id)) {
             throw new IllegalStateException(body + " is already added.");
         }
 
@@ -73,231 +98,156 @@ public class CellSpaceBodyList extends BodyListBase {
             rebuildIndexes();
         }
 
-        bodyById.put(id, body);
-        addBodyToIndexes(body);
-
-        if (id >= 0L && id <= MAX_FAST_BODY_ID) {
-            @SuppressWarnings("NumericCastThatLosesPrecision") int fastId = (int) id;
-            fastBodies[fastId] = body;
-
-            body.getCurrentState().registerPositionListener(new PositionListenerAdapter() {
-                private final Lock listenerLock = new ReentrantLock();
-
-                @Override
-                public void afterChangePosition(@Nonnull Point2D oldPosition, @Nonnull Point2D newPosition) {
-                    if (diameter > cellSize) {
-                        return;
-                    }
-
-                    Point2D cellLeftTop = fastCellLeftTopByBodyId[fastId];
-                    Point2D cellRightBottom = fastCellRightBottomByBodyId[fastId];
+        Entry entry = new Entry(body, diameter, allocateSlot(), bodies.size());
 
-                    Point2D position = body.getPosition();
-
-                    if (position.getX() >= cellLeftTop.getX() && position.getY() >= cellLeftTop.getY()
-                            && position.getX() < cellRightBottom.getX() && position.getY() < cellRightBottom.getY()) {
-                        return;
-                    }
+        entryById.put(id, entry);
+        entryBySlot[entry.slot] = entry;
+        slotAccessor.setSlot(body, entry.slot);
+        bodies.add(body);
+        addBodyToIndexes(entry);
 
-                    int oldCellX = getCellX(oldPosition.getX());
-                    int oldCellY = getCellY(oldPosition.getY());
-
-                    int newCellX = getCellX(newPosition.getX());
-                    int newCellY = getCellY(newPosition.getY());
-
-                    listenerLock.lock();
-                    try {
-                        removeBodyFromIndexes(body, oldCellX, oldCellY);
-                        addBodyToIndexes(body, newCellX, newCellY);
-                    } finally {
-                        listenerLock.unlock();
-                    }
-                }
-            }, getClass().getSimpleName() + "Listener");
-        } else {
-            body.getCurrentState().registerPositionListener(new PositionListenerAdapter() {
-                private final Lock listenerLock = new ReentrantLock();
-
-                @Override
-                public void afterChangePosition(@Nonnull Point2D oldPosition, @Nonnull Point2D newPosition) {
-                    if (diameter > cellSize) {
-                        return;
-                    }
-
-                    int oldCellX = getCellX(oldPosition.getX());
-                    int oldCellY = getCellY(oldPosition.getY());
-
-                    int newCellX = getCellX(newPosition.getX());
-                    int newCellY = getCellY(newPosition.getY());
-
-                    if (oldCellX == newCellX && oldCellY == newCellY) {
-                        return;
-                    }
-
-                    listenerLock.lock();
-                    try {
-                        removeBodyFromIndexes(body, oldCellX, oldCellY);
-                        addBodyToIndexes(body, newCellX, newCellY);
-                    } finally {
-                        listenerLock.unlock();
-                    }
-                }
-            }, getClass().getSimpleName() + "Listener");
-        }
+        body.getCurrentState().registerPositionListener(entry, getClass().getSimpleName() + "Listener");
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
     public void removeBody(@Nonnull Body body) {
         validateBody(body);
-        long id = body.getId();
 
-        if (bodyById.remove(id) == null) {
+        Entry entry;
+
+        if ((entry = entryById.remove(body.getId())) == null) {
             throw new IllegalStateException("Can't find " + body + '.');
         }
 
-        removeBodyFromIndexes(body);
-
-        if (id >= 0L && id <= MAX_FAST_BODY_ID) {
-            fastBodies[(int) id] = null;
-        }
+        removeEntry(entry);
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
     public void removeBody(long id) {
-        Body body;
+        Entry entry;
 
-        if ((body = bodyById.remove(id)) == null) {
+        if ((entry = entryById.remove(id)) == null) {
             throw new IllegalStateException("Can't find Body {id=" + id + "}.");
         }
 
-        removeBodyFromIndexes(body);
-
-        if (id >= 0L && id <= MAX_FAST_BODY_ID) {
-            fastBodies[(int) id] = null;
-        }
+        removeEntry(entry);
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
     public void removeBodyQuietly(@Nullable Body body) {
         if (body == null) {
             return;
         }
 
-        long id = body.getId();
+        Entry entry;
 
-        if (bodyById.remove(id) == null) {
+        if ((entry = entryById.remove(body.getId())) == null) {
             return;
         }
 
-        removeBodyFromIndexes(body);
-
-        if (id >= 0L && id <= MAX_FAST_BODY_ID) {
-            fastBodies[(int) id] = null;
-        }
+        removeEntry(entry);
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
     public void removeBodyQuietly(long id) {
-        Body body;
+        Entry entry;
 
-        if ((body = bodyById.remove(id)) == null) {
+        if ((entry = entryById.remove(id)) == null) {
             return;
         }
 
-        removeBodyFromIndexes(body);
-
-        if (id >= 0L && id <= MAX_FAST_BODY_ID) {
-            fastBodies[(int) id] = null;
-        }
+        removeEntry(entry);
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
     public boolean hasBody(@Nonnull Body body) {
         validateBody(body);
 
-        long id = body.getId();
-        return id >= 0L && id <= MAX_FAST_BODY_ID ? fastBodies[(int) id] != null : bodyById.containsKey(id);
+        return getEntry(body) != null;
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
     public boolean hasBody(long id) {
-        return id >= 0L && id <= MAX_FAST_BODY_ID ? fastBodies[(int) id] != null : bodyById.containsKey(id);
+        return entryById.containsKey(id);
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
+    @Nullable
     @Override
     public Body getBody(long id) {
-        return id >= 0L && id <= MAX_FAST_BODY_ID ? fastBodies[(int) id] : bodyById.get(id);
+        Entry entry = entryById.get(id);
+        return entry == null ? null : entry.body;
     }
 
     @Override
     public List<Body> getBodies() {
-        return new UnmodifiableCollectionWrapperList<>(bodyById.valueCollection());
+        return Collections.unmodifiableList(bodies);
     }
 
     /**
-     * May not find all potential intersections for bodies whose size exceeds cell size.
+     * Creates an empty list starting with the current cell size of this list, so bodies of the same size do not cause
+     * index rebuilding.
+     */
+    @Nonnull
+    @Override
+    public BodyList newEmptyList() {
+        return new CellSpaceBodyList(cellSize, maxCellSize);
+    }
+
+    /**
+     * Checks bodies exceeding the cell size against all other bodies, like
+     * {@link #getPotentialIntersectionPairs(BodyPairBuffer)} does.
      */
     @SuppressWarnings("OverlyLongMethod")
     @Override
     public List<Body> getPotentialIntersections(@Nonnull Body body) {
         validateBody(body);
-        long id = body.getId();
 
-        if (!hasBody(id)) {
+        Entry entry = getEntry(body);
+
+        if (entry == null) {
             throw new IllegalStateException("Can't find " + body + '.');
         }
 
         List<Body> potentialIntersections = new ArrayList<>();
 
+        if (entry.diameter > cellSize) {
+            for (int otherBodyIndex = 0, bodyCount = bodies.size(); otherBodyIndex < bodyCount; ++otherBodyIndex) {
+                addPotentialIntersection(body, bodies.get(otherBodyIndex), potentialIntersections);
+            }
+
+            return Collections.unmodifiableList(potentialIntersections);
+        }
+
         if (!cellExceedingBodies.isEmpty()) {
             for (Body otherBody : cellExceedingBodies) {
                 addPotentialIntersection(body, otherBody, potentialIntersections);
             }
         }
 
-        int cellX;
-        int cellY;
+        int cellX = cellXBySlot[entry.slot];
+        int cellY = cellYBySlot[entry.slot];
 
-        if (id >= 0L && id <= MAX_FAST_BODY_ID) {
-            @SuppressWarnings("NumericCastThatLosesPrecision") int fastId = (int) id;
-            cellX = fastCellXByBodyId[fastId];
-            cellY = fastCellYByBodyId[fastId];
-        } else {
-            cellX = getCellX(body.getX());
-            cellY = getCellY(body.getY());
-        }
+        Tile tile = getTile(cellX, cellY);
+        boolean bodyStatic = body.isStatic();
 
-        if (body.isStatic()) {
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX - 1, cellY - 1), potentialIntersections);
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX - 1, cellY), potentialIntersections);
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX - 1, cellY + 1), potentialIntersections);
+        for (int neighbourCellX = cellX - 1; neighbourCellX <= cellX + 1; ++neighbourCellX) {
+            for (int neighbourCellY = cellY - 1; neighbourCellY <= cellY + 1; ++neighbourCellY) {
+                Body[] cellBodies = getCellBodies(tile, neighbourCellX, neighbourCellY);
 
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX, cellY - 1), potentialIntersections);
-            addPotentialIntersectionsStatic(body, getCellBodies(cellX, cellY), potentialIntersections);
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX, cellY + 1), potentialIntersections);
-
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX + 1, cellY - 1), potentialIntersections);
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX + 1, cellY), potentialIntersections);
-            fastAddPotentialIntersectionsStatic(body, getCellBodies(cellX + 1, cellY + 1), potentialIntersections);
-        } else {
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX - 1, cellY - 1), potentialIntersections);
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX - 1, cellY), potentialIntersections);
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX - 1, cellY + 1), potentialIntersections);
-
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX, cellY - 1), potentialIntersections);
-            addPotentialIntersectionsNotStatic(body, getCellBodies(cellX, cellY), potentialIntersections);
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX, cellY + 1), potentialIntersections);
-
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX + 1, cellY - 1), potentialIntersections);
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX + 1, cellY), potentialIntersections);
-            fastAddPotentialIntersectionsNotStatic(body, getCellBodies(cellX + 1, cellY + 1), potentialIntersections);
+                if (neighbourCellX == cellX && neighbourCellY == cellY) {
+                    if (bodyStatic) {
+                        addPotentialIntersectionsStatic(body, cellBodies, potentialIntersections);
+                    } else {
+                        addPotentialIntersectionsNotStatic(body, cellBodies, potentialIntersections);
+                    }
+                } else {
+                    if (bodyStatic) {
+                        fastAddPotentialIntersectionsStatic(body, cellBodies, potentialIntersections);
+                    } else {
+                        fastAddPotentialIntersectionsNotStatic(body, cellBodies, potentialIntersections);
+                    }
+                }
+            }
         }
 
         return Collections.unmodifiableList(potentialIntersections);
@@ -320,7 +270,7 @@ public class CellSpaceBodyList extends BodyListBase {
             return;
         }
 
-        if (body.isStatic() && otherBody.isStatic()) {
+        if (body.isStatic() && otherBody.isStatic() || !body.shouldCollide(otherBody)) {
             return;
         }
 
@@ -349,7 +299,7 @@ public class CellSpaceBodyList extends BodyListBase {
             return;
         }
 
-        if (otherBody.isStatic()) {
+        if (otherBody.isStatic() || !body.shouldCollide(otherBody)) {
             return;
         }
 
@@ -374,7 +324,7 @@ public class CellSpaceBodyList extends BodyListBase {
 
     private static void addPotentialIntersectionNotStatic(
             @Nonnull Body body, @Nonnull Body otherBody, @Nonnull List<Body> potentialIntersections) {
-        if (otherBody.equals(body)) {
+        if (otherBody.equals(body) || !body.shouldCollide(otherBody)) {
             return;
         }
 
@@ -399,7 +349,7 @@ public class CellSpaceBodyList extends BodyListBase {
 
     private static void fastAddPotentialIntersectionStatic(
             @Nonnull Body body, @Nonnull Body otherBody, @Nonnull List<Body> potentialIntersections) {
-        if (otherBody.isStatic()) {
+        if (otherBody.isStatic() || !body.shouldCollide(otherBody)) {
             return;
         }
 
@@ -424,6 +374,10 @@ public class CellSpaceBodyList extends BodyListBase {
 
     private static void fastAddPotentialIntersectionNotStatic(
             @Nonnull Body body, @Nonnull Body otherBody, @Nonnull List<Body> potentialIntersections) {
+        if (!body.shouldCollide(otherBody)) {
+            return;
+        }
+
         if (sqr(otherBody.getForm().getCircumcircleRadius() + body.getForm().getCircumcircleRadius())
                 < otherBody.getSquaredDistanceTo(body)) {
             return;
@@ -432,93 +386,280 @@ public class CellSpaceBodyList extends BodyListBase {
         potentialIntersections.add(otherBody);
     }
 
-    private void rebuildIndexes() {
-        for (int cellY = MIN_FAST_Y; cellY <= MAX_FAST_Y; ++cellY) {
-            int rowOffset = (cellY - MIN_FAST_Y) * FAST_COLUMN_COUNT;
+    /**
+     * Visits each occupied cell once and pairs its bodies with each other and with bodies of the four following
+     * neighbour cells, so each pair of adjacent cells is scanned once. Bodies exceeding the cell size are paired with
+     * all other bodies.
+     */
+    @Override
+    public void getPotentialIntersectionPairs(@Nonnull BodyPairBuffer pairs) {
+        pairs.clear();
+
+        indexLock.lock();
+        try {
+            tileByXY.forEachValue(tile -> {
+                for (int i = 0; i < tile.occupiedCellCount; ++i) {
+                    int tileCell = tile.occupiedCells[i];
+                    int cellX = (tile.tileX << TILE_SIZE_SHIFT) + (tileCell & TILE_CELL_MASK);
+                    int cellY = (tile.tileY << TILE_SIZE_SHIFT) + (tileCell >> TILE_SIZE_SHIFT);
+
+                    addPotentialIntersectionPairs(tile, tile.bodiesByCell[tileCell], cellX, cellY, pairs);
+                }
+
+                return true;
+            });
+
+            if (!cellExceedingBodies.isEmpty()) {
+                Body[] exceedingBodies = cellExceedingBodies.toArray(new Body[cellExceedingBodies.size()]);
 
-            for (int cellX = MIN_FAST_X; cellX <= MAX_FAST_X; ++cellX) {
-                bodiesByCellXY[rowOffset + cellX - MIN_FAST_X] = null;
+                for (int otherBodyIndex = 0, bodyCount = bodies.size(); otherBodyIndex < bodyCount; ++otherBodyIndex) {
+                    Body otherBody = bodies.get(otherBodyIndex);
+                    boolean otherBodyExceeding = cellExceedingBodies.contains(otherBody);
+
+                    for (Body body : exceedingBodies) {
+                        if (otherBodyExceeding ? body.getId() < otherBody.getId() : !body.equals(otherBody)) {
+                            addPotentialIntersectionPair(body, otherBody, pairs);
+                        }
+                    }
+                }
             }
+        } finally {
+            indexLock.unlock();
         }
+    }
 
-        bodiesByCell.clear();
-        cellExceedingBodies.clear();
+    private void addPotentialIntersectionPairs(
+            @Nonnull Tile tile, @Nonnull Body[] cellBodies, int cellX, int cellY, @Nonnull BodyPairBuffer pairs) {
+        for (int bodyIndex = 0, bodyCount = cellBodies.length; bodyIndex < bodyCount; ++bodyIndex) {
+            Body body = cellBodies[bodyIndex];
 
-        bodyById.forEachValue(body -> {
-            addBodyToIndexes(body);
+            for (int otherBodyIndex = bodyIndex + 1; otherBodyIndex < bodyCount; ++otherBodyIndex) {
+                addPotentialIntersectionPair(body, cellBodies[otherBodyIndex], pairs);
+            }
+        }
+
+        addPotentialIntersectionPairs(cellBodies, getCellBodies(tile, cellX + 1, cellY - 1), pairs);
+        addPotentialIntersectionPairs(cellBodies, getCellBodies(tile, cellX + 1, cellY), pairs);
+        addPotentialIntersectionPairs(cellBodies, getCellBodies(tile, cellX + 1, cellY + 1), pairs);
+        addPotentialIntersectionPairs(cellBodies, getCellBodies(tile, cellX, cellY + 1), pairs);
+    }
+
+    private static void addPotentialIntersectionPairs(
+            @Nonnull Body[] cellBodies, @Nullable Body[] otherCellBodies, @Nonnull BodyPairBuffer pairs) {
+        if (otherCellBodies == null) {
+            return;
+        }
+
+        for (int bodyIndex = 0, bodyCount = cellBodies.length; bodyIndex < bodyCount; ++bodyIndex) {
+            Body body = cellBodies[bodyIndex];
+
+            for (int otherBodyIndex = 0, otherBodyCount = otherCellBodies.length;
+                 otherBodyIndex < otherBodyCount; ++otherBodyIndex) {
+                addPotentialIntersectionPair(body, otherCellBodies[otherBodyIndex], pairs);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds cell indexes of all bodies from their current positions. Takes the time proportional to the count of
+     * bodies and does not depend on the size of the world.
+     */
+    @Override
+    public void rebuildIndexes() {
+        tileByXY.forEachValue(tile -> {
+            tile.clear();
+            releaseTile(tile);
             return true;
         });
+
+        tileByXY.clear();
+        cellExceedingBodies.clear();
+
+        for (int bodyIndex = 0, bodyCount = bodies.size(); bodyIndex < bodyCount; ++bodyIndex) {
+            addBodyToIndexes(getEntry(bodies.get(bodyIndex)));
+        }
     }
 
-    private void addBodyToIndexes(@Nonnull Body body) {
-        double radius = body.getForm().getCircumcircleRadius();
-        double diameter = 2.0D * radius;
+    /**
+     * Finds the entry of the body by its slot. Falls back to the ID if the slot of the body is assigned by another
+     * list.
+     */
+    @Nullable
+    private Entry getEntry(@Nonnull Body body) {
+        int slot = slotAccessor.getSlot(body);
+        if (slot == -1) {
+            return entryById.get(body.getId());
+        }
 
-        if (diameter > cellSize) {
-            if (!cellExceedingBodies.add(body)) {
-                throw new IllegalStateException("Can't add Body {id=" + body.getId() + "} to index.");
-            }
-        } else {
-            addBodyToIndexes(body, getCellX(body.getX()), getCellY(body.getY()));
+        Entry entry = slot < entryBySlot.length ? entryBySlot[slot] : null;
+        if (entry == null || entry.body != body) {
+            throw new IllegalStateException("Slot " + slot + " of " + body + " is not assigned by this list.");
         }
+
+        return entry;
     }
 
-    private void addBodyToIndexes(@Nonnull Body body, int cellX, int cellY) {
-        if (cellX >= MIN_FAST_X && cellX <= MAX_FAST_X && cellY >= MIN_FAST_Y && cellY <= MAX_FAST_Y) {
-            int cellXY = (cellY - MIN_FAST_Y) * FAST_COLUMN_COUNT + cellX - MIN_FAST_X;
-            Body[] cellBodies = bodiesByCellXY[cellXY];
-            cellBodies = addBodyToCell(cellBodies, body);
-            bodiesByCellXY[cellXY] = cellBodies;
-        } else {
-            @SuppressWarnings("SuspiciousNameCombination") long cell = PackUtil.packInts(cellX, cellY);
-            Body[] cellBodies = bodiesByCell.get(cell);
-            cellBodies = addBodyToCell(cellBodies, body);
-            bodiesByCell.put(cell, cellBodies);
+    private void removeEntry(@Nonnull Entry entry) {
+        Body body = entry.body;
+        body.getCurrentState().unregisterPositionListener(getClass().getSimpleName() + "Listener");
+        slotAccessor.resetSlot(body);
+
+        int lastBodyIndex = bodies.size() - 1;
+        Body lastBody = bodies.remove(lastBodyIndex);
+
+        if (entry.bodyIndex != lastBodyIndex) {
+            bodies.set(entry.bodyIndex, lastBody);
+            getEntry(lastBody).bodyIndex = entry.bodyIndex;
         }
 
-        long id = body.getId();
+        removeBodyFromIndexes(entry);
+        entryBySlot[entry.slot] = null;
+        releaseSlot(entry.slot);
+    }
+
+    private void onPositionChange(@Nonnull Entry entry) {
+        if (entry.diameter > cellSize) {
+            return;
+        }
 
-        if (id >= 0L && id <= MAX_FAST_BODY_ID) {
-            @SuppressWarnings("NumericCastThatLosesPrecision") int fastId = (int) id;
-            fastCellXByBodyId[fastId] = cellX;
-            fastCellYByBodyId[fastId] = cellY;
-            fastCellLeftTopByBodyId[fastId] = new Point2D(cellX * cellSize, cellY * cellSize);
-            fastCellRightBottomByBodyId[fastId] = new Point2D((cellX + 1) * cellSize, (cellY + 1) * cellSize);
+        Body body = entry.body;
+        int slot = entry.slot;
+        double x = body.getX();
+        double y = body.getY();
+
+        if (x >= cellLeftBySlot[slot] && y >= cellTopBySlot[slot]
+                && x < cellRightBySlot[slot] && y < cellBottomBySlot[slot]) {
+            return;
+        }
+
+        int newCellX = getCellX(x);
+        int newCellY = getCellY(y);
+
+        indexLock.lock();
+        try {
+            removeBodyFromIndexes(body, cellXBySlot[slot], cellYBySlot[slot]);
+            addBodyToIndexes(body, slot, newCellX, newCellY);
+        } finally {
+            indexLock.unlock();
         }
     }
 
-    private void removeBodyFromIndexes(@Nonnull Body body) {
-        double radius = body.getForm().getCircumcircleRadius();
-        double diameter = 2.0D * radius;
+    private int allocateSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+
+        if (slotCount == cellXBySlot.length) {
+            int newCapacity = slotCount << 1;
+
+            entryBySlot = Arrays.copyOf(entryBySlot, newCapacity);
+            cellXBySlot = Arrays.copyOf(cellXBySlot, newCapacity);
+            cellYBySlot = Arrays.copyOf(cellYBySlot, newCapacity);
+            cellLeftBySlot = Arrays.copyOf(cellLeftBySlot, newCapacity);
+            cellTopBySlot = Arrays.copyOf(cellTopBySlot, newCapacity);
+            cellRightBySlot = Arrays.copyOf(cellRightBySlot, newCapacity);
+            cellBottomBySlot = Arrays.copyOf(cellBottomBySlot, newCapacity);
+        }
 
-        if (diameter > cellSize) {
-            if (!cellExceedingBodies.remove(body)) {
-                throw new IllegalStateException("Can't remove Body {id=" + body.getId() + "} from index.");
+        return slotCount++;
+    }
+
+    private void releaseSlot(int slot) {
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount << 1);
+        }
+
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    private void addBodyToIndexes(@Nonnull Entry entry) {
+        Body body = entry.body;
+
+        indexLock.lock();
+        try {
+            if (entry.diameter > cellSize) {
+                if (!cellExceedingBodies.add(body)) {
+                    throw new IllegalStateException("Can't add Body {id=" + body.getId() + "} to index.");
+                }
+            } else {
+                addBodyToIndexes(body, entry.slot, getCellX(body.getX()), getCellY(body.getY()));
             }
-        } else {
-            removeBodyFromIndexes(body, getCellX(body.getX()), getCellY(body.getY()));
+        } finally {
+            indexLock.unlock();
         }
     }
 
-    private void removeBodyFromIndexes(@Nonnull Body body, int cellX, int cellY) {
-        if (cellX >= MIN_FAST_X && cellX <= MAX_FAST_X && cellY >= MIN_FAST_Y && cellY <= MAX_FAST_Y) {
-            int cellXY = (cellY - MIN_FAST_Y) * FAST_COLUMN_COUNT + cellX - MIN_FAST_X;
-            Body[] cellBodies = bodiesByCellXY[cellXY];
-            cellBodies = removeBodyFromCell(cellBodies, body);
-            bodiesByCellXY[cellXY] = cellBodies;
-        } else {
-            @SuppressWarnings("SuspiciousNameCombination") long cell = PackUtil.packInts(cellX, cellY);
-            Body[] cellBodies = bodiesByCell.get(cell);
-            cellBodies = removeBodyFromCell(cellBodies, body);
+    private void addBodyToIndexes(@Nonnull Body body, int slot, int cellX, int cellY) {
+        int tileX = cellX >> TILE_SIZE_SHIFT;
+        int tileY = cellY >> TILE_SIZE_SHIFT;
+        @SuppressWarnings("SuspiciousNameCombination") long tileXY = PackUtil.packInts(tileX, tileY);
 
-            if (cellBodies == null) {
-                bodiesByCell.remove(cell);
+        Tile tile = tileByXY.get(tileXY);
+        if (tile == null) {
+            tile = freeTiles.isEmpty() ? new Tile() : freeTiles.pop();
+            tile.tileX = tileX;
+            tile.tileY = tileY;
+            tileByXY.put(tileXY, tile);
+        }
+
+        tile.addBody(getTileCell(cellX, cellY), body);
+
+        cellXBySlot[slot] = cellX;
+        cellYBySlot[slot] = cellY;
+        cellLeftBySlot[slot] = cellX * cellSize;
+        cellTopBySlot[slot] = cellY * cellSize;
+        cellRightBySlot[slot] = (cellX + 1) * cellSize;
+        cellBottomBySlot[slot] = (cellY + 1) * cellSize;
+    }
+
+    private void removeBodyFromIndexes(@Nonnull Entry entry) {
+        Body body = entry.body;
+
+        indexLock.lock();
+        try {
+            if (entry.diameter > cellSize) {
+                if (!cellExceedingBodies.remove(body)) {
+                    throw new IllegalStateException("Can't remove Body {id=" + body.getId() + "} from index.");
+                }
             } else {
-                bodiesByCell.put(cell, cellBodies);
+                removeBodyFromIndexes(body, cellXBySlot[entry.slot], cellYBySlot[entry.slot]);
             }
+        } finally {
+            indexLock.unlock();
         }
     }
 
+    private void removeBodyFromIndexes(@Nonnull Body body, int cellX, int cellY) {
+        @SuppressWarnings("SuspiciousNameCombination") long tileXY
+                = PackUtil.packInts(cellX >> TILE_SIZE_SHIFT, cellY >> TILE_SIZE_SHIFT);
+
+        Tile tile = tileByXY.get(tileXY);
+        if (tile == null) {
+            throw new IllegalStateException("Can't remove Body {id=" + body.getId() + "} from index.");
+        }
+
+        tile.removeBody(getTileCell(cellX, cellY), body);
+
+        if (tile.occupiedCellCount == 0) {
+            tileByXY.remove(tileXY);
+            releaseTile(tile);
+        }
+    }
+
+    private void releaseTile(@Nonnull Tile tile) {
+        if (freeTiles.size() < MAX_FREE_TILE_COUNT) {
+            freeTiles.push(tile);
+        }
+    }
+
+    int getTileCount() {
+        return tileByXY.size();
+    }
+
+    int getFreeTileCount() {
+        return freeTiles.size();
+    }
+
     @Nonnull
     private static Body[] addBodyToCell(@Nullable Body[] cellBodies, @Nonnull Body body) {
         if (cellBodies == null) {
@@ -556,13 +697,31 @@ public class CellSpaceBodyList extends BodyListBase {
     }
 
     @Nullable
-    private Body[] getCellBodies(int cellX, int cellY) {
-        if (cellX >= MIN_FAST_X && cellX <= MAX_FAST_X && cellY >= MIN_FAST_Y && cellY <= MAX_FAST_Y) {
-            return bodiesByCellXY[(cellY - MIN_FAST_Y) * FAST_COLUMN_COUNT + cellX - MIN_FAST_X];
-        } else {
-            @SuppressWarnings("SuspiciousNameCombination") long cell = PackUtil.packInts(cellX, cellY);
-            return bodiesByCell.get(cell);
+    private Tile getTile(int cellX, int cellY) {
+        @SuppressWarnings("SuspiciousNameCombination") long tileXY
+                = PackUtil.packInts(cellX >> TILE_SIZE_SHIFT, cellY >> TILE_SIZE_SHIFT);
+        return tileByXY.get(tileXY);
+    }
+
+    /**
+     * Looks up the tile of the cell only if it differs from the given one, so most neighbour cells are found without
+     * hashing.
+     */
+    @Nullable
+    private Body[] getCellBodies(@Nullable Tile tile, int cellX, int cellY) {
+        if (tile == null || cellX >> TILE_SIZE_SHIFT != tile.tileX || cellY >> TILE_SIZE_SHIFT != tile.tileY) {
+            tile = getTile(cellX, cellY);
+
+            if (tile == null) {
+                return null;
+            }
         }
+
+        return tile.bodiesByCell[getTileCell(cellX, cellY)];
+    }
+
+    private static int getTileCell(int cellX, int cellY) {
+        return (cellY & TILE_CELL_MASK) << TILE_SIZE_SHIFT | cellX & TILE_CELL_MASK;
     }
 
     private int getCellX(double x) {
@@ -573,218 +732,75 @@ public class CellSpaceBodyList extends BodyListBase {
         return NumberUtil.toInt(floor(y / cellSize));
     }
 
-    private static final class UnmodifiableCollectionWrapperList<E> implements List<E> {
-        private final Collection<E> collection;
-
-        private UnmodifiableCollectionWrapperList(Collection<E> collection) {
-            this.collection = collection;
-        }
-
-        @Override
-        public int size() {
-            return collection.size();
-        }
+    private static final class Tile {
+        private int tileX;
+        private int tileY;
 
-        @Override
-        public boolean isEmpty() {
-            return collection.isEmpty();
-        }
+        private final Body[][] bodiesByCell = new Body[TILE_CELL_COUNT][];
 
-        @Override
-        public boolean contains(Object object) {
-            return collection.contains(object);
-        }
+        /**
+         * Indexes of non-empty cells of this tile in no particular order.
+         */
+        private int[] occupiedCells = new int[16];
+        private int occupiedCellCount;
 
-        @Nonnull
-        @Override
-        public Iterator<E> iterator() {
-            Iterator<E> iterator = collection.iterator();
+        /**
+         * Positions of non-empty cells in {@link #occupiedCells}.
+         */
+        private final int[] occupiedCellPositions = new int[TILE_CELL_COUNT];
 
-            return new UnmodifiableIterator<E>() {
-                @Override
-                public boolean hasNext() {
-                    return iterator.hasNext();
-                }
+        private void addBody(int tileCell, @Nonnull Body body) {
+            Body[] cellBodies = bodiesByCell[tileCell];
 
-                @Override
-                public E next() {
-                    return iterator.next();
+            if (cellBodies == null) {
+                if (occupiedCellCount == occupiedCells.length) {
+                    occupiedCells = Arrays.copyOf(occupiedCells, occupiedCellCount << 1);
                 }
-            };
-        }
-
-        @Nonnull
-        @Override
-        public Object[] toArray() {
-            return collection.toArray();
-        }
-
-        @SuppressWarnings("SuspiciousToArrayCall")
-        @Nonnull
-        @Override
-        public <T> T[] toArray(@Nonnull T[] array) {
-            return collection.toArray(array);
-        }
-
-        @Contract("_ -> fail")
-        @Override
-        public boolean add(E element) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Contract("_ -> fail")
-        @Override
-        public boolean remove(Object object) {
-            throw new UnsupportedOperationException();
-        }
 
-        @Override
-        public boolean containsAll(@Nonnull Collection<?> collection) {
-            return this.collection.containsAll(collection);
-        }
-
-        @Contract("_ -> fail")
-        @Override
-        public boolean addAll(@Nonnull Collection<? extends E> collection) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Contract("_, _ -> fail")
-        @Override
-        public boolean addAll(int index, @Nonnull Collection<? extends E> collection) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Contract("_ -> fail")
-        @Override
-        public boolean removeAll(@Nonnull Collection<?> collection) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Contract("_ -> fail")
-        @Override
-        public boolean retainAll(@Nonnull Collection<?> collection) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Contract(" -> fail")
-        @Override
-        public void clear() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public E get(int index) {
-            if (collection instanceof List) {
-                return ((List<E>) collection).get(index);
+                occupiedCellPositions[tileCell] = occupiedCellCount;
+                occupiedCells[occupiedCellCount++] = tileCell;
             }
 
-            if (index < 0 || index >= collection.size()) {
-                throw new IndexOutOfBoundsException("Illegal index: " + index + ", size: " + collection.size() + '.');
-            }
-
-            Iterator<E> iterator = collection.iterator();
-
-            for (int i = 0; i < index; ++i) {
-                iterator.next();
-            }
-
-            return iterator.next();
-        }
-
-        @Contract("_, _ -> fail")
-        @Override
-        public E set(int index, E element) {
-            throw new UnsupportedOperationException();
+            bodiesByCell[tileCell] = addBodyToCell(cellBodies, body);
         }
 
-        @Contract("_, _ -> fail")
-        @Override
-        public void add(int index, E element) {
-            throw new UnsupportedOperationException();
-        }
+        private void removeBody(int tileCell, @Nonnull Body body) {
+            Body[] cellBodies = removeBodyFromCell(bodiesByCell[tileCell], body);
+            bodiesByCell[tileCell] = cellBodies;
 
-        @Contract("_ -> fail")
-        @Override
-        public E remove(int index) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public int indexOf(Object o) {
-            Iterator<E> iterator = collection.iterator();
-            int index = 0;
-
-            if (o == null) {
-                while (iterator.hasNext()) {
-                    if (iterator.next() == null) {
-                        return index;
-                    }
-                    ++index;
-                }
-            } else {
-                while (iterator.hasNext()) {
-                    if (o.equals(iterator.next())) {
-                        return index;
-                    }
-                    ++index;
-                }
+            if (cellBodies == null) {
+                int position = occupiedCellPositions[tileCell];
+                int lastTileCell = occupiedCells[--occupiedCellCount];
+                occupiedCells[position] = lastTileCell;
+                occupiedCellPositions[lastTileCell] = position;
             }
-
-            return -1;
         }
 
-        @Override
-        public int lastIndexOf(Object o) {
-            if (collection instanceof List) {
-                return ((List) collection).lastIndexOf(o);
+        private void clear() {
+            for (int i = 0; i < occupiedCellCount; ++i) {
+                bodiesByCell[occupiedCells[i]] = null;
             }
 
-            Iterator<E> iterator = collection.iterator();
-            int index = 0;
-            int lastIndex = -1;
-
-            if (o == null) {
-                while (iterator.hasNext()) {
-                    if (iterator.next() == null) {
-                        lastIndex = index;
-                    }
-                    ++index;
-                }
-            } else {
-                while (iterator.hasNext()) {
-                    if (o.equals(iterator.next())) {
-                        lastIndex = index;
-                    }
-                    ++index;
-                }
-            }
-
-            return lastIndex;
+            occupiedCellCount = 0;
         }
+    }
 
-        @Nonnull
-        @Override
-        public ListIterator<E> listIterator() {
-            return collection instanceof List
-                    ? Collections.unmodifiableList((List<E>) collection).listIterator()
-                    : Collections.unmodifiableList(new ArrayList<>(collection)).listIterator();
-        }
+    private final class Entry extends PositionListenerAdapter {
+        private final Body body;
+        private final double diameter;
+        private final int slot;
+        private int bodyIndex;
 
-        @Nonnull
-        @Override
-        public ListIterator<E> listIterator(int index) {
-            return collection instanceof List
-                    ? Collections.unmodifiableList((List<E>) collection).listIterator(index)
-                    : Collections.unmodifiableList(new ArrayList<>(collection)).listIterator(index);
+        private Entry(@Nonnull Body body, double diameter, int slot, int bodyIndex) {
+            this.body = body;
+            this.diameter = diameter;
+            this.slot = slot;
+            this.bodyIndex = bodyIndex;
         }
 
-        @Nonnull
         @Override
-        public List<E> subList(int fromIndex, int toIndex) {
-            return collection instanceof List
-                    ? Collections.unmodifiableList(((List<E>) collection).subList(fromIndex, toIndex))
-                    : Collections.unmodifiableList(new ArrayList<>(collection)).subList(fromIndex, toIndex);
+        public void afterChangePosition(@Nonnull Point2D oldPosition, @Nonnull Point2D newPosition) {
+            onPositionChange(this);
         }
     }
 }
@@ -0,0 +1,507 @@
+package com.codegame.codeseries.notreal2d.bodylist;
+
+import com.codeforces.commons.codec.PackUtil;
+import com.codeforces.commons.collection.CollectionUtil;
+import com.codeforces.commons.geometry.Point2D;
+import com.codeforces.commons.math.NumberUtil;
+import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.listener.PositionListenerAdapter;
+import gnu.trove.map.TLongObjectMap;
+import org.apache.commons.lang3.ArrayUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.codeforces.commons.math.Math.*;
+
+/**
+ * Keeps bodies in a hierarchy of uniform grids. The cell size of each level is twice the cell size of the previous one.
+ * A body is stored in the cell of its center on the first level, which cell size is not less than the circumcircle
+ * diameter of the body. Bodies of a level are at most half a cell away from their cells, so a query visits only a few
+ * cells around the body on each non-empty level.
+ * <p>
+ * Unlike {@link CellSpaceBodyList}, a huge body neither makes cells of small bodies larger, nor is checked against all
+ * other bodies: it is simply stored on a coarser level. Levels are created on demand.
+ */
+@NotThreadSafe
+public class HierarchicalGridBodyList extends BodyListBase {
+    public static final double DEFAULT_MIN_CELL_SIZE = 1.0D;
+
+    private final TLongObjectMap<Entry> entryById = CollectionUtil.newTLongObjectMap();
+    private final List<Body> bodies = new ArrayList<>();
+    private final List<Entry> entries = new ArrayList<>();
+
+    private Level[] levels = new Level[0];
+
+    /**
+     * Guards cells of levels while positions of different bodies are changed concurrently.
+     */
+    private final Lock indexLock = new ReentrantLock();
+
+    private final double minCellSize;
+
+    public HierarchicalGridBodyList() {
+        this(DEFAULT_MIN_CELL_SIZE);
+    }
+
+    /**
+     * @param minCellSize cell size of the finest level; bodies not larger than it are stored on that level
+     */
+    public HierarchicalGridBodyList(double minCellSize) {
+        if (Double.isNaN(minCellSize) || Double.isInfinite(minCellSize) || minCellSize <= 0.0D) {
+            throw new IllegalArgumentException("Argument 'minCellSize' should be a finite positive number.");
+        }
+
+        this.minCellSize = minCellSize;
+    }
+
+    @Override
+    public void addBody(@Nonnull Body body) {
+        validateBody(body);
+        long id = body.getId();
+
+        if (entryById.containsKey(id)) {
+            throw new IllegalStateException(body + " is already added.");
+        }
+
+        Entry entry = new Entry(body, bodies.size(), getLevelIndex(2.0D * body.getForm().getCircumcircleRadius()));
+
+        entryById.put(id, entry);
+        bodies.add(body);
+        entries.add(entry);
+
+        indexLock.lock();
+        try {
+            addEntryToIndexes(entry);
+        } finally {
+            indexLock.unlock();
+        }
+
+        body.getCurrentState().registerPositionListener(entry, getClass().getSimpleName() + "Listener");
+    }
+
+    @Override
+    public void removeBody(@Nonnull Body body) {
+        validateBody(body);
+
+        Entry entry;
+
+        if ((entry = entryById.remove(body.getId())) == null) {
+            throw new IllegalStateException("Can't find " + body + '.');
+        }
+
+        removeEntry(entry);
+    }
+
+    @Override
+    public void removeBody(long id) {
+        Entry entry;
+
+        if ((entry = entryById.remove(id)) == null) {
+            throw new IllegalStateException("Can't find Body {id=" + id + "}.");
+        }
+
+        removeEntry(entry);
+    }
+
+    @Override
+    public void removeBodyQuietly(@Nullable Body body) {
+        if (body == null) {
+            return;
+        }
+
+        Entry entry;
+
+        if ((entry = entryById.remove(body.getId())) == null) {
+            return;
+        }
+
+        removeEntry(entry);
+    }
+
+    @Override
+    public void removeBodyQuietly(long id) {
+        Entry entry;
+
+        if ((entry = entryById.remove(id)) == null) {
+            return;
+        }
+
+        removeEntry(entry);
+    }
+
+    @Override
+    public boolean hasBody(@Nonnull Body body) {
+        validateBody(body);
+
+        return entryById.containsKey(body.getId());
+    }
+
+    @Override
+    public boolean hasBody(long id) {
+        return entryById.containsKey(id);
+    }
+
+    @Nullable
+    @Override
+    public Body getBody(long id) {
+        Entry entry = entryById.get(id);
+        return entry == null ? null : entry.body;
+    }
+
+    @Override
+    public List<Body> getBodies() {
+        return Collections.unmodifiableList(bodies);
+    }
+
+    @Nonnull
+    @Override
+    public BodyList newEmptyList() {
+        return new HierarchicalGridBodyList(minCellSize);
+    }
+
+    /**
+     * Visits the cells around the {@code body} on each non-empty level. A level is scanned entirely instead, if it has
+     * less non-empty cells than the body overlaps, so a huge body does not visit empty cells of fine levels.
+     */
+    @Override
+    public List<Body> getPotentialIntersections(@Nonnull Body body) {
+        validateBody(body);
+
+        if (!entryById.containsKey(body.getId())) {
+            throw new IllegalStateException("Can't find " + body + '.');
+        }
+
+        List<Body> potentialIntersections = new ArrayList<>();
+
+        double radius = body.getForm().getCircumcircleRadius();
+        double x = body.getX();
+        double y = body.getY();
+
+        for (Level level : levels) {
+            if (level.bodyCount == 0) {
+                continue;
+            }
+
+            double cellSize = level.cellSize;
+            double range = radius + 0.5D * cellSize;
+
+            int minCellX = getCell(x - range, cellSize);
+            int maxCellX = getCell(x + range, cellSize);
+            int minCellY = getCell(y - range, cellSize);
+            int maxCellY = getCell(y + range, cellSize);
+
+            if ((maxCellX - minCellX + 1L) * (maxCellY - minCellY + 1L) > level.bodiesByCell.size()) {
+                level.bodiesByCell.forEachValue(cellBodies -> {
+                    addPotentialIntersections(body, cellBodies, potentialIntersections);
+                    return true;
+                });
+                continue;
+            }
+
+            for (int cellX = minCellX; cellX <= maxCellX; ++cellX) {
+                for (int cellY = minCellY; cellY <= maxCellY; ++cellY) {
+                    @SuppressWarnings("SuspiciousNameCombination") long cell = PackUtil.packInts(cellX, cellY);
+                    addPotentialIntersections(body, level.bodiesByCell.get(cell), potentialIntersections);
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(potentialIntersections);
+    }
+
+    private static void addPotentialIntersections(
+            @Nonnull Body body, @Nullable Body[] bodies, @Nonnull List<Body> potentialIntersections) {
+        if (bodies == null) {
+            return;
+        }
+
+        for (int bodyIndex = 0, bodyCount = bodies.length; bodyIndex < bodyCount; ++bodyIndex) {
+            addPotentialIntersection(body, bodies[bodyIndex], potentialIntersections);
+        }
+    }
+
+    private static void addPotentialIntersection(
+            @Nonnull Body body, @Nonnull Body otherBody, @Nonnull List<Body> potentialIntersections) {
+        if (otherBody.equals(body)) {
+            return;
+        }
+
+        if (body.isStatic() && otherBody.isStatic() || !body.shouldCollide(otherBody)) {
+            return;
+        }
+
+        if (sqr(otherBody.getForm().getCircumcircleRadius() + body.getForm().getCircumcircleRadius())
+                < otherBody.getSquaredDistanceTo(body)) {
+            return;
+        }
+
+        potentialIntersections.add(otherBody);
+    }
+
+    /**
+     * Pairs each body with bodies of its own level having greater IDs and with bodies of coarser levels, so each pair
+     * is found once. A body overlaps at most 3 * 3 cells of its own and of any coarser level.
+     */
+    @Override
+    public void getPotentialIntersectionPairs(@Nonnull BodyPairBuffer pairs) {
+        pairs.clear();
+
+        indexLock.lock();
+        try {
+            for (int entryIndex = 0, entryCount = entries.size(); entryIndex < entryCount; ++entryIndex) {
+                addPotentialIntersectionPairs(entries.get(entryIndex), pairs);
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void addPotentialIntersectionPairs(@Nonnull Entry entry, @Nonnull BodyPairBuffer pairs) {
+        Body body = entry.body;
+        long id = body.getId();
+        double radius = body.getForm().getCircumcircleRadius();
+        double x = body.getX();
+        double y = body.getY();
+
+        for (int levelIndex = entry.levelIndex, levelCount = levels.length; levelIndex < levelCount; ++levelIndex) {
+            Level level = levels[levelIndex];
+            if (level.bodyCount == 0) {
+                continue;
+            }
+
+            boolean ownLevel = levelIndex == entry.levelIndex;
+            double cellSize = level.cellSize;
+            double range = radius + 0.5D * cellSize;
+
+            int minCellX = getCell(x - range, cellSize);
+            int maxCellX = getCell(x + range, cellSize);
+            int minCellY = getCell(y - range, cellSize);
+            int maxCellY = getCell(y + range, cellSize);
+
+            for (int cellX = minCellX; cellX <= maxCellX; ++cellX) {
+                for (int cellY = minCellY; cellY <= maxCellY; ++cellY) {
+                    @SuppressWarnings("SuspiciousNameCombination") long cell = PackUtil.packInts(cellX, cellY);
+                    Body[] cellBodies = level.bodiesByCell.get(cell);
+                    if (cellBodies == null) {
+                        continue;
+                    }
+
+                    for (int bodyIndex = 0, bodyCount = cellBodies.length; bodyIndex < bodyCount; ++bodyIndex) {
+                        Body otherBody = cellBodies[bodyIndex];
+
+                        if (!ownLevel || otherBody.getId() > id) {
+                            addPotentialIntersectionPair(body, otherBody, pairs);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds cells of all levels from current positions of bodies. Takes the time proportional to the count of
+     * bodies.
+     */
+    @Override
+    public void rebuildIndexes() {
+        indexLock.lock();
+        try {
+            for (Level level : levels) {
+                level.bodiesByCell.clear();
+                level.bodyCount = 0;
+            }
+
+            for (int entryIndex = 0, entryCount = entries.size(); entryIndex < entryCount; ++entryIndex) {
+                addEntryToIndexes(entries.get(entryIndex));
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void removeEntry(@Nonnull Entry entry) {
+        entry.body.getCurrentState().unregisterPositionListener(getClass().getSimpleName() + "Listener");
+
+        int lastBodyIndex = bodies.size() - 1;
+        Body lastBody = bodies.remove(lastBodyIndex);
+        Entry lastEntry = entries.remove(lastBodyIndex);
+
+        if (entry.bodyIndex != lastBodyIndex) {
+            bodies.set(entry.bodyIndex, lastBody);
+            entries.set(entry.bodyIndex, lastEntry);
+            lastEntry.bodyIndex = entry.bodyIndex;
+        }
+
+        indexLock.lock();
+        try {
+            removeEntryFromIndexes(entry);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void onPositionChange(@Nonnull Entry entry) {
+        Body body = entry.body;
+        double x = body.getX();
+        double y = body.getY();
+
+        if (x >= entry.cellLeft && y >= entry.cellTop && x < entry.cellRight && y < entry.cellBottom) {
+            return;
+        }
+
+        indexLock.lock();
+        try {
+            removeEntryFromIndexes(entry);
+            addEntryToIndexes(entry);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void addEntryToIndexes(@Nonnull Entry entry) {
+        Level level = getLevel(entry.levelIndex);
+        double cellSize = level.cellSize;
+        Body body = entry.body;
+
+        entry.cellX = getCell(body.getX(), cellSize);
+        entry.cellY = getCell(body.getY(), cellSize);
+        entry.cellLeft = entry.cellX * cellSize;
+        entry.cellTop = entry.cellY * cellSize;
+        entry.cellRight = (entry.cellX + 1) * cellSize;
+        entry.cellBottom = (entry.cellY + 1) * cellSize;
+
+        @SuppressWarnings("SuspiciousNameCombination") long cell = PackUtil.packInts(entry.cellX, entry.cellY);
+        level.bodiesByCell.put(cell, addBodyToCell(level.bodiesByCell.get(cell), body));
+        ++level.bodyCount;
+    }
+
+    private void removeEntryFromIndexes(@Nonnull Entry entry) {
+        Level level = levels[entry.levelIndex];
+
+        @SuppressWarnings("SuspiciousNameCombination") long cell = PackUtil.packInts(entry.cellX, entry.cellY);
+        Body[] cellBodies = removeBodyFromCell(level.bodiesByCell.get(cell), entry.body);
+
+        if (cellBodies == null) {
+            level.bodiesByCell.remove(cell);
+        } else {
+            level.bodiesByCell.put(cell, cellBodies);
+        }
+
+        --level.bodyCount;
+    }
+
+    @Nonnull
+    private static Body[] addBodyToCell(@Nullable Body[] cellBodies, @Nonnull Body body) {
+        if (cellBodies == null) {
+            return new Body[] {body};
+        }
+
+        int bodyIndex = ArrayUtils.indexOf(cellBodies, body);
+        if (bodyIndex != ArrayUtils.INDEX_NOT_FOUND) {
+            throw new IllegalStateException("Can't add Body {id=" + body.getId() + "} to index.");
+        }
+
+        int bodyCount = cellBodies.length;
+        Body[] newCellBodies = new Body[bodyCount + 1];
+        System.arraycopy(cellBodies, 0, newCellBodies, 0, bodyCount);
+        newCellBodies[bodyCount] = body;
+        return newCellBodies;
+    }
+
+    @Nullable
+    private static Body[] removeBodyFromCell(@Nonnull Body[] cellBodies, @Nonnull Body body) {
+        int bodyIndex = ArrayUtils.indexOf(cellBodies, body);
+        if (bodyIndex == ArrayUtils.INDEX_NOT_FOUND) {
+            throw new IllegalStateException("Can't remove Body {id=" + body.getId() + "} from index.");
+        }
+
+        int bodyCount = cellBodies.length;
+        if (bodyCount == 1) {
+            return null;
+        }
+
+        Body[] newCellBodies = new Body[bodyCount - 1];
+        System.arraycopy(cellBodies, 0, newCellBodies, 0, bodyIndex);
+        System.arraycopy(cellBodies, bodyIndex + 1, newCellBodies, bodyIndex, bodyCount - bodyIndex - 1);
+        return newCellBodies;
+    }
+
+    /**
+     * @return index of the first level, which cell size is not less than the {@code diameter}
+     */
+    private int getLevelIndex(double diameter) {
+        int levelIndex = 0;
+
+        for (double cellSize = minCellSize; cellSize < diameter; cellSize *= 2.0D) {
+            ++levelIndex;
+        }
+
+        return levelIndex;
+    }
+
+    @Nonnull
+    private Level getLevel(int levelIndex) {
+        int levelCount = levels.length;
+
+        if (levelIndex >= levelCount) {
+            levels = Arrays.copyOf(levels, levelIndex + 1);
+            double cellSize = levelCount == 0 ? minCellSize : levels[levelCount - 1].cellSize * 2.0D;
+
+            for (int i = levelCount; i <= levelIndex; ++i) {
+                levels[i] = new Level(cellSize);
+                cellSize *= 2.0D;
+            }
+        }
+
+        return levels[levelIndex];
+    }
+
+    private static int getCell(double coordinate, double cellSize) {
+        return NumberUtil.toInt(floor(coordinate / cellSize));
+    }
+
+    private static final class Level {
+        private final double cellSize;
+        private final TLongObjectMap<Body[]> bodiesByCell = CollectionUtil.newTLongObjectMap();
+        private int bodyCount;
+
+        private Level(double cellSize) {
+            this.cellSize = cellSize;
+        }
+    }
+
+    /**
+     * The level and the cell of a body, which are stored here, so the cell can be checked without locking indexes.
+     */
+    private final class Entry extends PositionListenerAdapter {
+        private final Body body;
+        private int bodyIndex;
+        private final int levelIndex;
+
+        private int cellX;
+        private int cellY;
+        private double cellLeft;
+        private double cellTop;
+        private double cellRight;
+        private double cellBottom;
+
+        private Entry(@Nonnull Body body, int bodyIndex, int levelIndex) {
+            this.body = body;
+            this.bodyIndex = bodyIndex;
+            this.levelIndex = levelIndex;
+        }
+
+        @Override
+        public void afterChangePosition(@Nonnull Point2D oldPosition, @Nonnull Point2D newPosition) {
+            onPositionChange(this);
+        }
+    }
+}
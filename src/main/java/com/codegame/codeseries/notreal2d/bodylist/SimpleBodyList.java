@@ -113,6 +113,12 @@ public class SimpleBodyList extends BodyListBase {
         return Collections.unmodifiableList(bodies);
     }
 
+    @Nonnull
+    @Override
+    public BodyList newEmptyList() {
+        return new SimpleBodyList();
+    }
+
     @Override
     public List<Body> getPotentialIntersections(@Nonnull Body body) {
         validateBody(body);
@@ -126,7 +132,7 @@ public class SimpleBodyList extends BodyListBase {
                 continue;
             }
 
-            if (body.isStatic() && otherBody.isStatic()) {
+            if (body.isStatic() && otherBody.isStatic() || !body.shouldCollide(otherBody)) {
                 continue;
             }
 
@@ -144,4 +150,21 @@ public class SimpleBodyList extends BodyListBase {
 
         return Collections.unmodifiableList(potentialIntersections);
     }
+
+    /**
+     * Checks each pair of bodies once. Takes the time proportional to the squared count of bodies.
+     */
+    @Override
+    public void getPotentialIntersectionPairs(@Nonnull BodyPairBuffer pairs) {
+        pairs.clear();
+
+        for (ListIterator<Body> bodyIterator = bodies.listIterator(); bodyIterator.hasNext(); ) {
+            Body body = bodyIterator.next();
+
+            for (Iterator<Body> otherBodyIterator = bodies.listIterator(bodyIterator.nextIndex());
+                 otherBodyIterator.hasNext(); ) {
+                addPotentialIntersectionPair(body, otherBodyIterator.next(), pairs);
+            }
+        }
+    }
 }
@@ -0,0 +1,660 @@
+package com.codegame.codeseries.notreal2d.bodylist;
+
+import com.codeforces.commons.collection.CollectionUtil;
+import com.codeforces.commons.geometry.Point2D;
+import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.listener.PositionListenerAdapter;
+import gnu.trove.map.TLongObjectMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.codeforces.commons.math.Math.*;
+
+/**
+ * Keeps the endpoints of circumcircle boxes of bodies sorted along one axis and the set of pairs, whose boxes overlap
+ * along this axis. The axis is the one along which the positions of bodies vary more.
+ * <p>
+ * Moved bodies are only marked on position change. Their endpoints are moved to the new places by insertion before the
+ * next query, and each endpoint passing another one starts or ends an overlap. Bodies move a little between
+ * iterations, so an update usually takes a few swaps, and a query only checks bodies overlapping along the axis.
+ */
+@NotThreadSafe
+public class SweepAndPruneBodyList extends BodyListBase {
+    private static final int INITIAL_ENDPOINT_CAPACITY = 16;
+    private static final int MIN_AXIS_SELECTION_BODY_COUNT = 16;
+
+    private final TLongObjectMap<Proxy> proxyById = CollectionUtil.newTLongObjectMap();
+    private final List<Body> bodies = new ArrayList<>();
+
+    private double[] endpointValues = new double[INITIAL_ENDPOINT_CAPACITY];
+    private Proxy[] endpointProxies = new Proxy[INITIAL_ENDPOINT_CAPACITY];
+    private int endpointCount;
+
+    private final List<Proxy> movedProxies = new ArrayList<>();
+
+    /**
+     * Set after a position change and cleared after the endpoints have been sorted. Allows queries to skip the lock.
+     */
+    private volatile boolean endpointsChanged;
+
+    /**
+     * Guards endpoints and overlaps while positions of different bodies are changed concurrently.
+     */
+    private final Lock indexLock = new ReentrantLock();
+
+    private boolean sweepAlongX = true;
+
+    /**
+     * The count of bodies the sweep axis has been selected for. The axis is selected again, when the count doubles.
+     */
+    private int axisSelectionBodyCount;
+
+    @Override
+    public void addBody(@Nonnull Body body) {
+        validateBody(body);
+        long id = body.getId();
+
+        if (proxyById.containsKey(id)) {
+            throw new IllegalStateException(body + " is already added.");
+        }
+
+        Proxy proxy = new Proxy(body, bodies.size());
+        body.getCurrentState().registerPositionListener(proxy, getClass().getSimpleName() + "Listener");
+
+        proxyById.put(id, proxy);
+        bodies.add(body);
+
+        if (bodies.size() >= MIN_AXIS_SELECTION_BODY_COUNT && bodies.size() >= axisSelectionBodyCount << 1) {
+            rebuildIndexes();
+            return;
+        }
+
+        indexLock.lock();
+        try {
+            sortMovedEndpoints();
+            insertEndpoints(proxy);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeBody(@Nonnull Body body) {
+        validateBody(body);
+        long id = body.getId();
+
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(id)) == null) {
+            throw new IllegalStateException("Can't find " + body + '.');
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public void removeBody(long id) {
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(id)) == null) {
+            throw new IllegalStateException("Can't find Body {id=" + id + "}.");
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public void removeBodyQuietly(@Nullable Body body) {
+        if (body == null) {
+            return;
+        }
+
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(body.getId())) == null) {
+            return;
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public void removeBodyQuietly(long id) {
+        Proxy proxy;
+
+        if ((proxy = proxyById.remove(id)) == null) {
+            return;
+        }
+
+        removeProxy(proxy);
+    }
+
+    @Override
+    public boolean hasBody(@Nonnull Body body) {
+        validateBody(body);
+
+        return proxyById.containsKey(body.getId());
+    }
+
+    @Override
+    public boolean hasBody(long id) {
+        return proxyById.containsKey(id);
+    }
+
+    @Nullable
+    @Override
+    public Body getBody(long id) {
+        Proxy proxy = proxyById.get(id);
+        return proxy == null ? null : proxy.body;
+    }
+
+    @Override
+    public List<Body> getBodies() {
+        return Collections.unmodifiableList(bodies);
+    }
+
+    @Nonnull
+    @Override
+    public BodyList newEmptyList() {
+        return new SweepAndPruneBodyList();
+    }
+
+    /**
+     * Checks only the bodies overlapping the {@code body} along the sweep axis. The first query after position changes
+     * sorts the moved endpoints, then queries may be called concurrently while positions of bodies are not changed.
+     */
+    @Override
+    public List<Body> getPotentialIntersections(@Nonnull Body body) {
+        validateBody(body);
+
+        Proxy proxy = proxyById.get(body.getId());
+
+        if (proxy == null) {
+            throw new IllegalStateException("Can't find " + body + '.');
+        }
+
+        if (endpointsChanged) {
+            indexLock.lock();
+            try {
+                sortMovedEndpoints();
+            } finally {
+                indexLock.unlock();
+            }
+        }
+
+        List<Body> potentialIntersections = new ArrayList<>(proxy.overlappingProxyCount);
+
+        double radius = body.getForm().getCircumcircleRadius();
+        double x = body.getX();
+        double y = body.getY();
+        boolean isStatic = body.isStatic();
+
+        Proxy[] overlappingProxies = proxy.overlappingProxies;
+
+        for (int proxyIndex = 0, proxyCount = proxy.overlappingProxyCount; proxyIndex < proxyCount; ++proxyIndex) {
+            Body otherBody = overlappingProxies[proxyIndex].body;
+
+            if (isStatic && otherBody.isStatic() || !body.shouldCollide(otherBody)) {
+                continue;
+            }
+
+            double radiusSum = radius + otherBody.getForm().getCircumcircleRadius();
+            double deltaX = otherBody.getX() - x;
+            double deltaY = otherBody.getY() - y;
+
+            if (abs(deltaX) > radiusSum || abs(deltaY) > radiusSum) {
+                continue;
+            }
+
+            if (sqr(radiusSum) < sumSqr(deltaX, deltaY)) {
+                continue;
+            }
+
+            potentialIntersections.add(otherBody);
+        }
+
+        return Collections.unmodifiableList(potentialIntersections);
+    }
+
+    /**
+     * Pairs each body with the bodies overlapping it along the sweep axis and having greater IDs. Bodies are visited in
+     * the order of their minimums.
+     */
+    @Override
+    public void getPotentialIntersectionPairs(@Nonnull BodyPairBuffer pairs) {
+        pairs.clear();
+
+        indexLock.lock();
+        try {
+            sortMovedEndpoints();
+
+            for (int endpoint = 0; endpoint < endpointCount; ++endpoint) {
+                Proxy proxy = endpointProxies[endpoint];
+
+                if (proxy.minEndpoint != endpoint) {
+                    continue;
+                }
+
+                Body body = proxy.body;
+                long id = body.getId();
+                Proxy[] overlappingProxies = proxy.overlappingProxies;
+
+                for (int proxyIndex = 0, proxyCount = proxy.overlappingProxyCount;
+                     proxyIndex < proxyCount; ++proxyIndex) {
+                    Body otherBody = overlappingProxies[proxyIndex].body;
+
+                    if (otherBody.getId() > id) {
+                        addPotentialIntersectionPair(body, otherBody, pairs);
+                    }
+                }
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * Selects the sweep axis, sorts all endpoints and finds all overlaps from scratch. Takes the time proportional to
+     * {@code n * log(n) + k}, where {@code n} is the count of bodies and {@code k} is the count of overlaps.
+     */
+    @Override
+    public void rebuildIndexes() {
+        indexLock.lock();
+        try {
+            selectSweepAxis();
+
+            int proxyCount = bodies.size();
+            Proxy[] proxies = new Proxy[proxyCount];
+
+            for (int proxyIndex = 0; proxyIndex < proxyCount; ++proxyIndex) {
+                Proxy proxy = proxyById.get(bodies.get(proxyIndex).getId());
+                proxy.updateBounds();
+                proxy.clearOverlaps();
+                proxy.moved = false;
+                proxies[proxyIndex] = proxy;
+            }
+
+            movedProxies.clear();
+            endpointsChanged = false;
+
+            Proxy[] proxiesByMax = proxies.clone();
+            Arrays.sort(proxies, Comparator.comparingDouble(proxy -> proxy.min));
+            Arrays.sort(proxiesByMax, Comparator.comparingDouble(proxy -> proxy.max));
+
+            ensureEndpointCapacity(proxyCount << 1);
+            endpointCount = proxyCount << 1;
+
+            Proxy[] activeProxies = new Proxy[proxyCount];
+            int activeProxyCount = 0;
+
+            for (int endpoint = 0, minIndex = 0, maxIndex = 0; endpoint < endpointCount; ++endpoint) {
+                if (minIndex < proxyCount && proxies[minIndex].min <= proxiesByMax[maxIndex].max) {
+                    Proxy proxy = proxies[minIndex++];
+
+                    for (int activeIndex = 0; activeIndex < activeProxyCount; ++activeIndex) {
+                        addOverlap(proxy, activeProxies[activeIndex]);
+                    }
+
+                    proxy.activeIndex = activeProxyCount;
+                    activeProxies[activeProxyCount++] = proxy;
+
+                    proxy.minEndpoint = endpoint;
+                    endpointValues[endpoint] = proxy.min;
+                    endpointProxies[endpoint] = proxy;
+                } else {
+                    Proxy proxy = proxiesByMax[maxIndex++];
+
+                    Proxy lastActiveProxy = activeProxies[--activeProxyCount];
+                    activeProxies[proxy.activeIndex] = lastActiveProxy;
+                    lastActiveProxy.activeIndex = proxy.activeIndex;
+                    activeProxies[activeProxyCount] = null;
+
+                    proxy.maxEndpoint = endpoint;
+                    endpointValues[endpoint] = proxy.max;
+                    endpointProxies[endpoint] = proxy;
+                }
+            }
+
+            Arrays.fill(endpointProxies, endpointCount, endpointProxies.length, null);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void selectSweepAxis() {
+        int bodyCount = bodies.size();
+        axisSelectionBodyCount = bodyCount;
+
+        if (bodyCount == 0) {
+            return;
+        }
+
+        double sumX = 0.0D;
+        double sumY = 0.0D;
+        double squaredSumX = 0.0D;
+        double squaredSumY = 0.0D;
+
+        for (int bodyIndex = 0; bodyIndex < bodyCount; ++bodyIndex) {
+            Body body = bodies.get(bodyIndex);
+            double x = body.getX();
+            double y = body.getY();
+
+            sumX += x;
+            sumY += y;
+            squaredSumX += x * x;
+            squaredSumY += y * y;
+        }
+
+        sweepAlongX = squaredSumX - sumX * sumX / bodyCount >= squaredSumY - sumY * sumY / bodyCount;
+    }
+
+    private void removeProxy(@Nonnull Proxy proxy) {
+        proxy.body.getCurrentState().unregisterPositionListener(getClass().getSimpleName() + "Listener");
+
+        int lastBodyIndex = bodies.size() - 1;
+        Body lastBody = bodies.remove(lastBodyIndex);
+
+        if (proxy.bodyIndex != lastBodyIndex) {
+            bodies.set(proxy.bodyIndex, lastBody);
+            proxyById.get(lastBody.getId()).bodyIndex = proxy.bodyIndex;
+        }
+
+        indexLock.lock();
+        try {
+            if (proxy.moved) {
+                movedProxies.remove(proxy);
+                proxy.moved = false;
+            }
+
+            for (int proxyIndex = proxy.overlappingProxyCount; --proxyIndex >= 0; ) {
+                removeOverlap(proxy, proxy.overlappingProxies[proxyIndex]);
+            }
+
+            removeEndpoint(proxy.maxEndpoint);
+            removeEndpoint(proxy.minEndpoint);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void onPositionChange(@Nonnull Proxy proxy) {
+        if (proxy.moved) {
+            return;
+        }
+
+        indexLock.lock();
+        try {
+            if (!proxy.moved) {
+                proxy.moved = true;
+                movedProxies.add(proxy);
+                endpointsChanged = true;
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * Moves endpoints of moved bodies to the new places. An endpoint moving first is the one on the side of movement,
+     * so the minimum of a body never passes its own maximum.
+     */
+    private void sortMovedEndpoints() {
+        if (!endpointsChanged) {
+            return;
+        }
+
+        for (int proxyIndex = 0, proxyCount = movedProxies.size(); proxyIndex < proxyCount; ++proxyIndex) {
+            Proxy proxy = movedProxies.get(proxyIndex);
+            proxy.moved = false;
+
+            double oldMin = proxy.min;
+            proxy.updateBounds();
+
+            endpointValues[proxy.minEndpoint] = proxy.min;
+            endpointValues[proxy.maxEndpoint] = proxy.max;
+
+            if (proxy.min > oldMin) {
+                sortEndpoint(proxy.maxEndpoint);
+                sortEndpoint(proxy.minEndpoint);
+            } else {
+                sortEndpoint(proxy.minEndpoint);
+                sortEndpoint(proxy.maxEndpoint);
+            }
+        }
+
+        movedProxies.clear();
+        endpointsChanged = false;
+    }
+
+    /**
+     * Moves the endpoint to its place by swapping with neighbours. A minimum passing the maximum of another body
+     * backwards or a maximum passing the minimum of another body forwards starts an overlap, and the opposite swaps end
+     * it. Equal minimums precede equal maximums, so touching bodies overlap.
+     */
+    private void sortEndpoint(int endpoint) {
+        double value = endpointValues[endpoint];
+        Proxy proxy = endpointProxies[endpoint];
+        boolean maximum = proxy.maxEndpoint == endpoint;
+
+        while (endpoint > 0) {
+            int previousEndpoint = endpoint - 1;
+            double previousValue = endpointValues[previousEndpoint];
+            Proxy previousProxy = endpointProxies[previousEndpoint];
+            boolean previousMaximum = previousProxy.maxEndpoint == previousEndpoint;
+
+            if (previousValue < value || previousValue == value && (!previousMaximum || maximum)) {
+                break;
+            }
+
+            if (maximum) {
+                if (!previousMaximum) {
+                    removeOverlap(proxy, previousProxy);
+                }
+            } else if (previousMaximum) {
+                addOverlap(proxy, previousProxy);
+            }
+
+            setEndpoint(endpoint, previousValue, previousProxy, previousMaximum);
+            endpoint = previousEndpoint;
+        }
+
+        while (endpoint < endpointCount - 1) {
+            int nextEndpoint = endpoint + 1;
+            double nextValue = endpointValues[nextEndpoint];
+            Proxy nextProxy = endpointProxies[nextEndpoint];
+            boolean nextMaximum = nextProxy.maxEndpoint == nextEndpoint;
+
+            if (nextValue > value || nextValue == value && (nextMaximum || !maximum)) {
+                break;
+            }
+
+            if (maximum) {
+                if (!nextMaximum) {
+                    addOverlap(proxy, nextProxy);
+                }
+            } else if (nextMaximum) {
+                removeOverlap(proxy, nextProxy);
+            }
+
+            setEndpoint(endpoint, nextValue, nextProxy, nextMaximum);
+            endpoint = nextEndpoint;
+        }
+
+        setEndpoint(endpoint, value, proxy, maximum);
+    }
+
+    private void setEndpoint(int endpoint, double value, @Nonnull Proxy proxy, boolean maximum) {
+        endpointValues[endpoint] = value;
+        endpointProxies[endpoint] = proxy;
+
+        if (maximum) {
+            proxy.maxEndpoint = endpoint;
+        } else {
+            proxy.minEndpoint = endpoint;
+        }
+    }
+
+    /**
+     * Inserts endpoints of the new body by binary search and finds its overlaps by scanning endpoints before its
+     * maximum.
+     */
+    private void insertEndpoints(@Nonnull Proxy proxy) {
+        proxy.updateBounds();
+        ensureEndpointCapacity(endpointCount + 2);
+
+        insertEndpoint(findInsertionPoint(proxy.min, false), proxy, false);
+        insertEndpoint(findInsertionPoint(proxy.max, true), proxy, true);
+
+        for (int endpoint = 0; endpoint < proxy.maxEndpoint; ++endpoint) {
+            Proxy otherProxy = endpointProxies[endpoint];
+
+            if (otherProxy != proxy && otherProxy.minEndpoint == endpoint
+                    && otherProxy.maxEndpoint > proxy.minEndpoint) {
+                addOverlap(proxy, otherProxy);
+            }
+        }
+    }
+
+    /**
+     * @return index of the first endpoint, which should follow an endpoint with the {@code value}
+     */
+    private int findInsertionPoint(double value, boolean maximum) {
+        int low = 0;
+        int high = endpointCount;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            double middleValue = endpointValues[middle];
+
+            if (middleValue < value || middleValue == value
+                    && (maximum || endpointProxies[middle].maxEndpoint != middle)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private void insertEndpoint(int endpoint, @Nonnull Proxy proxy, boolean maximum) {
+        System.arraycopy(endpointValues, endpoint, endpointValues, endpoint + 1, endpointCount - endpoint);
+        System.arraycopy(endpointProxies, endpoint, endpointProxies, endpoint + 1, endpointCount - endpoint);
+        ++endpointCount;
+
+        for (int shiftedEndpoint = endpoint + 1; shiftedEndpoint < endpointCount; ++shiftedEndpoint) {
+            Proxy shiftedProxy = endpointProxies[shiftedEndpoint];
+
+            if (shiftedProxy.maxEndpoint == shiftedEndpoint - 1) {
+                shiftedProxy.maxEndpoint = shiftedEndpoint;
+            } else {
+                shiftedProxy.minEndpoint = shiftedEndpoint;
+            }
+        }
+
+        setEndpoint(endpoint, maximum ? proxy.max : proxy.min, proxy, maximum);
+    }
+
+    private void removeEndpoint(int endpoint) {
+        System.arraycopy(endpointValues, endpoint + 1, endpointValues, endpoint, endpointCount - endpoint - 1);
+        System.arraycopy(endpointProxies, endpoint + 1, endpointProxies, endpoint, endpointCount - endpoint - 1);
+        endpointProxies[--endpointCount] = null;
+
+        for (int shiftedEndpoint = endpoint; shiftedEndpoint < endpointCount; ++shiftedEndpoint) {
+            Proxy shiftedProxy = endpointProxies[shiftedEndpoint];
+
+            if (shiftedProxy.maxEndpoint == shiftedEndpoint + 1) {
+                shiftedProxy.maxEndpoint = shiftedEndpoint;
+            } else {
+                shiftedProxy.minEndpoint = shiftedEndpoint;
+            }
+        }
+    }
+
+    private void ensureEndpointCapacity(int capacity) {
+        if (capacity > endpointValues.length) {
+            int newCapacity = max(capacity, endpointValues.length << 1);
+            endpointValues = Arrays.copyOf(endpointValues, newCapacity);
+            endpointProxies = Arrays.copyOf(endpointProxies, newCapacity);
+        }
+    }
+
+    private static void addOverlap(@Nonnull Proxy proxyA, @Nonnull Proxy proxyB) {
+        proxyA.addOverlappingProxy(proxyB);
+        proxyB.addOverlappingProxy(proxyA);
+    }
+
+    private static void removeOverlap(@Nonnull Proxy proxyA, @Nonnull Proxy proxyB) {
+        proxyA.removeOverlappingProxy(proxyB);
+        proxyB.removeOverlappingProxy(proxyA);
+    }
+
+    private final class Proxy extends PositionListenerAdapter {
+        private final Body body;
+        private int bodyIndex;
+
+        private double min;
+        private double max;
+        private int minEndpoint = -1;
+        private int maxEndpoint = -1;
+
+        private Proxy[] overlappingProxies = new Proxy[4];
+        private int overlappingProxyCount;
+
+        private boolean moved;
+        private int activeIndex;
+
+        private Proxy(@Nonnull Body body, int bodyIndex) {
+            this.body = body;
+            this.bodyIndex = bodyIndex;
+        }
+
+        private void updateBounds() {
+            double radius = body.getForm().getCircumcircleRadius();
+            double center = sweepAlongX ? body.getX() : body.getY();
+
+            min = center - radius;
+            max = center + radius;
+        }
+
+        private void addOverlappingProxy(@Nonnull Proxy proxy) {
+            if (overlappingProxyCount == overlappingProxies.length) {
+                overlappingProxies = Arrays.copyOf(overlappingProxies, overlappingProxyCount << 1);
+            }
+
+            overlappingProxies[overlappingProxyCount++] = proxy;
+        }
+
+        private void removeOverlappingProxy(@Nonnull Proxy proxy) {
+            for (int proxyIndex = 0; proxyIndex < overlappingProxyCount; ++proxyIndex) {
+                if (overlappingProxies[proxyIndex] == proxy) {
+                    overlappingProxies[proxyIndex] = overlappingProxies[--overlappingProxyCount];
+                    overlappingProxies[overlappingProxyCount] = null;
+                    return;
+                }
+            }
+
+            throw new IllegalStateException("Can't find overlap of Body {id=" + body.getId()
+                    + "} and Body {id=" + proxy.body.getId() + "}.");
+        }
+
+        private void clearOverlaps() {
+            Arrays.fill(overlappingProxies, 0, overlappingProxyCount, null);
+            overlappingProxyCount = 0;
+        }
+
+        @Override
+        public void afterChangePosition(@Nonnull Point2D oldPosition, @Nonnull Point2D newPosition) {
+            onPositionChange(this);
+        }
+    }
+}
@@ -50,10 +50,26 @@ public class CollisionInfo {
         return point.copy();
     }
 
+    public double getPointX() {
+        return point.getX();
+    }
+
+    public double getPointY() {
+        return point.getY();
+    }
+
     public Vector2D getNormalB() {
         return normalB.copy();
     }
 
+    public double getNormalBX() {
+        return normalB.getX();
+    }
+
+    public double getNormalBY() {
+        return normalB.getY();
+    }
+
     public double getDepth() {
         return depth;
     }
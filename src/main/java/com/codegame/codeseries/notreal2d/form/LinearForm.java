@@ -16,10 +16,10 @@ public class LinearForm extends ThinForm {
     private final double halfLength;
     private final double angularMassFactor;
 
-    private double lastAngle;
-    private double lastEpsilon;
-    private Double lastXOffset;
-    private Double lastYOffset;
+    /**
+     * Point offsets calculated for the last used angle. Replaced as a whole to allow concurrent access.
+     */
+    private volatile Offsets lastOffsets;
 
     public LinearForm(double length, boolean endpointCollisionEnabled) {
         super(Shape.LINE, endpointCollisionEnabled);
@@ -45,14 +45,14 @@ public class LinearForm extends ThinForm {
 
     @Nonnull
     public Point2D getPoint1(@Nonnull Point2D position, double angle, double epsilon) {
-        updateLastOffsets(angle, epsilon);
-        return new Point2D(position.getX() - lastXOffset, position.getY() - lastYOffset);
+        Offsets offsets = getOffsets(angle, epsilon);
+        return new Point2D(position.getX() - offsets.xOffset, position.getY() - offsets.yOffset);
     }
 
     @Nonnull
     public Point2D getPoint2(@Nonnull Point2D position, double angle, double epsilon) {
-        updateLastOffsets(angle, epsilon);
-        return new Point2D(position.getX() + lastXOffset, position.getY() + lastYOffset);
+        Offsets offsets = getOffsets(angle, epsilon);
+        return new Point2D(position.getX() + offsets.xOffset, position.getY() + offsets.yOffset);
     }
 
     @Override
@@ -77,8 +77,11 @@ public class LinearForm extends ThinForm {
     }
 
     @SuppressWarnings("FloatingPointEquality")
-    private void updateLastOffsets(double angle, double epsilon) {
-        if (lastXOffset == null || lastYOffset == null || angle != lastAngle || epsilon != lastEpsilon) {
+    @Nonnull
+    private Offsets getOffsets(double angle, double epsilon) {
+        Offsets offsets = lastOffsets;
+
+        if (offsets == null || angle != offsets.angle || epsilon != offsets.epsilon) {
             if (Double.isNaN(angle) || Double.isInfinite(angle)) {
                 throw new IllegalArgumentException("Argument 'angle' is not a finite number.");
             }
@@ -87,25 +90,44 @@ public class LinearForm extends ThinForm {
                 throw new IllegalArgumentException("Argument 'epsilon' should be between 1.0E-100 and 1.0.");
             }
 
-            lastAngle = angle;
-            lastEpsilon = epsilon;
+            double xOffset;
+            double yOffset;
 
             if (abs(length) < epsilon) {
-                lastXOffset = 0.0D;
-                lastYOffset = 0.0D;
+                xOffset = 0.0D;
+                yOffset = 0.0D;
             } else {
                 if (abs(HALF_PI - abs(angle)) < epsilon) {
-                    lastXOffset = 0.0D;
+                    xOffset = 0.0D;
                 } else {
-                    lastXOffset = normalizeSinCos(cos(angle), epsilon) * halfLength;
+                    xOffset = normalizeSinCos(cos(angle), epsilon) * halfLength;
                 }
 
                 if (abs(PI - abs(angle)) < epsilon || abs(angle) < epsilon) {
-                    lastYOffset = 0.0D;
+                    yOffset = 0.0D;
                 } else {
-                    lastYOffset = normalizeSinCos(sin(angle), epsilon) * halfLength;
+                    yOffset = normalizeSinCos(sin(angle), epsilon) * halfLength;
                 }
             }
+
+            offsets = new Offsets(angle, epsilon, xOffset, yOffset);
+            lastOffsets = offsets;
+        }
+
+        return offsets;
+    }
+
+    private static final class Offsets {
+        private final double angle;
+        private final double epsilon;
+        private final double xOffset;
+        private final double yOffset;
+
+        private Offsets(double angle, double epsilon, double xOffset, double yOffset) {
+            this.angle = angle;
+            this.epsilon = epsilon;
+            this.xOffset = xOffset;
+            this.yOffset = yOffset;
         }
     }
 }
@@ -0,0 +1,222 @@
+package com.codegame.codeseries.notreal2d.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of step phases and counters of the collision pipeline of a {@link com.codegame.codeseries.notreal2d.World}.
+ * The world updates metrics only while they are set, so a world without metrics does not measure anything.
+ * <p>
+ * Counters are updated by all threads processing a step. The timing of iteration phases is the sum over all iterations
+ * of the step.
+ */
+@ThreadSafe
+public class WorldMetrics implements WorldMetricsMXBean {
+    public static final String OBJECT_NAME_DOMAIN = "com.codegame.codeseries.notreal2d";
+
+    private final LongAdder stepCount = new LongAdder();
+
+    private volatile long lastBeforeStepNanos;
+    private volatile long lastBeforeIterationNanos;
+    private volatile long lastProcessIterationNanos;
+    private volatile long lastAfterStepNanos;
+
+    private final LongAdder totalBeforeStepNanos = new LongAdder();
+    private final LongAdder totalBeforeIterationNanos = new LongAdder();
+    private final LongAdder totalProcessIterationNanos = new LongAdder();
+    private final LongAdder totalAfterStepNanos = new LongAdder();
+
+    private final LongAdder broadphaseCandidateCount = new LongAdder();
+    private final LongAdder narrowphaseTestCount = new LongAdder();
+    private final LongAdder contactCount = new LongAdder();
+    private final LongAdder resolvedCollisionCount = new LongAdder();
+    private final LongAdder pushedBackCollisionCount = new LongAdder();
+
+    public void recordStep(
+            long beforeStepNanos, long beforeIterationNanos, long processIterationNanos, long afterStepNanos) {
+        lastBeforeStepNanos = beforeStepNanos;
+        lastBeforeIterationNanos = beforeIterationNanos;
+        lastProcessIterationNanos = processIterationNanos;
+        lastAfterStepNanos = afterStepNanos;
+
+        totalBeforeStepNanos.add(beforeStepNanos);
+        totalBeforeIterationNanos.add(beforeIterationNanos);
+        totalProcessIterationNanos.add(processIterationNanos);
+        totalAfterStepNanos.add(afterStepNanos);
+
+        stepCount.increment();
+    }
+
+    public void addBroadphaseCandidates(int candidateCount) {
+        broadphaseCandidateCount.add(candidateCount);
+    }
+
+    public void addNarrowphaseTest(boolean contact) {
+        narrowphaseTestCount.increment();
+
+        if (contact) {
+            contactCount.increment();
+        }
+    }
+
+    public void addResolvedCollision(boolean pushedBack) {
+        resolvedCollisionCount.increment();
+
+        if (pushedBack) {
+            pushedBackCollisionCount.increment();
+        }
+    }
+
+    @Override
+    public long getStepCount() {
+        return stepCount.sum();
+    }
+
+    @Override
+    public long getLastStepNanos() {
+        return lastBeforeStepNanos + lastBeforeIterationNanos + lastProcessIterationNanos + lastAfterStepNanos;
+    }
+
+    @Override
+    public long getLastBeforeStepNanos() {
+        return lastBeforeStepNanos;
+    }
+
+    @Override
+    public long getLastBeforeIterationNanos() {
+        return lastBeforeIterationNanos;
+    }
+
+    @Override
+    public long getLastProcessIterationNanos() {
+        return lastProcessIterationNanos;
+    }
+
+    @Override
+    public long getLastAfterStepNanos() {
+        return lastAfterStepNanos;
+    }
+
+    @Override
+    public long getTotalStepNanos() {
+        return totalBeforeStepNanos.sum() + totalBeforeIterationNanos.sum() + totalProcessIterationNanos.sum()
+                + totalAfterStepNanos.sum();
+    }
+
+    @Override
+    public long getTotalBeforeStepNanos() {
+        return totalBeforeStepNanos.sum();
+    }
+
+    @Override
+    public long getTotalBeforeIterationNanos() {
+        return totalBeforeIterationNanos.sum();
+    }
+
+    @Override
+    public long getTotalProcessIterationNanos() {
+        return totalProcessIterationNanos.sum();
+    }
+
+    @Override
+    public long getTotalAfterStepNanos() {
+        return totalAfterStepNanos.sum();
+    }
+
+    @Override
+    public long getBroadphaseCandidateCount() {
+        return broadphaseCandidateCount.sum();
+    }
+
+    @Override
+    public long getNarrowphaseTestCount() {
+        return narrowphaseTestCount.sum();
+    }
+
+    @Override
+    public long getContactCount() {
+        return contactCount.sum();
+    }
+
+    @Override
+    public long getResolvedCollisionCount() {
+        return resolvedCollisionCount.sum();
+    }
+
+    @Override
+    public long getPushedBackCollisionCount() {
+        return pushedBackCollisionCount.sum();
+    }
+
+    @Override
+    public double getBroadphaseHitRatio() {
+        return getRatio(contactCount.sum(), broadphaseCandidateCount.sum());
+    }
+
+    @Override
+    public double getNarrowphaseHitRatio() {
+        return getRatio(contactCount.sum(), narrowphaseTestCount.sum());
+    }
+
+    @Override
+    public void reset() {
+        stepCount.reset();
+
+        lastBeforeStepNanos = 0L;
+        lastBeforeIterationNanos = 0L;
+        lastProcessIterationNanos = 0L;
+        lastAfterStepNanos = 0L;
+
+        totalBeforeStepNanos.reset();
+        totalBeforeIterationNanos.reset();
+        totalProcessIterationNanos.reset();
+        totalAfterStepNanos.reset();
+
+        broadphaseCandidateCount.reset();
+        narrowphaseTestCount.reset();
+        contactCount.reset();
+        resolvedCollisionCount.reset();
+        pushedBackCollisionCount.reset();
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server as
+     * {@code com.codegame.codeseries.notreal2d:type=WorldMetrics,name=<name>}.
+     *
+     * @return name of the registered MBean, which can be passed to {@link #unregisterMBean(ObjectName)}
+     */
+    @Nonnull
+    public ObjectName registerMBean(@Nonnull String name) throws JMException {
+        ObjectName objectName = new ObjectName(
+                OBJECT_NAME_DOMAIN + ":type=WorldMetrics,name=" + ObjectName.quote(name)
+        );
+
+        return ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName).getObjectName();
+    }
+
+    public static void unregisterMBean(@Nonnull ObjectName objectName) throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    private static double getRatio(long numerator, long denominator) {
+        return denominator == 0L ? 0.0D : (double) numerator / denominator;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " {stepCount=" + getStepCount()
+                + ", totalStepNanos=" + getTotalStepNanos()
+                + ", broadphaseCandidateCount=" + getBroadphaseCandidateCount()
+                + ", narrowphaseTestCount=" + getNarrowphaseTestCount()
+                + ", contactCount=" + getContactCount() + '}';
+    }
+}
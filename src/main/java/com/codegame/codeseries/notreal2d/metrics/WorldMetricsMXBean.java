@@ -0,0 +1,66 @@
+package com.codegame.codeseries.notreal2d.metrics;
+
+/**
+ * Management interface of {@link WorldMetrics}. Timings are in nanoseconds, counters are accumulated since the creation
+ * or the last {@link #reset() reset} of the metrics.
+ */
+public interface WorldMetricsMXBean {
+    long getStepCount();
+
+    long getLastStepNanos();
+
+    long getLastBeforeStepNanos();
+
+    long getLastBeforeIterationNanos();
+
+    long getLastProcessIterationNanos();
+
+    long getLastAfterStepNanos();
+
+    long getTotalStepNanos();
+
+    long getTotalBeforeStepNanos();
+
+    long getTotalBeforeIterationNanos();
+
+    long getTotalProcessIterationNanos();
+
+    long getTotalAfterStepNanos();
+
+    /**
+     * @return count of bodies returned by the broadphase as potential intersections
+     */
+    long getBroadphaseCandidateCount();
+
+    /**
+     * @return count of pairs of bodies checked by colliders
+     */
+    long getNarrowphaseTestCount();
+
+    /**
+     * @return count of narrowphase tests, which have found a contact
+     */
+    long getContactCount();
+
+    /**
+     * @return count of contacts resolved after being accepted by collision listeners
+     */
+    long getResolvedCollisionCount();
+
+    /**
+     * @return count of resolved collisions, which have required to push bodies apart
+     */
+    long getPushedBackCollisionCount();
+
+    /**
+     * @return ratio of the contact count to the broadphase candidate count
+     */
+    double getBroadphaseHitRatio();
+
+    /**
+     * @return ratio of the contact count to the narrowphase test count
+     */
+    double getNarrowphaseHitRatio();
+
+    void reset();
+}
@@ -0,0 +1,341 @@
+package com.codegame.codeseries.notreal2d.trace;
+
+import com.codegame.codeseries.notreal2d.Body;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codeforces.commons.math.Math.max;
+
+/**
+ * Appends the state of bodies after each step to a binary file. The file starts with the {@link #MAGIC} and the
+ * {@link #VERSION} ({@code long} and {@code int}), followed by a block for each recorded step:
+ * <ul>
+ * <li>{@code long} index of the step and {@code int} count of bodies N;</li>
+ * <li>N {@code long} IDs of bodies;</li>
+ * <li>N {@code double} values for each of x, y, angle, velocity x, velocity y and angular velocity.</li>
+ * </ul>
+ * All values are big-endian.
+ * <p>
+ * Blocks are written to the buffers of this recorder by the simulation thread and are written to the file by a
+ * background thread. The simulation thread never waits for the file: if all buffers are waiting to be written, a new
+ * buffer is allocated, unless the recorder already has the maximal count of buffers. Then the step is dropped, so
+ * the file is missing some step indexes, and the {@link #getDroppedStepCount() count of dropped steps} is increased.
+ */
+@NotThreadSafe
+public class TraceRecorder implements Closeable {
+    private static final Logger logger = Logger.getLogger(TraceRecorder.class);
+
+    public static final long MAGIC = 0x4E52324454524345L;
+    public static final int VERSION = 1;
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_BUFFER_COUNT = 16;
+
+    private static final int STEP_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int BODY_SIZE = Long.BYTES + 6 * Double.BYTES;
+
+    private static final AtomicInteger threadIndex = new AtomicInteger();
+
+    private final FileChannel channel;
+    private final int bufferSize;
+    private final int maxBufferCount;
+
+    private final BlockingQueue<ByteBuffer> filledBuffers = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocatedBufferCount = new AtomicInteger();
+
+    /**
+     * Count of buffers being filled, queued or free. Buffers larger than the {@link #bufferSize} are released after
+     * being written.
+     */
+    private final AtomicInteger liveBufferCount = new AtomicInteger();
+    private final AtomicLong droppedStepCount = new AtomicLong();
+
+    /**
+     * Put to the queue of filled buffers to stop the background thread.
+     */
+    private final ByteBuffer endOfTrace = ByteBuffer.allocate(0);
+
+    private final Thread flushThread;
+
+    private volatile IOException failure;
+
+    /**
+     * The buffer being filled or {@code null} if there was no buffer to record the last step.
+     */
+    private ByteBuffer buffer;
+    private boolean closed;
+
+    public TraceRecorder(@Nonnull Path file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    public TraceRecorder(@Nonnull Path file, int bufferSize) throws IOException {
+        this(file, bufferSize, DEFAULT_MAX_BUFFER_COUNT);
+    }
+
+    /**
+     * Creates or truncates the {@code file} and writes the header.
+     *
+     * @param maxBufferCount maximal count of buffers existing at the same time, limits the memory used by this
+     *                       recorder to about {@code bufferSize * maxBufferCount} bytes
+     */
+    public TraceRecorder(@Nonnull Path file, int bufferSize, int maxBufferCount) throws IOException {
+        if (bufferSize < STEP_HEADER_SIZE + BODY_SIZE) {
+            throw new IllegalArgumentException(
+                    "Argument 'bufferSize' is less than " + (STEP_HEADER_SIZE + BODY_SIZE) + '.'
+            );
+        }
+
+        if (maxBufferCount < 1) {
+            throw new IllegalArgumentException("Argument 'maxBufferCount' is not positive.");
+        }
+
+        this.channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+        );
+        this.bufferSize = bufferSize;
+        this.maxBufferCount = maxBufferCount;
+
+        buffer = newBuffer(bufferSize);
+        buffer.putLong(MAGIC);
+        buffer.putInt(VERSION);
+
+        flushThread = new Thread(
+                this::writeBuffers, "notreal2d.TraceRecorder#FlushThread-" + threadIndex.incrementAndGet()
+        );
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * Appends the state of {@code bodies} after the step with the {@code stepIndex}. Drops the step if all buffers are
+     * waiting to be written and no more buffers can be allocated.
+     *
+     * @throws IllegalStateException if this recorder is closed or the background thread has failed to write the file
+     */
+    public void recordStep(long stepIndex, @Nonnull Collection<Body> bodies) {
+        ensureWritable();
+
+        int bodyCount = bodies.size();
+        long blockSize = STEP_HEADER_SIZE + (long) BODY_SIZE * bodyCount;
+
+        if (blockSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Argument 'bodies' is too large to record.");
+        }
+
+        if (buffer == null || buffer.remaining() < blockSize) {
+            submitBuffer();
+            buffer = obtainBuffer((int) blockSize);
+
+            if (buffer == null) {
+                droppedStepCount.incrementAndGet();
+                return;
+            }
+        }
+
+        buffer.putLong(stepIndex);
+        buffer.putInt(bodyCount);
+
+        for (Body body : bodies) {
+            buffer.putLong(body.getId());
+        }
+
+        for (Body body : bodies) {
+            buffer.putDouble(body.getX());
+        }
+
+        for (Body body : bodies) {
+            buffer.putDouble(body.getY());
+        }
+
+        for (Body body : bodies) {
+            buffer.putDouble(body.getAngle());
+        }
+
+        for (Body body : bodies) {
+            buffer.putDouble(body.getVelocityX());
+        }
+
+        for (Body body : bodies) {
+            buffer.putDouble(body.getVelocityY());
+        }
+
+        for (Body body : bodies) {
+            buffer.putDouble(body.getAngularVelocity());
+        }
+    }
+
+    /**
+     * Passes recorded steps to the background thread without waiting for them to be written.
+     */
+    public void flush() {
+        ensureWritable();
+
+        if (buffer != null && buffer.position() > 0) {
+            submitBuffer();
+            buffer = obtainBuffer(bufferSize);
+        }
+    }
+
+    /**
+     * @return count of buffers allocated by this recorder, grows if the file is written slower than steps are recorded
+     */
+    public int getAllocatedBufferCount() {
+        return allocatedBufferCount.get();
+    }
+
+    /**
+     * @return count of steps dropped because the file is written slower than steps are recorded
+     */
+    public long getDroppedStepCount() {
+        return droppedStepCount.get();
+    }
+
+    /**
+     * Writes all recorded steps and closes the file. Waits for the background thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            submitBuffer();
+            filledBuffers.add(endOfTrace);
+
+            try {
+                flushThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Thread has been interrupted while waiting for trace to be written.", e);
+            }
+        } finally {
+            channel.close();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void ensureWritable() {
+        if (closed) {
+            throw new IllegalStateException("Trace recorder is closed.");
+        }
+
+        if (failure != null) {
+            throw new IllegalStateException("Can't write trace.", failure);
+        }
+    }
+
+    /**
+     * Passes the current buffer to the background thread if it is not empty, otherwise releases it.
+     */
+    private void submitBuffer() {
+        if (buffer == null) {
+            return;
+        }
+
+        if (buffer.position() > 0) {
+            buffer.flip();
+            filledBuffers.add(buffer);
+        } else {
+            releaseBuffer(buffer);
+        }
+
+        buffer = null;
+    }
+
+    /**
+     * @return a free or a new buffer of at least {@code minSize} bytes, or {@code null} if all buffers are waiting
+     * to be written and no more buffers can be allocated
+     */
+    @Nullable
+    private ByteBuffer obtainBuffer(int minSize) {
+        ByteBuffer freeBuffer = freeBuffers.poll();
+
+        if (freeBuffer != null) {
+            if (minSize <= bufferSize) {
+                freeBuffer.clear();
+                return freeBuffer;
+            }
+
+            // The free buffer is too small, so it is released to allocate a larger one in its place.
+            releaseBuffer(freeBuffer);
+        }
+
+        if (liveBufferCount.get() >= maxBufferCount) {
+            return null;
+        }
+
+        return newBuffer(max(bufferSize, minSize));
+    }
+
+    @Nonnull
+    private ByteBuffer newBuffer(int size) {
+        allocatedBufferCount.incrementAndGet();
+        liveBufferCount.incrementAndGet();
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Returns a buffer of the {@link #bufferSize} to the free ones. Larger buffers are left to the garbage collector.
+     */
+    private void releaseBuffer(@Nonnull ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize) {
+            freeBuffers.add(buffer);
+        } else {
+            liveBufferCount.decrementAndGet();
+        }
+    }
+
+    private void writeBuffers() {
+        while (true) {
+            ByteBuffer filledBuffer;
+
+            try {
+                filledBuffer = filledBuffers.take();
+            } catch (InterruptedException e) {
+                logger.error("Thread has been interrupted while waiting for trace buffer.", e);
+                failure = new IOException("Thread has been interrupted while waiting for trace buffer.", e);
+                return;
+            }
+
+            if (filledBuffer == endOfTrace) {
+                return;
+            }
+
+            if (failure == null) {
+                try {
+                    while (filledBuffer.hasRemaining()) {
+                        channel.write(filledBuffer);
+                    }
+                } catch (IOException e) {
+                    logger.error("Can't write trace.", e);
+                    failure = e;
+                }
+            }
+
+            releaseBuffer(filledBuffer);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.codegame.codeseries.notreal2d.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.function.Predicate;
+
+import static com.codeforces.commons.math.Math.max;
+
+/**
+ * Open-addressing hash map with keys consisting of two {@code long} values. Does not allocate any objects while its
+ * size does not exceed the size reached before. {@link #clear()} takes the time proportional to the count of occupied
+ * slots, so the map can be reused many times per step.
+ */
+@NotThreadSafe
+public class LongPairMap<V> {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] firstKeys;
+    private long[] secondKeys;
+    private Object[] values;
+
+    private int[] occupiedSlots;
+    private int size;
+    private int mask;
+
+    private long[] retainedFirstKeys;
+    private long[] retainedSecondKeys;
+    private Object[] retainedValues;
+
+    public LongPairMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongPairMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Argument 'expectedSize' is negative.");
+        }
+
+        allocate(getCapacity(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(long firstKey, long secondKey) {
+        int slot = findSlot(firstKey, secondKey);
+        return slot == -1 ? null : (V) values[slot];
+    }
+
+    public boolean containsKey(long firstKey, long secondKey) {
+        return findSlot(firstKey, secondKey) != -1;
+    }
+
+    /**
+     * @return previous value associated with the key or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V put(long firstKey, long secondKey, @Nonnull V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Argument 'value' is null.");
+        }
+
+        int slot = hash(firstKey, secondKey) & mask;
+
+        while (values[slot] != null) {
+            if (firstKeys[slot] == firstKey && secondKeys[slot] == secondKey) {
+                V previousValue = (V) values[slot];
+                values[slot] = value;
+                return previousValue;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        firstKeys[slot] = firstKey;
+        secondKeys[slot] = secondKey;
+        values[slot] = value;
+        occupiedSlots[size++] = slot;
+
+        if (size << 1 > values.length) {
+            rehash(values.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes all entries. Keeps allocated storage.
+     */
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            values[occupiedSlots[i]] = null;
+        }
+
+        size = 0;
+    }
+
+    /**
+     * Removes all entries with values matching the {@code filter}. Takes the time proportional to the size of this map.
+     *
+     * @return {@code true} if any entries were removed
+     */
+    @SuppressWarnings("unchecked")
+    public boolean removeIf(@Nonnull Predicate<? super V> filter) {
+        if (retainedValues == null || retainedValues.length < size) {
+            retainedFirstKeys = new long[occupiedSlots.length];
+            retainedSecondKeys = new long[occupiedSlots.length];
+            retainedValues = new Object[occupiedSlots.length];
+        }
+
+        int retainedCount = 0;
+
+        for (int i = 0; i < size; ++i) {
+            int slot = occupiedSlots[i];
+            if (!filter.test((V) values[slot])) {
+                retainedFirstKeys[retainedCount] = firstKeys[slot];
+                retainedSecondKeys[retainedCount] = secondKeys[slot];
+                retainedValues[retainedCount] = values[slot];
+                ++retainedCount;
+            }
+        }
+
+        if (retainedCount == size) {
+            return false;
+        }
+
+        clear();
+
+        for (int i = 0; i < retainedCount; ++i) {
+            put(retainedFirstKeys[i], retainedSecondKeys[i], (V) retainedValues[i]);
+            retainedValues[i] = null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Passes all entries to the {@code consumer} in unspecified order. The map should not be modified by the consumer.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(@Nonnull EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < size; ++i) {
+            int slot = occupiedSlots[i];
+            consumer.accept(firstKeys[slot], secondKeys[slot], (V) values[slot]);
+        }
+    }
+
+    private int findSlot(long firstKey, long secondKey) {
+        int slot = hash(firstKey, secondKey) & mask;
+
+        while (values[slot] != null) {
+            if (firstKeys[slot] == firstKey && secondKeys[slot] == secondKey) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldFirstKeys = firstKeys;
+        long[] oldSecondKeys = secondKeys;
+        Object[] oldValues = values;
+        int[] oldOccupiedSlots = occupiedSlots;
+        int oldSize = size;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldSize; ++i) {
+            int oldSlot = oldOccupiedSlots[i];
+            long firstKey = oldFirstKeys[oldSlot];
+            long secondKey = oldSecondKeys[oldSlot];
+
+            int slot = hash(firstKey, secondKey) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            firstKeys[slot] = firstKey;
+            secondKeys[slot] = secondKey;
+            values[slot] = oldValues[oldSlot];
+            occupiedSlots[size++] = slot;
+        }
+    }
+
+    private void allocate(int capacity) {
+        firstKeys = new long[capacity];
+        secondKeys = new long[capacity];
+        values = new Object[capacity];
+        occupiedSlots = new int[(capacity >> 1) + 1];
+        size = 0;
+        mask = capacity - 1;
+    }
+
+    private static int getCapacity(int expectedSize) {
+        int capacity = Integer.highestOneBit(max(expectedSize, 2) - 1) << 2;
+        return max(capacity, 4);
+    }
+
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    private static int hash(long firstKey, long secondKey) {
+        long hash = firstKey * 0x9E3779B97F4A7C15L + secondKey;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " {size=" + size + ", capacity=" + values.length + '}';
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long firstKey, long secondKey, V value);
+    }
+}
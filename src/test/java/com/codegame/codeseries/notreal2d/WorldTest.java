@@ -1,11 +1,48 @@
 package com.codegame.codeseries.notreal2d;
 
+import com.codeforces.commons.geometry.Vector2D;
+import com.codegame.codeseries.notreal2d.bodylist.AabbTreeBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.BodyList;
+import com.codegame.codeseries.notreal2d.bodylist.BodyPairBuffer;
+import com.codegame.codeseries.notreal2d.bodylist.CellSpaceBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.HierarchicalGridBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.SimpleBodyList;
+import com.codegame.codeseries.notreal2d.bodylist.SweepAndPruneBodyList;
+import com.codegame.codeseries.notreal2d.collision.CollisionInfo;
+import com.codegame.codeseries.notreal2d.form.ArcForm;
 import com.codegame.codeseries.notreal2d.form.CircularForm;
+import com.codegame.codeseries.notreal2d.form.Form;
+import com.codegame.codeseries.notreal2d.form.LinearForm;
+import com.codegame.codeseries.notreal2d.form.RectangularForm;
+import com.codegame.codeseries.notreal2d.listener.CollisionListenerAdapter;
+import com.codegame.codeseries.notreal2d.metrics.WorldMetrics;
+import com.codegame.codeseries.notreal2d.trace.TraceRecorder;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.junit.Assert;
 import org.junit.Test;
 
-import static com.codeforces.commons.math.Math.max;
-import static com.codeforces.commons.math.Math.pow;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.ObjectName;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codeforces.commons.math.Math.*;
 
 /**
  * @author Maxim Shipko (sladethe@gmail.com)
@@ -133,4 +170,1428 @@ public class WorldTest {
                 bodyB.getVelocity().getLength(), Defaults.EPSILON
         );
     }
+
+    @Test
+    public void testBodySleeping() throws Exception {
+        World world = new World(Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT);
+        world.setBodySleeping(true);
+
+        Body restingBody = new Body();
+        restingBody.setForm(new CircularForm(1.0D));
+        restingBody.setMass(1.0D);
+        world.addBody(restingBody);
+        restingBody.setPosition(0.0D, 0.0D);
+
+        Body movingBody = new Body();
+        movingBody.setForm(new CircularForm(1.0D));
+        movingBody.setMass(1.0D);
+        world.addBody(movingBody);
+        movingBody.setPosition(10.0D, 0.0D);
+
+        for (int i = 1; i <= world.getSleepStepCount(); ++i) {
+            Assert.assertFalse("Body sleeping. Resting body fell asleep too early.", restingBody.isSleeping());
+            world.proceed();
+        }
+
+        Assert.assertTrue("Body sleeping. Resting body is not sleeping.", restingBody.isSleeping());
+        Assert.assertTrue("Body sleeping. Moving body is not sleeping.", movingBody.isSleeping());
+        Assert.assertEquals("Body sleeping. Illegal awake body count.", 0, world.getLastStepAwakeBodyCount());
+        Assert.assertEquals("Body sleeping. Illegal sleeping body count.", 2, world.getLastStepSleepingBodyCount());
+
+        movingBody.setVelocity(-10.0D, 0.0D);
+        Assert.assertFalse("Body sleeping. Moving body is not woken up by velocity.", movingBody.isSleeping());
+
+        world.proceed();
+        Assert.assertEquals("Body sleeping. Illegal awake body count.", 1, world.getLastStepAwakeBodyCount());
+        Assert.assertEquals("Body sleeping. Illegal sleeping body count.", 1, world.getLastStepSleepingBodyCount());
+
+        for (int i = 1; i <= Defaults.STEP_COUNT_PER_TIME_UNIT && restingBody.isSleeping(); ++i) {
+            Assert.assertEquals("Body sleeping. Sleeping body has moved.", 0.0D, restingBody.getX(), 0.0D);
+            world.proceed();
+        }
+
+        Assert.assertFalse("Body sleeping. Resting body is not woken up by contact.", restingBody.isSleeping());
+        Assert.assertTrue("Body sleeping. Resting body is not pushed.", restingBody.getVelocityX() < 0.0D);
+    }
+
+    @Test
+    public void testSleepingBodyWakeUp() throws Exception {
+        World world = new World(Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT);
+        world.setBodySleeping(true);
+
+        Body restingBody = new Body();
+        restingBody.setForm(new CircularForm(1.0D));
+        restingBody.setMass(1.0D);
+        world.addBody(restingBody);
+        restingBody.setPosition(0.0D, 0.0D);
+
+        Body pushedBody = new Body();
+        pushedBody.setForm(new CircularForm(1.0D));
+        pushedBody.setMass(1.0D);
+        world.addBody(pushedBody);
+        pushedBody.setPosition(0.0D, 10.0D);
+
+        for (int i = 1; i <= world.getSleepStepCount(); ++i) {
+            world.proceed();
+        }
+
+        Assert.assertTrue("Sleeping body wake up. Resting body is not sleeping.", restingBody.isSleeping());
+        Assert.assertTrue("Sleeping body wake up. Pushed body is not sleeping.", pushedBody.isSleeping());
+
+        pushedBody.getVelocity().add(new Vector2D(1.0D, 0.0D));
+        Assert.assertTrue(
+                "Sleeping body wake up. Pushed body is woken up before the step.", pushedBody.isSleeping()
+        );
+
+        world.proceed();
+        Assert.assertFalse("Sleeping body wake up. Pushed body is not woken up.", pushedBody.isSleeping());
+        Assert.assertEquals(
+                "Sleeping body wake up. Before-step state of pushed body is not saved.",
+                1.0D, pushedBody.getBeforeStepState().getVelocity().getX(), 0.0D
+        );
+        Assert.assertTrue("Sleeping body wake up. Pushed body has not moved.", pushedBody.getX() > 0.0D);
+
+        Body movingBody = new Body();
+        movingBody.setForm(new CircularForm(1.0D));
+        movingBody.setMass(1.0D);
+        world.addBody(movingBody);
+        movingBody.setPosition(10.0D, 0.0D);
+        movingBody.setVelocity(-10.0D, 0.0D);
+
+        for (int i = 1; i <= Defaults.STEP_COUNT_PER_TIME_UNIT && restingBody.isSleeping(); ++i) {
+            world.proceed();
+
+            if (restingBody.isSleeping()) {
+                Assert.assertEquals(
+                        "Sleeping body wake up. Before-step state of sleeping body has changed.",
+                        0.0D, restingBody.getBeforeStepState().getPosition().getX(), 0.0D
+                );
+            }
+        }
+
+        Assert.assertFalse("Sleeping body wake up. Resting body is not woken up by contact.", restingBody.isSleeping());
+
+        double x = restingBody.getX();
+        double velocityX = restingBody.getVelocityX();
+        Assert.assertTrue("Sleeping body wake up. Resting body is not pushed.", velocityX < 0.0D);
+
+        world.proceed();
+        Assert.assertEquals(
+                "Sleeping body wake up. Illegal before-step position of hit body.",
+                x, restingBody.getBeforeStepState().getPosition().getX(), 0.0D
+        );
+        Assert.assertEquals(
+                "Sleeping body wake up. Illegal before-step velocity of hit body.",
+                velocityX, restingBody.getBeforeStepState().getVelocity().getX(), 0.0D
+        );
+        Assert.assertTrue("Sleeping body wake up. Hit body has not moved.", restingBody.getX() < x);
+    }
+
+    @Test
+    public void testPushedBodyCollision() throws Exception {
+        World world = new World(1);
+
+        Body pushingBody = newCircle(0.5D, 0.0D, 1.0D);
+        Body pushedBody = newCircle(2.0D, 0.0D, 1.0D);
+        Body wall = newCircle(4.05D, 0.0D, 1.0D);
+        wall.setMass(Double.POSITIVE_INFINITY);
+
+        world.addBody(pushingBody);
+        world.addBody(pushedBody);
+        world.addBody(wall);
+
+        List<Body> collidedBodies = new ArrayList<>();
+
+        world.registerCollisionListener(new CollisionListenerAdapter() {
+            @Override
+            public void afterResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+                if (collisionInfo.getBodyB() == wall) {
+                    collidedBodies.add(collisionInfo.getBodyA());
+                }
+            }
+        }, "wallListener");
+
+        world.proceed();
+
+        Assert.assertEquals(
+                "Pushed body collision. Body pushed to the wall has not collided it in the same iteration.",
+                Collections.singletonList(pushedBody), collidedBodies
+        );
+    }
+
+    private static Body newCircle(double x, double y, double radius) {
+        Body body = new Body();
+        body.setForm(new CircularForm(radius));
+        body.setMass(1.0D);
+        body.setPosition(x, y);
+        return body;
+    }
+
+    @Test
+    public void testImpulseResolution() throws Exception {
+        World world = new World(Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT);
+        double epsilon = world.getEpsilon();
+
+        AtomicInteger collisionCount = new AtomicInteger();
+
+        world.registerCollisionListener(new CollisionListenerAdapter() {
+            private double[] expectedVelocities;
+
+            @Override
+            public boolean beforeResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+                expectedVelocities = resolveCollisionWithVector3D(collisionInfo, epsilon);
+                return true;
+            }
+
+            @Override
+            public void afterResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+                Body bodyA = collisionInfo.getBodyA();
+                Body bodyB = collisionInfo.getBodyB();
+                double[] actualVelocities = {
+                        bodyA.getVelocityX(), bodyA.getVelocityY(), bodyA.getAngularVelocity(),
+                        bodyB.getVelocityX(), bodyB.getVelocityY(), bodyB.getAngularVelocity()
+                };
+
+                for (int i = 0; i < actualVelocities.length; ++i) {
+                    Assert.assertEquals(
+                            "Impulse resolution. Illegal velocity component " + i + " after collision "
+                                    + collisionCount.get() + '.',
+                            expectedVelocities[i], actualVelocities[i], epsilon * max(1.0D, abs(expectedVelocities[i]))
+                    );
+                }
+
+                collisionCount.incrementAndGet();
+            }
+        }, "checker");
+
+        Random random = new Random(7654321L);
+
+        for (int row = 0; row < 10; ++row) {
+            for (int column = 0; column < 10; ++column) {
+                Body body = new Body();
+                body.setForm((row + column) % 2 == 0
+                        ? new CircularForm(0.5D + 0.5D * random.nextDouble())
+                        : new RectangularForm(1.0D + random.nextDouble(), 0.5D + random.nextDouble()));
+                body.setMass(1.0D + random.nextDouble());
+                body.setMomentumTransferFactor(random.nextDouble());
+                body.setSurfaceFrictionFactor(random.nextDouble());
+                world.addBody(body);
+
+                body.setPosition(column * 2.0D, row * 2.0D);
+                body.setAngle(PI * random.nextDouble());
+                body.setVelocity(20.0D * (random.nextDouble() - 0.5D), 20.0D * (random.nextDouble() - 0.5D));
+                body.setAngularVelocity(random.nextDouble() - 0.5D);
+            }
+        }
+
+        for (int i = 1; i <= 30; ++i) {
+            world.proceed();
+        }
+
+        Assert.assertTrue("Impulse resolution. No collisions have been resolved.", collisionCount.get() > 100);
+    }
+
+    /**
+     * Reference implementation of the impulse resolution using 3D vectors.
+     *
+     * @return velocities of the bodies after the resolution: {vAX, vAY, wA, vBX, vBY, wB}
+     */
+    @SuppressWarnings("Duplicates")
+    private static double[] resolveCollisionWithVector3D(CollisionInfo collisionInfo, double epsilon) {
+        Body bodyA = collisionInfo.getBodyA();
+        Body bodyB = collisionInfo.getBodyB();
+
+        Vector3D velocityA = toVector3D(bodyA.getVelocity());
+        Vector3D angularVelocityA = new Vector3D(0.0D, 0.0D, bodyA.getAngularVelocity());
+        Vector3D velocityB = toVector3D(bodyB.getVelocity());
+        Vector3D angularVelocityB = new Vector3D(0.0D, 0.0D, bodyB.getAngularVelocity());
+
+        Vector3D collisionNormalB = toVector3D(collisionInfo.getNormalB());
+
+        Vector3D vectorAC = toVector3D(new Vector2D(bodyA.getCenterOfMass(), collisionInfo.getPoint()));
+        Vector3D vectorBC = toVector3D(new Vector2D(bodyB.getCenterOfMass(), collisionInfo.getPoint()));
+
+        Vector3D relativeVelocityC = velocityA.add(angularVelocityA.crossProduct(vectorAC))
+                .subtract(velocityB.add(angularVelocityB.crossProduct(vectorBC)));
+
+        if (-relativeVelocityC.dotProduct(collisionNormalB) > -epsilon) {
+            Double momentumTransferFactor = bodyA.getMomentumTransferFactor() * bodyB.getMomentumTransferFactor();
+            Vector3D[] directions = {collisionNormalB, null};
+
+            Vector3D tangent = relativeVelocityC
+                    .subtract(collisionNormalB.scalarMultiply(relativeVelocityC.dotProduct(collisionNormalB)));
+
+            if (tangent.getNormSq() >= sqr(epsilon)) {
+                directions[1] = tangent.normalize();
+            }
+
+            double[] factors = {
+                    1.0D + momentumTransferFactor,
+                    sqrt(bodyA.getSurfaceFrictionFactor() * bodyB.getSurfaceFrictionFactor())
+                            * SQRT_2 * abs(relativeVelocityC.dotProduct(collisionNormalB)) / relativeVelocityC.getNorm()
+            };
+
+            for (int i = 0; i < directions.length; ++i) {
+                Vector3D direction = directions[i];
+                if (direction == null || i == 1 && factors[i] < epsilon) {
+                    continue;
+                }
+
+                Vector3D denominatorPartA = vectorAC.crossProduct(direction)
+                        .scalarMultiply(bodyA.getInvertedAngularMass()).crossProduct(vectorAC);
+                Vector3D denominatorPartB = vectorBC.crossProduct(direction)
+                        .scalarMultiply(bodyB.getInvertedAngularMass()).crossProduct(vectorBC);
+
+                double denominator = bodyA.getInvertedMass() + bodyB.getInvertedMass()
+                        + direction.dotProduct(denominatorPartA.add(denominatorPartB));
+
+                double impulseChange = -1.0D * factors[i] * relativeVelocityC.dotProduct(direction) / denominator;
+
+                if (abs(impulseChange) < epsilon) {
+                    continue;
+                }
+
+                Vector3D impulse = direction.scalarMultiply(impulseChange);
+
+                if (!bodyA.isStatic()) {
+                    velocityA = velocityA.add(impulse.scalarMultiply(bodyA.getInvertedMass()));
+                    angularVelocityA = angularVelocityA.add(
+                            vectorAC.crossProduct(impulse).scalarMultiply(bodyA.getInvertedAngularMass())
+                    );
+                }
+
+                if (!bodyB.isStatic()) {
+                    velocityB = velocityB.subtract(impulse.scalarMultiply(bodyB.getInvertedMass()));
+                    angularVelocityB = angularVelocityB.subtract(
+                            vectorBC.crossProduct(impulse).scalarMultiply(bodyB.getInvertedAngularMass())
+                    );
+                }
+            }
+        }
+
+        return new double[] {
+                velocityA.getX(), velocityA.getY(), angularVelocityA.getZ(),
+                velocityB.getX(), velocityB.getY(), angularVelocityB.getZ()
+        };
+    }
+
+    private static Vector3D toVector3D(Vector2D vector) {
+        return new Vector3D(vector.getX(), vector.getY(), 0.0D);
+    }
+
+    @Test
+    public void testAdaptiveIterationCount() throws Exception {
+        World world = new World(20, Defaults.STEP_COUNT_PER_TIME_UNIT);
+        world.setAdaptiveIterationCount(true);
+        world.setIterationCountPerStepRange(2, 20);
+
+        Body body = new Body();
+        body.setForm(new CircularForm(1.0D));
+        body.setMass(1.0D);
+        world.addBody(body);
+
+        body.setPosition(0.0D, 0.0D);
+        world.proceed();
+
+        Assert.assertEquals(
+                "Adaptive iteration count. Illegal count for resting body.",
+                2, world.getLastStepIterationCount()
+        );
+
+        body.setVelocity(150.0D, 0.0D);
+        world.proceed();
+
+        Assert.assertEquals(
+                "Adaptive iteration count. Illegal count for moving body.",
+                10, world.getLastStepIterationCount()
+        );
+        Assert.assertEquals(
+                "Adaptive iteration count. Illegal 'x' of moving body.",
+                150.0D / Defaults.STEP_COUNT_PER_TIME_UNIT, body.getX(), world.getEpsilon()
+        );
+
+        body.setVelocity(1500.0D, 0.0D);
+        world.proceed();
+
+        Assert.assertEquals(
+                "Adaptive iteration count. Illegal count for fast body.",
+                20, world.getLastStepIterationCount()
+        );
+    }
+
+    @Test
+    public void testBulletMovement() throws Exception {
+        Assert.assertTrue("Bullet movement. Not bullet has not passed through the wall.", simulateBullet(false) > 5.0D);
+        Assert.assertTrue("Bullet movement. Bullet has passed through the wall.", simulateBullet(true) < 5.0D);
+    }
+
+    @Test
+    public void testRectangularBulletMovement() throws Exception {
+        // The bullet is thinner than its movement during an iteration, but it moves less than its circumcircle radius.
+        for (Form wallForm : new Form[] {new LinearForm(10.0D), new RectangularForm(0.2D, 10.0D)}) {
+            for (double angularVelocity : new double[] {0.0D, 0.05D}) {
+                String wall = Form.toString(wallForm) + ", angular velocity " + angularVelocity;
+
+                Assert.assertTrue(
+                        "Rectangular bullet movement. Not bullet has not passed through " + wall + '.',
+                        simulateBullet(new RectangularForm(0.05D, 2.0D), wallForm, 0.9D, angularVelocity, false) > 5.0D
+                );
+                Assert.assertTrue(
+                        "Rectangular bullet movement. Bullet has passed through " + wall + '.',
+                        simulateBullet(new RectangularForm(0.05D, 2.0D), wallForm, 0.9D, angularVelocity, true) < 5.0D
+                );
+            }
+        }
+    }
+
+    @Test
+    public void testThinWallBulletMovement() throws Exception {
+        Form[] bulletForms = {new CircularForm(0.1D), new RectangularForm(0.05D, 2.0D)};
+        Form[] wallForms = {new LinearForm(10.0D), new RectangularForm(0.01D, 10.0D)};
+
+        for (Form bulletForm : bulletForms) {
+            for (Form wallForm : wallForms) {
+                for (double angularVelocity : new double[] {0.0D, 0.3D}) {
+                    String bullet = Form.toString(bulletForm) + ", angular velocity " + angularVelocity;
+
+                    Assert.assertTrue(
+                            "Thin wall bullet movement. " + bullet + " has passed through " + wallForm + '.',
+                            simulateBullet(bulletForm, wallForm, 10.0D, angularVelocity, true) < 5.0D
+                    );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBulletCollisionListener() throws Exception {
+        World world = new World(1, Defaults.STEP_COUNT_PER_TIME_UNIT);
+        Body body = addBulletAndWall(world, new RectangularForm(0.05D, 2.0D), new LinearForm(10.0D), 0.9D, 0.0D, true);
+
+        AtomicInteger startingCollisionCount = new AtomicInteger();
+
+        world.registerCollisionListener(new CollisionListenerAdapter() {
+            @Override
+            public boolean beforeStartingCollision(@Nonnull Body bodyA, @Nonnull Body bodyB) {
+                startingCollisionCount.incrementAndGet();
+                return false;
+            }
+        }, "rejecting");
+
+        for (int i = 1; i <= 10; ++i) {
+            world.proceed();
+
+            Assert.assertEquals(
+                    "Bullet collision listener. Listener is notified during the sweep.", i, startingCollisionCount.get()
+            );
+        }
+
+        Assert.assertTrue(
+                "Bullet collision listener. Bullet has not passed through the wall rejected by the listener.",
+                body.getX() > 5.0D
+        );
+    }
+
+    private static double simulateBullet(boolean bullet) {
+        return simulateBullet(new CircularForm(0.1D), new LinearForm(10.0D), 10.0D, 0.0D, bullet);
+    }
+
+    /**
+     * @return X-coordinate of the bullet moving towards the wall at X = 5.0 after several steps
+     */
+    private static double simulateBullet(
+            Form bulletForm, Form wallForm, double movementPerStep, double angularVelocity, boolean bullet) {
+        World world = new World(1, Defaults.STEP_COUNT_PER_TIME_UNIT);
+        Body body = addBulletAndWall(world, bulletForm, wallForm, movementPerStep, angularVelocity, bullet);
+
+        for (int i = 0; i < 10; ++i) {
+            world.proceed();
+        }
+
+        return body.getX();
+    }
+
+    private static Body addBulletAndWall(
+            World world, Form bulletForm, Form wallForm, double movementPerStep, double angularVelocity,
+            boolean bullet) {
+        Body wall = new Body();
+        wall.setForm(wallForm);
+        wall.setMass(Double.POSITIVE_INFINITY);
+        wall.setPosition(5.0D, 0.0D);
+        wall.setAngle(wallForm instanceof LinearForm ? PI / 2.0D : 0.0D);
+        world.addBody(wall);
+
+        Body body = new Body();
+        body.setForm(bulletForm);
+        body.setMass(1.0D);
+        body.setBullet(bullet);
+        body.setVelocity(movementPerStep * Defaults.STEP_COUNT_PER_TIME_UNIT, 0.0D);
+        body.setAngularVelocity(angularVelocity * Defaults.STEP_COUNT_PER_TIME_UNIT);
+        world.addBody(body);
+
+        return body;
+    }
+
+    @Test
+    public void testSnapshotRestore() throws Exception {
+        World world = new World(
+                Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT, Defaults.EPSILON,
+                new CellSpaceBodyList(2.0D, 10.0D), null, 1, false
+        );
+        world.setBodySleeping(true);
+
+        Random random = new Random(7654321L);
+        List<Body> bodies = new ArrayList<>();
+
+        for (int row = 0; row < 20; ++row) {
+            for (int column = 0; column < 20; ++column) {
+                Body body = new Body();
+                body.setForm(new CircularForm(0.5D + 0.25D * random.nextDouble()));
+                body.setMass(1.0D + random.nextDouble());
+                body.setSurfaceFrictionFactor(0.5D);
+                world.addBody(body);
+
+                body.setPosition(column * 1.25D, row * 1.25D);
+                body.setVelocity(10.0D * (random.nextDouble() - 0.5D), 10.0D * (random.nextDouble() - 0.5D));
+                bodies.add(body);
+            }
+        }
+
+        for (int i = 1; i <= 10; ++i) {
+            world.proceed();
+        }
+
+        WorldSnapshot snapshot = world.snapshot();
+        Assert.assertSame("Snapshot restore. Can't find snapshot.", snapshot, world.getSnapshot(10L));
+
+        for (int i = 1; i <= 30; ++i) {
+            world.snapshot();
+            world.proceed();
+        }
+
+        double[] expectedCoordinates = new double[2 * bodies.size()];
+
+        for (int bodyIndex = 0; bodyIndex < bodies.size(); ++bodyIndex) {
+            expectedCoordinates[2 * bodyIndex] = bodies.get(bodyIndex).getX();
+            expectedCoordinates[2 * bodyIndex + 1] = bodies.get(bodyIndex).getY();
+        }
+
+        world.restore(snapshot);
+        Assert.assertEquals("Snapshot restore. Illegal step index.", 10L, world.getStepIndex());
+        Assert.assertNull("Snapshot restore. Newer snapshot is not dropped.", world.getSnapshot(20L));
+
+        for (int i = 1; i <= 30; ++i) {
+            world.proceed();
+        }
+
+        for (int bodyIndex = 0; bodyIndex < bodies.size(); ++bodyIndex) {
+            Body body = bodies.get(bodyIndex);
+
+            Assert.assertEquals(
+                    "Snapshot restore. Illegal 'x' of body " + bodyIndex + '.',
+                    expectedCoordinates[2 * bodyIndex], body.getX(), 0.0D
+            );
+            Assert.assertEquals(
+                    "Snapshot restore. Illegal 'y' of body " + bodyIndex + '.',
+                    expectedCoordinates[2 * bodyIndex + 1], body.getY(), 0.0D
+            );
+        }
+    }
+
+    @Test
+    public void testFork() throws Exception {
+        World world = new World(
+                Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT, Defaults.EPSILON,
+                new CellSpaceBodyList(2.0D, 10.0D)
+        );
+
+        Random random = new Random(1234321L);
+        List<Body> bodies = new ArrayList<>();
+
+        for (int row = 0; row < 10; ++row) {
+            for (int column = 0; column < 10; ++column) {
+                Body body = new Body();
+                body.setForm(new CircularForm(0.5D + 0.25D * random.nextDouble()));
+                body.setMass(1.0D + random.nextDouble());
+                world.addBody(body);
+
+                body.setPosition(column * 1.25D, row * 1.25D);
+                body.setVelocity(10.0D * (random.nextDouble() - 0.5D), 10.0D * (random.nextDouble() - 0.5D));
+                bodies.add(body);
+            }
+        }
+
+        TaggedBody wall = new TaggedBody("wall");
+        wall.setForm(new CircularForm(1.0D));
+        wall.setMass(Double.POSITIVE_INFINITY);
+        world.addBody(wall);
+        wall.setPosition(-5.0D, -5.0D);
+
+        world.proceed();
+
+        World fork = world.fork();
+        World otherFork = world.fork();
+
+        Body forkWall = fork.getBody(wall.getId());
+        Assert.assertNotSame("Fork. Static body is shared.", wall, forkWall);
+        Assert.assertTrue("Fork. Illegal class of static body.", forkWall instanceof TaggedBody);
+        Assert.assertEquals("Fork. Illegal tag of static body.", "wall", ((TaggedBody) forkWall).tag);
+        otherFork.getBody(bodies.get(0).getId()).setVelocity(100.0D, 0.0D);
+
+        AtomicInteger forkCollisionCount = new AtomicInteger();
+        fork.registerCollisionListener(new CollisionListenerAdapter() {
+            @Override
+            public void afterResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+                forkCollisionCount.incrementAndGet();
+            }
+        }, "counter");
+
+        Assert.assertFalse("Fork. Listener is registered in parent world.", world.hasCollisionListener("counter"));
+
+        for (int i = 1; i <= 30; ++i) {
+            world.proceed();
+            fork.proceed();
+            otherFork.proceed();
+        }
+
+        Assert.assertTrue("Fork. Listener is not called.", forkCollisionCount.get() > 0);
+
+        for (Body body : bodies) {
+            Body forkBody = fork.getBody(body.getId());
+
+            Assert.assertNotSame("Fork. Body is shared.", body, forkBody);
+            Assert.assertEquals("Fork. Illegal 'x' of " + body + '.', body.getX(), forkBody.getX(), 0.0D);
+            Assert.assertEquals("Fork. Illegal 'y' of " + body + '.', body.getY(), forkBody.getY(), 0.0D);
+        }
+
+        Assert.assertTrue(
+                "Fork. Change of other fork is not isolated.",
+                abs(otherFork.getBody(bodies.get(0).getId()).getX() - bodies.get(0).getX()) > 1.0D
+        );
+    }
+
+    private static final class TaggedBody extends Body {
+        private final String tag;
+
+        private TaggedBody(@Nonnull String tag) {
+            this.tag = tag;
+        }
+
+        private TaggedBody(@Nonnull TaggedBody body, @Nullable BodyIdAllocator idAllocator) {
+            super(body, idAllocator);
+            this.tag = body.tag;
+        }
+
+        @Nonnull
+        @Override
+        protected Body copy(@Nullable BodyIdAllocator idAllocator) {
+            return new TaggedBody(this, idAllocator);
+        }
+    }
+
+    @Test
+    public void testTraceRecording() throws Exception {
+        World world = new World();
+
+        Body body = new Body();
+        body.setForm(new CircularForm(1.0D));
+        body.setMass(1.0D);
+        body.setVelocity(Defaults.STEP_COUNT_PER_TIME_UNIT, 0.0D);
+        world.addBody(body);
+
+        Path file = Files.createTempFile("notreal2d", ".trace");
+
+        try {
+            try (TraceRecorder traceRecorder = new TraceRecorder(file, 128)) {
+                world.setTraceRecorder(traceRecorder);
+
+                for (int i = 1; i <= 10; ++i) {
+                    world.proceed();
+                }
+
+                world.setTraceRecorder(null);
+            }
+
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Assert.assertEquals("Trace recording. Illegal magic.", TraceRecorder.MAGIC, input.readLong());
+                Assert.assertEquals("Trace recording. Illegal version.", TraceRecorder.VERSION, input.readInt());
+
+                for (int i = 0; i < 10; ++i) {
+                    Assert.assertEquals("Trace recording. Illegal step index.", i, input.readLong());
+                    Assert.assertEquals("Trace recording. Illegal body count.", 1, input.readInt());
+                    Assert.assertEquals("Trace recording. Illegal body ID.", body.getId(), input.readLong());
+                    Assert.assertEquals("Trace recording. Illegal 'x'.", i + 1.0D, input.readDouble(), 1.0E-9D);
+                    Assert.assertEquals("Trace recording. Illegal 'y'.", 0.0D, input.readDouble(), 0.0D);
+                    Assert.assertEquals("Trace recording. Illegal angle.", 0.0D, input.readDouble(), 0.0D);
+                    Assert.assertEquals(
+                            "Trace recording. Illegal velocity.",
+                            Defaults.STEP_COUNT_PER_TIME_UNIT, input.readDouble(), 0.0D
+                    );
+                    Assert.assertEquals("Trace recording. Illegal velocity.", 0.0D, input.readDouble(), 0.0D);
+                    Assert.assertEquals("Trace recording. Illegal angular velocity.", 0.0D, input.readDouble(), 0.0D);
+                }
+
+                Assert.assertEquals("Trace recording. Unexpected data.", -1, input.read());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testTraceRecordingOverflow() throws Exception {
+        World world = new World();
+
+        Body body = new Body();
+        body.setForm(new CircularForm(1.0D));
+        body.setMass(1.0D);
+        world.addBody(body);
+
+        Path file = Files.createTempFile("notreal2d", ".trace");
+
+        try {
+            long droppedStepCount;
+
+            // A single buffer of a single step is either being filled or being written.
+            try (TraceRecorder traceRecorder = new TraceRecorder(file, 80, 1)) {
+                world.setTraceRecorder(traceRecorder);
+
+                for (int i = 1; i <= 100; ++i) {
+                    world.proceed();
+                }
+
+                world.setTraceRecorder(null);
+
+                Assert.assertEquals(
+                        "Trace recording overflow. Illegal allocated buffer count.",
+                        1, traceRecorder.getAllocatedBufferCount()
+                );
+
+                droppedStepCount = traceRecorder.getDroppedStepCount();
+            }
+
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Assert.assertEquals("Trace recording overflow. Illegal magic.", TraceRecorder.MAGIC, input.readLong());
+                Assert.assertEquals(
+                        "Trace recording overflow. Illegal version.", TraceRecorder.VERSION, input.readInt()
+                );
+
+                long previousStepIndex = -1L;
+                int recordedStepCount = 0;
+
+                while (input.available() > 0) {
+                    long stepIndex = input.readLong();
+                    Assert.assertTrue("Trace recording overflow. Illegal step index.", stepIndex > previousStepIndex);
+                    Assert.assertEquals("Trace recording overflow. Illegal body count.", 1, input.readInt());
+                    Assert.assertEquals("Trace recording overflow. Illegal body ID.", body.getId(), input.readLong());
+                    input.skipBytes(6 * Double.BYTES);
+
+                    previousStepIndex = stepIndex;
+                    ++recordedStepCount;
+                }
+
+                Assert.assertEquals(
+                        "Trace recording overflow. Illegal count of recorded and dropped steps.",
+                        100L, recordedStepCount + droppedStepCount
+                );
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCollisionFiltering() throws Exception {
+        for (boolean cellSpace : new boolean[] {false, true}) {
+            String mode = cellSpace ? "Cell space collision filtering" : "Simple collision filtering";
+
+            Assert.assertFalse(
+                    mode + ". Same negative group.",
+                    simulateHeadOnCollision(cellSpace, 1, -1, -1, 1, -1, -1)
+            );
+            Assert.assertTrue(mode + ". Same positive group.", simulateHeadOnCollision(cellSpace, 1, 0, 2, 1, 0, 2));
+            Assert.assertFalse(mode + ". Masked category.", simulateHeadOnCollision(cellSpace, 1, ~2, 0, 2, -1, 0));
+            Assert.assertTrue(mode + ". Default filter.", simulateHeadOnCollision(cellSpace, 1, -1, 0, 1, -1, 0));
+        }
+    }
+
+    /**
+     * @return {@code true} if bodies have bounced off each other
+     */
+    private static boolean simulateHeadOnCollision(
+            boolean cellSpace, int categoryBitsA, int maskBitsA, int groupIndexA,
+            int categoryBitsB, int maskBitsB, int groupIndexB) {
+        World world = cellSpace ? new World(
+                Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT, Defaults.EPSILON,
+                new CellSpaceBodyList(2.0D, 10.0D)
+        ) : new World();
+
+        Body bodyA = new Body();
+        bodyA.setForm(new CircularForm(1.0D));
+        bodyA.setMass(1.0D);
+        bodyA.setCategoryBits(categoryBitsA);
+        bodyA.setMaskBits(maskBitsA);
+        bodyA.setGroupIndex(groupIndexA);
+        world.addBody(bodyA);
+
+        Body bodyB = new Body();
+        bodyB.setForm(new CircularForm(1.0D));
+        bodyB.setMass(1.0D);
+        bodyB.setCategoryBits(categoryBitsB);
+        bodyB.setMaskBits(maskBitsB);
+        bodyB.setGroupIndex(groupIndexB);
+        world.addBody(bodyB);
+
+        bodyA.setPosition(-3.0D, 0.0D);
+        bodyA.setVelocity(Defaults.STEP_COUNT_PER_TIME_UNIT, 0.0D);
+        bodyB.setPosition(3.0D, 0.0D);
+        bodyB.setVelocity(-Defaults.STEP_COUNT_PER_TIME_UNIT, 0.0D);
+
+        for (int i = 1; i <= 6; ++i) {
+            world.proceed();
+        }
+
+        return bodyA.getX() < bodyB.getX();
+    }
+
+    @Test
+    public void testCellSpaceBodyList() throws Exception {
+        checkPotentialIntersections(new CellSpaceBodyList(0.25D, 4.0D));
+    }
+
+    @Test
+    public void testAabbTreeBodyList() throws Exception {
+        checkPotentialIntersections(new AabbTreeBodyList());
+    }
+
+    @Test
+    public void testSweepAndPruneBodyList() throws Exception {
+        checkPotentialIntersections(new SweepAndPruneBodyList());
+    }
+
+    @Test
+    public void testHierarchicalGridBodyList() throws Exception {
+        checkPotentialIntersections(new HierarchicalGridBodyList(0.25D));
+    }
+
+    @Test
+    public void testPotentialIntersectionPairs() throws Exception {
+        BodyList[] bodyLists = {
+                new SimpleBodyList(), new CellSpaceBodyList(1.0D, 2.0D), new AabbTreeBodyList(),
+                new SweepAndPruneBodyList(), new HierarchicalGridBodyList()
+        };
+
+        Random random = new Random(20150602L);
+        BodyList expectedBodyList = new SimpleBodyList();
+        List<Body> bodies = new ArrayList<>();
+
+        for (int bodyIndex = 0; bodyIndex < 300; ++bodyIndex) {
+            Body body = new Body();
+            body.setForm(bodyIndex == 0 ? new ArcForm(100.0D, 0.0D, HALF_PI) : new CircularForm(
+                    bodyIndex % 7 == 0 ? 2.0D : 0.5D * random.nextDouble()
+            ));
+            body.setMass(bodyIndex % 10 == 0 ? Double.POSITIVE_INFINITY : 1.0D);
+            body.setPosition(120.0D * random.nextDouble() - 10.0D, 30.0D * random.nextDouble());
+            bodies.add(body);
+
+            expectedBodyList.addBody(body);
+
+            for (BodyList bodyList : bodyLists) {
+                bodyList.addBody(body);
+            }
+        }
+
+        BodyPairBuffer pairs = new BodyPairBuffer();
+
+        for (int round = 0; round < 5; ++round) {
+            for (Body body : bodies) {
+                body.setPosition(body.getX() + random.nextDouble() - 0.5D, body.getY() + random.nextDouble() - 0.5D);
+
+                // Pairs of sleeping and static bodies are skipped.
+                if (random.nextInt(3) == 0) {
+                    body.sleep();
+                }
+            }
+
+            Set<String> expectedPairs = new HashSet<>();
+
+            for (Body body : bodies) {
+                for (Body otherBody : expectedBodyList.getPotentialIntersections(body)) {
+                    if (body.getId() < otherBody.getId() && (!body.isStatic() && !body.isSleeping()
+                            || !otherBody.isStatic() && !otherBody.isSleeping())) {
+                        expectedPairs.add(body.getId() + "-" + otherBody.getId());
+                    }
+                }
+            }
+
+            for (BodyList bodyList : bodyLists) {
+                bodyList.getPotentialIntersectionPairs(pairs);
+                Set<String> actualPairs = new HashSet<>();
+
+                for (int pairIndex = 0; pairIndex < pairs.size(); ++pairIndex) {
+                    Body bodyA = pairs.getBodyA(pairIndex);
+                    Body bodyB = pairs.getBodyB(pairIndex);
+
+                    Assert.assertTrue("Order of bodies in pair.", bodyA.getId() < bodyB.getId());
+                    Assert.assertTrue(
+                            "Unique pair " + bodyA + " and " + bodyB + '.',
+                            actualPairs.add(bodyA.getId() + "-" + bodyB.getId())
+                    );
+                }
+
+                Assert.assertEquals(
+                        "Pairs of " + bodyList.getClass().getSimpleName() + " in round " + round + '.',
+                        expectedPairs, actualPairs
+                );
+            }
+        }
+    }
+
+    /**
+     * Compares potential intersections found by the {@code bodyList} with ones found by {@link SimpleBodyList} for
+     * bodies of very different size. Bodies are slightly shifted in even rounds and scattered in odd rounds. A body is
+     * removed and another one is added in each round.
+     */
+    private static void checkPotentialIntersections(@Nonnull BodyList bodyList) {
+        Random random = new Random(20150602L);
+        BodyList expectedBodyList = new SimpleBodyList();
+        List<Body> bodies = new ArrayList<>();
+
+        Body wall = new Body();
+        wall.setForm(new ArcForm(100.0D, 0.0D, HALF_PI));
+        wall.setMass(Double.POSITIVE_INFINITY);
+        bodies.add(wall);
+
+        for (int bodyIndex = 0; bodyIndex < 300; ++bodyIndex) {
+            bodies.add(newPotentialIntersectionBody(random, bodyIndex));
+        }
+
+        for (Body body : bodies) {
+            expectedBodyList.addBody(body);
+            bodyList.addBody(body);
+        }
+
+        String listenerName = bodyList.getClass().getSimpleName() + "Listener";
+
+        for (int round = 0; round < 10; ++round) {
+            for (Body body : bodies) {
+                if (body == wall) {
+                    continue;
+                }
+
+                if (round % 2 == 0) {
+                    body.setPosition(
+                            body.getX() + random.nextDouble() - 0.5D, body.getY() + random.nextDouble() - 0.5D
+                    );
+                } else {
+                    body.setPosition(120.0D * random.nextDouble() - 10.0D, 120.0D * random.nextDouble() - 10.0D);
+                }
+            }
+
+            Body removedBody = bodies.remove(1 + random.nextInt(bodies.size() - 1));
+            expectedBodyList.removeBody(removedBody);
+            bodyList.removeBody(removedBody);
+            Assert.assertFalse(
+                    "Listener of removed body.", removedBody.getCurrentState().hasPositionListener(listenerName)
+            );
+            Assert.assertFalse("Removed body is found.", bodyList.hasBody(removedBody));
+
+            Body addedBody = newPotentialIntersectionBody(random, round);
+            addedBody.setPosition(removedBody.getX(), removedBody.getY());
+            bodies.add(addedBody);
+            expectedBodyList.addBody(addedBody);
+            bodyList.addBody(addedBody);
+
+            for (Body body : bodies) {
+                Assert.assertTrue("Can't find " + body + '.', bodyList.hasBody(body));
+                Assert.assertEquals(
+                        "Potential intersections of " + body + " in round " + round + '.',
+                        new HashSet<>(expectedBodyList.getPotentialIntersections(body)),
+                        new HashSet<>(bodyList.getPotentialIntersections(body))
+                );
+            }
+        }
+
+        Assert.assertEquals("Body count.", bodies.size(), bodyList.getBodies().size());
+    }
+
+    @Nonnull
+    private static Body newPotentialIntersectionBody(@Nonnull Random random, int bodyIndex) {
+        Body body = new Body();
+        body.setForm(bodyIndex % 3 == 0
+                ? new CircularForm(0.05D)
+                : new RectangularForm(1.0D + random.nextDouble(), 1.0D + random.nextDouble()));
+        body.setMass(bodyIndex % 10 == 0 ? Double.POSITIVE_INFINITY : 1.0D);
+        return body;
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        World world = new World();
+
+        Random random = new Random(4321234L);
+        List<Body> bodies = new ArrayList<>();
+
+        for (int i = 0; i < 20; ++i) {
+            Body body = new Body();
+            body.setName("body" + i);
+            body.setForm(i % 2 == 0 ? new CircularForm(0.5D) : new RectangularForm(1.0D, 0.75D));
+            body.setMass(1.0D + random.nextDouble());
+            body.setMovementFrictionFactor(0.1D);
+            world.addBody(body);
+
+            body.setPosition(i % 5 * 1.25D, i / 5 * 1.25D);
+            body.setVelocity(10.0D * (random.nextDouble() - 0.5D), 10.0D * (random.nextDouble() - 0.5D));
+            body.setAngularVelocity(random.nextDouble() - 0.5D);
+            bodies.add(body);
+        }
+
+        for (int i = 1; i <= 10; ++i) {
+            world.proceed();
+        }
+
+        Path file = Files.createTempFile("notreal2d", ".checkpoint");
+
+        try {
+            Assert.assertEquals("Checkpoint. Illegal file.", file, WorldCheckpoint.write(world, file).get());
+
+            WorldCheckpoint checkpoint = WorldCheckpoint.map(file);
+            Assert.assertEquals("Checkpoint. Illegal step index.", world.getStepIndex(), checkpoint.getStepIndex());
+            Assert.assertEquals("Checkpoint. Illegal body count.", bodies.size(), checkpoint.getBodyCount());
+
+            World restoredWorld = new World();
+            List<Body> restoredBodies = checkpoint.restore(restoredWorld);
+
+            for (int i = 1; i <= 30; ++i) {
+                world.proceed();
+                restoredWorld.proceed();
+            }
+
+            for (int i = 0; i < bodies.size(); ++i) {
+                Body body = bodies.get(i);
+                Body restoredBody = restoredBodies.get(i);
+
+                Assert.assertEquals("Checkpoint. Illegal body ID.", body.getId(), checkpoint.getBodyId(i));
+                Assert.assertEquals("Checkpoint. Illegal name.", body.getName(), restoredBody.getName());
+                Assert.assertEquals("Checkpoint. Illegal 'x' of " + body + '.', body.getX(), restoredBody.getX(), 0.0D);
+                Assert.assertEquals("Checkpoint. Illegal 'y' of " + body + '.', body.getY(), restoredBody.getY(), 0.0D);
+                Assert.assertEquals(
+                        "Checkpoint. Illegal angle of " + body + '.', body.getAngle(), restoredBody.getAngle(), 0.0D
+                );
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        World world = new World();
+        WorldMetrics metrics = new WorldMetrics();
+        world.setMetrics(metrics);
+
+        Body bodyA = new Body();
+        bodyA.setForm(new CircularForm(1.0D));
+        bodyA.setMass(1.0D);
+        bodyA.setVelocity(Defaults.STEP_COUNT_PER_TIME_UNIT, 0.0D);
+        world.addBody(bodyA);
+
+        Body bodyB = new Body();
+        bodyB.setForm(new CircularForm(1.0D));
+        bodyB.setMass(1.0D);
+        bodyB.setPosition(5.0D, 0.0D);
+        world.addBody(bodyB);
+
+        for (int i = 1; i <= 10; ++i) {
+            world.proceed();
+        }
+
+        Assert.assertEquals("Metrics. Illegal step count.", 10L, metrics.getStepCount());
+        Assert.assertTrue("Metrics. No step time.", metrics.getTotalStepNanos() > 0L);
+        Assert.assertTrue("Metrics. No contacts.", metrics.getContactCount() > 0L);
+        Assert.assertTrue(
+                "Metrics. Contact count exceeds narrowphase test count.",
+                metrics.getContactCount() <= metrics.getNarrowphaseTestCount()
+        );
+        Assert.assertTrue(
+                "Metrics. Narrowphase test count exceeds broadphase candidate count.",
+                metrics.getNarrowphaseTestCount() <= metrics.getBroadphaseCandidateCount()
+        );
+        Assert.assertTrue("Metrics. No resolved collisions.", metrics.getResolvedCollisionCount() > 0L);
+
+        world.setMetrics(null);
+        world.proceed();
+        Assert.assertEquals("Metrics. Disabled metrics are updated.", 10L, metrics.getStepCount());
+
+        ObjectName objectName = metrics.registerMBean("testMetrics");
+
+        try {
+            Assert.assertEquals(
+                    "Metrics. Illegal MBean attribute.", 10L,
+                    ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "StepCount")
+            );
+        } finally {
+            WorldMetrics.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void testWorldScheduler() throws Exception {
+        List<World> worlds = new ArrayList<>();
+        List<World> expectedWorlds = new ArrayList<>();
+
+        try (WorldScheduler scheduler = new WorldScheduler(2)) {
+            for (int worldIndex = 0; worldIndex < 10; ++worldIndex) {
+                World world = new World();
+                World expectedWorld = new World();
+
+                for (int bodyIndex = 0; bodyIndex <= worldIndex; ++bodyIndex) {
+                    for (World currentWorld : new World[] {world, expectedWorld}) {
+                        Body body = new Body();
+                        body.setForm(new CircularForm(0.5D));
+                        body.setMass(1.0D);
+                        currentWorld.addBody(body);
+
+                        body.setPosition(bodyIndex * 0.75D, 0.0D);
+                        body.setVelocity(bodyIndex % 2 == 0 ? 1.0D : -1.0D, 0.0D);
+                    }
+                }
+
+                scheduler.register(world);
+                worlds.add(world);
+                expectedWorlds.add(expectedWorld);
+            }
+
+            for (int i = 1; i <= 20; ++i) {
+                scheduler.tick();
+            }
+
+            Assert.assertEquals("World scheduler. Illegal tick count.", 20L, scheduler.getTickCount());
+
+            for (int worldIndex = 0; worldIndex < worlds.size(); ++worldIndex) {
+                World world = worlds.get(worldIndex);
+                World expectedWorld = expectedWorlds.get(worldIndex);
+
+                for (int i = 1; i <= 20; ++i) {
+                    expectedWorld.proceed();
+                }
+
+                WorldScheduler.Statistics statistics = scheduler.getStatistics(world);
+                Assert.assertNotNull("World scheduler. No statistics.", statistics);
+                Assert.assertEquals("World scheduler. Illegal step count.", 20L, statistics.getStepCount());
+                Assert.assertTrue(
+                        "World scheduler. Illegal latency percentiles.",
+                        statistics.getLatencyNanos(50.0D) <= statistics.getLatencyNanos(99.0D)
+                );
+
+                Iterator<Body> bodies = world.getBodies().iterator();
+                for (Body expectedBody : expectedWorld.getBodies()) {
+                    Assert.assertEquals(
+                            "World scheduler. Illegal 'x' of body in world " + worldIndex + '.',
+                            expectedBody.getX(), bodies.next().getX(), 0.0D
+                    );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWorldSchedulerCadence() throws Exception {
+        try (WorldScheduler scheduler = new WorldScheduler(2)) {
+            World fastWorld = new World();
+            World slowWorld = new World() {
+                @Override
+                public void proceed() {
+                    try {
+                        Thread.sleep(100L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    super.proceed();
+                }
+            };
+
+            scheduler.register(fastWorld);
+            scheduler.register(slowWorld);
+            scheduler.start(5L, TimeUnit.MILLISECONDS);
+
+            Thread.sleep(500L);
+            scheduler.stop();
+
+            long fastStepCount = scheduler.getStatistics(fastWorld).getStepCount();
+            long slowStepCount = scheduler.getStatistics(slowWorld).getStepCount();
+
+            Assert.assertTrue("World scheduler cadence. Slow world is not stepped.", slowStepCount > 0L);
+            Assert.assertTrue(
+                    "World scheduler cadence. Fast world is delayed by slow world: " + fastStepCount + " steps of fast"
+                            + " world and " + slowStepCount + " steps of slow world.",
+                    fastStepCount >= 5L * slowStepCount
+            );
+            Assert.assertEquals("World scheduler cadence. Illegal tick count.", 0L, scheduler.getTickCount());
+        }
+    }
+
+    @Test
+    public void testBodyIdAllocator() throws Exception {
+        World world = new World();
+        world.setBodyIdAllocator(new BodyIdAllocator());
+
+        List<Body> bodies = new ArrayList<>();
+
+        for (int i = 0; i < 10; ++i) {
+            Body body = world.newBody();
+            body.setForm(new CircularForm(0.5D));
+            body.setMass(1.0D);
+            body.setPosition(i * 1.5D, 0.0D);
+            world.addBody(body);
+            bodies.add(body);
+
+            Assert.assertEquals("Body ID allocator. Illegal ID.", i + 1L, body.getId());
+        }
+
+        try {
+            Body body = new Body();
+            body.setForm(new CircularForm(0.5D));
+            body.setMass(1.0D);
+            world.addBody(body);
+            Assert.fail("Body ID allocator. Body with global ID is added.");
+        } catch (IllegalArgumentException ignored) {
+            // Expected.
+        }
+
+        world.removeBody(bodies.get(3));
+        Assert.assertEquals("Body ID allocator. ID is reused too early.", 11L, world.newBody().getId());
+
+        world.proceed();
+        Assert.assertEquals("Body ID allocator. ID is reused too early.", 12L, world.newBody().getId());
+
+        world.proceed();
+        Assert.assertEquals("Body ID allocator. ID is not reused.", 4L, world.newBody().getId());
+
+        World fork = world.fork();
+        Assert.assertEquals("Body ID allocator. Illegal ID in fork.", 13L, fork.newBody().getId());
+        Assert.assertEquals("Body ID allocator. Illegal ID.", 13L, world.newBody().getId());
+    }
+
+    @Test
+    public void testBodyIdReservation() throws Exception {
+        World world = new World();
+        world.setBodyIdAllocator(new BodyIdAllocator());
+
+        for (int i = 0; i < 2; ++i) {
+            Body body = world.newBody();
+            body.setForm(new CircularForm(0.5D));
+            body.setMass(1.0D);
+            body.setPosition(i * 5.0D, 0.0D);
+            body.setVelocity(1.0D, 0.0D);
+            world.addBody(body);
+        }
+
+        Body body = world.getBodies().get(1);
+        WorldSnapshot snapshot = world.snapshot();
+
+        world.removeBody(body);
+        world.proceed();
+
+        world.addBody(body);
+        world.restore(snapshot);
+        Assert.assertEquals("Body ID reservation. Illegal 'x' after restore.", 5.0D, body.getX(), 0.0D);
+
+        world.removeBody(body);
+        world.proceed();
+        world.proceed();
+
+        try {
+            world.addBody(body);
+            Assert.fail("Body ID reservation. Body with released ID is added.");
+        } catch (IllegalStateException ignored) {
+            // Expected.
+        }
+
+        try {
+            world.restore(snapshot);
+            Assert.fail("Body ID reservation. Snapshot with released ID is restored.");
+        } catch (IllegalStateException ignored) {
+            // Expected.
+        }
+
+        Body newBody = world.newBody();
+        newBody.setForm(new CircularForm(0.5D));
+        newBody.setMass(1.0D);
+        Assert.assertEquals("Body ID reservation. ID is not reused.", body.getId(), newBody.getId());
+        world.addBody(newBody);
+
+        try {
+            world.restore(snapshot);
+            Assert.fail("Body ID reservation. Snapshot with reused ID is restored.");
+        } catch (IllegalStateException ignored) {
+            // Expected.
+        }
+
+        Assert.assertEquals("Body ID reservation. Illegal 'x' of new body.", 0.0D, newBody.getX(), 0.0D);
+    }
+
+    @Test
+    public void testParallelNarrowphaseDeterminism() throws Exception {
+        checkCrowdDeterminism("Parallel narrowphase", false);
+    }
+
+    @Test
+    public void testContactIslandSolvingDeterminism() throws Exception {
+        checkCrowdDeterminism("Contact island solving", true);
+    }
+
+    @Test
+    public void testContactIslandSolvingBodyRemoval() throws Exception {
+        List<Body> expectedBodies = simulateCrowdWithRemovals(1);
+
+        for (int parallelThreadCount = 2; parallelThreadCount <= 4; ++parallelThreadCount) {
+            checkCrowd(
+                    "Contact island solving with removals", expectedBodies,
+                    simulateCrowdWithRemovals(parallelThreadCount), parallelThreadCount + " threads"
+            );
+        }
+    }
+
+    private static List<Body> simulateCrowdWithRemovals(int parallelThreadCount) {
+        World world = new World(
+                Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT, Defaults.EPSILON,
+                new CellSpaceBodyList(2.0D, 10.0D), null, parallelThreadCount, false
+        );
+        world.setContactIslandSolving(true);
+
+        // The static body touches bodies of many islands.
+        Body staticBody = new Body();
+        staticBody.setForm(new CircularForm(5.0D));
+        staticBody.setMass(Double.POSITIVE_INFINITY);
+        world.addBody(staticBody);
+        staticBody.setPosition(24.375D, 24.375D);
+
+        Random random = new Random(7654321L);
+        List<Body> bodies = new ArrayList<>();
+
+        for (int row = 0; row < 40; ++row) {
+            for (int column = 0; column < 40; ++column) {
+                Body body = new Body();
+                body.setForm(new CircularForm(0.5D + 0.25D * random.nextDouble()));
+                body.setMass(1.0D + random.nextDouble());
+                body.setAttribute("index", bodies.size());
+                world.addBody(body);
+
+                body.setPosition(column * 1.25D, row * 1.25D);
+                body.setVelocity(10.0D * (random.nextDouble() - 0.5D), 10.0D * (random.nextDouble() - 0.5D));
+                bodies.add(body);
+            }
+        }
+
+        Set<Body> removedBodies = new HashSet<>();
+
+        world.registerCollisionListener(new CollisionListenerAdapter() {
+            @Override
+            public void afterResolvingCollision(@Nonnull CollisionInfo collisionInfo) {
+                Body body = collisionInfo.getBodyB();
+
+                if (!body.isStatic() && (Integer) body.getAttribute("index") % 7 == 0) {
+                    world.removeBody(body);
+                    removedBodies.add(body);
+                    Assert.assertFalse("Contact island solving. Removed body is still found.", world.hasBody(body));
+                }
+            }
+        }, "remover");
+
+        for (int i = 1; i <= 20; ++i) {
+            world.proceed();
+        }
+
+        Assert.assertFalse("Contact island solving. No body is removed.", removedBodies.isEmpty());
+        Assert.assertEquals(
+                "Contact island solving. Illegal body count.",
+                bodies.size() + 1 - removedBodies.size(), world.getBodies().size()
+        );
+
+        for (Body body : removedBodies) {
+            Assert.assertFalse("Contact island solving. Removed body is not removed.", world.hasBody(body.getId()));
+        }
+
+        world.close();
+        return bodies;
+    }
+
+    private static void checkCrowdDeterminism(String mode, boolean contactIslandSolving) {
+        List<Body> expectedBodies = simulateCrowd(1, contactIslandSolving, null);
+
+        for (int parallelThreadCount = 2; parallelThreadCount <= 4; ++parallelThreadCount) {
+            checkCrowd(
+                    mode, expectedBodies, simulateCrowd(parallelThreadCount, contactIslandSolving, null),
+                    parallelThreadCount + " threads"
+            );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            checkCrowd(
+                    mode, expectedBodies, simulateCrowd(3, contactIslandSolving, executor), "shared executor"
+            );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void checkCrowd(String mode, List<Body> expectedBodies, List<Body> bodies, String description) {
+        for (int bodyIndex = 0; bodyIndex < bodies.size(); ++bodyIndex) {
+            Body expectedBody = expectedBodies.get(bodyIndex);
+            Body body = bodies.get(bodyIndex);
+
+            Assert.assertEquals(
+                    mode + ". Illegal 'x' of body " + bodyIndex + " using " + description + '.',
+                    expectedBody.getX(), body.getX(), 0.0D
+            );
+            Assert.assertEquals(
+                    mode + ". Illegal 'y' of body " + bodyIndex + " using " + description + '.',
+                    expectedBody.getY(), body.getY(), 0.0D
+            );
+            Assert.assertEquals(
+                    mode + ". Illegal angular velocity of body " + bodyIndex + " using " + description + '.',
+                    expectedBody.getAngularVelocity(), body.getAngularVelocity(), 0.0D
+            );
+        }
+    }
+
+    private static List<Body> simulateCrowd(
+            int parallelThreadCount, boolean contactIslandSolving, @Nullable Executor executor) {
+        World world = executor == null ? new World(
+                Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT, Defaults.EPSILON,
+                new CellSpaceBodyList(2.0D, 10.0D), null, parallelThreadCount, !contactIslandSolving
+        ) : new World(
+                Defaults.ITERATION_COUNT_PER_STEP, Defaults.STEP_COUNT_PER_TIME_UNIT, Defaults.EPSILON,
+                new CellSpaceBodyList(2.0D, 10.0D), null, executor, parallelThreadCount, !contactIslandSolving
+        );
+        world.setContactIslandSolving(contactIslandSolving);
+
+        Random random = new Random(1234567L);
+        List<Body> bodies = new ArrayList<>();
+
+        for (int row = 0; row < 40; ++row) {
+            for (int column = 0; column < 40; ++column) {
+                Body body = new Body();
+                body.setForm(new CircularForm(0.5D + 0.25D * random.nextDouble()));
+                body.setMass(1.0D + random.nextDouble());
+                body.setSurfaceFrictionFactor(0.5D);
+                world.addBody(body);
+
+                body.setPosition(column * 1.25D, row * 1.25D);
+                body.setVelocity(10.0D * (random.nextDouble() - 0.5D), 10.0D * (random.nextDouble() - 0.5D));
+                bodies.add(body);
+            }
+        }
+
+        for (int i = 1; i <= 20; ++i) {
+            world.proceed();
+        }
+
+        world.close();
+        return bodies;
+    }
 }
@@ -0,0 +1,129 @@
+package com.codegame.codeseries.notreal2d.bodylist;
+
+import com.codegame.codeseries.notreal2d.Body;
+import com.codegame.codeseries.notreal2d.BodyListSlotAccessor;
+import com.codegame.codeseries.notreal2d.form.CircularForm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CellSpaceBodyListTest {
+    @Test
+    public void testTileRelease() throws Exception {
+        CellSpaceBodyList bodyList = new CellSpaceBodyList(1.0D, 1.0D);
+
+        Body bodyA = newBody(0.5D, 0.5D);
+        Body bodyB = newBody(1.5D, 0.5D);
+        bodyList.addBody(bodyA);
+        bodyList.addBody(bodyB);
+        Assert.assertEquals("Tile release. Illegal tile count.", 1, bodyList.getTileCount());
+
+        bodyA.setPosition(-0.5D, 0.5D);
+        Assert.assertEquals("Tile release. Illegal tile count after crossing tile border.", 2, bodyList.getTileCount());
+
+        bodyList.removeBody(bodyB);
+        Assert.assertEquals("Tile release. Empty tile is not released.", 1, bodyList.getTileCount());
+        Assert.assertEquals("Tile release. Illegal free tile count.", 1, bodyList.getFreeTileCount());
+
+        bodyList.removeBody(bodyA);
+        Assert.assertEquals("Tile release. Empty tile is not released.", 0, bodyList.getTileCount());
+        Assert.assertEquals("Tile release. Illegal free tile count.", 2, bodyList.getFreeTileCount());
+
+        List<Body> bodies = new ArrayList<>();
+
+        for (int i = 0; i < 4 * CellSpaceBodyList.MAX_FREE_TILE_COUNT; ++i) {
+            Body body = newBody(100.0D * i + 0.5D, 0.5D);
+            bodyList.addBody(body);
+            bodies.add(body);
+        }
+
+        Assert.assertEquals("Tile release. Illegal tile count.", bodies.size(), bodyList.getTileCount());
+        Assert.assertEquals("Tile release. Free tiles are not reused.", 0, bodyList.getFreeTileCount());
+
+        for (Body body : bodies) {
+            bodyList.removeBody(body);
+        }
+
+        Assert.assertEquals("Tile release. Empty tile is not released.", 0, bodyList.getTileCount());
+        Assert.assertEquals(
+                "Tile release. Free tiles are not limited.",
+                CellSpaceBodyList.MAX_FREE_TILE_COUNT, bodyList.getFreeTileCount()
+        );
+    }
+
+    @Test
+    public void testDistantCells() throws Exception {
+        CellSpaceBodyList bodyList = new CellSpaceBodyList(1.0D, 1.0D);
+        BodyPairBuffer pairs = new BodyPairBuffer();
+
+        for (double coordinate : new double[] {-1.0E6D, -1000.5D, 1000.5D, 1.0E6D}) {
+            Body bodyA = newBody(coordinate, -coordinate);
+            Body bodyB = newBody(coordinate + 0.5D, -coordinate + 0.5D);
+            Body farBody = newBody(coordinate + 3.0D, -coordinate);
+
+            bodyList.addBody(bodyA);
+            bodyList.addBody(bodyB);
+            bodyList.addBody(farBody);
+
+            Assert.assertEquals(
+                    "Distant cells. Illegal potential intersections at " + coordinate + '.',
+                    Collections.singletonList(bodyB), bodyList.getPotentialIntersections(bodyA)
+            );
+            Assert.assertTrue(
+                    "Distant cells. Illegal potential intersections at " + coordinate + '.',
+                    bodyList.getPotentialIntersections(farBody).isEmpty()
+            );
+
+            bodyList.getPotentialIntersectionPairs(pairs);
+            Assert.assertEquals("Distant cells. Illegal pair count at " + coordinate + '.', 1, pairs.size());
+
+            bodyList.removeBody(bodyA);
+            bodyList.removeBody(bodyB);
+            bodyList.removeBody(farBody);
+            Assert.assertEquals("Distant cells. Empty tile is not released.", 0, bodyList.getTileCount());
+        }
+    }
+
+    @Test
+    public void testForeignSlot() throws Exception {
+        CellSpaceBodyList bodyList = new CellSpaceBodyList(1.0D, 1.0D);
+
+        Body bodyA = newBody(0.5D, 0.5D);
+        Body bodyB = newBody(1.0D, 0.5D);
+        bodyList.addBody(bodyA);
+        bodyList.addBody(bodyB);
+
+        BodyListSlotAccessor foreignAccessor = new BodyListSlotAccessor();
+        Assert.assertEquals("Foreign slot. Slot of the list is visible.", -1, foreignAccessor.getSlot(bodyA));
+
+        foreignAccessor.setSlot(bodyA, 1);
+        Assert.assertTrue("Foreign slot. Body is lost.", bodyList.hasBody(bodyA));
+        Assert.assertEquals(
+                "Foreign slot. Illegal potential intersections.",
+                Collections.singletonList(bodyB), bodyList.getPotentialIntersections(bodyA)
+        );
+
+        foreignAccessor.resetSlot(bodyA);
+        bodyList.removeBody(bodyA);
+        Assert.assertFalse("Foreign slot. Body is not removed.", bodyList.hasBody(bodyA));
+        Assert.assertTrue("Foreign slot. Other body is lost.", bodyList.hasBody(bodyB));
+
+        try {
+            foreignAccessor.setSlot(bodyB, -1);
+            Assert.fail("Foreign slot. Negative slot is accepted.");
+        } catch (IllegalArgumentException ignored) {
+            // Expected.
+        }
+    }
+
+    private static Body newBody(double x, double y) {
+        Body body = new Body();
+        body.setForm(new CircularForm(0.5D));
+        body.setMass(1.0D);
+        body.setPosition(x, y);
+        return body;
+    }
+}
@@ -0,0 +1,108 @@
+package com.codegame.codeseries.notreal2d.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongPairMapTest {
+    @Test
+    public void testPutGetRemove() throws Exception {
+        LongPairMap<String> map = new LongPairMap<>();
+        Assert.assertTrue("Put, get, remove. New map is not empty.", map.isEmpty());
+
+        Assert.assertNull("Put, get, remove. Illegal previous value.", map.put(1L, 2L, "a"));
+        Assert.assertNull("Put, get, remove. Illegal previous value.", map.put(2L, 1L, "b"));
+        Assert.assertNull("Put, get, remove. Illegal previous value.", map.put(0L, 0L, "c"));
+        Assert.assertNull("Put, get, remove. Illegal previous value.", map.put(-1L, Long.MIN_VALUE, "d"));
+        Assert.assertEquals("Put, get, remove. Illegal previous value.", "a", map.put(1L, 2L, "e"));
+        Assert.assertEquals("Put, get, remove. Illegal size.", 4, map.size());
+
+        Assert.assertEquals("Put, get, remove. Illegal value.", "e", map.get(1L, 2L));
+        Assert.assertEquals("Put, get, remove. Illegal value of swapped keys.", "b", map.get(2L, 1L));
+        Assert.assertEquals("Put, get, remove. Illegal value.", "c", map.get(0L, 0L));
+        Assert.assertEquals("Put, get, remove. Illegal value.", "d", map.get(-1L, Long.MIN_VALUE));
+        Assert.assertNull("Put, get, remove. Value of absent key is found.", map.get(1L, 1L));
+        Assert.assertFalse("Put, get, remove. Absent key is found.", map.containsKey(Long.MIN_VALUE, -1L));
+
+        Assert.assertTrue("Put, get, remove. Nothing is removed.", map.removeIf(value -> value.equals("b")));
+        Assert.assertFalse("Put, get, remove. Removed key is found.", map.containsKey(2L, 1L));
+        Assert.assertFalse("Put, get, remove. Something is removed.", map.removeIf(value -> value.equals("b")));
+        Assert.assertEquals("Put, get, remove. Illegal size.", 3, map.size());
+        Assert.assertEquals("Put, get, remove. Illegal value.", "e", map.get(1L, 2L));
+
+        map.clear();
+        Assert.assertTrue("Put, get, remove. Cleared map is not empty.", map.isEmpty());
+        Assert.assertFalse("Put, get, remove. Key of cleared map is found.", map.containsKey(1L, 2L));
+
+        Assert.assertNull("Put, get, remove. Illegal previous value.", map.put(1L, 2L, "f"));
+        Assert.assertEquals("Put, get, remove. Illegal value.", "f", map.get(1L, 2L));
+
+        try {
+            map.put(3L, 4L, null);
+            Assert.fail("Put, get, remove. Null value is put.");
+        } catch (IllegalArgumentException ignored) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testCollisionsAndResize() throws Exception {
+        LongPairMap<Long> map = new LongPairMap<>(0);
+        Map<String, Long> expectedValueByKeys = new HashMap<>();
+
+        // Keys differing by a power of two and swapped keys share many bits, so probe sequences are long.
+        for (long i = 0L; i < 2000L; ++i) {
+            putAndCheck(map, expectedValueByKeys, i << 32, i);
+            putAndCheck(map, expectedValueByKeys, i, i << 32);
+            putAndCheck(map, expectedValueByKeys, -i, Long.MAX_VALUE - i);
+        }
+
+        checkMap("Collisions and resize", map, expectedValueByKeys);
+    }
+
+    @Test
+    public void testIterationAfterRemovals() throws Exception {
+        LongPairMap<Long> map = new LongPairMap<>(4);
+        Map<String, Long> expectedValueByKeys = new HashMap<>();
+        Random random = new Random(12345L);
+
+        for (int round = 0; round < 10; ++round) {
+            for (int i = 0; i < 500; ++i) {
+                putAndCheck(map, expectedValueByKeys, random.nextInt(100), random.nextInt(100));
+            }
+
+            long remainder = round % 3;
+            map.removeIf(value -> Math.floorMod(value, 3L) == remainder);
+            expectedValueByKeys.values().removeIf(value -> Math.floorMod(value, 3L) == remainder);
+
+            checkMap("Iteration after removals", map, expectedValueByKeys);
+        }
+    }
+
+    private static void putAndCheck(
+            LongPairMap<Long> map, Map<String, Long> expectedValueByKeys, long firstKey, long secondKey) {
+        long value = firstKey * 31L + secondKey;
+        Long expectedPreviousValue = expectedValueByKeys.put(firstKey + "," + secondKey, value);
+
+        Assert.assertEquals("Put. Illegal previous value.", expectedPreviousValue, map.put(firstKey, secondKey, value));
+        Assert.assertEquals("Put. Illegal value.", Long.valueOf(value), map.get(firstKey, secondKey));
+    }
+
+    private static void checkMap(String test, LongPairMap<Long> map, Map<String, Long> expectedValueByKeys) {
+        Assert.assertEquals(test + ". Illegal size.", expectedValueByKeys.size(), map.size());
+
+        Map<String, Long> valueByKeys = new HashMap<>();
+
+        map.forEach((firstKey, secondKey, value) -> {
+            Assert.assertNull(
+                    test + ". Key is passed twice.", valueByKeys.put(firstKey + "," + secondKey, value)
+            );
+            Assert.assertEquals(test + ". Illegal value.", value, map.get(firstKey, secondKey));
+        });
+
+        Assert.assertEquals(test + ". Illegal entries.", expectedValueByKeys, valueByKeys);
+    }
+}